@@ -0,0 +1,100 @@
+/*
+ * FilePathTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <core/FilePath.hpp>
+
+#include <boost/assert.hpp>
+
+#include <core/Error.hpp>
+#include <core/FileSerializer.hpp>
+
+namespace core {
+
+namespace {
+
+void testNames()
+{
+   FilePath root;
+   Error error = FilePath::tempFilePath(&root);
+   BOOST_ASSERT(!error);
+
+   FilePath file = root.childPath("src/analysis.R");
+   BOOST_ASSERT(file.filename() == "analysis.R");
+   BOOST_ASSERT(file.stem() == "analysis");
+   BOOST_ASSERT(file.extension() == ".R");
+   BOOST_ASSERT(file.extensionLowerCase() == ".r");
+   BOOST_ASSERT(file.hasExtensionLowerCase(".r"));
+   BOOST_ASSERT(file.parent() == root.childPath("src"));
+   BOOST_ASSERT(file.parent().parent() == root);
+
+   // relative paths and containment
+   BOOST_ASSERT(file.relativePath(root) == "src/analysis.R");
+   BOOST_ASSERT(file.isWithin(root));
+   BOOST_ASSERT(root.isWithin(root));
+   BOOST_ASSERT(!root.isWithin(file));
+   BOOST_ASSERT(root.childPath("srcfoo").relativePath(
+                                       root.childPath("src")).empty());
+
+   // aliasing relative to a home directory
+   BOOST_ASSERT(FilePath::createAliasedPath(root, root) == "~");
+   BOOST_ASSERT(FilePath::createAliasedPath(file, root) ==
+                "~/src/analysis.R");
+   BOOST_ASSERT(FilePath::resolveAliasedPath("~/src/analysis.R", root) ==
+                file);
+   BOOST_ASSERT(FilePath::resolveAliasedPath("~", root) == root);
+}
+
+void testFiles()
+{
+   FilePath root;
+   Error error = FilePath::tempFilePath(&root);
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(!root.exists());
+
+   FilePath dir = root.childPath("a/b");
+   error = dir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(dir.isDirectory());
+
+   FilePath file = dir.childPath("data.txt");
+   error = writeStringToFile(file, "contents");
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(file.exists() && !file.isDirectory());
+   BOOST_ASSERT(file.size() == 8);
+
+   std::vector<FilePath> children;
+   error = dir.children(&children);
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(children.size() == 1 && children[0] == file);
+
+   FilePath moved = root.childPath("data.txt");
+   error = file.move(moved);
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(!file.exists() && moved.exists());
+
+   error = root.remove();
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(!moved.exists() && !root.exists());
+}
+
+} // anonymous namespace
+
+void runFilePathTests()
+{
+   testNames();
+   testFiles();
+}
+
+} // namespace core
@@ -0,0 +1,77 @@
+/*
+ * GitGraphTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <core/GitGraph.hpp>
+
+#include <boost/assert.hpp>
+
+namespace core {
+namespace gitgraph {
+
+namespace {
+
+std::vector<std::string> parents(const std::string& first = std::string(),
+                                 const std::string& second = std::string())
+{
+   std::vector<std::string> result;
+   if (!first.empty())
+      result.push_back(first);
+   if (!second.empty())
+      result.push_back(second);
+   return result;
+}
+
+void testLinear()
+{
+   GitGraph graph;
+   BOOST_ASSERT(graph.addCommit("c", parents("b")).string() == "*+0");
+   BOOST_ASSERT(graph.addCommit("b", parents("a")).string() == "*0");
+   BOOST_ASSERT(graph.addCommit("a", parents()).string() == "*-0");
+}
+
+void testMerge()
+{
+   // e merges c and d, which both branched from b
+   GitGraph graph;
+
+   Line line = graph.addCommit("e", parents("c", "d"));
+   BOOST_ASSERT(line.string() == "*+0 +1");
+   BOOST_ASSERT(line.nexus() == 0);
+
+   line = graph.addCommit("d", parents("b"));
+   BOOST_ASSERT(line.string() == "0 *1");
+   BOOST_ASSERT(line.nexus() == 1);
+
+   line = graph.addCommit("c", parents("b"));
+   BOOST_ASSERT(line.string() == "*0 1");
+
+   // the branches converge on b
+   line = graph.addCommit("b", parents("a"));
+   BOOST_ASSERT(line.string() == "*0 -1");
+
+   line = graph.addCommit("a", parents());
+   BOOST_ASSERT(line.string() == "*-0");
+}
+
+} // anonymous namespace
+
+void runGitGraphTests()
+{
+   testLinear();
+   testMerge();
+}
+
+} // namespace gitgraph
+} // namespace core
@@ -0,0 +1,120 @@
+/*
+ * StringUtilsTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <core/StringUtils.hpp>
+
+#include <boost/assert.hpp>
+
+namespace core {
+namespace string_utils {
+
+namespace {
+
+void testTrimLeadingLines()
+{
+   // short output is left as is
+   std::string lines = "a\nb\nc\n";
+   trimLeadingLines(10, &lines);
+   BOOST_ASSERT(lines == "a\nb\nc\n");
+
+   // otherwise everything before the last maxLines lines is removed
+   // (leaving the newline which preceded them)
+   lines = "a\nb\nc\nd\n";
+   trimLeadingLines(2, &lines);
+   BOOST_ASSERT(lines == "\nc\nd\n");
+}
+
+void testHtmlEscape()
+{
+   BOOST_ASSERT(htmlEscape("") == "");
+   BOOST_ASSERT(htmlEscape("plain text") == "plain text");
+   BOOST_ASSERT(htmlEscape("<a href=\"x\">'&'</a>") ==
+                "&lt;a href=&quot;x&quot;&gt;&#x27;&amp;&#x27;&lt;&#x2F;a&gt;");
+
+   // line breaks are only escaped within attribute values
+   BOOST_ASSERT(htmlEscape("a\r\nb") == "a\r\nb");
+   BOOST_ASSERT(htmlEscape("a\r\nb", true) == "a&#13;&#10;b");
+
+   // special characters at either end
+   BOOST_ASSERT(htmlEscape("<x>") == "&lt;x&gt;");
+}
+
+void testJsonLiteralEscape()
+{
+   BOOST_ASSERT(jsonLiteralEscape("") == "");
+   BOOST_ASSERT(jsonLiteralEscape("plain") == "plain");
+   BOOST_ASSERT(jsonLiteralEscape("say \"hi\"\\\r\n") ==
+                "say \\\"hi\\\"\\\\\\r\\n");
+
+   // escaping round trips
+   std::string value = "line 1\nline \"2\"\r\n\\path";
+   BOOST_ASSERT(jsonLiteralUnescape("\"" + jsonLiteralEscape(value) + "\"") ==
+                value);
+}
+
+void testIsSubsequence()
+{
+   BOOST_ASSERT(isSubsequence("abcdef", ""));
+   BOOST_ASSERT(isSubsequence("abcdef", "ace"));
+   BOOST_ASSERT(isSubsequence("abcdef", "abcdef"));
+   BOOST_ASSERT(!isSubsequence("abcdef", "aec"));
+   BOOST_ASSERT(!isSubsequence("abc", "abcd"));
+   BOOST_ASSERT(!isSubsequence("", "a"));
+
+   // case sensitivity
+   BOOST_ASSERT(!isSubsequence("readCsv", "RCSV"));
+   BOOST_ASSERT(isSubsequence("readCsv", "RCSV", true));
+
+   // only the first n characters are considered
+   BOOST_ASSERT(isSubsequence("abc", "abz", std::string::size_type(2)));
+   BOOST_ASSERT(!isSubsequence("abc", "abz", std::string::size_type(3)));
+}
+
+void testUtf8Distance()
+{
+   std::string ascii = "hello";
+   size_t distance = 0;
+   BOOST_ASSERT(!utf8Distance(ascii.begin(), ascii.end(), &distance));
+   BOOST_ASSERT(distance == 5);
+
+   // two, three and four byte characters
+   std::string multibyte = "\xc3\xa9t\xe2\x82\xac\xf0\x9f\x98\x80";
+   BOOST_ASSERT(!utf8Distance(multibyte.begin(), multibyte.end(), &distance));
+   BOOST_ASSERT(distance == 4);
+
+   // malformed input: an unexpected continuation byte, a truncated
+   // character and a byte which never appears in utf-8
+   std::string continuation = "a\x80";
+   BOOST_ASSERT(utf8Distance(continuation.begin(), continuation.end(),
+                             &distance));
+   std::string truncated = "a\xe2\x82";
+   BOOST_ASSERT(utf8Distance(truncated.begin(), truncated.end(), &distance));
+   std::string invalid = "a\xff";
+   BOOST_ASSERT(utf8Distance(invalid.begin(), invalid.end(), &distance));
+}
+
+} // anonymous namespace
+
+void runStringUtilsTests()
+{
+   testTrimLeadingLines();
+   testHtmlEscape();
+   testJsonLiteralEscape();
+   testIsSubsequence();
+   testUtf8Distance();
+}
+
+} // namespace string_utils
+} // namespace core
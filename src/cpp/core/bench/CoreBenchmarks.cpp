@@ -0,0 +1,333 @@
+/*
+ * CoreBenchmarks.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "CoreBenchmarks.hpp"
+
+#include <iostream>
+#include <iterator>
+#include <vector>
+
+#include <boost/bind.hpp>
+#include <boost/cstdint.hpp>
+#include <boost/format.hpp>
+#include <boost/function.hpp>
+#include <boost/noncopyable.hpp>
+#include <boost/random/mersenne_twister.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
+
+#include <core/FilePath.hpp>
+#include <core/GitGraph.hpp>
+#include <core/SafeConvert.hpp>
+#include <core/StringUtils.hpp>
+#include <core/r_util/RSourceIndex.hpp>
+#include <core/r_util/RTokenizer.hpp>
+
+namespace core {
+namespace bench {
+
+namespace {
+
+// the corpora are generated from a fixed seed so that every run measures
+// the same inputs
+const boost::uint32_t kSeed = 20150301;
+
+// each benchmark is run for at least this long
+const boost::posix_time::time_duration kMinDuration =
+                                    boost::posix_time::milliseconds(250);
+
+class Corpus : boost::noncopyable
+{
+public:
+   Corpus() : rng_(kSeed) {}
+
+   int next(int n) { return static_cast<int>(rng_() % n); }
+
+   std::string word()
+   {
+      static const char * const kWords[] = {
+         "data", "frame", "x", "value", "result", "plot", "model", "fit",
+         "summary", "mean", "list", "vector", "na.rm", "TRUE", "FALSE"
+      };
+      return kWords[next(sizeof(kWords) / sizeof(kWords[0]))];
+   }
+
+   // console-like output with html/json special characters and some
+   // multibyte characters
+   std::string text(int lines)
+   {
+      static const char * const kSpecials[] = {
+         "<", ">", "&", "\"", "'", "/", "\\", "\xc3\xa9", "\xe2\x82\xac"
+      };
+      std::string text;
+      for (int i = 0; i < lines; i++)
+      {
+         int words = 3 + next(10);
+         for (int w = 0; w < words; w++)
+         {
+            text += word();
+            if (next(4) == 0)
+               text += kSpecials[next(sizeof(kSpecials) /
+                                      sizeof(kSpecials[0]))];
+            text += ' ';
+         }
+         text += '\n';
+      }
+      return text;
+   }
+
+   std::string identifier()
+   {
+      return word() + "_" + word() + safe_convert::numberToString(next(1000));
+   }
+
+   // R source with function definitions, S4 definitions and some noise
+   std::string rCode(int functions)
+   {
+      std::string code;
+      for (int i = 0; i < functions; i++)
+      {
+         std::string name = identifier();
+         code += "# " + word() + " " + word() + "\n";
+         code += name + " <- function(" + word() + ", n = " +
+                 safe_convert::numberToString(next(100)) + ") {\n";
+         code += "   " + word() + " <- lapply(" + word() +
+                 ", function(y) y * 2)\n";
+         code += "   if (n > 0) paste(\"" + word() + "\", n) else NULL\n";
+         code += "}\n";
+         if (next(10) == 0)
+         {
+            code += "setClass(\"" + name + "Class\", "
+                    "representation(x = \"numeric\"))\n";
+            code += "setMethod(\"show\", \"" + name + "Class\", "
+                    "function(object) cat(\"x\"))\n";
+         }
+      }
+      return code;
+   }
+
+private:
+   boost::mt19937 rng_;
+};
+
+struct Commit
+{
+   std::string id;
+   std::vector<std::string> parents;
+};
+
+// a linear history with short-lived branches merged back in
+std::vector<Commit> commitHistory(Corpus* pCorpus, int count)
+{
+   std::vector<Commit> commits(count);
+   for (int i = 0; i < count; i++)
+      commits[i].id = "c" + safe_convert::numberToString(i);
+   for (int i = 0; i < count - 1; i++)
+   {
+      commits[i].parents.push_back(commits[i + 1].id);
+      int branch = i + 2 + pCorpus->next(10);
+      if (pCorpus->next(8) == 0 && branch < count)
+         commits[i].parents.push_back(commits[branch].id);
+   }
+   return commits;
+}
+
+// prevents the results of benchmarked operations from being optimized out
+std::size_t s_sink = 0;
+
+void runBenchmark(const std::string& name,
+                  const boost::function<std::size_t()>& operation,
+                  const std::string& filter,
+                  std::ostream& os)
+{
+   using namespace boost::posix_time;
+
+   if (name.find(filter) == std::string::npos)
+      return;
+
+   ptime start = microsec_clock::universal_time();
+   time_duration elapsed;
+   int count = 0;
+   do
+   {
+      s_sink += operation();
+      count++;
+      elapsed = microsec_clock::universal_time() - start;
+   }
+   while (elapsed < kMinDuration);
+
+   double seconds = elapsed.total_microseconds() / 1000000.0;
+   os << boost::format("%-40s %12.1f ops/sec\n") % name % (count / seconds);
+}
+
+std::size_t trimLeadingLines(const std::string& output)
+{
+   std::string lines = output;
+   string_utils::trimLeadingLines(1000, &lines);
+   return lines.size();
+}
+
+std::size_t htmlEscape(const std::string& text)
+{
+   return string_utils::htmlEscape(text).size();
+}
+
+std::size_t jsonLiteralEscape(const std::string& text)
+{
+   return string_utils::jsonLiteralEscape(text).size();
+}
+
+std::size_t isSubsequence(const std::vector<std::string>& names,
+                          const std::string& query)
+{
+   std::size_t matches = 0;
+   for (std::size_t i = 0; i < names.size(); i++)
+   {
+      if (string_utils::isSubsequence(names[i], query, true))
+         matches++;
+   }
+   return matches;
+}
+
+std::size_t utf8Distance(const std::string& text)
+{
+   std::size_t distance = 0;
+   string_utils::utf8Distance(text.begin(), text.end(), &distance);
+   return distance;
+}
+
+std::size_t tokenize(const std::wstring& code)
+{
+   r_util::RTokens tokens(code,
+                          r_util::RTokens::StripWhitespace |
+                          r_util::RTokens::StripComments);
+   return tokens.size();
+}
+
+std::size_t indexSource(const std::string& code)
+{
+   r_util::RSourceIndex index("bench.R", code);
+   return index.items().size();
+}
+
+std::size_t searchSourceIndex(const r_util::RSourceIndex* pIndex,
+                              const std::string& term,
+                              bool prefixOnly)
+{
+   std::vector<r_util::RSourceItem> items;
+   pIndex->search(term, prefixOnly, false, std::back_inserter(items));
+   return items.size();
+}
+
+std::size_t buildGitGraph(const std::vector<Commit>& commits)
+{
+   gitgraph::GitGraph graph;
+   std::size_t size = 0;
+   for (std::size_t i = 0; i < commits.size(); i++)
+   {
+      gitgraph::Line line = graph.addCommit(commits[i].id, commits[i].parents);
+      size += line.string().size();
+   }
+   return size;
+}
+
+std::size_t filePaths(const FilePath& root,
+                      const std::vector<std::string>& relativePaths)
+{
+   std::size_t size = 0;
+   for (std::size_t i = 0; i < relativePaths.size(); i++)
+   {
+      FilePath path = root.childPath(relativePaths[i]);
+      size += path.relativePath(root).size() + path.filename().size() +
+              path.extension().size();
+      if (path.isWithin(root))
+         size++;
+   }
+   return size;
+}
+
+} // anonymous namespace
+
+void runCoreBenchmarks(const std::string& filter, std::ostream& os)
+{
+   Corpus corpus;
+
+   // string utils
+   std::string output = corpus.text(5000);
+   runBenchmark("string_utils::trimLeadingLines (5000 lines)",
+                boost::bind(trimLeadingLines, output),
+                filter, os);
+
+   std::string text = corpus.text(1000);
+   runBenchmark("string_utils::htmlEscape (1000 lines)",
+                boost::bind(htmlEscape, text),
+                filter, os);
+   runBenchmark("string_utils::jsonLiteralEscape (1000 lines)",
+                boost::bind(jsonLiteralEscape, text),
+                filter, os);
+   runBenchmark("string_utils::utf8Distance (1000 lines)",
+                boost::bind(utf8Distance, text),
+                filter, os);
+
+   std::vector<std::string> names;
+   for (int i = 0; i < 10000; i++)
+      names.push_back(corpus.identifier());
+   runBenchmark("string_utils::isSubsequence (10000 names)",
+                boost::bind(isSubsequence, names, std::string("dfrm")),
+                filter, os);
+
+   // r parsing
+   std::string code = corpus.rCode(1000);
+   std::wstring wideCode = string_utils::utf8ToWide(code);
+   runBenchmark("r_util::RTokens (1000 functions)",
+                boost::bind(tokenize, wideCode),
+                filter, os);
+   runBenchmark("r_util::RSourceIndex (1000 functions)",
+                boost::bind(indexSource, code),
+                filter, os);
+
+   r_util::RSourceIndex index("bench.R", code);
+   runBenchmark("r_util::RSourceIndex::search prefix",
+                boost::bind(searchSourceIndex,
+                            &index, std::string("data"), true),
+                filter, os);
+   runBenchmark("r_util::RSourceIndex::search subsequence",
+                boost::bind(searchSourceIndex,
+                            &index, std::string("dfr"), false),
+                filter, os);
+
+   // git graph
+   std::vector<Commit> commits = commitHistory(&corpus, 2000);
+   runBenchmark("gitgraph::GitGraph (2000 commits)",
+                boost::bind(buildGitGraph, commits),
+                filter, os);
+
+   // file paths (no file system access)
+   std::vector<std::string> relativePaths;
+   for (int i = 0; i < 1000; i++)
+   {
+      relativePaths.push_back(corpus.word() + "/" + corpus.word() + "/" +
+                              corpus.identifier() + ".R");
+   }
+   runBenchmark("FilePath::childPath/relativePath (1000 paths)",
+                boost::bind(filePaths, FilePath("/home/user/project"),
+                            relativePaths),
+                filter, os);
+
+   if (s_sink == 0)
+      os << "(no results)" << std::endl;
+}
+
+} // namespace bench
+} // namespace core
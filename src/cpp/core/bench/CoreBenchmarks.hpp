@@ -0,0 +1,33 @@
+/*
+ * CoreBenchmarks.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef CORE_BENCH_CORE_BENCHMARKS_HPP
+#define CORE_BENCH_CORE_BENCHMARKS_HPP
+
+#include <iosfwd>
+#include <string>
+
+namespace core {
+namespace bench {
+
+// Times each benchmark over generated (but always the same) inputs and
+// writes one line per benchmark with the operations per second. Only
+// benchmarks whose names contain filter are run.
+void runCoreBenchmarks(const std::string& filter, std::ostream& os);
+
+} // namespace bench
+} // namespace core
+
+#endif // CORE_BENCH_CORE_BENCHMARKS_HPP
@@ -0,0 +1,98 @@
+/*
+ * Main.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+// Runs the core unit tests and benchmarks (neither of which require R or
+// network access):
+//
+//    core-bench                  tests then benchmarks
+//    core-bench --test           tests only (this is what make test runs)
+//    core-bench --bench [name]   benchmarks only (those containing name)
+//
+
+#include <cstdlib>
+#include <iostream>
+#include <string>
+
+#include <boost/make_shared.hpp>
+
+#include <core/AssertionCounter.hpp>
+#include <core/Error.hpp>
+#include <core/FilePath.hpp>
+#include <core/GitGraph.hpp>
+#include <core/Log.hpp>
+#include <core/StringUtils.hpp>
+#include <core/json/JsonWriter.hpp>
+#include <core/r_util/RSourceIndex.hpp>
+#include <core/r_util/RTokenizer.hpp>
+#include <core/system/System.hpp>
+
+#include "../system/file_monitor/FileMonitorImpl.hpp"
+
+#include "CoreBenchmarks.hpp"
+
+using namespace core ;
+
+namespace {
+
+int runTests(const AssertionCounter& counter)
+{
+   string_utils::runStringUtilsTests();
+   r_util::runTokenizerTests();
+   r_util::runSourceIndexTests();
+   gitgraph::runGitGraphTests();
+   runFilePathTests();
+   json::runJsonWriterTests();
+   core::system::file_monitor::impl::runFileMonitorTests();
+
+   if (counter.failures() > 0)
+   {
+      std::cerr << counter.failures() << " assertion(s) failed" << std::endl;
+      return EXIT_FAILURE;
+   }
+
+   std::cout << "core tests passed" << std::endl;
+   return EXIT_SUCCESS;
+}
+
+} // anonymous namespace
+
+int main(int argc, char * argv[])
+{
+   try
+   {
+      // setup log
+      core::system::initializeStderrLog("core-bench",
+                                        core::system::kLogLevelWarning);
+      boost::shared_ptr<AssertionCounter> pCounter =
+                                    boost::make_shared<AssertionCounter>();
+      core::system::addLogWriter(pCounter);
+
+      std::string mode = argc > 1 ? argv[1] : "";
+      std::string filter = argc > 2 ? argv[2] : "";
+
+      int status = EXIT_SUCCESS;
+      if (mode != "--bench")
+         status = runTests(*pCounter);
+
+      if (mode != "--test" && status == EXIT_SUCCESS)
+         bench::runCoreBenchmarks(filter, std::cout);
+
+      return status;
+   }
+   CATCH_UNEXPECTED_EXCEPTION
+
+   // if we got this far we had an unexpected exception
+   return EXIT_FAILURE ;
+}
@@ -0,0 +1,54 @@
+/*
+ * AssertionCounter.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef CORE_ASSERTION_COUNTER_HPP
+#define CORE_ASSERTION_COUNTER_HPP
+
+#include <string>
+
+#include <core/LogWriter.hpp>
+
+namespace core {
+
+// unit tests use BOOST_ASSERT, which (with our assertion handler) logs a
+// warning for each failure rather than aborting; test runners add one of
+// these as a log writer and count the failures to compute their exit status
+class AssertionCounter : public LogWriter
+{
+public:
+   AssertionCounter() : failures_(0) {}
+
+   virtual void log(core::system::LogLevel level, const std::string& message)
+   {
+      if (message.find("ASSERTION FAILED") != std::string::npos)
+         failures_++;
+   }
+
+   virtual void log(const std::string& programIdentity,
+                    core::system::LogLevel level,
+                    const std::string& message)
+   {
+      log(level, message);
+   }
+
+   int failures() const { return failures_; }
+
+private:
+   int failures_;
+};
+
+} // namespace core
+
+#endif // CORE_ASSERTION_COUNTER_HPP
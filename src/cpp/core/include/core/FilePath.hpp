@@ -231,6 +231,8 @@ private:
    boost::scoped_ptr<Impl> pImpl_;
 };
 
+void runFilePathTests();
+
 }
 
 #endif // CORE_FILE_PATH_HPP
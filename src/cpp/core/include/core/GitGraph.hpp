@@ -81,6 +81,8 @@ private:
    Line pendingLine_;
 };
 
+void runGitGraphTests();
+
 } // namespace gitgraph
 } // namespace core
 
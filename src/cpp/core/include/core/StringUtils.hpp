@@ -199,6 +199,8 @@ void trimLeadingLines(int maxLines, std::string* pLines);
 
 void stripQuotes(std::string* pStr);
 
+void runStringUtilsTests();
+
 } // namespace string_utils
 } // namespace core 
 
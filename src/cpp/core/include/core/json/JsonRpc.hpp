@@ -83,6 +83,9 @@ namespace core {
 namespace http {
    class Response ;
 }
+namespace json {
+   class Writer;
+}
 }
 
 namespace core {
@@ -906,11 +909,19 @@ public:
    template <typename T>
    void setResult(const T& result)
    {
+      resultWriter_.clear();
       setField(kRpcResult, result);
    }
 
+   // write the result directly to the response stream when the response is
+   // written (rather than building it as a Value). for large results; note
+   // that the function is called when the response is written so anything
+   // it refers to needs to outlive the response
+   void setResultWriter(const boost::function<void(Writer*)>& writeResult);
+
    json::Value& result()
    {
+      materializeResult();
       return response_[kRpcResult];
    }
    
@@ -936,6 +947,7 @@ public:
    // low level hook to set the full response
    void setResponse(const json::Object& response)
    {
+      resultWriter_.clear();
       response_ = response;
    }
    
@@ -955,7 +967,10 @@ public:
    void write(std::ostream& os) const;
    
 private:
+   void materializeResult();
+
    json::Object response_;
+   boost::function<void(Writer*)> resultWriter_;
    boost::function<void()> afterResponse_ ;
    bool suppressDetectChanges_;
 };
@@ -0,0 +1,99 @@
+/*
+ * JsonWriter.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef CORE_JSON_WRITER_HPP
+#define CORE_JSON_WRITER_HPP
+
+#include <iosfwd>
+#include <string>
+#include <vector>
+
+#include <boost/cstdint.hpp>
+#include <boost/utility.hpp>
+
+#include <core/json/Json.hpp>
+
+namespace core {
+namespace json {
+
+// Writes json directly to a stream as it is produced (rather than building
+// a Value and then writing it), for responses which are too large to
+// comfortably hold twice. Strings are escaped as they are written.
+//
+//    writer.beginObject();
+//    writer.key("id");
+//    writer.beginArray();
+//    writer.value("a1b2c3");
+//    writer.endArray();
+//    writer.endObject();
+//
+class Writer : boost::noncopyable
+{
+public:
+   explicit Writer(std::ostream& os);
+
+   void beginObject();
+   void endObject();
+
+   void beginArray();
+   void endArray();
+
+   // the name of the next member of the current object
+   void key(const std::string& name);
+
+   void value(const std::string& value);
+   void value(const char* value);
+   void value(bool value);
+   void value(int value);
+   void value(boost::int64_t value);
+   void value(boost::uint64_t value);
+   void value(double value);
+   void value(const json::Value& value);
+   void nullValue();
+
+   template <typename T>
+   void member(const std::string& name, const T& value)
+   {
+      key(name);
+      this->value(value);
+   }
+
+   // true once a single complete value has been written
+   bool complete() const { return complete_; }
+
+private:
+   void beginValue();
+   void endValue();
+   void writeString(const char* begin, const char* end);
+
+   struct Scope
+   {
+      explicit Scope(bool isObject) : isObject(isObject), empty(true) {}
+      bool isObject;
+      bool empty;
+   };
+
+   std::ostream& os_;
+   std::vector<Scope> scopes_;   // the open arrays and objects
+   bool expectValue_;            // a key has been written
+   bool complete_;
+};
+
+void runJsonWriterTests();
+
+} // namespace json
+} // namespace core
+
+#endif // CORE_JSON_WRITER_HPP
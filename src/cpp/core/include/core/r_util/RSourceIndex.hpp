@@ -191,8 +191,18 @@ public:
    RSourceIndex(const std::string& context,
                 const std::string& code);
 
+   // Create an index from previously indexed items (e.g. restored from
+   // a cache of the index)
+   RSourceIndex(const std::string& context,
+                const std::vector<RSourceItem>& items)
+      : context_(context), items_(items)
+   {
+   }
+
    const std::string& context() const { return context_; }
 
+   const std::vector<RSourceItem>& items() const { return items_; }
+
    template <typename OutputIterator>
    OutputIterator search(
                   const std::string& newContext,
@@ -269,6 +279,7 @@ private:
    std::vector<RSourceItem> items_;
 };
 
+void runSourceIndexTests();
 
 } // namespace r_util
 } // namespace core 
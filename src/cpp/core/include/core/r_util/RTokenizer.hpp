@@ -212,6 +212,7 @@ private:
     RTokenizer tokenizer_;
 };
 
+void runTokenizerTests();
 
 } // namespace r_util
 } // namespace core 
@@ -17,8 +17,11 @@
 
 #include <sstream>
 
+#include <boost/foreach.hpp>
+
 #include <core/Log.hpp>
 #include <core/http/Response.hpp>
+#include <core/json/JsonWriter.hpp>
 
 
 namespace core {
@@ -166,19 +169,63 @@ void JsonRpcResponse::runAfterResponse()
       afterResponse_();
 }
    
+void JsonRpcResponse::setResultWriter(
+                        const boost::function<void(Writer*)>& writeResult)
+{
+   response_.erase(kRpcResult);
+   response_.erase(kRpcAsyncHandle);
+   response_.erase(kRpcError);
+   resultWriter_ = writeResult;
+}
+
 json::Object JsonRpcResponse::getRawResponse()
 {
+   materializeResult();
    return response_;
 }
    
 void JsonRpcResponse::write(std::ostream& os) const
 {
-   json::write(response_, os);
+   if (resultWriter_)
+   {
+      Writer writer(os);
+      writer.beginObject();
+      BOOST_FOREACH(const json::Member& member, response_)
+      {
+         writer.member(member.first, member.second);
+      }
+      writer.key(kRpcResult);
+      resultWriter_(&writer);
+      writer.endObject();
+   }
+   else
+   {
+      json::write(response_, os);
+   }
+}
+
+void JsonRpcResponse::materializeResult()
+{
+   // callers which need the result as a Value (e.g. to forward it within an
+   // event) get it by parsing what would have been written
+   if (!resultWriter_)
+      return;
+
+   std::stringstream resultStream;
+   Writer writer(resultStream);
+   resultWriter_(&writer);
+   resultWriter_.clear();
+
+   json::Value result;
+   if (!json::parse(resultStream.str(), &result))
+      LOG_ERROR_MESSAGE("Unable to parse written result");
+   response_[kRpcResult] = result;
 }
    
 void JsonRpcResponse::setError(const Error& error, const json::Value& clientInfo)
 {
    // remove result
+   resultWriter_.clear();
    response_.erase(kRpcResult);
    response_.erase(kRpcAsyncHandle);
 
@@ -220,6 +267,7 @@ void JsonRpcResponse::setError(const Error& error)
 void JsonRpcResponse::setError(const boost::system::error_code& ec)
 {
    // remove result
+   resultWriter_.clear();
    response_.erase(kRpcResult);
    response_.erase(kRpcAsyncHandle);
 
@@ -236,6 +284,7 @@ void JsonRpcResponse::setError(const boost::system::error_code& ec)
    
 void JsonRpcResponse::setAsyncHandle(const std::string& handle)
 {
+   resultWriter_.clear();
    response_.erase(kRpcResult);
    response_.erase(kRpcError);
 
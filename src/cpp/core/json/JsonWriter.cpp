@@ -0,0 +1,277 @@
+/*
+ * JsonWriter.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <core/json/JsonWriter.hpp>
+
+#include <cstring>
+#include <ostream>
+#include <iomanip>
+
+#include <boost/assert.hpp>
+#include <boost/foreach.hpp>
+#include <boost/math/special_functions/fpclassify.hpp>
+
+namespace core {
+namespace json {
+
+namespace {
+
+const char* const kHexDigits = "0123456789ABCDEF";
+
+// the escape sequence for a character (or NULL if it needn't be escaped)
+const char* escapeSequence(unsigned char ch, char* buffer)
+{
+   switch (ch)
+   {
+      case '"':  return "\\\"";
+      case '\\': return "\\\\";
+      case '\b': return "\\b";
+      case '\f': return "\\f";
+      case '\n': return "\\n";
+      case '\r': return "\\r";
+      case '\t': return "\\t";
+   }
+
+   // other control characters aren't valid within a json string
+   if (ch < 0x20)
+   {
+      std::strcpy(buffer, "\\u00");
+      buffer[4] = kHexDigits[ch >> 4];
+      buffer[5] = kHexDigits[ch & 0xF];
+      buffer[6] = '\0';
+      return buffer;
+   }
+
+   return NULL;
+}
+
+} // anonymous namespace
+
+Writer::Writer(std::ostream& os)
+   : os_(os), expectValue_(false), complete_(false)
+{
+}
+
+void Writer::beginObject()
+{
+   beginValue();
+   os_.put('{');
+   scopes_.push_back(Scope(true));
+}
+
+void Writer::endObject()
+{
+   BOOST_ASSERT(!scopes_.empty() && scopes_.back().isObject && !expectValue_);
+   scopes_.pop_back();
+   os_.put('}');
+   endValue();
+}
+
+void Writer::beginArray()
+{
+   beginValue();
+   os_.put('[');
+   scopes_.push_back(Scope(false));
+}
+
+void Writer::endArray()
+{
+   BOOST_ASSERT(!scopes_.empty() && !scopes_.back().isObject);
+   scopes_.pop_back();
+   os_.put(']');
+   endValue();
+}
+
+void Writer::key(const std::string& name)
+{
+   BOOST_ASSERT(!scopes_.empty() && scopes_.back().isObject && !expectValue_);
+
+   Scope& scope = scopes_.back();
+   if (!scope.empty)
+      os_.put(',');
+   scope.empty = false;
+
+   writeString(name.data(), name.data() + name.size());
+   os_.put(':');
+   expectValue_ = true;
+}
+
+void Writer::value(const std::string& value)
+{
+   beginValue();
+   writeString(value.data(), value.data() + value.size());
+   endValue();
+}
+
+void Writer::value(const char* value)
+{
+   beginValue();
+   writeString(value, value + std::strlen(value));
+   endValue();
+}
+
+void Writer::value(bool value)
+{
+   beginValue();
+   os_ << (value ? "true" : "false");
+   endValue();
+}
+
+void Writer::value(int value)
+{
+   beginValue();
+   os_ << value;
+   endValue();
+}
+
+void Writer::value(boost::int64_t value)
+{
+   beginValue();
+   os_ << value;
+   endValue();
+}
+
+void Writer::value(boost::uint64_t value)
+{
+   beginValue();
+   os_ << value;
+   endValue();
+}
+
+void Writer::value(double value)
+{
+   // NaN and Inf have no json representation
+   if (!boost::math::isfinite(value))
+   {
+      nullValue();
+      return;
+   }
+
+   beginValue();
+
+   // same format as json::write (restoring the stream's format afterwards)
+   std::ios_base::fmtflags flags = os_.flags();
+   std::streamsize precision = os_.precision();
+   os_ << std::showpoint << std::setprecision(16) << value;
+   os_.flags(flags);
+   os_.precision(precision);
+
+   endValue();
+}
+
+void Writer::value(const json::Value& value)
+{
+   if (value.type() == ObjectType)
+   {
+      beginObject();
+      BOOST_FOREACH(const json::Member& member, value.get_obj())
+      {
+         key(member.first);
+         this->value(member.second);
+      }
+      endObject();
+   }
+   else if (value.type() == ArrayType)
+   {
+      beginArray();
+      BOOST_FOREACH(const json::Value& element, value.get_array())
+      {
+         this->value(element);
+      }
+      endArray();
+   }
+   else if (value.type() == StringType)
+   {
+      this->value(value.get_str());
+   }
+   else if (value.type() == BooleanType)
+   {
+      this->value(value.get_bool());
+   }
+   else if (value.type() == IntegerType)
+   {
+      if (value.is_uint64())
+         this->value(value.get_uint64());
+      else
+         this->value(value.get_int64());
+   }
+   else if (value.type() == RealType)
+   {
+      this->value(value.get_real());
+   }
+   else
+   {
+      nullValue();
+   }
+}
+
+void Writer::nullValue()
+{
+   beginValue();
+   os_ << "null";
+   endValue();
+}
+
+void Writer::beginValue()
+{
+   if (scopes_.empty())
+   {
+      BOOST_ASSERT(!complete_);
+   }
+   else if (scopes_.back().isObject)
+   {
+      BOOST_ASSERT(expectValue_);
+      expectValue_ = false;
+   }
+   else
+   {
+      Scope& scope = scopes_.back();
+      if (!scope.empty)
+         os_.put(',');
+      scope.empty = false;
+   }
+}
+
+void Writer::endValue()
+{
+   if (scopes_.empty())
+      complete_ = true;
+}
+
+void Writer::writeString(const char* begin, const char* end)
+{
+   os_.put('"');
+
+   // write the runs of characters which needn't be escaped as they are
+   char buffer[7];
+   const char* run = begin;
+   for (const char* it = begin; it != end; ++it)
+   {
+      const char* escaped = escapeSequence(static_cast<unsigned char>(*it),
+                                           buffer);
+      if (escaped)
+      {
+         os_.write(run, it - run);
+         os_ << escaped;
+         run = it + 1;
+      }
+   }
+   os_.write(run, end - run);
+
+   os_.put('"');
+}
+
+} // namespace json
+} // namespace core
@@ -0,0 +1,248 @@
+/*
+ * JsonWriterTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <core/json/JsonWriter.hpp>
+
+#include <iostream>
+#include <limits>
+#include <sstream>
+
+#include <boost/assert.hpp>
+#include <boost/bind.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
+
+#include <core/SafeConvert.hpp>
+#include <core/json/JsonRpc.hpp>
+
+namespace core {
+namespace json {
+
+namespace {
+
+std::string written(const json::Value& value)
+{
+   std::ostringstream os;
+   json::write(value, os);
+   return os.str();
+}
+
+void testValues()
+{
+   // arrays are written exactly as json::write writes them
+   json::Array array;
+   array.push_back("text");
+   array.push_back(42);
+   array.push_back(-7);
+   array.push_back(true);
+   array.push_back(json::Value());
+   array.push_back(0.5);
+   json::Array nested;
+   nested.push_back("a");
+   array.push_back(nested);
+
+   std::ostringstream os;
+   Writer writer(os);
+   writer.beginArray();
+   writer.value("text");
+   writer.value(42);
+   writer.value(static_cast<boost::int64_t>(-7));
+   writer.value(true);
+   writer.nullValue();
+   writer.value(0.5);
+   writer.beginArray();
+   writer.value(std::string("a"));
+   writer.endArray();
+   writer.endArray();
+   BOOST_ASSERT(writer.complete());
+   BOOST_ASSERT(os.str() == written(array));
+
+   // as are values written from a Value
+   std::ostringstream valueOs;
+   Writer valueWriter(valueOs);
+   valueWriter.value(json::Value(array));
+   BOOST_ASSERT(valueOs.str() == written(array));
+
+   // objects are written in the order their members are written
+   std::ostringstream objectOs;
+   Writer objectWriter(objectOs);
+   objectWriter.beginObject();
+   objectWriter.member("b", 1);
+   objectWriter.key("a");
+   objectWriter.beginObject();
+   objectWriter.endObject();
+   objectWriter.key("c");
+   objectWriter.beginArray();
+   objectWriter.endArray();
+   objectWriter.endObject();
+   BOOST_ASSERT(objectOs.str() == "{\"b\":1,\"a\":{},\"c\":[]}");
+
+   // non-finite numbers are written as null
+   std::ostringstream nanOs;
+   Writer nanWriter(nanOs);
+   nanWriter.value(std::numeric_limits<double>::quiet_NaN());
+   BOOST_ASSERT(nanOs.str() == "null");
+}
+
+void testEscaping()
+{
+   std::ostringstream os;
+   Writer writer(os);
+   writer.value(std::string("a\"b\\c\nd\te\x01 f/\xc3\xa9"));
+   BOOST_ASSERT(os.str() == "\"a\\\"b\\\\c\\nd\\te\\u0001 f/\xc3\xa9\"");
+
+   // what's written reads back as the original
+   json::Value value;
+   BOOST_ASSERT(json::parse(os.str(), &value));
+   BOOST_ASSERT(value.get_str() == "a\"b\\c\nd\te\x01 f/\xc3\xa9");
+}
+
+void writeNumbers(int count, Writer* pWriter)
+{
+   pWriter->beginArray();
+   for (int i = 0; i < count; i++)
+      pWriter->value(i);
+   pWriter->endArray();
+}
+
+void testResponse()
+{
+   json::Array numbers;
+   for (int i = 0; i < 3; i++)
+      numbers.push_back(i);
+
+   // a written result
+   JsonRpcResponse response;
+   response.setField("ev", "false");
+   response.setResultWriter(boost::bind(writeNumbers, 3, _1));
+   std::ostringstream os;
+   response.write(os);
+
+   json::Object expected;
+   expected["ev"] = "false";
+   expected["result"] = numbers;
+   json::Value value;
+   BOOST_ASSERT(json::parse(os.str(), &value));
+   BOOST_ASSERT(value == json::Value(expected));
+
+   // it's available as a Value when required
+   BOOST_ASSERT(response.result() == json::Value(numbers));
+   BOOST_ASSERT(response.getRawResponse() == expected);
+
+   // an error replaces it
+   JsonRpcResponse errorResponse;
+   errorResponse.setResultWriter(boost::bind(writeNumbers, 3, _1));
+   errorResponse.setError(Error(errc::ParamInvalid, ERROR_LOCATION));
+   json::Object rawResponse = errorResponse.getRawResponse();
+   BOOST_ASSERT(rawResponse.find("result") == rawResponse.end());
+   BOOST_ASSERT(rawResponse.find("error") != rawResponse.end());
+}
+
+// a synthetic response with the shape of a page of history (columns of
+// indexes, timestamps and commands)
+const int kBenchmarkRows = 100000;
+
+std::string benchmarkCommand(int i)
+{
+   return "x" + safe_convert::numberToString(i) +
+          " <- paste(\"value\", " + safe_convert::numberToString(i * 7) + ")";
+}
+
+void writeBenchmarkColumns(Writer* pWriter)
+{
+   pWriter->beginObject();
+   pWriter->key("index");
+   pWriter->beginArray();
+   for (int i = 0; i < kBenchmarkRows; i++)
+      pWriter->value(i);
+   pWriter->endArray();
+   pWriter->key("timestamp");
+   pWriter->beginArray();
+   for (int i = 0; i < kBenchmarkRows; i++)
+      pWriter->value(1.4e12 + i * 1000.0);
+   pWriter->endArray();
+   pWriter->key("command");
+   pWriter->beginArray();
+   for (int i = 0; i < kBenchmarkRows; i++)
+      pWriter->value(benchmarkCommand(i));
+   pWriter->endArray();
+   pWriter->endObject();
+}
+
+void benchmarkLargeResponse()
+{
+   using namespace boost::posix_time;
+
+   // building the Value tree and then writing it
+   ptime start = microsec_clock::universal_time();
+   std::string treeOutput;
+   {
+      json::Array indexes, timestamps, commands;
+      for (int i = 0; i < kBenchmarkRows; i++)
+      {
+         indexes.push_back(i);
+         timestamps.push_back(1.4e12 + i * 1000.0);
+         commands.push_back(benchmarkCommand(i));
+      }
+      json::Object result;
+      result["index"] = indexes;
+      result["timestamp"] = timestamps;
+      result["command"] = commands;
+
+      JsonRpcResponse response;
+      response.setResult(result);
+      std::stringstream os;
+      response.write(os);
+      treeOutput = os.str();
+   }
+   time_duration treeTime = microsec_clock::universal_time() - start;
+
+   // writing it directly
+   start = microsec_clock::universal_time();
+   std::string writerOutput;
+   {
+      JsonRpcResponse response;
+      response.setResultWriter(writeBenchmarkColumns);
+      std::stringstream os;
+      response.write(os);
+      writerOutput = os.str();
+   }
+   time_duration writerTime = microsec_clock::universal_time() - start;
+
+   json::Value treeValue, writerValue;
+   BOOST_ASSERT(json::parse(treeOutput, &treeValue));
+   BOOST_ASSERT(json::parse(writerOutput, &writerValue));
+   BOOST_ASSERT(treeValue == writerValue);
+
+   // the tree path holds every element as a Value (in addition to the
+   // output) while the writer holds only the output
+   std::cout << "json response (" << kBenchmarkRows << " rows, "
+             << writerOutput.size() << " bytes): "
+             << "value tree " << treeTime.total_milliseconds() << "ms, "
+             << "writer " << writerTime.total_milliseconds() << "ms"
+             << std::endl;
+}
+
+} // anonymous namespace
+
+void runJsonWriterTests()
+{
+   testValues();
+   testEscaping();
+   testResponse();
+   benchmarkLargeResponse();
+}
+
+} // namespace json
+} // namespace core
@@ -0,0 +1,102 @@
+/*
+ * RSourceIndexTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <core/r_util/RSourceIndex.hpp>
+
+#include <iterator>
+
+#include <boost/assert.hpp>
+
+namespace core {
+namespace r_util {
+
+namespace {
+
+const char * const kCode =
+   "foo <- function(x) {\n"
+   "   inner = function() 1\n"
+   "}\n"
+   "lapply(x, function(y) y)\n"
+   "setGeneric(\"area\", function(shape) standardGeneric(\"area\"))\n"
+   "setClass(\"Circle\", representation(r = \"numeric\"))\n"
+   "setMethod(\"area\", \"Circle\", function(shape) pi * shape@r^2)\n"
+   "bar <<- function() NULL\n";
+
+void testIndex()
+{
+   RSourceIndex index("test.R", kCode);
+   const std::vector<RSourceItem>& items = index.items();
+   BOOST_ASSERT(items.size() == 6);
+
+   // functions (including nested functions but not anonymous ones)
+   BOOST_ASSERT(items[0].isFunction() && items[0].name() == "foo");
+   BOOST_ASSERT(items[0].line() == 1);
+   BOOST_ASSERT(items[0].braceLevel() == 0);
+   BOOST_ASSERT(items[1].isFunction() && items[1].name() == "inner");
+   BOOST_ASSERT(items[1].line() == 2);
+   BOOST_ASSERT(items[1].braceLevel() == 1);
+
+   // S4 generics, classes and methods
+   BOOST_ASSERT(items[2].isMethod() && items[2].name() == "area");
+   BOOST_ASSERT(items[2].line() == 5);
+   BOOST_ASSERT(items[3].isClass() && items[3].name() == "Circle");
+   BOOST_ASSERT(items[3].line() == 6);
+   BOOST_ASSERT(items[4].isMethod() && items[4].name() == "area");
+   BOOST_ASSERT(items[4].line() == 7);
+   BOOST_ASSERT(!items[4].signature().empty());
+
+   BOOST_ASSERT(items[5].isFunction() && items[5].name() == "bar");
+   BOOST_ASSERT(items[5].line() == 8);
+}
+
+std::vector<RSourceItem> search(const RSourceIndex& index,
+                                const std::string& term,
+                                bool prefixOnly,
+                                bool caseSensitive)
+{
+   std::vector<RSourceItem> results;
+   index.search(term,
+                prefixOnly,
+                caseSensitive,
+                std::back_inserter(results));
+   return results;
+}
+
+void testSearch()
+{
+   RSourceIndex index("test.R", kCode);
+
+   BOOST_ASSERT(search(index, "ar", true, true).size() == 2);
+   BOOST_ASSERT(search(index, "ar", false, true).size() == 3);
+   BOOST_ASSERT(search(index, "circ", true, true).empty());
+   BOOST_ASSERT(search(index, "circ", true, false).size() == 1);
+   BOOST_ASSERT(search(index, "*nn*", false, true).size() == 1);
+
+   // results carry the context of the index
+   std::vector<RSourceItem> results = search(index, "foo", true, true);
+   BOOST_ASSERT(results.size() == 1);
+   BOOST_ASSERT(results[0].context() == "test.R");
+}
+
+} // anonymous namespace
+
+void runSourceIndexTests()
+{
+   testIndex();
+   testSearch();
+}
+
+} // namespace r_util
+} // namespace core
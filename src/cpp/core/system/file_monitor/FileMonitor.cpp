@@ -139,7 +139,8 @@ Error processFileAdded(
               const boost::function<bool(const FileInfo&)>& filter,
               const boost::function<Error(const FileInfo&)>& onBeforeScanDir,
               tree<FileInfo>* pTree,
-              std::vector<FileChangeEvent>* pFileChanges)
+              std::vector<FileChangeEvent>* pFileChanges,
+              FileTreeIndex* pIndex)
 {
    // see if this node already exists. if it does then check it for changes
    // (if there are no changes then ignore). we do this because some editors
@@ -153,6 +154,8 @@ Error processFileAdded(
       if (fileChange.fileInfo() != *it)
       {
          pTree->replace(it, fileChange.fileInfo());
+         if (pIndex)
+            pIndex->update(it);
 
          // add it to the fileChanges
          pFileChanges->push_back(FileChangeEvent(FileChangeEvent::FileModified,
@@ -177,8 +180,11 @@ Error processFileAdded(
       // merge in the sub-tree
       tree<FileInfo>::sibling_iterator addedIter =
          pTree->append_child(parentIt, fileChange.fileInfo());
-      pTree->insert_subtree_after(addedIter, subTree.begin());
+      tree<FileInfo>::iterator subtreeIter =
+         pTree->insert_subtree_after(addedIter, subTree.begin());
       pTree->erase(addedIter);
+      if (pIndex)
+         pIndex->addSubtree(subtreeIter);
 
       // generate events
       std::for_each(subTree.begin(),
@@ -190,7 +196,10 @@ Error processFileAdded(
    }
    else
    {
-      pTree->append_child(parentIt, fileChange.fileInfo());
+      tree<FileInfo>::iterator addedIter =
+         pTree->append_child(parentIt, fileChange.fileInfo());
+      if (pIndex)
+         pIndex->addSubtree(addedIter);
       pFileChanges->push_back(fileChange);
    }
 
@@ -232,7 +241,8 @@ void processFileRemoved(tree<FileInfo>::iterator parentIt,
                         const FileChangeEvent& fileChange,
                         bool recursive,
                         tree<FileInfo>* pTree,
-                        std::vector<FileChangeEvent>* pFileChanges)
+                        std::vector<FileChangeEvent>* pFileChanges,
+                        FileTreeIndex* pIndex)
 {
    // search for a child with this path
    tree<FileInfo>::sibling_iterator remIt = findFile(pTree->begin(parentIt),
@@ -264,6 +274,8 @@ void processFileRemoved(tree<FileInfo>::iterator parentIt,
       }
 
       // remove it from the tree
+      if (pIndex)
+         pIndex->removeSubtree(remIt);
       pTree->erase(remIt);
    }
 }
@@ -275,12 +287,13 @@ Error discoverAndProcessFileChanges(
    const boost::function<Error(const FileInfo&)>& onBeforeScanDir,
    tree<FileInfo>* pTree,
    const  boost::function<void(const std::vector<FileChangeEvent>&)>&
-                                                               onFilesChanged)
+                                                               onFilesChanged,
+   FileTreeIndex* pIndex)
 {
    // find this path in our fileTree
-   tree<FileInfo>::iterator it = std::find(pTree->begin(),
-                                           pTree->end(),
-                                           fileInfo);
+   tree<FileInfo>::iterator it = pIndex ?
+            pIndex->findDirectory(fileInfo.absolutePath()) :
+            std::find(pTree->begin(), pTree->end(), fileInfo);
 
    // if we don't find it then it may have been excluded by a filter, just bail
    if (it == pTree->end())
@@ -313,8 +326,13 @@ Error discoverAndProcessFileChanges(
       onFilesChanged(fileChanges);
 
       // wholesale replace subtree
-      pTree->insert_subtree_after(it, subdirTree.begin());
+      tree<FileInfo>::iterator subtreeIt =
+            pTree->insert_subtree_after(it, subdirTree.begin());
+      if (pIndex)
+         pIndex->removeSubtree(it);
       pTree->erase(it);
+      if (pIndex)
+         pIndex->addSubtree(subtreeIt);
    }
    else
    {
@@ -338,8 +356,10 @@ Error discoverAndProcessFileChanges(
                                            fileChange,
                                            recursive,
                                            filter,
+                                           onBeforeScanDir,
                                            pTree,
-                                           &fileChanges);
+                                           &fileChanges,
+                                           pIndex);
             if (error)
                LOG_ERROR(error);
             break;
@@ -355,7 +375,8 @@ Error discoverAndProcessFileChanges(
                                fileChange,
                                recursive,
                                pTree,
-                               &fileChanges);
+                               &fileChanges,
+                               pIndex);
             break;
          }
          case FileChangeEvent::None:
@@ -21,6 +21,8 @@
 #include <list>
 
 #include <boost/bind.hpp>
+#include <boost/utility.hpp>
+#include <boost/unordered_map.hpp>
 
 #include <core/FilePath.hpp>
 #include <core/collection/Tree.hpp>
@@ -34,6 +36,90 @@ namespace system {
 namespace file_monitor {
 namespace impl {
 
+// Index of the directories within a monitored file tree by path, so that the
+// directory an event applies to can be found without walking the whole tree.
+// Nodes keep their identity when the tree is sorted or a node's FileInfo is
+// replaced, so the index only needs updating when nodes are added or erased.
+class FileTreeIndex : boost::noncopyable
+{
+public:
+   explicit FileTreeIndex(tree<FileInfo>* pTree)
+      : pTree_(pTree)
+   {
+   }
+
+   // index the whole tree (e.g. after it has been scanned)
+   void reset()
+   {
+      directories_.clear();
+      for (tree<FileInfo>::sibling_iterator it = pTree_->begin();
+           it != pTree_->end(); ++it)
+      {
+         addSubtree(it);
+      }
+   }
+
+   void addSubtree(tree<FileInfo>::iterator it)
+   {
+      if (!it->isDirectory())
+         return;
+
+      directories_[it->absolutePath()] = it;
+      for (tree<FileInfo>::sibling_iterator child = pTree_->begin(it);
+           child != pTree_->end(it); ++child)
+      {
+         addSubtree(child);
+      }
+   }
+
+   // must be called before the subtree is erased
+   void removeSubtree(tree<FileInfo>::iterator it)
+   {
+      if (!it->isDirectory())
+      {
+         directories_.erase(it->absolutePath());
+         return;
+      }
+
+      for (tree<FileInfo>::sibling_iterator child = pTree_->begin(it);
+           child != pTree_->end(it); ++child)
+      {
+         removeSubtree(child);
+      }
+      directories_.erase(it->absolutePath());
+   }
+
+   // the FileInfo of an indexed node was replaced
+   void update(tree<FileInfo>::iterator it)
+   {
+      if (it->isDirectory())
+         directories_[it->absolutePath()] = it;
+      else
+         directories_.erase(it->absolutePath());
+   }
+
+   // returns the tree's end() if the directory isn't in the tree
+   tree<FileInfo>::iterator findDirectory(const std::string& path) const
+   {
+      Directories::const_iterator it = directories_.find(path);
+      if (it != directories_.end())
+         return it->second;
+      else
+         return pTree_->end();
+   }
+
+   std::size_t size() const { return directories_.size(); }
+
+private:
+   typedef boost::unordered_map<std::string, tree<FileInfo>::iterator>
+                                                                  Directories;
+   tree<FileInfo>* pTree_;
+   Directories directories_;
+};
+
+// the functions below optionally keep a FileTreeIndex up to date as they
+// modify the tree (pIndex may be NULL)
+
 Error processFileAdded(
                tree<FileInfo>::iterator parentIt,
                const FileChangeEvent& fileChange,
@@ -41,7 +127,8 @@ Error processFileAdded(
                const boost::function<bool(const FileInfo&)>& filter,
                const boost::function<Error(const FileInfo&)>& onBeforeScanDir,
                tree<FileInfo>* pTree,
-               std::vector<FileChangeEvent>* pFileChanges);
+               std::vector<FileChangeEvent>* pFileChanges,
+               FileTreeIndex* pIndex = NULL);
 
 inline Error processFileAdded(
                tree<FileInfo>::iterator parentIt,
@@ -69,7 +156,8 @@ void processFileRemoved(tree<FileInfo>::iterator parentIt,
                         const FileChangeEvent& fileChange,
                         bool recursive,
                         tree<FileInfo>* pTree,
-                        std::vector<FileChangeEvent>* pFileChanges);
+                        std::vector<FileChangeEvent>* pFileChanges,
+                        FileTreeIndex* pIndex = NULL);
 
 Error discoverAndProcessFileChanges(
    const FileInfo& fileInfo,
@@ -78,7 +166,8 @@ Error discoverAndProcessFileChanges(
    const boost::function<Error(const FileInfo&)>& onBeforeScanDir,
    tree<FileInfo>* pTree,
    const boost::function<void(const std::vector<FileChangeEvent>&)>&
-                                                            onFilesChanged);
+                                                            onFilesChanged,
+   FileTreeIndex* pIndex = NULL);
 
 inline Error discoverAndProcessFileChanges(
    const FileInfo& fileInfo,
@@ -113,6 +202,8 @@ Iterator findFile(Iterator begin, Iterator end, const FileInfo& fileInfo)
 
 std::list<void*> activeEventContexts();
 
+void runFileMonitorTests();
+
 
 } // namespace impl
 } // namespace file_monitor
@@ -0,0 +1,363 @@
+/*
+ * FileMonitorTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "FileMonitorImpl.hpp"
+
+#include <iostream>
+#include <vector>
+
+#include <boost/assert.hpp>
+#include <boost/algorithm/string/predicate.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
+
+#include <core/FileSerializer.hpp>
+#include <core/SafeConvert.hpp>
+
+#include <core/system/FileScanner.hpp>
+
+namespace core {
+namespace system {
+namespace file_monitor {
+namespace impl {
+
+namespace {
+
+// deterministic so that failures can be reproduced
+class Random
+{
+public:
+   Random() : state_(12345) {}
+
+   std::size_t next(std::size_t n)
+   {
+      state_ = state_ * 1103515245 + 12345;
+      return (state_ / 65536) % n;
+   }
+
+private:
+   unsigned long state_;
+};
+
+// replays synthetic change events against a temporary directory, updating
+// the monitored tree (and its index) just as the platform monitors do
+class EventReplay
+{
+public:
+   explicit EventReplay(const FilePath& root)
+      : root_(root), index_(&tree_)
+   {
+   }
+
+   void scan()
+   {
+      FileScannerOptions options;
+      options.recursive = true;
+      Error error = scanFiles(FileInfo(root_), options, &tree_);
+      BOOST_ASSERT(!error);
+      index_.reset();
+
+      dirs_.clear();
+      files_.clear();
+      for (tree<FileInfo>::iterator it = tree_.begin(); it != tree_.end(); ++it)
+      {
+         if (it->isDirectory())
+            dirs_.push_back(it->absolutePath());
+         else
+            files_.push_back(it->absolutePath());
+      }
+   }
+
+   void addFile(const std::string& dir, const std::string& name)
+   {
+      FilePath filePath = FilePath(dir).complete(name);
+      Error error = writeStringToFile(filePath, name);
+      BOOST_ASSERT(!error);
+      added(filePath);
+      files_.push_back(filePath.absolutePath());
+   }
+
+   void addDirectory(const std::string& dir, const std::string& name)
+   {
+      FilePath dirPath = FilePath(dir).complete(name);
+      Error error = dirPath.ensureDirectory();
+      BOOST_ASSERT(!error);
+      for (int i = 0; i < 5; i++)
+      {
+         std::string file = "file" + safe_convert::numberToString(i) + ".R";
+         error = writeStringToFile(dirPath.complete(file), file);
+         BOOST_ASSERT(!error);
+         files_.push_back(dirPath.complete(file).absolutePath());
+      }
+      added(dirPath);
+      dirs_.push_back(dirPath.absolutePath());
+   }
+
+   void modifyFile(const std::string& path)
+   {
+      FilePath filePath(path);
+      Error error = writeStringToFile(filePath, "modified " + path);
+      BOOST_ASSERT(!error);
+
+      std::vector<FileChangeEvent> events;
+      processFileModified(parent(filePath),
+                          FileChangeEvent(FileChangeEvent::FileModified,
+                                          FileInfo(filePath)),
+                          &tree_,
+                          &events);
+   }
+
+   void remove(const std::string& path)
+   {
+      FilePath filePath(path);
+      bool isDirectory = filePath.isDirectory();
+      Error error = filePath.remove();
+      BOOST_ASSERT(!error);
+
+      std::vector<FileChangeEvent> events;
+      processFileRemoved(parent(filePath),
+                         FileChangeEvent(FileChangeEvent::FileRemoved,
+                                         FileInfo(path, isDirectory)),
+                         true,
+                         &tree_,
+                         &events,
+                         &index_);
+      BOOST_ASSERT(!events.empty());
+
+      forget(&files_, path);
+      forget(&dirs_, path);
+   }
+
+   // rescan from the root (as is done when inotify's queue overflows)
+   void rescan()
+   {
+      Error error = discoverAndProcessFileChanges(
+               FileInfo(root_),
+               true,
+               boost::function<bool(const FileInfo&)>(),
+               &tree_,
+               boost::function<void(const std::vector<FileChangeEvent>&)>(
+                  ignoreEvents),
+               &index_);
+      BOOST_ASSERT(!error);
+   }
+
+   // the index must find exactly the directories in the tree
+   void verify() const
+   {
+      std::size_t count = 0;
+      for (tree<FileInfo>::iterator it = tree_.begin(); it != tree_.end(); ++it)
+      {
+         if (!it->isDirectory())
+            continue;
+
+         count++;
+         BOOST_ASSERT(index_.findDirectory(it->absolutePath()) == it);
+      }
+      BOOST_ASSERT(count == index_.size());
+   }
+
+   // the tree must match a fresh scan of the directory
+   void verifyAgainstScan() const
+   {
+      tree<FileInfo> scanned;
+      FileScannerOptions options;
+      options.recursive = true;
+      Error error = scanFiles(FileInfo(root_), options, &scanned);
+      BOOST_ASSERT(!error);
+      BOOST_ASSERT(scanned.size() == tree_.size());
+   }
+
+   bool isIndexed(const std::string& path) const
+   {
+      return index_.findDirectory(path) != tree_.end();
+   }
+
+   const std::vector<std::string>& dirs() const { return dirs_; }
+   const std::vector<std::string>& files() const { return files_; }
+   const FileTreeIndex& index() const { return index_; }
+
+private:
+
+   static void ignoreEvents(const std::vector<FileChangeEvent>&)
+   {
+   }
+
+   tree<FileInfo>::iterator parent(const FilePath& filePath)
+   {
+      tree<FileInfo>::iterator parentIt = index_.findDirectory(
+                                       filePath.parent().absolutePath());
+      BOOST_ASSERT(parentIt != tree_.end());
+      return parentIt;
+   }
+
+   void added(const FilePath& filePath)
+   {
+      std::vector<FileChangeEvent> events;
+      Error error = processFileAdded(
+                              parent(filePath),
+                              FileChangeEvent(FileChangeEvent::FileAdded,
+                                              FileInfo(filePath)),
+                              true,
+                              boost::function<bool(const FileInfo&)>(),
+                              boost::function<Error(const FileInfo&)>(),
+                              &tree_,
+                              &events,
+                              &index_);
+      BOOST_ASSERT(!error);
+      BOOST_ASSERT(!events.empty());
+   }
+
+   static void forget(std::vector<std::string>* pPaths,
+                      const std::string& path)
+   {
+      std::vector<std::string> remaining;
+      for (std::size_t i = 0; i < pPaths->size(); i++)
+      {
+         const std::string& other = (*pPaths)[i];
+         if (other != path && !boost::algorithm::starts_with(other, path + "/"))
+            remaining.push_back(other);
+      }
+      pPaths->swap(remaining);
+   }
+
+   FilePath root_;
+   mutable tree<FileInfo> tree_;
+   FileTreeIndex index_;
+   std::vector<std::string> dirs_;
+   std::vector<std::string> files_;
+};
+
+void createTree(const FilePath& root, int dirs, int filesPerDir)
+{
+   for (int d = 0; d < dirs; d++)
+   {
+      FilePath dir = root.complete("dir" + safe_convert::numberToString(d));
+      if (d % 5 == 0 && d > 0)
+         dir = root.complete("dir" + safe_convert::numberToString(d - 1))
+                   .complete("nested" + safe_convert::numberToString(d));
+      Error error = dir.ensureDirectory();
+      BOOST_ASSERT(!error);
+
+      for (int f = 0; f < filesPerDir; f++)
+      {
+         std::string name = "file" + safe_convert::numberToString(f) + ".R";
+         error = writeStringToFile(dir.complete(name), name);
+         BOOST_ASSERT(!error);
+      }
+   }
+}
+
+void testEventStream(const FilePath& root)
+{
+   createTree(root, 50, 40);
+
+   EventReplay replay(root);
+   replay.scan();
+   replay.verify();
+
+   Random random;
+   for (int i = 0; i < 2000; i++)
+   {
+      const std::vector<std::string>& dirs = replay.dirs();
+      const std::vector<std::string>& files = replay.files();
+      std::string name = "new" + safe_convert::numberToString(i);
+
+      switch (random.next(6))
+      {
+      case 0:
+      case 1:
+         replay.addFile(dirs[random.next(dirs.size())], name + ".R");
+         break;
+      case 2:
+         if (!files.empty())
+            replay.modifyFile(files[random.next(files.size())]);
+         break;
+      case 3:
+         if (!files.empty())
+            replay.remove(files[random.next(files.size())]);
+         break;
+      case 4:
+         replay.addDirectory(dirs[random.next(dirs.size())], name);
+         break;
+      case 5:
+         // never remove the root (dirs[0])
+         if (dirs.size() > 1)
+            replay.remove(dirs[1 + random.next(dirs.size() - 1)]);
+         break;
+      }
+
+      if (i % 100 == 0)
+         replay.verify();
+   }
+
+   replay.verify();
+   replay.verifyAgainstScan();
+
+   // changes made without events are picked up by a rescan
+   Error error = writeStringToFile(root.complete("unreported.R"), "x");
+   BOOST_ASSERT(!error);
+   error = root.complete("unreported").ensureDirectory();
+   BOOST_ASSERT(!error);
+   replay.rescan();
+   replay.verify();
+   replay.verifyAgainstScan();
+   BOOST_ASSERT(replay.isIndexed(root.complete("unreported").absolutePath()));
+}
+
+// reports the time taken by parent lookups for a burst of events (which
+// should not depend on the tree's size)
+void testLookupSpeed(const FilePath& root)
+{
+   EventReplay replay(root);
+   replay.scan();
+
+   const std::vector<std::string>& dirs = replay.dirs();
+   Random random;
+   boost::posix_time::ptime start =
+                        boost::posix_time::microsec_clock::universal_time();
+   for (int i = 0; i < 100000; i++)
+   {
+      const std::string& dir = dirs[random.next(dirs.size())];
+      BOOST_ASSERT(replay.index().findDirectory(dir)->absolutePath() == dir);
+   }
+   boost::posix_time::time_duration elapsed =
+         boost::posix_time::microsec_clock::universal_time() - start;
+
+   std::cout << "100000 directory lookups (" << dirs.size() << " dirs, "
+             << replay.files().size() << " files): "
+             << elapsed.total_milliseconds() << "ms" << std::endl;
+}
+
+} // anonymous namespace
+
+void runFileMonitorTests()
+{
+   FilePath root;
+   Error error = FilePath::tempFilePath(&root);
+   BOOST_ASSERT(!error);
+   error = root.ensureDirectory();
+   BOOST_ASSERT(!error);
+
+   testEventStream(root);
+   testLookupSpeed(root);
+
+   error = root.remove();
+   BOOST_ASSERT(!error);
+}
+
+} // namespace impl
+} // namespace file_monitor
+} // namespace system
+} // namespace core
@@ -158,12 +158,51 @@ private:
 };
 
 
+// IN_MODIFY events which have been read but not yet processed. a file being
+// written generates a stream of these so they are coalesced (by directory
+// watch and name) and processed once the available events have been read.
+class PendingModifications
+{
+public:
+   void add(int wd, const std::string& name)
+   {
+      if (pending_.insert(std::make_pair(wd, name)).second)
+         order_.push_back(std::make_pair(wd, name));
+   }
+
+   // the file was since added or removed (which supersedes the modification)
+   void remove(int wd, const std::string& name)
+   {
+      pending_.erase(std::make_pair(wd, name));
+   }
+
+   bool empty() const { return pending_.empty(); }
+
+   std::vector<std::pair<int, std::string> > take()
+   {
+      std::vector<std::pair<int, std::string> > modifications;
+      for (std::size_t i = 0; i < order_.size(); i++)
+      {
+         if (pending_.count(order_[i]))
+            modifications.push_back(order_[i]);
+      }
+      pending_.clear();
+      order_.clear();
+      return modifications;
+   }
+
+private:
+   std::set<std::pair<int, std::string> > pending_;
+   std::vector<std::pair<int, std::string> > order_;
+};
+
 class FileEventContext : boost::noncopyable
 {
 public:
    FileEventContext()
       : fd(-1),
-        recursive(false)
+        recursive(false),
+        fileIndex(&fileTree)
    {
       handle = Handle((void*)this);
    }
@@ -175,6 +214,8 @@ public:
    bool recursive;
    boost::function<bool(const FileInfo&)> filter;
    tree<FileInfo> fileTree;
+   impl::FileTreeIndex fileIndex;
+   PendingModifications pendingModifications;
    Callbacks callbacks;
 };
 
@@ -285,6 +326,120 @@ void closeContext(FileEventContext* pContext)
    }
 }
 
+Error processEvent(FileEventContext* pContext,
+                   FileChangeEvent::Type eventType,
+                   int wd,
+                   const std::string& name,
+                   bool isDirectory,
+                   std::vector<FileChangeEvent>* pFileChanges)
+{
+   // find the FileInfo for this wd (ignore if we can't find one)
+   Watch watch = pContext->watches.find(wd);
+   if (watch.empty())
+      return Success();
+
+   // get an iterator to the parent dir
+   tree<FileInfo>::iterator parentIt =
+                     pContext->fileIndex.findDirectory(watch.path);
+
+   // if we can't find a parent then return (this directory may have
+   // been excluded from scanning due to a filter)
+   if (parentIt == pContext->fileTree.end())
+      return Success();
+
+   // get file info
+   FilePath filePath = FilePath(parentIt->absolutePath()).complete(name);
+
+   // if the file exists then collect as many extended attributes
+   // as necessary -- otherwise just record path and dir status
+   FileInfo fileInfo;
+   if (filePath.exists())
+   {
+      fileInfo = FileInfo(filePath, filePath.isSymlink());
+   }
+   else
+   {
+      fileInfo = FileInfo(filePath.absolutePath(), isDirectory);
+   }
+
+   // if this doesn't meet the filter then ignore
+   if (pContext->filter && !pContext->filter(fileInfo))
+      return Success();
+
+   // handle the various types of actions
+   switch(eventType)
+   {
+      case FileChangeEvent::FileRemoved:
+      {
+         // generate events
+         FileChangeEvent event(FileChangeEvent::FileRemoved, fileInfo);
+         std::vector<FileChangeEvent> removeEvents;
+         impl::processFileRemoved(parentIt,
+                                  event,
+                                  pContext->recursive,
+                                  &pContext->fileTree,
+                                  &removeEvents,
+                                  &pContext->fileIndex);
+
+         // for each directory remove event remove any watches we have for it
+         BOOST_FOREACH(const FileChangeEvent& event, removeEvents)
+         {
+            if (event.fileInfo().isDirectory())
+            {
+               Watch watch = pContext->watches.find(
+                                          event.fileInfo().absolutePath());
+               if (!watch.empty())
+               {
+                  removeWatch(pContext->fd, watch);
+                  pContext->watches.erase(watch);
+               }
+            }
+         }
+
+         // copy to the target events
+         std::copy(removeEvents.begin(),
+                   removeEvents.end(),
+                   std::back_inserter(*pFileChanges));
+
+         break;
+      }
+      case FileChangeEvent::FileAdded:
+      {
+         FileChangeEvent event(FileChangeEvent::FileAdded, fileInfo);
+         Error error = impl::processFileAdded(parentIt,
+                                              event,
+                                              pContext->recursive,
+                                              pContext->filter,
+                                              addWatchFunction(pContext),
+                                              &pContext->fileTree,
+                                              pFileChanges,
+                                              &pContext->fileIndex);
+         // log the error if it wasn't no such file/dir (this can happen
+         // in the normal course of business if a file is deleted between
+         // the time the change is detected and we try to inspect it)
+         if (error &&
+            (error.code() != boost::system::errc::no_such_file_or_directory))
+         {
+            LOG_ERROR(error);
+         }
+         break;
+      }
+      case FileChangeEvent::FileModified:
+      {
+         FileChangeEvent event(FileChangeEvent::FileModified, fileInfo);
+         impl::processFileModified(parentIt,
+                                   event,
+                                   &pContext->fileTree,
+                                   pFileChanges);
+         break;
+      }
+      case FileChangeEvent::None:
+         break;
+   }
+
+   return Success();
+}
+
 Error processEvent(FileEventContext* pContext,
                    struct inotify_event* pEvent,
                    std::vector<FileChangeEvent>* pFileChanges)
@@ -302,119 +457,45 @@ Error processEvent(FileEventContext* pContext,
    else if (pEvent->mask & IN_MOVED_FROM)
       eventType = FileChangeEvent::FileRemoved;
 
-   // return event if we got a valid event type and the event applies to a
-   // child of the monitored directory (len == 0 occurs for root element)
-   if ((eventType != FileChangeEvent::None) && (pEvent->len > 0))
-   {
-      // find the FileInfo for this wd (ignore if we can't find one)
-      Watch watch = pContext->watches.find(pEvent->wd);
-      if (watch.empty())
-         return Success();
-
-      // get an iterator to the parent dir
-      tree<FileInfo>::iterator parentIt = impl::findFile(
-                                                   pContext->fileTree.begin(),
-                                                   pContext->fileTree.end(),
-                                                   watch.path);
-
-      // if we can't find a parent then return (this directory may have
-      // been excluded from scanning due to a filter)
-      if (parentIt == pContext->fileTree.end())
-         return Success();
-
-      // get file info
-      FilePath filePath = FilePath(parentIt->absolutePath()).complete(
-                                                                 pEvent->name);
-
-
-      // if the file exists then collect as many extended attributes
-      // as necessary -- otherwise just record path and dir status
-      FileInfo fileInfo;
-      if (filePath.exists())
-      {
-         fileInfo = FileInfo(filePath, filePath.isSymlink());
-      }
-      else
-      {
-         fileInfo = FileInfo(filePath.absolutePath(), pEvent->mask & IN_ISDIR);
-      }
-
-      // if this doesn't meet the filter then ignore
-      if (pContext->filter && !pContext->filter(fileInfo))
-         return Success();
-
-      // handle the various types of actions
-      switch(eventType)
-      {
-         case FileChangeEvent::FileRemoved:
-         {
-            // generate events
-            FileChangeEvent event(FileChangeEvent::FileRemoved, fileInfo);
-            std::vector<FileChangeEvent> removeEvents;
-            impl::processFileRemoved(parentIt,
-                                     event,
-                                     pContext->recursive,
-                                     &pContext->fileTree,
-                                     &removeEvents);
-
-            // for each directory remove event remove any watches we have for it
-            BOOST_FOREACH(const FileChangeEvent& event, removeEvents)
-            {
-               if (event.fileInfo().isDirectory())
-               {
-                  Watch watch = pContext->watches.find(
-                                             event.fileInfo().absolutePath());
-                  if (!watch.empty())
-                  {
-                     removeWatch(pContext->fd, watch);
-                     pContext->watches.erase(watch);
-                  }
-               }
-            }
+   // ignore if we didn't get a valid event type or the event applies to
+   // the monitored directory itself (len == 0 occurs for root element)
+   if ((eventType == FileChangeEvent::None) || (pEvent->len == 0))
+      return Success();
 
-            // copy to the target events
-            std::copy(removeEvents.begin(),
-                      removeEvents.end(),
-                      std::back_inserter(*pFileChanges));
+   std::string name(pEvent->name);
 
-            break;
-         }
-         case FileChangeEvent::FileAdded:
-         {
-            FileChangeEvent event(FileChangeEvent::FileAdded, fileInfo);
-            Error error = impl::processFileAdded(parentIt,
-                                                 event,
-                                                 pContext->recursive,
-                                                 pContext->filter,
-                                                 addWatchFunction(pContext),
-                                                 &pContext->fileTree,
-                                                 pFileChanges);
-            // log the error if it wasn't no such file/dir (this can happen
-            // in the normal course of business if a file is deleted between
-            // the time the change is detected and we try to inspect it)
-            if (error &&
-               (error.code() != boost::system::errc::no_such_file_or_directory))
-            {
-               LOG_ERROR(error);
-            }
-            break;
-         }
-         case FileChangeEvent::FileModified:
-         {
-            FileChangeEvent event(FileChangeEvent::FileModified, fileInfo);
-            impl::processFileModified(parentIt,
-                                      event,
-                                      &pContext->fileTree,
-                                      pFileChanges);
-            break;
-         }
-         case FileChangeEvent::None:
-            break;
-      }
+   // defer modifications so that repeated ones can be coalesced
+   if (eventType == FileChangeEvent::FileModified)
+   {
+      pContext->pendingModifications.add(pEvent->wd, name);
+      return Success();
    }
 
+   pContext->pendingModifications.remove(pEvent->wd, name);
+   return processEvent(pContext,
+                       eventType,
+                       pEvent->wd,
+                       name,
+                       pEvent->mask & IN_ISDIR,
+                       pFileChanges);
+}
 
-
+Error processPendingModifications(FileEventContext* pContext,
+                                  std::vector<FileChangeEvent>* pFileChanges)
+{
+   std::vector<std::pair<int, std::string> > modifications =
+                                    pContext->pendingModifications.take();
+   for (std::size_t i = 0; i < modifications.size(); i++)
+   {
+      Error error = processEvent(pContext,
+                                 FileChangeEvent::FileModified,
+                                 modifications[i].first,
+                                 modifications[i].second,
+                                 false,
+                                 pFileChanges);
+      if (error)
+         return error;
+   }
    return Success();
 }
 
@@ -491,6 +572,9 @@ Handle registerMonitor(const core::FilePath& filePath,
        return Handle();
    }
 
+   // index the directories we are watching
+   pContext->fileIndex.reset();
+
    // now that we have finished the file listing we know we have a valid
    // file-monitor so set the callbacks
    pContext->callbacks = callbacks;
@@ -588,8 +672,10 @@ void run(const boost::function<void()>& checkForInput)
                // we start over because we missed events
                if (pEvent->mask & IN_Q_OVERFLOW)
                {
-                  // remove all watches
+                  // remove all watches (and drop pending modifications,
+                  // the scan will pick those up)
                   removeAllWatches(pContext);
+                  pContext->pendingModifications.take();
 
                   // generate events based on scanning
                   Error error =impl::discoverAndProcessFileChanges(
@@ -598,7 +684,8 @@ void run(const boost::function<void()>& checkForInput)
                         pContext->filter,
                         addWatchFunction(pContext, true),
                         &pContext->fileTree,
-                        pContext->callbacks.onFilesChanged);
+                        pContext->callbacks.onFilesChanged,
+                        &pContext->fileIndex);
                   if (error)
                      terminateWithMonitoringError(pContext, error);
 
@@ -621,6 +708,14 @@ void run(const boost::function<void()>& checkForInput)
             }
          }
 
+         // process the (coalesced) modifications we read
+         if (!pContext->pendingModifications.empty())
+         {
+            Error error = processPendingModifications(pContext, &fileChanges);
+            if (error)
+               terminateWithMonitoringError(pContext, error);
+         }
+
          // fire any events we got
          if (!fileChanges.empty())
             pContext->callbacks.onFilesChanged(fileChanges);
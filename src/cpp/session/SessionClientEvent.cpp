@@ -122,6 +122,7 @@ const int kInstallShiny = 98;
 const int kSuspendAndRestart = 99;
 const int kDataViewChanged = 100;
 const int kViewFunction = 101;
+const int kVcsStatusChanged = 102;
 }
 
 void ClientEvent::init(int type, const json::Value& data)
@@ -327,6 +328,8 @@ std::string ClientEvent::typeName() const
          return "data_view_changed";
       case client_events::kViewFunction:
          return "view_function";
+      case client_events::kVcsStatusChanged:
+         return "vcs_status_changed";
       default:
          LOG_WARNING_MESSAGE("unexpected event type: " + 
                              safe_convert::numberToString(type_));
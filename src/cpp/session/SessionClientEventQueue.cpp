@@ -15,13 +15,14 @@
 
 #include "SessionClientEventQueue.hpp"
 
+#include <algorithm>
+
 #include <boost/foreach.hpp>
 
 
 #include <core/BoostThread.hpp>
 #include <core/Thread.hpp>
 #include <core/json/Json.hpp>
-#include <core/StringUtils.hpp>
 
 #include <r/session/RConsoleActions.hpp>
 
@@ -43,6 +44,32 @@ ClientEventQueue& clientEventQueue()
 {
    return *s_pClientEventQueue;
 }
+
+ClientEventLane clientEventLane(const ClientEvent& event)
+{
+   switch (event.type())
+   {
+      // the user is waiting on these (either to see that R has finished,
+      // or because R is waiting on them)
+      case client_events::kBusy:
+      case client_events::kConsolePrompt:
+      case client_events::kConsoleWritePrompt:
+      case client_events::kConsoleWriteInput:
+      case client_events::kConsoleProcessPrompt:
+      case client_events::kUserPrompt:
+      case client_events::kShowErrorMessage:
+      case client_events::kShowEditor:
+      case client_events::kChooseFile:
+      case client_events::kLocator:
+      case client_events::kHandleUnsavedChanges:
+      case client_events::kQuit:
+      case client_events::kSuspendAndRestart:
+         return ClientEventLaneImmediate;
+
+      default:
+         return ClientEventLaneBulk;
+   }
+}
    
 ClientEventQueue::ClientEventQueue()
    :  pMutex_(new boost::mutex()),
@@ -55,11 +82,27 @@ void ClientEventQueue::add(const ClientEvent& event)
 { 
    LOCK_MUTEX(*pMutex_)
    {
-      // console output is batched up for compactness/efficiency.
+      boost::posix_time::ptime now =
+                     boost::posix_time::microsec_clock::universal_time();
+
+      // console output is batched up for compactness/efficiency. if
+      // there's more console output than the client can even show then
+      // only the last of it is kept: too much output can overwhelm the
+      // client, causing it to become unresponsive.
       if (event.type() == client_events::kConsoleWriteOutput)
       {
-         if (event.data().type() == json::StringType)
-            pendingConsoleOutput_ += event.data().get_str();
+         if (event.data().type() == json::StringType &&
+             !event.data().get_str().empty())
+         {
+            if (pendingConsoleOutput_.empty())
+            {
+               pendingConsoleOutputTime_ = now;
+               laneStats_[ClientEventLaneBulk].pending++;
+            }
+
+            int limit = r::session::consoleActions().capacity() + 1;
+            pendingConsoleOutput_.append(event.data().get_str(), limit);
+         }
       }
       else
       {
@@ -68,10 +111,10 @@ void ClientEventQueue::add(const ClientEvent& event)
          flushPendingConsoleOutput() ;
          
          // add event to queue
-         pendingEvents_.push_back(event) ;
+         addPendingEvent(event, now);
       }
       
-      lastEventAddTime_ = boost::posix_time::microsec_clock::universal_time();
+      lastEventAddTime_ = now;
    }
    END_LOCK_MUTEX
    
@@ -83,13 +126,37 @@ bool ClientEventQueue::hasEvents()
 {
    LOCK_MUTEX(*pMutex_)
    {
-      return pendingEvents_.size() > 0 || pendingConsoleOutput_.length() > 0;
+      return pendingEvents_.size() > 0 || !pendingConsoleOutput_.empty();
    }
    END_LOCK_MUTEX
    
    // keep compiler happy
    return false ;
 }
+
+bool ClientEventQueue::hasImmediateEvents()
+{
+   LOCK_MUTEX(*pMutex_)
+   {
+      return laneStats_[ClientEventLaneImmediate].pending > 0;
+   }
+   END_LOCK_MUTEX
+
+   // keep compiler happy
+   return false;
+}
+
+ClientEventLaneStats ClientEventQueue::laneStats(ClientEventLane lane)
+{
+   LOCK_MUTEX(*pMutex_)
+   {
+      return laneStats_[lane];
+   }
+   END_LOCK_MUTEX
+
+   // keep compiler happy
+   return ClientEventLaneStats();
+}
   
 void ClientEventQueue::remove(std::vector<ClientEvent>* pEvents)
 {
@@ -97,6 +164,21 @@ void ClientEventQueue::remove(std::vector<ClientEvent>* pEvents)
    {
       // flush any pending output
       flushPendingConsoleOutput();
+
+      // record how long the events waited
+      boost::posix_time::ptime now =
+                     boost::posix_time::microsec_clock::universal_time();
+      for (std::size_t i = 0; i < pendingEvents_.size(); i++)
+      {
+         ClientEventLaneStats& stats =
+                              laneStats_[clientEventLane(pendingEvents_[i])];
+         boost::posix_time::time_duration latency =
+                                             now - pendingEventTimes_[i];
+         stats.pending--;
+         stats.delivered++;
+         stats.totalLatency += latency;
+         stats.maxLatency = std::max(stats.maxLatency, latency);
+      }
       
       // copy the events to the caller
       pEvents->insert(pEvents->begin(), 
@@ -105,6 +187,7 @@ void ClientEventQueue::remove(std::vector<ClientEvent>* pEvents)
    
       // clear pending events
       pendingEvents_.clear();
+      pendingEventTimes_.clear();
    } 
    END_LOCK_MUTEX
 }
@@ -115,6 +198,9 @@ void ClientEventQueue::clear()
    {
       pendingConsoleOutput_.clear();
       pendingEvents_.clear();
+      pendingEventTimes_.clear();
+      for (int lane = 0; lane < kClientEventLanes; lane++)
+         laneStats_[lane].pending = 0;
    }
    END_LOCK_MUTEX
 }
@@ -162,16 +248,22 @@ void ClientEventQueue::flushPendingConsoleOutput()
    
    if ( !pendingConsoleOutput_.empty() )
    {
-      // If there's more console output than the client can even show, then
-      // truncate it to the amount that the client can show. Too much output
-      // can overwhelm the client, causing it to become unresponsive.
-      int limit = r::session::consoleActions().capacity() + 1;
-      string_utils::trimLeadingLines(limit, &pendingConsoleOutput_);
-
-      pendingEvents_.push_back(ClientEvent(client_events::kConsoleWriteOutput, 
-                                           pendingConsoleOutput_)); 
-      pendingConsoleOutput_.clear() ;
+      // the output moves into the pending events (in the same lane)
+      laneStats_[ClientEventLaneBulk].pending--;
+      addPendingEvent(ClientEvent(client_events::kConsoleWriteOutput, 
+                                  pendingConsoleOutput_.flush()),
+                      pendingConsoleOutputTime_);
    }
 }
 
+void ClientEventQueue::addPendingEvent(const ClientEvent& event,
+                                       const boost::posix_time::ptime& addTime)
+{
+   // NOTE: private helper so no lock required (mutex is not recursive) 
+
+   pendingEvents_.push_back(event);
+   pendingEventTimes_.push_back(addTime);
+   laneStats_[clientEventLane(event)].pending++;
+}
+
 } // namespace session
@@ -27,11 +27,46 @@
 
 #include <session/SessionClientEvent.hpp>
 
+#include "SessionConsoleOutputBuffer.hpp"
+
 namespace session {
    
 // initialization
 void initializeClientEventQueue();
 
+// events are delivered through one of two lanes: events which the user is
+// waiting on (e.g. the console prompt) are delivered as soon as possible,
+// while other events (e.g. console output) are batched
+enum ClientEventLane
+{
+   ClientEventLaneImmediate = 0,
+   ClientEventLaneBulk = 1,
+   kClientEventLanes = 2
+};
+
+ClientEventLane clientEventLane(const ClientEvent& event);
+
+// statistics for the events through a lane
+struct ClientEventLaneStats
+{
+   ClientEventLaneStats()
+      : pending(0),
+        delivered(0),
+        totalLatency(boost::posix_time::seconds(0)),
+        maxLatency(boost::posix_time::seconds(0))
+   {
+   }
+
+   // events waiting to be delivered (console output pending in the queue
+   // counts as a single event)
+   int pending;
+
+   // events delivered and the time they waited in the queue
+   int delivered;
+   boost::posix_time::time_duration totalLatency;
+   boost::posix_time::time_duration maxLatency;
+};
+
 // singleton
 class ClientEventQueue;
 ClientEventQueue& clientEventQueue();
@@ -41,6 +76,7 @@ class ClientEventQueue : boost::noncopyable
 private:
    ClientEventQueue() ;
    friend void initializeClientEventQueue();
+   friend void runClientEventQueueTests();
    
 public:
    // COPYING: boost::noncopyable
@@ -53,6 +89,11 @@ public:
    
    // are there any events pending?
    bool hasEvents();
+
+   // are there any events pending which should be delivered immediately?
+   bool hasImmediateEvents();
+
+   ClientEventLaneStats laneStats(ClientEventLane lane);
    
    // clear the event queue
    void clear();
@@ -65,6 +106,8 @@ public:
       
 private:   
    void flushPendingConsoleOutput();
+   void addPendingEvent(const ClientEvent& event,
+                        const boost::posix_time::ptime& addTime);
  
 private:
    // synchronization objects. heap based so they are never destructed
@@ -76,13 +119,18 @@ private:
    boost::condition* pWaitForEventCondition_ ;
 
    // instance data
-   std::string pendingConsoleOutput_ ;
+   ConsoleOutputBuffer pendingConsoleOutput_ ;
+   boost::posix_time::ptime pendingConsoleOutputTime_;
    std::vector<ClientEvent> pendingEvents_ ; 
+   std::vector<boost::posix_time::ptime> pendingEventTimes_;
    boost::posix_time::ptime lastEventAddTime_;
+   ClientEventLaneStats laneStats_[kClientEventLanes];
    
 
 };
 
+void runClientEventQueueTests();
+
 } // namespace session
 
 #endif // SESSION_SESSION_CLIENT_EVENT_QUEUE_HPP
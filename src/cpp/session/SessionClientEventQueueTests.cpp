@@ -0,0 +1,216 @@
+/*
+ * SessionClientEventQueueTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionClientEventQueue.hpp"
+
+#include <boost/assert.hpp>
+#include <boost/thread.hpp>
+
+#include <core/SafeConvert.hpp>
+
+#include <r/session/RConsoleActions.hpp>
+
+using namespace core;
+
+namespace session {
+
+namespace {
+
+std::string lines(int first, int last)
+{
+   std::string output;
+   for (int i = first; i <= last; i++)
+      output += "line " + safe_convert::numberToString(i) + "\n";
+   return output;
+}
+
+void testBuffer()
+{
+   ConsoleOutputBuffer buffer;
+   BOOST_ASSERT(buffer.empty());
+
+   // output within the limit is kept as is
+   buffer.append("a\nb", 3);
+   buffer.append("c\nd\n", 3);
+   BOOST_ASSERT(buffer.lineCount() == 3);
+   BOOST_ASSERT(buffer.omittedLines() == 0);
+   BOOST_ASSERT(buffer.flush() == "a\nbc\nd\n");
+   BOOST_ASSERT(buffer.empty());
+
+   // the oldest lines are dropped as output is appended (including lines
+   // which span chunks)
+   buffer.append("a\nb", 2);
+   buffer.append("c\nd", 2);
+   buffer.append("e\nf", 2);
+   BOOST_ASSERT(buffer.lineCount() == 2);
+   BOOST_ASSERT(buffer.omittedLines() == 1);
+   BOOST_ASSERT(buffer.flush() == "[... 1 line omitted ...]\nbc\nde\nf");
+   BOOST_ASSERT(buffer.omittedLines() == 0);
+
+   // many small chunks
+   for (int i = 1; i <= 1000; i++)
+      buffer.append(lines(i, i), 10);
+   BOOST_ASSERT(buffer.lineCount() == 10);
+   BOOST_ASSERT(buffer.flush() ==
+                "[... 990 lines omitted ...]\n" + lines(991, 1000));
+
+   // a single large chunk
+   buffer.append(lines(1, 1000), 10);
+   BOOST_ASSERT(buffer.flush() ==
+                "[... 990 lines omitted ...]\n" + lines(991, 1000));
+
+   // an incomplete line isn't counted
+   buffer.append(lines(1, 3) + "partial", 3);
+   BOOST_ASSERT(buffer.omittedLines() == 0);
+   BOOST_ASSERT(buffer.flush() == lines(1, 3) + "partial");
+
+   // output which never completes a line is limited to the end of the line
+   const std::string::size_type maxLength = ConsoleOutputBuffer::kMaxLineLength;
+   buffer.append(lines(1, 2), 10);
+   for (std::string::size_type i = 0; i < 3 * maxLength; i++)
+      buffer.append(i % 2 == 0 ? "x" : "y", 10);
+   BOOST_ASSERT(buffer.lineCount() == 2);
+   std::string output = buffer.flush();
+   std::string expectedEnd;
+   for (std::string::size_type i = 2 * maxLength; i < 3 * maxLength; i++)
+      expectedEnd += i % 2 == 0 ? "x" : "y";
+   BOOST_ASSERT(output == lines(1, 2) + "[... " +
+                safe_convert::numberToString(2 * maxLength) +
+                " characters omitted ...]" + expectedEnd);
+
+   // as is a long line completed by a newline (the omitted characters
+   // are noted where they were dropped)
+   buffer.append(std::string(maxLength + 5, 'z'), 10);
+   buffer.append("\nnext", 10);
+   BOOST_ASSERT(buffer.lineCount() == 1);
+   BOOST_ASSERT(buffer.flush() == "[... 5 characters omitted ...]" +
+                std::string(maxLength, 'z') + "\nnext");
+   BOOST_ASSERT(buffer.empty());
+}
+
+std::vector<ClientEvent> removeEvents(ClientEventQueue* pQueue)
+{
+   std::vector<ClientEvent> events;
+   pQueue->remove(&events);
+   return events;
+}
+
+// the queues are constructed by runClientEventQueueTests (a friend of
+// ClientEventQueue, whose constructor is private)
+void testQueueOrder(ClientEventQueue& queue)
+{
+   // output and errors are delivered in the order they were written, with
+   // consecutive output combined
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out 1\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out 2\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteError, "err 1\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out 3\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteError, "err 2\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteError, "err 3\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out 4\n"));
+   BOOST_ASSERT(queue.hasEvents());
+
+   std::vector<ClientEvent> events = removeEvents(&queue);
+   BOOST_ASSERT(events.size() == 6);
+   BOOST_ASSERT(events[0].type() == client_events::kConsoleWriteOutput);
+   BOOST_ASSERT(events[0].data().get_str() == "out 1\nout 2\n");
+   BOOST_ASSERT(events[1].type() == client_events::kConsoleWriteError);
+   BOOST_ASSERT(events[1].data().get_str() == "err 1\n");
+   BOOST_ASSERT(events[2].data().get_str() == "out 3\n");
+   BOOST_ASSERT(events[3].data().get_str() == "err 2\n");
+   BOOST_ASSERT(events[4].data().get_str() == "err 3\n");
+   BOOST_ASSERT(events[5].type() == client_events::kConsoleWriteOutput);
+   BOOST_ASSERT(events[5].data().get_str() == "out 4\n");
+   BOOST_ASSERT(!queue.hasEvents());
+
+   // output is bounded separately on either side of an error
+   int limit = r::session::consoleActions().capacity() + 1;
+   for (int i = 1; i <= limit + 5; i++)
+      queue.add(ClientEvent(client_events::kConsoleWriteOutput, lines(i, i)));
+   queue.add(ClientEvent(client_events::kConsoleWriteError, "err\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, lines(1, 2)));
+
+   events = removeEvents(&queue);
+   BOOST_ASSERT(events.size() == 3);
+   BOOST_ASSERT(events[0].data().get_str() ==
+                "[... 5 lines omitted ...]\n" + lines(6, limit + 5));
+   BOOST_ASSERT(events[1].data().get_str() == "err\n");
+   BOOST_ASSERT(events[2].data().get_str() == lines(1, 2));
+
+   // clearing discards pending output
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out\n"));
+   queue.clear();
+   BOOST_ASSERT(!queue.hasEvents());
+}
+
+void testLanes(ClientEventQueue& queue)
+{
+   BOOST_ASSERT(!queue.hasImmediateEvents());
+
+   // console output is counted once however many chunks it arrives in
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out 1\n"));
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out 2\n"));
+   BOOST_ASSERT(queue.laneStats(ClientEventLaneBulk).pending == 1);
+   BOOST_ASSERT(!queue.hasImmediateEvents());
+
+   queue.add(ClientEvent(client_events::kEnvironmentRefresh));
+   BOOST_ASSERT(queue.laneStats(ClientEventLaneBulk).pending == 2);
+   BOOST_ASSERT(!queue.hasImmediateEvents());
+
+   queue.add(ClientEvent(client_events::kBusy, false));
+   queue.add(ClientEvent(client_events::kConsolePrompt, "> "));
+   BOOST_ASSERT(queue.hasImmediateEvents());
+   BOOST_ASSERT(queue.laneStats(ClientEventLaneImmediate).pending == 2);
+
+   boost::this_thread::sleep(boost::posix_time::milliseconds(20));
+
+   std::vector<ClientEvent> events = removeEvents(&queue);
+   BOOST_ASSERT(events.size() == 4);
+   BOOST_ASSERT(!queue.hasImmediateEvents());
+
+   ClientEventLaneStats bulk = queue.laneStats(ClientEventLaneBulk);
+   BOOST_ASSERT(bulk.pending == 0);
+   BOOST_ASSERT(bulk.delivered == 2);
+   BOOST_ASSERT(bulk.maxLatency >= boost::posix_time::milliseconds(20));
+   BOOST_ASSERT(bulk.totalLatency >= bulk.maxLatency);
+
+   ClientEventLaneStats immediate =
+                           queue.laneStats(ClientEventLaneImmediate);
+   BOOST_ASSERT(immediate.pending == 0);
+   BOOST_ASSERT(immediate.delivered == 2);
+
+   // clearing the queue clears the pending counts
+   queue.add(ClientEvent(client_events::kConsoleWriteOutput, "out\n"));
+   queue.add(ClientEvent(client_events::kQuit));
+   queue.clear();
+   BOOST_ASSERT(queue.laneStats(ClientEventLaneBulk).pending == 0);
+   BOOST_ASSERT(!queue.hasImmediateEvents());
+   BOOST_ASSERT(queue.laneStats(ClientEventLaneBulk).delivered == 2);
+}
+
+} // anonymous namespace
+
+void runClientEventQueueTests()
+{
+   testBuffer();
+
+   ClientEventQueue orderQueue;
+   testQueueOrder(orderQueue);
+
+   ClientEventQueue lanesQueue;
+   testLanes(lanesQueue);
+}
+
+} // namespace session
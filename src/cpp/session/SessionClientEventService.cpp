@@ -48,6 +48,26 @@ bool hasEventIdLessThanOrEqualTo(const json::Value& event, int targetId)
    int eventId = eventJSON.find("id")->second.get_int();
    return eventId <= targetId;
 }
+
+int toMilliseconds(const boost::posix_time::time_duration& duration)
+{
+   if (duration.is_special())
+      return -1;
+   else
+      return static_cast<int>(duration.total_milliseconds());
+}
+
+json::Object laneStatsAsJson(const ClientEventLaneStats& stats)
+{
+   json::Object statsJson;
+   statsJson["pending"] = stats.pending;
+   statsJson["delivered"] = stats.delivered;
+   statsJson["mean_latency_ms"] = stats.delivered > 0 ?
+            stats.totalLatency.total_microseconds() / 1000.0 / stats.delivered :
+            0.0;
+   statsJson["max_latency_ms"] = toMilliseconds(stats.maxLatency);
+   return statsJson;
+}
          
 } // anonymous namespace
 
@@ -183,20 +203,78 @@ void ClientEventService::setClientEventResult(
 }
 
 
+json::Object ClientEventService::statsAsJson()
+{
+   json::Object stats;
+   LOCK_MUTEX(mutex_)
+   {
+      stats["round_trip_ms"] = toMilliseconds(roundTrip_);
+      stats["bulk_delay_ms"] = toMilliseconds(bulkDelay_);
+   }
+   END_LOCK_MUTEX
+
+   ClientEventQueue& queue = clientEventQueue();
+   json::Object lanes;
+   lanes["immediate"] = laneStatsAsJson(
+                           queue.laneStats(ClientEventLaneImmediate));
+   lanes["bulk"] = laneStatsAsJson(queue.laneStats(ClientEventLaneBulk));
+   stats["lanes"] = lanes;
+
+   return stats;
+}
+
+void ClientEventService::recordRoundTrip(
+                     const boost::posix_time::time_duration& roundTrip)
+{
+   LOCK_MUTEX(mutex_)
+   {
+      if (roundTrip_.is_special())
+         roundTrip_ = roundTrip;
+      else
+         roundTrip_ = (roundTrip_ * 3 + roundTrip) / 4;
+   }
+   END_LOCK_MUTEX
+}
+
+boost::posix_time::time_duration ClientEventService::bulkDelay(
+                     const boost::posix_time::time_duration& minDelay,
+                     const boost::posix_time::time_duration& maxDelay)
+{
+   LOCK_MUTEX(mutex_)
+   {
+      // there's little point in sending events much more often than the
+      // client can collect them, so wait for a fraction of the round trip
+      // for more events to batch with them
+      if (roundTrip_.is_special())
+         bulkDelay_ = minDelay;
+      else
+         bulkDelay_ = std::min(std::max(roundTrip_ / 2, minDelay), maxDelay);
+
+      return bulkDelay_;
+   }
+   END_LOCK_MUTEX
+
+   // keep compiler happy
+   return minDelay;
+}
+
 void ClientEventService::run()
 {
    try
    {    
-      // default time durations
+      // default time durations (the delay used to batch bulk events adapts
+      // to the client's round trip, from batchDelay up to maxBatchDelay)
       using namespace boost::posix_time;
       time_duration maxRequestSec = seconds(50);
       time_duration batchDelay = milliseconds(20);
+      time_duration maxBatchDelay = milliseconds(500);
       time_duration maxTotalBatchDelay = seconds(2);
 
       // make much shorter for desktop mode
       if (session::options().programMode() == kSessionProgramModeDesktop)
       {
          batchDelay = milliseconds(2);
+         maxBatchDelay = milliseconds(5);
          maxTotalBatchDelay = milliseconds(10);
       }
       
@@ -205,6 +283,7 @@ void ClientEventService::run()
       
       // initialize state
       int nextEventId = 0;
+      ptime lastResponseTime(not_a_date_time);
       
       // accept loop
       bool stopServer = false ;
@@ -277,6 +356,16 @@ void ClientEventService::run()
          // remove all events already seen by the client from our internal list
          erasePreviouslyDeliveredEvents(lastClientEventIdSeen);
 
+         // measure the time the client took to come back for more events
+         // (a long gap, e.g. after the client was suspended, counts only
+         // as much as the longest batch delay)
+         if (!lastResponseTime.is_not_a_date_time())
+         {
+            time_duration roundTrip =
+                  microsec_clock::universal_time() - lastResponseTime;
+            recordRoundTrip(std::min(roundTrip, maxTotalBatchDelay));
+         }
+
          // sync next event id to client (required so that when we resume
          // from a suspend we provide client event ids in line with the 
          // client's expectations -- if we started with zero then the client
@@ -292,12 +381,16 @@ void ClientEventService::run()
             {
                // ...got at least one event
                
-               // wait for additional events that occur in rapid succession 
-               // but don't wait for more than the specified maximum seconds
+               // events the user is waiting on are sent right away.
+               // otherwise wait for additional events that occur in rapid
+               // succession but don't wait for more than the specified
+               // maximum seconds
+               time_duration delay = bulkDelay(batchDelay, maxBatchDelay);
                boost::system_time maxBatchDelayTime = 
                               boost::get_system_time() + maxTotalBatchDelay;
                
-               while ( clientEventQueue.waitForEvent(batchDelay) &&
+               while ( !clientEventQueue.hasImmediateEvents() &&
+                       clientEventQueue.waitForEvent(delay) &&
                        (boost::get_system_time() < maxBatchDelayTime) )
                {
                }
@@ -339,6 +432,7 @@ void ClientEventService::run()
             setClientEventResult(&response);
             response.setField(kEventsPending, "false");
             ptrConnection->sendJsonRpcResponse(response);
+            lastResponseTime = microsec_clock::universal_time();
          }
          else
          {
@@ -19,6 +19,7 @@
 #include <string>
 
 #include <boost/utility.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
 
 #include <core/BoostThread.hpp>
 
@@ -38,7 +39,11 @@ ClientEventService& clientEventService();
 class ClientEventService : boost::noncopyable
 {
 private:
-   ClientEventService() {}
+   ClientEventService()
+      : roundTrip_(boost::posix_time::not_a_date_time),
+        bulkDelay_(boost::posix_time::not_a_date_time)
+   {
+   }
    friend ClientEventService& clientEventService();
 
 public:
@@ -49,6 +54,9 @@ public:
    
    void setClientId(const std::string& clientId, bool clearEvents);
 
+   // the measured client round trip, the current delay for batching bulk
+   // events, and the statistics for each lane of the event queue
+   core::json::Object statsAsJson();
 
 private:
    std::string clientId();
@@ -59,6 +67,10 @@ private:
    bool havePendingClientEvents();
    void addClientEvent(const core::json::Object& eventObject);
    void setClientEventResult(core::json::JsonRpcResponse* pResponse);
+   void recordRoundTrip(const boost::posix_time::time_duration& roundTrip);
+   boost::posix_time::time_duration bulkDelay(
+                  const boost::posix_time::time_duration& minDelay,
+                  const boost::posix_time::time_duration& maxDelay);
 
   
 private:
@@ -67,6 +79,11 @@ private:
 
    std::string clientId_ ;
    core::json::Array clientEvents_ ;
+
+   // time from sending events to the client to its next request for them
+   // (smoothed over recent requests)
+   boost::posix_time::time_duration roundTrip_;
+   boost::posix_time::time_duration bulkDelay_;
 };
    
   
@@ -0,0 +1,174 @@
+/*
+ * SessionConsoleOutputBuffer.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionConsoleOutputBuffer.hpp"
+
+#include <algorithm>
+
+#include <boost/foreach.hpp>
+
+#include <core/SafeConvert.hpp>
+
+using namespace core;
+
+namespace session {
+
+namespace {
+
+std::string omittedCharsNote(std::string::size_type omittedChars)
+{
+   return "[... " + safe_convert::numberToString(omittedChars) +
+          (omittedChars == 1 ? " character" : " characters") +
+          " omitted ...]";
+}
+
+} // anonymous namespace
+
+ConsoleOutputBuffer::ConsoleOutputBuffer()
+   : offset_(0), lineCount_(0), omittedLines_(0), omittedChars_(0)
+{
+}
+
+void ConsoleOutputBuffer::append(const std::string& output, int maxLines)
+{
+   if (output.empty())
+      return;
+
+   std::string::size_type lastNewline = output.rfind('\n');
+   if (lastNewline == std::string::npos)
+   {
+      appendToLine(output, 0, output.size());
+      return;
+   }
+
+   // the first newline completes the line being written
+   std::string::size_type firstNewline = output.find('\n');
+   appendToLine(output, 0, firstNewline);
+   std::string chunk = takeLine();
+   chunk.append(output, firstNewline, lastNewline + 1 - firstNewline);
+   chunks_.push_back(chunk);
+   lineCount_ += std::count(output.begin(), output.end(), '\n');
+
+   appendToLine(output, lastNewline + 1, std::string::npos);
+
+   while (lineCount_ > maxLines && lineCount_ > 0)
+      dropLine();
+}
+
+std::string ConsoleOutputBuffer::flush()
+{
+   std::string output;
+   if (omittedLines_ > 0)
+   {
+      output = "[... " + safe_convert::numberToString(omittedLines_) +
+               (omittedLines_ == 1 ? " line" : " lines") + " omitted ...]\n";
+   }
+
+   std::string::size_type size = output.size();
+   BOOST_FOREACH(const std::string& chunk, chunks_)
+   {
+      size += chunk.size();
+   }
+   output.reserve(size - offset_ + line_.size());
+
+   for (std::size_t i = 0; i < chunks_.size(); i++)
+   {
+      if (i == 0)
+         output.append(chunks_[i], offset_, std::string::npos);
+      else
+         output.append(chunks_[i]);
+   }
+   output.append(takeLine());
+
+   clear();
+   return output;
+}
+
+void ConsoleOutputBuffer::clear()
+{
+   chunks_.clear();
+   offset_ = 0;
+   lineCount_ = 0;
+   omittedLines_ = 0;
+   line_.clear();
+   omittedChars_ = 0;
+}
+
+void ConsoleOutputBuffer::appendToLine(const std::string& output,
+                                       std::string::size_type pos,
+                                       std::string::size_type n)
+{
+   line_.append(output, pos, n);
+
+   // drop the start of the line once it's well over the limit (rather than
+   // as soon as it's over, so that output written a character at a time
+   // doesn't move the whole line each time)
+   if (line_.size() > 2 * kMaxLineLength)
+   {
+      std::string::size_type excess = line_.size() - kMaxLineLength;
+      line_.erase(0, excess);
+      omittedChars_ += excess;
+   }
+}
+
+std::string ConsoleOutputBuffer::takeLine()
+{
+   // trim to the limit (and note how much was omitted)
+   std::string::size_type excess =
+               line_.size() > kMaxLineLength ? line_.size() - kMaxLineLength
+                                             : 0;
+   std::string line;
+   if (omittedChars_ + excess > 0)
+   {
+      line = omittedCharsNote(omittedChars_ + excess);
+      line.append(line_, excess, std::string::npos);
+   }
+   else
+   {
+      line.swap(line_);
+   }
+
+   line_.clear();
+   omittedChars_ = 0;
+   return line;
+}
+
+void ConsoleOutputBuffer::dropLine()
+{
+   // drop everything up to and including the next newline
+   while (!chunks_.empty())
+   {
+      std::string::size_type pos = chunks_.front().find('\n', offset_);
+      if (pos == std::string::npos)
+      {
+         chunks_.pop_front();
+         offset_ = 0;
+         continue;
+      }
+
+      offset_ = pos + 1;
+      if (offset_ == chunks_.front().size())
+      {
+         chunks_.pop_front();
+         offset_ = 0;
+      }
+
+      lineCount_--;
+      omittedLines_++;
+      return;
+   }
+}
+
+} // namespace session
@@ -0,0 +1,80 @@
+/*
+ * SessionConsoleOutputBuffer.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_CONSOLE_OUTPUT_BUFFER_HPP
+#define SESSION_CONSOLE_OUTPUT_BUFFER_HPP
+
+#include <deque>
+#include <string>
+
+namespace session {
+
+// Console output which is waiting to be sent to the client. Only the most
+// recent lines are kept (the client can't show more than a console's worth
+// of output anyway): as output is appended the oldest lines are dropped,
+// so that output produced faster than the client collects it can't grow
+// without bound. Output without newlines (e.g. a progress indicator
+// written with cat) never completes a line, so the line being written is
+// also limited to its most recent kMaxLineLength characters.
+class ConsoleOutputBuffer
+{
+public:
+   static const std::string::size_type kMaxLineLength = 64 * 1024;
+
+   ConsoleOutputBuffer();
+
+   // COPYING: via compiler (copyable members)
+
+   // append output, keeping at most maxLines complete lines (along with any
+   // incomplete last line)
+   void append(const std::string& output, int maxLines);
+
+   bool empty() const { return chunks_.empty() && line_.empty(); }
+
+   // the number of complete lines kept
+   int lineCount() const { return lineCount_; }
+
+   // the number of lines which were dropped
+   int omittedLines() const { return omittedLines_; }
+
+   // remove the buffered output, which is preceded by a line noting how many
+   // lines were omitted (if any were)
+   std::string flush();
+
+   void clear();
+
+private:
+   void appendToLine(const std::string& output,
+                     std::string::size_type pos,
+                     std::string::size_type n);
+   std::string takeLine();
+   void dropLine();
+
+   // complete lines, in chunks as they were appended; output before offset_
+   // in the first chunk has been dropped
+   std::deque<std::string> chunks_;
+   std::string::size_type offset_;
+   int lineCount_;
+   int omittedLines_;
+
+   // the line being written (not yet ended by a newline) and the number of
+   // characters dropped from its start
+   std::string line_;
+   std::string::size_type omittedChars_;
+};
+
+} // namespace session
+
+#endif // SESSION_CONSOLE_OUTPUT_BUFFER_HPP
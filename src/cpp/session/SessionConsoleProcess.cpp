@@ -18,6 +18,7 @@
 #include <boost/regex.hpp>
 #include <boost/foreach.hpp>
 #include <boost/algorithm/string/predicate.hpp>
+#include <boost/algorithm/string/trim.hpp>
 
 #include <core/json/JsonRpc.hpp>
 #include <core/system/Process.hpp>
@@ -55,10 +56,6 @@ ConsoleProcess::ConsoleProcess()
      interrupt_(false), outputBuffer_(OUTPUT_BUFFER_SIZE)
 {
    regexInit();
-
-   // When we retrieve from outputBuffer, we only want complete lines. Add a
-   // dummy \n so we can tell the first line is a complete line.
-   outputBuffer_.push_back('\n');
 }
 
 ConsoleProcess::ConsoleProcess(const std::string& command,
@@ -148,24 +145,23 @@ void ConsoleProcess::commonInit()
       core::system::setenv(&(options_.environment.get()), "TERM", "dumb");
 #endif
    }
-
-
-   // When we retrieve from outputBuffer, we only want complete lines. Add a
-   // dummy \n so we can tell the first line is a complete line.
-   outputBuffer_.push_back('\n');
 }
 
 std::string ConsoleProcess::bufferedOutput() const
 {
-   boost::circular_buffer<char>::const_iterator pos =
-         std::find(outputBuffer_.begin(), outputBuffer_.end(), '\n');
+   // only complete lines are returned (so this will be empty if the buffer
+   // was overflowed by a single line)
+   return outputBuffer_.output();
+}
 
-   std::string result;
-   if (pos != outputBuffer_.end())
-      pos++;
-   std::copy(pos, outputBuffer_.end(), std::back_inserter(result));
-   // Will be empty if the buffer was overflowed by a single line
-   return result;
+std::string ConsoleProcess::bufferedOutputSince(int line, int* pStartLine) const
+{
+   return outputBuffer_.outputSince(line, pStartLine);
+}
+
+boost::uint64_t ConsoleProcess::bufferedOutputEnd() const
+{
+   return outputBuffer_.written();
 }
 
 void ConsoleProcess::setPromptHandler(
@@ -253,24 +249,42 @@ bool ConsoleProcess::onContinue(core::system::ProcessOperations& ops)
 
 void ConsoleProcess::appendToOutputBuffer(const std::string &str)
 {
-   std::copy(str.begin(), str.end(), std::back_inserter(outputBuffer_));
+   outputBuffer_.append(str);
 }
 
 void ConsoleProcess::enqueOutputEvent(const std::string &output, bool error)
 {
    // copy to output buffer
+   boost::uint64_t offset = outputBuffer_.written();
+   int firstLine = outputBuffer_.currentLine();
    appendToOutputBuffer(output);
 
    // If there's more output than the client can even show, then
    // truncate it to the amount that the client can show. Too much
-   // output can overwhelm the client, making it unresponsive.
-   std::string trimmedOutput = output;
-   string_utils::trimLeadingLines(maxOutputLines_, &trimmedOutput);
+   // output can overwhelm the client, making it unresponsive. The
+   // buffer's line index tells us whether (and where) to truncate; only
+   // output too large for the buffer to retain needs to be scanned.
+   std::string trimmedOutput;
+   int trimmedLine = outputBuffer_.currentLine() - maxOutputLines_;
+   if (trimmedLine <= firstLine)
+   {
+      trimmedOutput = output;
+   }
+   else if (trimmedLine >= outputBuffer_.firstLine())
+   {
+      trimmedOutput = outputBuffer_.outputSince(trimmedLine);
+   }
+   else
+   {
+      trimmedOutput = output;
+      string_utils::trimLeadingLines(maxOutputLines_, &trimmedOutput);
+   }
 
    json::Object data;
    data["handle"] = handle_;
    data["error"] = error;
    data["output"] = trimmedOutput;
+   data["output_offset"] = json::Value(static_cast<boost::int64_t>(offset));
    module_context::enqueClientEvent(
          ClientEvent(client_events::kConsoleProcessOutput, data));
 }
@@ -380,6 +394,8 @@ core::json::Object ConsoleProcess::toJson() const
    result["interaction_mode"] = static_cast<int>(interactionMode_);
    result["max_output_lines"] = maxOutputLines_;
    result["buffered_output"] = bufferedOutput();
+   result["buffered_output_line"] = outputBuffer_.firstLine();
+   result["current_output_line"] = outputBuffer_.currentLine();
    if (exitCode_)
       result["exit_code"] = *exitCode_;
    else
@@ -413,9 +429,15 @@ boost::shared_ptr<ConsoleProcess> ConsoleProcess::fromJson(
    else
       pProc->maxOutputLines_ = kDefaultMaxOutputLines;
 
+   // keep numbering lines from where the process left off
+   json::Value bufferedOutputLine = obj["buffered_output_line"];
+   if (!bufferedOutputLine.is_null())
+   {
+      pProc->outputBuffer_ = ConsoleProcessOutput(OUTPUT_BUFFER_SIZE,
+                                                  bufferedOutputLine.get_int());
+   }
    std::string bufferedOutput = obj["buffered_output"].get_str();
-   std::copy(bufferedOutput.begin(), bufferedOutput.end(),
-             std::back_inserter(pProc->outputBuffer_));
+   pProc->outputBuffer_.append(bufferedOutput);
    json::Value exitCode = obj["exit_code"];
    if (exitCode.is_null())
       pProc->exitCode_.reset();
@@ -492,6 +514,34 @@ Error procReap(const json::JsonRpcRequest& request,
    }
 }
 
+Error procGetBufferedOutput(const json::JsonRpcRequest& request,
+                            json::JsonRpcResponse* pResponse)
+{
+   std::string handle;
+   int line;
+   Error error = json::readParams(request.params, &handle, &line);
+   if (error)
+      return error;
+
+   ProcTable::const_iterator pos = s_procs.find(handle);
+   if (pos != s_procs.end())
+   {
+      int startLine;
+      json::Object result;
+      result["output"] = pos->second->bufferedOutputSince(line, &startLine);
+      result["start_line"] = startLine;
+      result["end_offset"] = json::Value(static_cast<boost::int64_t>(
+                                          pos->second->bufferedOutputEnd()));
+      pResponse->setResult(result);
+      return Success();
+   }
+   else
+   {
+      return systemError(boost::system::errc::invalid_argument,
+                         ERROR_LOCATION);
+   }
+}
+
 Error procWriteStdin(const json::JsonRpcRequest& request,
                      json::JsonRpcResponse* pResponse)
 {
@@ -695,12 +745,19 @@ bool PasswordManager::forgetOnExit(const CachedPassword& cachedPassword,
 
 core::json::Array processesAsJson()
 {
+   // the client fetches the output of the processes it shows (with
+   // process_get_buffered_output) so only whether there is any is sent
+   // (trimmed since processes can echo a newline back after a password)
    json::Array procInfos;
    for (ProcTable::const_iterator it = s_procs.begin();
         it != s_procs.end();
         it++)
    {
-      procInfos.push_back(it->second->toJson());
+      json::Object procInfo = it->second->toJson();
+      procInfo["has_buffered_output"] = !boost::algorithm::trim_copy(
+                                procInfo["buffered_output"].get_str()).empty();
+      procInfo.erase("buffered_output");
+      procInfos.push_back(procInfo);
    }
    return procInfos;
 }
@@ -755,6 +812,8 @@ Error initialize()
       (bind(registerRpcMethod, "process_start", procStart))
       (bind(registerRpcMethod, "process_interrupt", procInterrupt))
       (bind(registerRpcMethod, "process_reap", procReap))
+      (bind(registerRpcMethod, "process_get_buffered_output",
+            procGetBufferedOutput))
       (bind(registerRpcMethod, "process_write_stdin", procWriteStdin));
 
    return initBlock.execute();
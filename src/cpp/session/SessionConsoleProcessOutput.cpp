@@ -0,0 +1,119 @@
+/*
+ * SessionConsoleProcessOutput.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <session/SessionConsoleProcessOutput.hpp>
+
+#include <algorithm>
+
+namespace session {
+namespace console_process {
+
+ConsoleProcessOutput::ConsoleProcessOutput(std::size_t maxSize, int firstLine)
+   : maxSize_(maxSize), begin_(0), end_(0),
+     firstLine_(firstLine), currentLine_(firstLine)
+{
+   lineOffsets_.push_back(0);
+}
+
+void ConsoleProcessOutput::append(const std::string& output)
+{
+   if (output.empty())
+      return;
+
+   // index the lines which start within the output
+   std::string::size_type pos = output.find('\n');
+   while (pos != std::string::npos)
+   {
+      lineOffsets_.push_back(end_ + pos + 1);
+      currentLine_++;
+      pos = output.find('\n', pos + 1);
+   }
+
+   // keep no more of the output than could be retained
+   Chunk chunk;
+   if (output.size() > maxSize_)
+   {
+      chunk.offset = end_ + (output.size() - maxSize_);
+      chunk.text = output.substr(output.size() - maxSize_);
+   }
+   else
+   {
+      chunk.offset = end_;
+      chunk.text = output;
+   }
+   chunks_.push_back(chunk);
+   end_ += output.size();
+
+   // drop the oldest output
+   if (end_ - begin_ > maxSize_)
+      begin_ = end_ - maxSize_;
+   while (!chunks_.empty() &&
+          chunks_.front().offset + chunks_.front().text.size() <= begin_)
+   {
+      chunks_.pop_front();
+   }
+   while (!lineOffsets_.empty() && lineOffsets_.front() < begin_)
+   {
+      lineOffsets_.pop_front();
+      firstLine_++;
+   }
+}
+
+std::string ConsoleProcessOutput::outputSince(int line, int* pStartLine) const
+{
+   // the output is empty if the whole of it is within a single line
+   // (whose start has been dropped)
+   std::size_t index = line > firstLine_ ? line - firstLine_ : 0;
+   if (index >= lineOffsets_.size())
+   {
+      if (pStartLine)
+         *pStartLine = currentLine_;
+      return std::string();
+   }
+
+   if (pStartLine)
+      *pStartLine = firstLine_ + static_cast<int>(index);
+   return outputFrom(lineOffsets_[index]);
+}
+
+int ConsoleProcessOutput::firstLine() const
+{
+   return lineOffsets_.empty() ? currentLine_ : firstLine_;
+}
+
+std::string ConsoleProcessOutput::outputFrom(boost::uint64_t offset) const
+{
+   std::string output;
+   if (offset >= end_)
+      return output;
+   output.reserve(end_ - offset);
+
+   // find the chunk containing the offset
+   std::deque<Chunk>::const_iterator it = chunks_.begin();
+   while (it != chunks_.end() && it->offset + it->text.size() <= offset)
+      ++it;
+
+   for (; it != chunks_.end(); ++it)
+   {
+      if (it->offset < offset)
+         output.append(it->text, offset - it->offset, std::string::npos);
+      else
+         output.append(it->text);
+   }
+   return output;
+}
+
+} // namespace console_process
+} // namespace session
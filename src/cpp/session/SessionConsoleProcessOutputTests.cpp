@@ -0,0 +1,143 @@
+/*
+ * SessionConsoleProcessOutputTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include <session/SessionConsoleProcessOutput.hpp>
+
+#include <boost/assert.hpp>
+
+#include <core/SafeConvert.hpp>
+
+using namespace core;
+
+namespace session {
+namespace console_process {
+
+namespace {
+
+std::string lines(int first, int last)
+{
+   std::string output;
+   for (int i = first; i <= last; i++)
+      output += "line " + safe_convert::numberToString(i) + "\n";
+   return output;
+}
+
+void testLines()
+{
+   ConsoleProcessOutput output(1024);
+   BOOST_ASSERT(output.output().empty());
+   BOOST_ASSERT(output.firstLine() == 0);
+   BOOST_ASSERT(output.currentLine() == 0);
+
+   // lines which span chunks
+   output.append("line 0");
+   output.append("\nline 1\nli");
+   output.append("ne 2\n");
+   BOOST_ASSERT(output.currentLine() == 3);
+   BOOST_ASSERT(output.output() == lines(0, 2));
+
+   int startLine;
+   BOOST_ASSERT(output.outputSince(1, &startLine) == lines(1, 2));
+   BOOST_ASSERT(startLine == 1);
+   BOOST_ASSERT(output.outputSince(2, &startLine) == lines(2, 2));
+   BOOST_ASSERT(startLine == 2);
+
+   // nothing new since the current line
+   BOOST_ASSERT(output.outputSince(3, &startLine).empty());
+   BOOST_ASSERT(startLine == 3);
+
+   // an incomplete last line is included
+   output.append("partial");
+   BOOST_ASSERT(output.outputSince(3, &startLine) == "partial");
+   BOOST_ASSERT(output.outputSince(10, &startLine).empty());
+}
+
+void testDropping()
+{
+   ConsoleProcessOutput output(100);
+   for (int i = 0; i < 100; i++)
+      output.append(lines(i, i));
+   BOOST_ASSERT(output.currentLine() == 100);
+
+   // only complete lines within the last 100 bytes are kept
+   std::string kept = output.output();
+   BOOST_ASSERT(kept.size() <= 100);
+   BOOST_ASSERT(kept == lines(output.firstLine(), 99));
+   BOOST_ASSERT(output.firstLine() > 80);
+
+   // asking for dropped lines returns what's kept
+   int startLine;
+   BOOST_ASSERT(output.outputSince(5, &startLine) == kept);
+   BOOST_ASSERT(startLine == output.firstLine());
+   BOOST_ASSERT(output.outputSince(98, &startLine) == lines(98, 99));
+
+   // a chunk larger than the buffer
+   output.append(lines(100, 199));
+   BOOST_ASSERT(output.currentLine() == 200);
+   BOOST_ASSERT(output.output() == lines(output.firstLine(), 199));
+
+   // a single line larger than the buffer leaves no complete lines
+   output.append(std::string(150, 'x'));
+   BOOST_ASSERT(output.output().empty());
+   BOOST_ASSERT(output.firstLine() == 200);
+   output.append("\n");
+   BOOST_ASSERT(output.outputSince(201, &startLine).empty());
+   BOOST_ASSERT(startLine == 201);
+   output.append(lines(201, 201));
+   BOOST_ASSERT(output.output() == lines(201, 201));
+}
+
+void testResume()
+{
+   // output restored after a suspend keeps its line numbers
+   ConsoleProcessOutput output(100);
+   output.append(lines(0, 50));
+   ConsoleProcessOutput restored(100, output.firstLine());
+   restored.append(output.output());
+   BOOST_ASSERT(restored.firstLine() == output.firstLine());
+   BOOST_ASSERT(restored.currentLine() == output.currentLine());
+   BOOST_ASSERT(restored.outputSince(49) == output.outputSince(49));
+}
+
+// (as ConsoleProcess uses it to trim the output it sends to the client)
+void testTail()
+{
+   ConsoleProcessOutput output(1024);
+   output.append(lines(0, 9));
+   BOOST_ASSERT(output.written() == lines(0, 9).size());
+
+   int firstLine = output.currentLine();
+   boost::uint64_t offset = output.written();
+   output.append(lines(10, 29) + "partial");
+   BOOST_ASSERT(output.written() == offset + lines(10, 29).size() + 7);
+
+   // the last lines of the chunk just appended
+   BOOST_ASSERT(output.currentLine() - 3 > firstLine);
+   BOOST_ASSERT(output.outputSince(output.currentLine() - 3) ==
+                lines(27, 29) + "partial");
+}
+
+} // anonymous namespace
+
+void runConsoleProcessOutputTests()
+{
+   testLines();
+   testDropping();
+   testResume();
+   testTail();
+}
+
+} // namespace console_process
+} // namespace session
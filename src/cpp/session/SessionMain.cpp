@@ -93,6 +93,7 @@ extern "C" const char *locale2charset(const char *);
 
 #include "SessionClientEventQueue.hpp"
 #include "SessionClientEventService.hpp"
+#include "SessionTests.hpp"
 
 #include "modules/SessionAbout.hpp"
 #include "modules/SessionAgreement.hpp"
@@ -1435,6 +1436,14 @@ Error ping(const core::json::JsonRpcRequest& request,
    return Success();
 }
 
+// internal: statistics about the delivery of client events
+Error getClientEventStats(const core::json::JsonRpcRequest& request,
+                          json::JsonRpcResponse* pResponse)
+{
+   pResponse->setResult(clientEventService().statsAsJson());
+   return Success();
+}
+
 
 Error startHttpConnectionListener()
 {
@@ -1561,6 +1570,7 @@ Error rInit(const r::session::RInitInfo& rInitInfo)
       (bind(registerRpcMethod, kConsoleInput, bufferConsoleInput))
       (bind(registerRpcMethod, "suspend_for_restart", suspendForRestart))
       (bind(registerRpcMethod, "ping", ping))
+      (bind(registerRpcMethod, "get_client_event_stats", getClientEventStats))
 
       // signal handlers
       (registerSignalHandlers)
@@ -1673,6 +1683,15 @@ Error rInit(const r::session::RInitInfo& rInitInfo)
       ::exit(EXIT_SUCCESS);
    }
 
+   // likewise if we are running the unit tests (the exit status reports
+   // whether they passed)
+   if (session::options().runTests())
+   {
+      int status = tests::run();
+      session::options().verifyInstallationHomeDir().removeIfExists();
+      ::exit(status);
+   }
+
    // register all of the json rpc methods implemented in R
    json::JsonRpcMethods rMethods ;
    error = r::json::getRpcMethods(&rMethods);
@@ -2843,7 +2862,7 @@ int main (int argc, char * const argv[])
       // re-initialize log for desktop mode
       if (desktopMode)
       {
-         if (options.verifyInstallation())
+         if (options.verifyInstallation() || options.runTests())
          {
             initializeStderrLog(options.programIdentity(),
                                 core::system::kLogLevelWarning);
@@ -87,7 +87,10 @@ core::ProgramStatus Options::read(int argc, char * const argv[])
    verify.add_options()
      (kVerifyInstallationSessionOption,
      value<bool>(&verifyInstallation_)->default_value(false),
-     "verify the current installation");
+     "verify the current installation")
+     (kRunTestsSessionOption,
+     value<bool>(&runTests_)->default_value(false),
+     "run the session unit tests");
 
    // program - name and execution
    options_description program("program");
@@ -380,6 +383,23 @@ core::ProgramStatus Options::read(int argc, char * const argv[])
       }
    }
 
+   // the tests always run against a scratch home directory (in either mode)
+   // so that they never see or modify the user's session state
+   if (runTests_)
+   {
+      FilePath homeDir;
+      Error error = FilePath::tempFilePath(&homeDir);
+      if (!error)
+         error = homeDir.ensureDirectory();
+      if (error)
+      {
+         LOG_ERROR(error);
+         return ProgramStatus::exitFailure();
+      }
+      verifyInstallationHomeDir_ = homeDir.absolutePath();
+      core::system::setenv("R_USER", verifyInstallationHomeDir_);
+   }
+
    // compute user paths
    r_util::SessionType sessionType =
       (programMode_ == kSessionProgramModeDesktop) ?
@@ -16,11 +16,14 @@
 #include <session/SessionSourceDatabase.hpp>
 
 #include <string>
+#include <map>
 #include <vector>
 #include <algorithm>
+#include <iterator>
 
 #include <boost/bind.hpp>
 #include <boost/foreach.hpp>
+#include <boost/scoped_ptr.hpp>
 #include <boost/regex.hpp>
 #include <boost/date_time/posix_time/posix_time.hpp>
 
@@ -42,6 +45,7 @@
 #include <session/SessionModuleContext.hpp>
 #include <session/projects/SessionProjects.hpp>
 
+#include "SessionSourceDatabaseIndex.hpp"
 #include "SessionSourceDatabaseSupervisor.hpp"
 
 // NOTE: if a file is deleted then its properties database entry is not
@@ -199,6 +203,35 @@ std::string pathFromProjectPath(json::Value projPathJson)
       return std::string();
 }
 
+// do the contents of the file at path match the given contents (as
+// identified by their length and hash)? files too large to be worth reading
+// are assumed not to
+Error fileHasContents(const std::string& path,
+                      const std::string& encoding,
+                      std::size_t length,
+                      const std::string& hash,
+                      bool* pHasContents)
+{
+   *pHasContents = false;
+
+   FilePath docPath = module_context::resolveAliasedPath(path);
+   if (docPath.exists() && docPath.size() <= (1024*1024))
+   {
+      std::string contents;
+      Error error = module_context::readAndDecodeFile(docPath,
+                                                      encoding,
+                                                      true,
+                                                      &contents);
+      if (error)
+         return error;
+
+      *pHasContents = length == contents.length() &&
+                      hash == hash::crc32Hash(contents);
+   }
+
+   return Success();
+}
+
 }  // anonymous namespace
 
 SourceDocument::SourceDocument(const std::string& type)
@@ -287,20 +320,17 @@ Error SourceDocument::updateDirty()
       // on disk are different, because we will do that on the client side
       // and the UI logic is a little complicated.
 
-      FilePath docPath = module_context::resolveAliasedPath(path());
-      if (docPath.exists() && docPath.size() <= (1024*1024))
-      {
-         std::string contents;
-         Error error = module_context::readAndDecodeFile(docPath,
-                                                         encoding(),
-                                                         true,
-                                                         &contents);
-         if (error)
-            return error;
-
-         if (contents_.length() == contents.length() && hash_ == hash::crc32Hash(contents))
-            dirty_ = false;
-      }
+      bool unchanged;
+      Error error = fileHasContents(path(),
+                                    encoding(),
+                                    contents_.length(),
+                                    hash_,
+                                    &unchanged);
+      if (error)
+         return error;
+
+      if (unchanged)
+         dirty_ = false;
    }
    return Success();
 }
@@ -423,6 +453,29 @@ void SourceDocument::writeToJson(json::Object* pDocJson) const
    jsonDoc["encoding"] = encoding_;
 }
 
+Error SourceDocument::readFromFile(const FilePath& filePath)
+{
+   // read the contents of the file
+   std::string contents ;
+   Error error = readStringFromFile(filePath, &contents,
+                                    options().sourceLineEnding());
+   if (error)
+      return error;
+
+   // parse the json
+   json::Value value;
+   if ( !json::parse(contents, &value) ||
+        !json::isType<json::Object>(value) )
+   {
+      return systemError(boost::system::errc::invalid_argument,
+                         ERROR_LOCATION);
+   }
+
+   // initialize doc from json
+   json::Object jsonDoc = value.get_obj();
+   return readFromJson(&jsonDoc);
+}
+
 Error SourceDocument::writeToFile(const FilePath& filePath) const
 {
    // get json representation
@@ -469,10 +522,101 @@ bool sortByRelativeOrder(const boost::shared_ptr<SourceDocument>& pDoc1,
    return pDoc1->relativeOrder() < pDoc2->relativeOrder();
 }
 
+bool sortInfoByRelativeOrder(const SourceDocumentInfo& info1,
+                             const SourceDocumentInfo& info2)
+{
+   if (info1.relativeOrder == 0 && info2.relativeOrder == 0)
+   {
+      return info1.created < info2.created;
+   }
+   if (info1.relativeOrder == 0)
+   {
+      return false;
+   }
+   return info1.relativeOrder < info2.relativeOrder;
+}
+
+Error updateDirty(SourceDocumentInfo* pInfo)
+{
+   if (pInfo->path.empty())
+   {
+      pInfo->dirty = pInfo->length > 0;
+   }
+   else if (pInfo->dirty)
+   {
+      // (see SourceDocument::updateDirty)
+      bool unchanged;
+      Error error = fileHasContents(pInfo->path,
+                                    pInfo->encoding,
+                                    pInfo->length,
+                                    pInfo->hash,
+                                    &unchanged);
+      if (error)
+         return error;
+
+      if (unchanged)
+         pInfo->dirty = false;
+   }
+   return Success();
+}
+
+void writeInfoToJson(const SourceDocumentInfo& info,
+                     json::Object* pDocJson)
+{
+   json::Object& jsonDoc = *pDocJson;
+   jsonDoc["id"] = info.id;
+   jsonDoc["path"] = !info.path.empty() ? info.path : json::Value();
+   jsonDoc["project_path"] = pathToProjectPath(info.path);
+   jsonDoc["type"] = !info.type.empty() ? info.type : json::Value();
+   jsonDoc["hash"] = info.hash;
+   jsonDoc["contents"] = json::Value();
+   jsonDoc["dirty"] = info.dirty;
+   jsonDoc["created"] = info.created;
+   jsonDoc["source_on_save"] = info.sourceOnSave;
+   jsonDoc["relative_order"] = info.relativeOrder;
+   jsonDoc["properties"] = info.properties;
+   jsonDoc["folds"] = info.folds;
+   jsonDoc["lastKnownWriteTime"] = json::Value(
+         static_cast<boost::int64_t>(info.lastKnownWriteTime));
+   jsonDoc["encoding"] = info.encoding;
+}
+
 namespace {
 
 FilePath s_sourceDBPath;
 
+// index of the documents in s_sourceDBPath (created by initialize)
+boost::scoped_ptr<SourceDatabaseIndex> s_pIndex;
+
+// changes to the index are written after a short delay so that a burst of
+// puts (e.g. reordering tabs or a run of property changes) writes it once;
+// an index left stale by a crash is repaired the next time it is listed
+bool s_indexWritePending = false;
+
+void writeIndex()
+{
+   s_indexWritePending = false;
+
+   // (the database is detached at shutdown)
+   if (!s_pIndex)
+      return;
+
+   Error error = s_pIndex->flush();
+   if (error)
+      LOG_ERROR(error);
+}
+
+void scheduleIndexWrite()
+{
+   if (s_indexWritePending)
+      return;
+
+   s_indexWritePending = true;
+   module_context::scheduleDelayedWork(boost::posix_time::seconds(1),
+                                       writeIndex,
+                                       false);
+}
+
 } // anonymous namespace
 
 FilePath path()
@@ -485,24 +629,7 @@ Error get(const std::string& id, boost::shared_ptr<SourceDocument> pDoc)
    FilePath filePath = source_database::path().complete(id);
    if (filePath.exists())
    {
-      // read the contents of the file
-      std::string contents ;
-      Error error = readStringFromFile(filePath, &contents,
-                                       options().sourceLineEnding());
-      if (error)
-         return error;
-   
-      // parse the json
-      json::Value value;
-      if ( !json::parse(contents, &value) )
-      {
-         return systemError(boost::system::errc::invalid_argument,
-                            ERROR_LOCATION);
-      }
-      
-      // initialize doc from json
-      json::Object jsonDoc = value.get_obj();
-      return pDoc->readFromJson(&jsonDoc);
+      return pDoc->readFromFile(filePath);
    }
    else
    {
@@ -516,18 +643,6 @@ Error getDurableProperties(const std::string& path, json::Object* pProperties)
    return getProperties(path, pProperties);
 }
 
-bool isSourceDocument(const FilePath& filePath)
-{
-   if (filePath.isDirectory())
-      return false;
-   else if (filePath.filename() == ".DS_Store")
-      return false;
-   else if (filePath.filename() == "lock_file")
-      return false;
-   else
-      return true;
-}
-
 void logUnsafeSourceDocument(const FilePath& filePath,
                              const std::string& reason)
 {
@@ -538,22 +653,13 @@ void logUnsafeSourceDocument(const FilePath& filePath,
    LOG_WARNING_MESSAGE(msg);
 }
 
-bool hasNullByteSequence(const std::string& contents)
-{
-   std::string nullBytes;
-   nullBytes.push_back('\0');
-   nullBytes.push_back('\0');
-   return boost::algorithm::contains(contents, nullBytes);
-}
-
-bool isSafeSourceDocument(const FilePath& docDbPath,
-                          boost::shared_ptr<SourceDocument> pDoc)
+bool isSafeSourceDocument(const SourceDocumentInfo& info)
 {
    // get a filepath and use it for filtering if we can
    FilePath filePath;
-   if (!pDoc->path().empty())
+   if (!info.path.empty())
    {
-      filePath = FilePath(pDoc->path());
+      filePath = FilePath(info.path);
       if (filePath.extensionLowerCase() == ".rdata")
       {
          logUnsafeSourceDocument(filePath, ".RData file");
@@ -562,7 +668,7 @@ bool isSafeSourceDocument(const FilePath& docDbPath,
    }
 
    // get the size of the file in KB
-   uintmax_t docSizeKb = docDbPath.size() / 1024;
+   uintmax_t docSizeKb = info.size / 1024;
    std::string kbStr = safe_convert::numberToString(docSizeKb);
 
    // if it's larger than 2MB then always drop it (that's the limit
@@ -575,14 +681,14 @@ bool isSafeSourceDocument(const FilePath& docDbPath,
 
    // if it's larger then 500K and not dirty then drop it as well
    // (that's the file size considered "large" on the client)
-   else if (!pDoc->dirty() && (docSizeKb > 512))
+   else if (!info.dirty && (docSizeKb > 512))
    {
       logUnsafeSourceDocument(filePath, "File too large (" + kbStr + ")");
       return false;
    }
 
    // if it has a sequence of 2 null bytes then drop it
-   else if (hasNullByteSequence(pDoc->contents()))
+   else if (info.binary)
    {
       logUnsafeSourceDocument(filePath,
                               "File is binary (has null byte sequence)");
@@ -596,33 +702,64 @@ bool isSafeSourceDocument(const FilePath& docDbPath,
 }
 
 
+namespace {
+
+Error listIndexed(
+      std::vector<SourceDocumentInfo>* pInfos,
+      std::map<std::string,boost::shared_ptr<SourceDocument> >* pReadDocs)
+{
+   std::vector<SourceDocumentInfo> infos;
+   Error error = s_pIndex->list(&infos, pReadDocs);
+   if (error)
+      return error;
+
+   // safety filter
+   pInfos->clear();
+   std::remove_copy_if(infos.begin(),
+                       infos.end(),
+                       std::back_inserter(*pInfos),
+                       !boost::bind(isSafeSourceDocument, _1));
+
+   return Success();
+}
+
+} // anonymous namespace
+
 Error list(std::vector<boost::shared_ptr<SourceDocument> >* pDocs)
 {
-   std::vector<FilePath> files ;
-   Error error = source_database::path().children(&files);
+   // (documents the index had to read are returned rather than re-read)
+   std::vector<SourceDocumentInfo> infos;
+   std::map<std::string,boost::shared_ptr<SourceDocument> > readDocs;
+   Error error = listIndexed(&infos, &readDocs);
    if (error)
       return error ;
    
-   BOOST_FOREACH( FilePath& filePath, files )
+   BOOST_FOREACH( const SourceDocumentInfo& info, infos )
    {
-      if (isSourceDocument(filePath))
+      std::map<std::string,boost::shared_ptr<SourceDocument> >::iterator
+                                                it = readDocs.find(info.id);
+      if (it != readDocs.end())
       {
-         // get the source doc
-         boost::shared_ptr<SourceDocument> pDoc(new SourceDocument()) ;
-         Error error = source_database::get(filePath.filename(), pDoc);
-         if (!error)
-         {
-            // safety filter
-            if (isSafeSourceDocument(filePath, pDoc))
-               pDocs->push_back(pDoc);
-         }
-         else
-            LOG_ERROR(error);
+         pDocs->push_back(it->second);
+         continue;
       }
+
+      // get the source doc
+      boost::shared_ptr<SourceDocument> pDoc(new SourceDocument()) ;
+      Error error = source_database::get(info.id, pDoc);
+      if (!error)
+         pDocs->push_back(pDoc);
+      else
+         LOG_ERROR(error);
    }
    
    return Success();
 }
+
+Error listInfo(std::vector<SourceDocumentInfo>* pInfos)
+{
+   return listIndexed(pInfos, NULL);
+}
    
 Error put(boost::shared_ptr<SourceDocument> pDoc)
 {   
@@ -632,6 +769,10 @@ Error put(boost::shared_ptr<SourceDocument> pDoc)
    if (error)
       return error ;
 
+   // update the index
+   s_pIndex->update(*pDoc);
+   scheduleIndexWrite();
+
    // write properties to durable storage (if there is a path)
    if (!pDoc->path().empty())
    {
@@ -645,7 +786,14 @@ Error put(boost::shared_ptr<SourceDocument> pDoc)
    
 Error remove(const std::string& id)
 {
-   return source_database::path().complete(id).removeIfExists();
+   Error error = source_database::path().complete(id).removeIfExists();
+   if (error)
+      return error;
+
+   s_pIndex->remove(id);
+   scheduleIndexWrite();
+
+   return Success();
 }
    
 Error removeAll()
@@ -655,6 +803,8 @@ Error removeAll()
    if (error)
       return error ;
    
+   // (this removes the index file as well)
+   s_pIndex->clear();
    BOOST_FOREACH( FilePath& filePath, files )
    {
       Error error = filePath.remove();
@@ -667,11 +817,27 @@ Error removeAll()
 
 namespace {
 
+void onSuspend(const r::session::RSuspendOptions&, Settings*)
+{
+   // write any pending changes to the index (the session's directory
+   // is reattached on resume)
+   Error error = s_pIndex->flush();
+   if (error)
+      LOG_ERROR(error);
+}
+
+void onResume(const Settings&)
+{
+}
+
 void onShutdown(bool)
 {
    Error error = supervisor::detachFromSourceDatabase();
    if (error)
       LOG_ERROR(error);
+
+   // (the session's directory, including the index, is gone)
+   s_pIndex.reset();
 }
 
 } // anonymous namespace
@@ -688,8 +854,11 @@ Error initialize()
    Error error = supervisor::attachToSourceDatabase(&s_sourceDBPath);
    if (error)
       return error;
+   s_pIndex.reset(new SourceDatabaseIndex(s_sourceDBPath));
 
-   // signup for the shutdown event
+   // signup for the suspend and shutdown events
+   module_context::addSuspendHandler(module_context::SuspendHandler(
+                                                onSuspend, onResume));
    module_context::events().onShutdown.connect(onShutdown);
 
    return Success();
@@ -0,0 +1,363 @@
+/*
+ * SessionSourceDatabaseIndex.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionSourceDatabaseIndex.hpp"
+
+#include <sstream>
+
+#include <boost/foreach.hpp>
+#include <boost/cstdint.hpp>
+#include <boost/algorithm/string/predicate.hpp>
+
+#include <core/Log.hpp>
+#include <core/Error.hpp>
+#include <core/FileSerializer.hpp>
+
+using namespace core;
+
+namespace session {
+namespace source_database {
+
+namespace {
+
+const char * const kIndexFile = "INDEX";
+const char * const kIndexTempFile = "INDEX.tmp";
+
+// bump this if the format of the index changes (indexes with another
+// version are ignored and rebuilt from the documents)
+const int kIndexVersion = 2;
+
+bool hasNullByteSequence(const std::string& contents)
+{
+   std::string nullBytes;
+   nullBytes.push_back('\0');
+   nullBytes.push_back('\0');
+   return boost::algorithm::contains(contents, nullBytes);
+}
+
+SourceDocumentInfo infoFromDocument(const SourceDocument& doc,
+                                    const FilePath& docPath)
+{
+   SourceDocumentInfo info;
+   info.id = doc.id();
+   info.path = doc.path();
+   info.type = doc.type();
+   info.hash = doc.hash();
+   info.encoding = doc.encoding();
+   info.folds = doc.folds();
+   info.dirty = doc.dirty();
+   info.created = doc.created();
+   info.sourceOnSave = doc.sourceOnSave();
+   info.relativeOrder = doc.relativeOrder();
+   info.properties = doc.properties();
+   info.lastKnownWriteTime = doc.lastKnownWriteTime();
+   info.length = doc.contents().length();
+   info.binary = hasNullByteSequence(doc.contents());
+   if (docPath.exists())
+   {
+      info.size = docPath.size();
+      info.lastWriteTime = docPath.lastWriteTime();
+   }
+   return info;
+}
+
+json::Object infoAsJson(const SourceDocumentInfo& info)
+{
+   json::Object infoJson;
+   infoJson["id"] = info.id;
+   infoJson["path"] = info.path;
+   infoJson["type"] = info.type;
+   infoJson["hash"] = info.hash;
+   infoJson["encoding"] = info.encoding;
+   infoJson["folds"] = info.folds;
+   infoJson["dirty"] = info.dirty;
+   infoJson["created"] = info.created;
+   infoJson["source_on_save"] = info.sourceOnSave;
+   infoJson["relative_order"] = info.relativeOrder;
+   infoJson["properties"] = info.properties;
+   infoJson["last_known_write_time"] = json::Value(
+                        static_cast<boost::int64_t>(info.lastKnownWriteTime));
+   infoJson["length"] = json::Value(static_cast<boost::int64_t>(info.length));
+   infoJson["binary"] = info.binary;
+   infoJson["size"] = json::Value(static_cast<boost::int64_t>(info.size));
+   infoJson["last_write_time"] = json::Value(
+                        static_cast<boost::int64_t>(info.lastWriteTime));
+   return infoJson;
+}
+
+// NOTE: like SourceDocument::readFromJson this doesn't do checked access
+// (the index was written by infoAsJson) -- a malformed entry throws
+SourceDocumentInfo infoFromJson(const json::Value& value)
+{
+   json::Object infoJson = value.get_obj();
+
+   SourceDocumentInfo info;
+   info.id = infoJson["id"].get_str();
+   info.path = infoJson["path"].get_str();
+   info.type = infoJson["type"].get_str();
+   info.hash = infoJson["hash"].get_str();
+   info.encoding = infoJson["encoding"].get_str();
+   info.folds = infoJson["folds"].get_str();
+   info.dirty = infoJson["dirty"].get_bool();
+   info.created = infoJson["created"].get_real();
+   info.sourceOnSave = infoJson["source_on_save"].get_bool();
+   info.relativeOrder = infoJson["relative_order"].get_int();
+   info.properties = infoJson["properties"].get_obj();
+   info.lastKnownWriteTime = infoJson["last_known_write_time"].get_int64();
+   info.length = infoJson["length"].get_int64();
+   info.binary = infoJson["binary"].get_bool();
+   info.size = infoJson["size"].get_int64();
+   info.lastWriteTime = infoJson["last_write_time"].get_int64();
+   return info;
+}
+
+} // anonymous namespace
+
+SourceDatabaseIndex::SourceDatabaseIndex(const FilePath& databasePath)
+   : databasePath_(databasePath),
+     indexPath_(databasePath.complete(kIndexFile)),
+     loaded_(false),
+     dirty_(false)
+{
+}
+
+Error SourceDatabaseIndex::list(
+            std::vector<SourceDocumentInfo>* pInfos,
+            std::map<std::string,boost::shared_ptr<SourceDocument> >* pReadDocs)
+{
+   load();
+
+   std::vector<FilePath> files;
+   Error error = databasePath_.children(&files);
+   if (error)
+      return error;
+
+   // take the info for documents which haven't changed since they were
+   // indexed and re-read those which have (or which aren't indexed at all);
+   // entries for documents which no longer exist are dropped
+   std::map<std::string,SourceDocumentInfo> infos;
+   BOOST_FOREACH(const FilePath& filePath, files)
+   {
+      if (!isSourceDocument(filePath))
+         continue;
+
+      std::string id = filePath.filename();
+      std::map<std::string,SourceDocumentInfo>::const_iterator it =
+                                                         infos_.find(id);
+      if (it != infos_.end() &&
+          it->second.size == filePath.size() &&
+          it->second.lastWriteTime == filePath.lastWriteTime())
+      {
+         infos.insert(*it);
+      }
+      else
+      {
+         SourceDocumentInfo info;
+         boost::shared_ptr<SourceDocument> pDoc;
+         Error error = readInfo(filePath, &info, &pDoc);
+         if (error)
+         {
+            LOG_ERROR(error);
+            continue;
+         }
+
+         infos.insert(std::make_pair(id, info));
+         if (pReadDocs)
+            pReadDocs->insert(std::make_pair(info.id, pDoc));
+         dirty_ = true;
+      }
+   }
+
+   if (infos.size() != infos_.size())
+      dirty_ = true;
+   infos_.swap(infos);
+
+   error = flush();
+   if (error)
+      LOG_ERROR(error);
+
+   pInfos->clear();
+   std::map<std::string,SourceDocumentInfo>::const_iterator it;
+   for (it = infos_.begin(); it != infos_.end(); ++it)
+      pInfos->push_back(it->second);
+
+   return Success();
+}
+
+bool SourceDatabaseIndex::find(const std::string& id,
+                               SourceDocumentInfo* pInfo)
+{
+   load();
+
+   std::map<std::string,SourceDocumentInfo>::const_iterator it =
+                                                         infos_.find(id);
+   if (it == infos_.end())
+      return false;
+
+   *pInfo = it->second;
+   return true;
+}
+
+void SourceDatabaseIndex::update(const SourceDocument& doc)
+{
+   FilePath docPath = databasePath_.complete(doc.id());
+   update(infoFromDocument(doc, docPath));
+}
+
+void SourceDatabaseIndex::update(const SourceDocumentInfo& info)
+{
+   load();
+
+   infos_[info.id] = info;
+   dirty_ = true;
+}
+
+void SourceDatabaseIndex::remove(const std::string& id)
+{
+   load();
+
+   if (infos_.erase(id) > 0)
+      dirty_ = true;
+}
+
+void SourceDatabaseIndex::clear()
+{
+   infos_.clear();
+   loaded_ = true;
+   dirty_ = false;
+}
+
+Error SourceDatabaseIndex::flush()
+{
+   if (!dirty_)
+      return Success();
+
+   return write();
+}
+
+bool SourceDatabaseIndex::isIndexFile(const FilePath& filePath)
+{
+   return filePath.filename() == kIndexFile ||
+          filePath.filename() == kIndexTempFile;
+}
+
+bool SourceDatabaseIndex::isSourceDocument(const FilePath& filePath)
+{
+   if (filePath.isDirectory())
+      return false;
+   else if (filePath.filename() == ".DS_Store")
+      return false;
+   else if (filePath.filename() == "lock_file")
+      return false;
+   else if (isIndexFile(filePath))
+      return false;
+   else
+      return true;
+}
+
+void SourceDatabaseIndex::load()
+{
+   if (loaded_)
+      return;
+   loaded_ = true;
+
+   if (!indexPath_.exists())
+      return;
+
+   std::string contents;
+   Error error = readStringFromFile(indexPath_, &contents);
+   if (error)
+   {
+      LOG_ERROR(error);
+      return;
+   }
+
+   // an unreadable index is simply rebuilt (by list) from the documents
+   json::Value indexJson;
+   if (!json::parse(contents, &indexJson) ||
+       !json::isType<json::Object>(indexJson))
+   {
+      LOG_WARNING_MESSAGE("Ignoring invalid source database index: " +
+                          indexPath_.absolutePath());
+      return;
+   }
+
+   try
+   {
+      json::Object indexObject = indexJson.get_obj();
+      if (indexObject["version"].get_int() != kIndexVersion)
+         return;
+
+      const json::Array& docsJson = indexObject["documents"].get_array();
+      BOOST_FOREACH(const json::Value& docJson, docsJson)
+      {
+         SourceDocumentInfo info = infoFromJson(docJson);
+         infos_[info.id] = info;
+      }
+   }
+   catch(const std::exception& e)
+   {
+      LOG_WARNING_MESSAGE("Ignoring invalid source database index (" +
+                          std::string(e.what()) + "): " +
+                          indexPath_.absolutePath());
+      infos_.clear();
+   }
+}
+
+Error SourceDatabaseIndex::write()
+{
+   json::Array docsJson;
+   std::map<std::string,SourceDocumentInfo>::const_iterator it;
+   for (it = infos_.begin(); it != infos_.end(); ++it)
+      docsJson.push_back(infoAsJson(it->second));
+
+   json::Object indexJson;
+   indexJson["version"] = kIndexVersion;
+   indexJson["documents"] = docsJson;
+   std::ostringstream ostr;
+   json::write(indexJson, ostr);
+
+   // write to a temporary file and then rename it over the index so that
+   // a crash never leaves a partially written index behind
+   FilePath tempPath = databasePath_.complete(kIndexTempFile);
+   Error error = writeStringToFile(tempPath, ostr.str());
+   if (error)
+      return error;
+
+   error = tempPath.move(indexPath_);
+   if (error)
+      return error;
+
+   dirty_ = false;
+   return Success();
+}
+
+Error SourceDatabaseIndex::readInfo(
+                     const FilePath& docPath,
+                     SourceDocumentInfo* pInfo,
+                     boost::shared_ptr<SourceDocument>* ppDoc) const
+{
+   boost::shared_ptr<SourceDocument> pDoc(new SourceDocument());
+   Error error = pDoc->readFromFile(docPath);
+   if (error)
+      return error;
+
+   *pInfo = infoFromDocument(*pDoc, docPath);
+   *ppDoc = pDoc;
+   return Success();
+}
+
+} // namespace source_database
+} // namespace session
@@ -0,0 +1,102 @@
+/*
+ * SessionSourceDatabaseIndex.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_SOURCE_DATABASE_INDEX_HPP
+#define SESSION_SOURCE_DATABASE_INDEX_HPP
+
+#include <map>
+#include <string>
+#include <vector>
+
+#include <boost/utility.hpp>
+#include <boost/shared_ptr.hpp>
+
+#include <core/FilePath.hpp>
+
+#include <session/SessionSourceDatabase.hpp>
+
+namespace core {
+   class Error;
+}
+
+namespace session {
+namespace source_database {
+
+// Index of the documents in a source database directory. The index is
+// kept in memory and persisted (atomically, by writing a temporary file
+// and renaming it) to a file within the directory. Changes are only
+// persisted by flush (so callers can batch or defer the write). Listing
+// reconciles the index with the documents actually in the directory, so a
+// missing, stale or corrupt index file (e.g. after a crash) is repaired
+// rather than trusted.
+class SourceDatabaseIndex : boost::noncopyable
+{
+public:
+   explicit SourceDatabaseIndex(const core::FilePath& databasePath);
+
+   // info for all of the documents in the directory (sorted by id). the
+   // documents which had to be read to reconcile the index are optionally
+   // returned (by id) so that callers needn't read them again.
+   core::Error list(
+      std::vector<SourceDocumentInfo>* pInfos,
+      std::map<std::string,boost::shared_ptr<SourceDocument> >* pReadDocs =
+                                                                     NULL);
+
+   // the indexed info for a document (not checked against the document)
+   bool find(const std::string& id, SourceDocumentInfo* pInfo);
+
+   // record a document which has just been written to the directory
+   void update(const SourceDocument& doc);
+
+   // record the indexed info for a document which has been moved into the
+   // directory from another (moving preserves its size and write time)
+   void update(const SourceDocumentInfo& info);
+
+   // forget a document which has been removed from the directory
+   void remove(const std::string& id);
+
+   // forget everything (after the directory has been emptied)
+   void clear();
+
+   // write the index if it has changed since it was last written
+   core::Error flush();
+
+   // is this the index (or its temporary file)?
+   static bool isIndexFile(const core::FilePath& filePath);
+
+   // is this a document (rather than the index or some other file)?
+   static bool isSourceDocument(const core::FilePath& filePath);
+
+private:
+   void load();
+   core::Error write();
+   core::Error readInfo(const core::FilePath& docPath,
+                        SourceDocumentInfo* pInfo,
+                        boost::shared_ptr<SourceDocument>* ppDoc) const;
+
+private:
+   core::FilePath databasePath_;
+   core::FilePath indexPath_;
+   bool loaded_;
+   bool dirty_;
+   std::map<std::string,SourceDocumentInfo> infos_;
+};
+
+void runSourceDatabaseIndexTests();
+
+} // namespace source_database
+} // namespace session
+
+#endif // SESSION_SOURCE_DATABASE_INDEX_HPP
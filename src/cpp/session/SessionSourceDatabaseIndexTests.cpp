@@ -0,0 +1,306 @@
+/*
+ * SessionSourceDatabaseIndexTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionSourceDatabaseIndex.hpp"
+
+#include <map>
+
+#include <boost/assert.hpp>
+#include <boost/shared_ptr.hpp>
+
+#include <core/Error.hpp>
+#include <core/FilePath.hpp>
+#include <core/FileSerializer.hpp>
+
+using namespace core;
+
+namespace session {
+namespace source_database {
+
+namespace {
+
+// writes a document to the database directory (as put does) and
+// optionally records it in the index
+void putDocument(const FilePath& dir,
+                 SourceDatabaseIndex* pIndex,
+                 SourceDocument* pDoc)
+{
+   Error error = pDoc->writeToFile(dir.complete(pDoc->id()));
+   BOOST_ASSERT(!error);
+   if (pIndex)
+   {
+      pIndex->update(*pDoc);
+      error = pIndex->flush();
+      BOOST_ASSERT(!error);
+   }
+}
+
+std::vector<SourceDocumentInfo> list(
+      SourceDatabaseIndex* pIndex,
+      std::map<std::string,boost::shared_ptr<SourceDocument> >* pReadDocs =
+                                                                     NULL)
+{
+   std::vector<SourceDocumentInfo> infos;
+   Error error = pIndex->list(&infos, pReadDocs);
+   BOOST_ASSERT(!error);
+   return infos;
+}
+
+const SourceDocumentInfo* find(const std::vector<SourceDocumentInfo>& infos,
+                               const std::string& id)
+{
+   for (std::size_t i = 0; i < infos.size(); i++)
+   {
+      if (infos[i].id == id)
+         return &infos[i];
+   }
+   return NULL;
+}
+
+void testUpdate(const FilePath& dir)
+{
+   SourceDatabaseIndex index(dir);
+   BOOST_ASSERT(list(&index).empty());
+
+   SourceDocument doc1("r_source");
+   doc1.setContents("x <- 1\n");
+   doc1.setDirty(true);
+   doc1.setRelativeOrder(2);
+   doc1.setEncoding("UTF-8");
+   doc1.setFolds("1:2|3:4");
+   doc1.setSourceOnSave(true);
+   putDocument(dir, &index, &doc1);
+
+   SourceDocument doc2("text");
+   doc2.setContents(std::string("binary\0\0contents", 16));
+   putDocument(dir, &index, &doc2);
+
+   std::vector<SourceDocumentInfo> infos = list(&index);
+   BOOST_ASSERT(infos.size() == 2);
+   const SourceDocumentInfo* pInfo1 = find(infos, doc1.id());
+   BOOST_ASSERT(pInfo1 != NULL);
+   BOOST_ASSERT(pInfo1->type == "r_source");
+   BOOST_ASSERT(pInfo1->hash == doc1.hash());
+   BOOST_ASSERT(pInfo1->dirty);
+   BOOST_ASSERT(pInfo1->relativeOrder == 2);
+   BOOST_ASSERT(pInfo1->encoding == "UTF-8");
+   BOOST_ASSERT(pInfo1->folds == "1:2|3:4");
+   BOOST_ASSERT(pInfo1->sourceOnSave);
+   BOOST_ASSERT(pInfo1->length == doc1.contents().length());
+   BOOST_ASSERT(!pInfo1->binary);
+   BOOST_ASSERT(pInfo1->size == dir.complete(doc1.id()).size());
+   const SourceDocumentInfo* pInfo2 = find(infos, doc2.id());
+   BOOST_ASSERT(pInfo2 != NULL && pInfo2->binary);
+
+   // the index is persisted (and isn't itself listed as a document)
+   SourceDatabaseIndex reopened(dir);
+   infos = list(&reopened);
+   BOOST_ASSERT(infos.size() == 2);
+   BOOST_ASSERT(find(infos, doc1.id())->relativeOrder == 2);
+   BOOST_ASSERT(find(infos, doc1.id())->folds == "1:2|3:4");
+   BOOST_ASSERT(find(infos, doc1.id())->length == doc1.contents().length());
+
+   // removed documents are forgotten
+   Error error = dir.complete(doc2.id()).remove();
+   BOOST_ASSERT(!error);
+   reopened.remove(doc2.id());
+   error = reopened.flush();
+   BOOST_ASSERT(!error);
+   infos = list(&reopened);
+   BOOST_ASSERT(infos.size() == 1 && infos[0].id == doc1.id());
+}
+
+// changes are only written by flush (and only if there are any)
+void testFlush(const FilePath& dir)
+{
+   SourceDatabaseIndex index(dir);
+   SourceDocument doc;
+   doc.setContents("unflushed");
+   Error error = doc.writeToFile(dir.complete(doc.id()));
+   BOOST_ASSERT(!error);
+   index.update(doc);
+
+   FilePath indexPath = dir.complete("INDEX");
+   BOOST_ASSERT(!indexPath.exists());
+   error = index.flush();
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(indexPath.exists());
+
+   error = indexPath.remove();
+   BOOST_ASSERT(!error);
+   error = index.flush();
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(!indexPath.exists());
+}
+
+// documents which must be read to reconcile the index are returned by list
+// (so that they needn't be read again) and indexed documents aren't read
+void testReadDocs(const FilePath& dir)
+{
+   SourceDatabaseIndex index(dir);
+
+   SourceDocument indexed;
+   indexed.setContents("indexed");
+   putDocument(dir, &index, &indexed);
+
+   SourceDocument unindexed;
+   unindexed.setContents("unindexed");
+   putDocument(dir, NULL, &unindexed);
+
+   std::map<std::string,boost::shared_ptr<SourceDocument> > readDocs;
+   BOOST_ASSERT(list(&index, &readDocs).size() == 2);
+   BOOST_ASSERT(readDocs.size() == 1);
+   BOOST_ASSERT(readDocs.count(unindexed.id()) == 1);
+   BOOST_ASSERT(readDocs[unindexed.id()]->contents() == "unindexed");
+
+   // now that it's indexed nothing needs to be read
+   SourceDatabaseIndex reopened(dir);
+   readDocs.clear();
+   BOOST_ASSERT(list(&reopened, &readDocs).size() == 2);
+   BOOST_ASSERT(readDocs.empty());
+}
+
+// documents moved to another directory (as the supervisor does when
+// detaching and attaching) keep their entries
+void testMove(const FilePath& fromDir, const FilePath& toDir)
+{
+   SourceDatabaseIndex fromIndex(fromDir);
+   SourceDocument doc;
+   doc.setContents("moved");
+   doc.setRelativeOrder(4);
+   putDocument(fromDir, &fromIndex, &doc);
+
+   SourceDatabaseIndex movedIndex(fromDir);
+   SourceDocumentInfo info;
+   BOOST_ASSERT(movedIndex.find(doc.id(), &info));
+   BOOST_ASSERT(!movedIndex.find("unknown", &info));
+
+   Error error = fromDir.complete(doc.id()).move(toDir.complete(doc.id()));
+   BOOST_ASSERT(!error);
+   SourceDatabaseIndex toIndex(toDir);
+   toIndex.update(info);
+   error = toIndex.flush();
+   BOOST_ASSERT(!error);
+
+   SourceDatabaseIndex reopened(toDir);
+   std::map<std::string,boost::shared_ptr<SourceDocument> > readDocs;
+   std::vector<SourceDocumentInfo> infos = list(&reopened, &readDocs);
+   BOOST_ASSERT(infos.size() == 1 && infos[0].relativeOrder == 4);
+   BOOST_ASSERT(readDocs.empty());
+}
+
+// the index and the documents disagree (as they can after a crash or after
+// the supervisor moves documents into a session's directory)
+void testRecovery(const FilePath& dir)
+{
+   SourceDatabaseIndex index(dir);
+
+   SourceDocument kept;
+   kept.setContents("kept");
+   putDocument(dir, &index, &kept);
+
+   SourceDocument deleted;
+   deleted.setContents("deleted");
+   putDocument(dir, &index, &deleted);
+
+   SourceDocument changed;
+   changed.setContents("changed");
+   changed.setRelativeOrder(1);
+   putDocument(dir, &index, &changed);
+
+   // behind the index's back: delete a document, add a document, change
+   // a document and leave a partially written index behind
+   Error error = dir.complete(deleted.id()).remove();
+   BOOST_ASSERT(!error);
+
+   SourceDocument added;
+   added.setContents("added");
+   putDocument(dir, NULL, &added);
+
+   changed.setContents("changed with more contents");
+   changed.setRelativeOrder(3);
+   putDocument(dir, NULL, &changed);
+
+   error = writeStringToFile(dir.complete("INDEX.tmp"), "{\"vers");
+   BOOST_ASSERT(!error);
+
+   SourceDatabaseIndex recovered(dir);
+   std::vector<SourceDocumentInfo> infos = list(&recovered);
+   BOOST_ASSERT(infos.size() == 3);
+   BOOST_ASSERT(find(infos, kept.id()) != NULL);
+   BOOST_ASSERT(find(infos, deleted.id()) == NULL);
+   BOOST_ASSERT(find(infos, added.id()) != NULL);
+   BOOST_ASSERT(find(infos, added.id())->hash == added.hash());
+   BOOST_ASSERT(find(infos, changed.id())->relativeOrder == 3);
+   BOOST_ASSERT(find(infos, changed.id())->hash == changed.hash());
+
+   // a corrupt index is rebuilt from the documents
+   error = writeStringToFile(dir.complete("INDEX"), "not json");
+   BOOST_ASSERT(!error);
+   SourceDatabaseIndex rebuilt(dir);
+   infos = list(&rebuilt);
+   BOOST_ASSERT(infos.size() == 3);
+   BOOST_ASSERT(find(infos, changed.id())->relativeOrder == 3);
+
+   // and the repaired index is written back (so no document has to be
+   // read again)
+   SourceDatabaseIndex reopened(dir);
+   std::map<std::string,boost::shared_ptr<SourceDocument> > readDocs;
+   BOOST_ASSERT(list(&reopened, &readDocs).size() == 3);
+   BOOST_ASSERT(readDocs.empty());
+}
+
+} // anonymous namespace
+
+void runSourceDatabaseIndexTests()
+{
+   FilePath dir;
+   Error error = FilePath::tempFilePath(&dir);
+   BOOST_ASSERT(!error);
+
+   FilePath updateDir = dir.complete("update");
+   error = updateDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testUpdate(updateDir);
+
+   FilePath recoveryDir = dir.complete("recovery");
+   error = recoveryDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testRecovery(recoveryDir);
+
+   FilePath flushDir = dir.complete("flush");
+   error = flushDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testFlush(flushDir);
+
+   FilePath readDir = dir.complete("read");
+   error = readDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testReadDocs(readDir);
+
+   FilePath fromDir = dir.complete("from");
+   FilePath toDir = dir.complete("to");
+   error = fromDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   error = toDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testMove(fromDir, toDir);
+
+   error = dir.remove();
+   BOOST_ASSERT(!error);
+}
+
+} // namespace source_database
+} // namespace session
@@ -34,6 +34,8 @@
 #include <session/SessionModuleContext.hpp>
 #include "session/SessionSourceDatabase.hpp"
 
+#include "SessionSourceDatabaseIndex.hpp"
+
 using namespace core;
 
 namespace session {
@@ -140,7 +142,8 @@ Error enumerateSessionDirs(std::vector<FilePath>* pSessionDirs)
 }
 
 void attemptToMoveSourceDbFiles(const FilePath& fromPath,
-                                const FilePath& toPath)
+                                const FilePath& toPath,
+                                SourceDatabaseIndex* pToIndex)
 {
    // enumerate the from path
    std::vector<FilePath> children;
@@ -148,9 +151,17 @@ void attemptToMoveSourceDbFiles(const FilePath& fromPath,
    if (error)
       LOG_ERROR(error);
 
+   // index of the from path (entries for the documents we move are carried
+   // over to the target's index, so the documents needn't be read again)
+   SourceDatabaseIndex fromIndex(fromPath);
+
    // move the files
    BOOST_FOREACH(const FilePath& filePath, children)
    {
+      // the index itself isn't moved (it's superseded by the target's)
+      if (SourceDatabaseIndex::isIndexFile(filePath))
+         continue;
+
       // if the target path already exists then skip it and log
       // (we used to generate a new uniqueFilePath however this
       // caused the filename and id (stored in the source doc)
@@ -171,9 +182,26 @@ void attemptToMoveSourceDbFiles(const FilePath& fromPath,
          continue;
       }
 
+      SourceDocumentInfo info;
+      bool indexed = fromIndex.find(filePath.filename(), &info);
+
       Error error = filePath.move(targetPath);
       if (error)
          LOG_ERROR(error);
+      else if (indexed)
+         pToIndex->update(info);
+   }
+
+   // remove the index now that its documents are gone (any documents
+   // added by other processes in the meantime are simply re-read)
+   BOOST_FOREACH(const FilePath& filePath, children)
+   {
+      if (SourceDatabaseIndex::isIndexFile(filePath))
+      {
+         Error error = filePath.removeIfExists();
+         if (error)
+            LOG_ERROR(error);
+      }
    }
 }
 
@@ -238,21 +266,32 @@ Error createSessionDirFromPersistent(FilePath* pSessionDir)
    if (error)
       return error;
 
+   // index of the session dir (built from the indexes of the persistent
+   // dirs as their documents are moved)
+   SourceDatabaseIndex index(*pSessionDir);
+
    // move persistent titled files
    if (persistentTitledDir().exists())
-      attemptToMoveSourceDbFiles(persistentTitledDir(), *pSessionDir);
+      attemptToMoveSourceDbFiles(persistentTitledDir(), *pSessionDir, &index);
 
    // get legacy titled docs if they exist
    if (oldPersistentTitledDir().exists())
-      attemptToMoveSourceDbFiles(oldPersistentTitledDir(), *pSessionDir);
+      attemptToMoveSourceDbFiles(oldPersistentTitledDir(), *pSessionDir,
+                                 &index);
 
    // move persistent untitled files
    if (persistentUntitledDir().exists())
-      attemptToMoveSourceDbFiles(persistentUntitledDir(), *pSessionDir);
+      attemptToMoveSourceDbFiles(persistentUntitledDir(), *pSessionDir,
+                                 &index);
 
    // get legacy untitled docs if they exist
    if (oldPersistentUntitledDir().exists())
-      attemptToMoveSourceDbFiles(oldPersistentUntitledDir(), *pSessionDir);
+      attemptToMoveSourceDbFiles(oldPersistentUntitledDir(), *pSessionDir,
+                                 &index);
+
+   error = index.flush();
+   if (error)
+      LOG_ERROR(error);
 
    // return success
    return Success();
@@ -362,6 +401,11 @@ Error detachFromSourceDatabase()
    if (error)
       return error;
 
+   // indexes of the persistent dirs (the untitled dir may already have
+   // an index for documents written by other processes)
+   SourceDatabaseIndex titledIndex(titledDir);
+   SourceDatabaseIndex untitledIndex(untitledDir);
+
    // now write the source database entries to the appropriate places
    BOOST_FOREACH(boost::shared_ptr<SourceDocument> pDoc, sourceDocs)
    {
@@ -371,21 +415,34 @@ Error detachFromSourceDatabase()
          // directory is appended to from multiple processes who
          // could have created docs with the same id)
          FilePath targetPath = untitledDir.complete(pDoc->id());
-         if (targetPath.exists())
+         bool unique = !targetPath.exists();
+         if (!unique)
             targetPath = file_utils::uniqueFilePath(untitledDir);
 
          error = pDoc->writeToFile(targetPath);
          if (error)
             LOG_ERROR(error);
+         else if (unique)
+            untitledIndex.update(*pDoc);
       }
       else
       {
          error = pDoc->writeToFile(titledDir.complete(pDoc->id()));
          if (error)
             LOG_ERROR(error);
+         else
+            titledIndex.update(*pDoc);
       }
    }
 
+   // write the indexes
+   error = titledIndex.flush();
+   if (error)
+      LOG_ERROR(error);
+   error = untitledIndex.flush();
+   if (error)
+      LOG_ERROR(error);
+
    // record session dir (parent of lock file)
    FilePath sessionDir = s_sessionDirLock.lockFilePath().parent();
 
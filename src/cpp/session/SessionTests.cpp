@@ -0,0 +1,72 @@
+/*
+ * SessionTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionTests.hpp"
+
+#include <cstdlib>
+#include <iostream>
+
+#include <boost/make_shared.hpp>
+
+#include <core/AssertionCounter.hpp>
+
+#include <session/SessionConsoleProcessOutput.hpp>
+
+#include "SessionClientEventQueue.hpp"
+#include "SessionSourceDatabaseIndex.hpp"
+
+#include "modules/SessionCodeSearchIndex.hpp"
+#include "modules/SessionFindEngine.hpp"
+#include "modules/SessionFindParser.hpp"
+#include "modules/SessionGitStatusCache.hpp"
+#include "modules/SessionHistoryArchive.hpp"
+#include "modules/data/DataViewer.hpp"
+#include "modules/environment/EnvironmentDescriptions.hpp"
+
+using namespace core;
+
+namespace session {
+namespace tests {
+
+int run()
+{
+   boost::shared_ptr<AssertionCounter> pCounter =
+                                    boost::make_shared<AssertionCounter>();
+   core::system::addLogWriter(pCounter);
+
+   runClientEventQueueTests();
+   console_process::runConsoleProcessOutputTests();
+   source_database::runSourceDatabaseIndexTests();
+   modules::code_search::runCodeSearchIndexTests();
+   modules::find::runFindParserTests();
+   modules::find::runFindEngineTests();
+   modules::git::runGitStatusCacheTests();
+   modules::history::runHistoryArchiveTests();
+   modules::environment::runEnvironmentDescriptionsTests();
+   modules::data::viewer::runDataViewerTests();
+
+   if (pCounter->failures() > 0)
+   {
+      std::cerr << pCounter->failures() << " assertion(s) failed"
+                << std::endl;
+      return EXIT_FAILURE;
+   }
+
+   std::cout << "session tests passed" << std::endl;
+   return EXIT_SUCCESS;
+}
+
+} // namespace tests
+} // namespace session
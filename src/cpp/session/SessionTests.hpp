@@ -0,0 +1,30 @@
+/*
+ * SessionTests.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_TESTS_HPP
+#define SESSION_TESTS_HPP
+
+namespace session {
+namespace tests {
+
+// runs the session unit tests (rsession --run-tests, which is what make test
+// runs); called once R and the session modules have been initialized so
+// that tests can call into R. returns the program exit code.
+int run();
+
+} // namespace tests
+} // namespace session
+
+#endif // SESSION_TESTS_HPP
@@ -19,7 +19,6 @@
 
 #include <boost/regex.hpp>
 #include <boost/signals.hpp>
-#include <boost/circular_buffer.hpp>
 #include <boost/enable_shared_from_this.hpp>
 
 #include <core/system/Process.hpp>
@@ -27,6 +26,8 @@
 
 #include <core/json/Json.hpp>
 
+#include <session/SessionConsoleProcessOutput.hpp>
+
 namespace core {
    class Error;
 }
@@ -130,6 +131,14 @@ public:
 
    void setShowOnOutput(bool showOnOutput) { showOnOutput_ = showOnOutput; }
 
+   // output from the start of line onward (for a client which has seen
+   // the output before it)
+   std::string bufferedOutputSince(int line, int* pStartLine) const;
+
+   // the offset of the next output (output events carry the offset of
+   // their output so that a client can drop those which it has fetched)
+   boost::uint64_t bufferedOutputEnd() const;
+
    core::json::Object toJson() const;
    static boost::shared_ptr<ConsoleProcess> fromJson(
                                               core::json::Object& obj);
@@ -176,7 +185,7 @@ private:
 
    // Buffer output in case client disconnects/reconnects and needs
    // to recover some history
-   boost::circular_buffer<char> outputBuffer_;
+   ConsoleProcessOutput outputBuffer_;
 
    boost::optional<int> exitCode_;
 
@@ -0,0 +1,87 @@
+/*
+ * SessionConsoleProcessOutput.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_CONSOLE_PROCESS_OUTPUT_HPP
+#define SESSION_CONSOLE_PROCESS_OUTPUT_HPP
+
+#include <deque>
+#include <string>
+
+#include <boost/cstdint.hpp>
+
+namespace session {
+namespace console_process {
+
+// The most recent output of a console process (so that a client which
+// reconnects can recover it). Output is kept in the chunks it was written
+// in, along with the offset at which each line starts, so that appending is
+// proportional to the size of the output appended and output can be
+// retrieved from any line onward. Lines are numbered from the first output
+// of the process; once more than maxSize bytes have been written the oldest
+// output is dropped.
+class ConsoleProcessOutput
+{
+public:
+   explicit ConsoleProcessOutput(std::size_t maxSize, int firstLine = 0);
+
+   // COPYING: via compiler (copyable members)
+
+   void append(const std::string& output);
+
+   // the complete lines kept (along with any incomplete last line)
+   std::string output() const { return outputSince(0); }
+
+   // output from the start of line onward (or from the first line kept if
+   // line has been dropped), and the line the output starts at
+   std::string outputSince(int line, int* pStartLine = NULL) const;
+
+   // the first line which is kept in full
+   int firstLine() const;
+
+   // the line currently being written
+   int currentLine() const { return currentLine_; }
+
+   // the number of bytes written (i.e. the offset of the next output)
+   boost::uint64_t written() const { return end_; }
+
+private:
+   struct Chunk
+   {
+      boost::uint64_t offset;
+      std::string text;
+   };
+
+   std::string outputFrom(boost::uint64_t offset) const;
+
+   std::size_t maxSize_;
+
+   // offsets are counted from the first output. output before begin_ has
+   // been dropped (though it may remain in the first chunk).
+   std::deque<Chunk> chunks_;
+   boost::uint64_t begin_;
+   boost::uint64_t end_;
+
+   // the offsets at which the lines from firstLine_ onward start
+   std::deque<boost::uint64_t> lineOffsets_;
+   int firstLine_;
+   int currentLine_;
+};
+
+void runConsoleProcessOutputTests();
+
+} // namespace console_process
+} // namespace session
+
+#endif // SESSION_CONSOLE_PROCESS_OUTPUT_HPP
@@ -32,6 +32,7 @@
 #define kUserIdentitySessionOptionShort   "u"
 
 #define kVerifyInstallationSessionOption  "verify-installation"
+#define kRunTestsSessionOption            "run-tests"
 
 #define kTimeoutSessionOption             "session-timeout-minutes"
 #define kDisconnectedTimeoutSessionOption "session-disconnected-timeout-minutes"
@@ -61,6 +61,11 @@ public:
       return verifyInstallation_;
    }
 
+   bool runTests() const
+   {
+      return runTests_;
+   }
+
    core::FilePath verifyInstallationHomeDir() const
    {
       if (!verifyInstallationHomeDir_.empty())
@@ -413,6 +418,7 @@ private:
    // verify
    bool verifyInstallation_;
    std::string verifyInstallationHomeDir_;
+   bool runTests_;
 
    // program
    std::string programIdentity_;
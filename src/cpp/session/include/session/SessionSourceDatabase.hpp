@@ -54,6 +54,7 @@ public:
    int relativeOrder() const { return relativeOrder_; } 
    const core::json::Object& properties() const { return properties_; }
    const std::string& folds() const { return folds_; }
+   std::time_t lastKnownWriteTime() const { return lastKnownWriteTime_; }
    std::string getProperty(const std::string& name) const;
 
    // is this an untitled document?
@@ -114,6 +115,7 @@ public:
    core::Error readFromJson(core::json::Object* pDocJson);
    void writeToJson(core::json::Object* pDocJson) const;
 
+   core::Error readFromFile(const core::FilePath& filePath);
    core::Error writeToFile(const core::FilePath& filePath) const;
 
 private:
@@ -135,10 +137,52 @@ private:
    core::json::Object properties_;
 };
 
+// everything about a document but its contents, as recorded in the source
+// database index (so it can be listed without reading the document)
+struct SourceDocumentInfo
+{
+   SourceDocumentInfo()
+      : dirty(false), created(0), sourceOnSave(false), relativeOrder(0),
+        lastKnownWriteTime(0), length(0), binary(false), size(0),
+        lastWriteTime(0)
+   {
+   }
+
+   std::string id;
+   std::string path;
+   std::string type;
+   std::string hash;
+   std::string encoding;
+   std::string folds;
+   bool dirty;
+   double created;
+   bool sourceOnSave;
+   int relativeOrder;
+   core::json::Object properties;
+   std::time_t lastKnownWriteTime;
+
+   // length of the contents, and whether they have a null byte sequence
+   std::size_t length;
+   bool binary;
+
+   // size and write time of the document's database file (if they no
+   // longer match the file then the info is refreshed from the document)
+   uintmax_t size;
+   std::time_t lastWriteTime;
+};
+
 bool sortByCreated(const boost::shared_ptr<SourceDocument>& pDoc1,
                    const boost::shared_ptr<SourceDocument>& pDoc2);
 bool sortByRelativeOrder(const boost::shared_ptr<SourceDocument>& pDoc1,
                          const boost::shared_ptr<SourceDocument>& pDoc2);
+bool sortInfoByRelativeOrder(const SourceDocumentInfo& info1,
+                             const SourceDocumentInfo& info2);
+
+// the equivalent of SourceDocument::updateDirty and writeToJson for a
+// document which hasn't been read (the json has no contents)
+core::Error updateDirty(SourceDocumentInfo* pInfo);
+void writeInfoToJson(const SourceDocumentInfo& info,
+                     core::json::Object* pDocJson);
 
 
 core::FilePath path();
@@ -146,6 +190,7 @@ core::Error get(const std::string& id, boost::shared_ptr<SourceDocument> pDoc);
 core::Error getDurableProperties(const std::string& path,
                                  core::json::Object* pProperties);
 core::Error list(std::vector<boost::shared_ptr<SourceDocument> >* pDocs);
+core::Error listInfo(std::vector<SourceDocumentInfo>* pInfos);
 core::Error put(boost::shared_ptr<SourceDocument> pDoc);
 core::Error remove(const std::string& id);
 core::Error removeAll();
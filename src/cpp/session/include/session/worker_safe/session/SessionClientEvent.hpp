@@ -121,6 +121,7 @@ extern const int kInstallShiny;
 extern const int kSuspendAndRestart;
 extern const int kDataViewChanged;
 extern const int kViewFunction;
+extern const int kVcsStatusChanged;
 }
    
 class ClientEvent
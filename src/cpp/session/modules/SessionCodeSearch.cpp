@@ -15,7 +15,10 @@
 
 #include "SessionCodeSearch.hpp"
 
+#include <algorithm>
 #include <iostream>
+#include <map>
+#include <sstream>
 #include <vector>
 #include <set>
 
@@ -31,7 +34,9 @@
 #include <core/FilePath.hpp>
 #include <core/FileSerializer.hpp>
 #include <core/SafeConvert.hpp>
+#include <core/StringUtils.hpp>
 #include <core/collection/Tree.hpp>
+#include <core/json/JsonRpc.hpp>
 
 #include <core/r_util/RSourceIndex.hpp>
 
@@ -46,6 +51,7 @@
 
 #include <session/projects/SessionProjects.hpp>
 
+#include "SessionCodeSearchIndex.hpp"
 #include "SessionSource.hpp"
 #include "clang/DefinitionIndex.hpp"
 
@@ -70,15 +76,6 @@ namespace code_search {
 namespace {
 
 
-bool isGlobalFunctionNamed(const r_util::RSourceItem& sourceItem,
-                           const std::string& name)
-{
-   return sourceItem.braceLevel() == 0 &&
-          (sourceItem.type() == r_util::RSourceItem::Function ||
-           sourceItem.type() == r_util::RSourceItem::Method) &&
-          sourceItem.name() == name;
-}
-
 // return if we are past max results
 template <typename T>
 bool enforceMaxResults(std::size_t maxResults,
@@ -376,11 +373,25 @@ private:
    
 };
 
+// The index of the project's source files is persisted to the project
+// scratch path so that files which haven't changed since the project was
+// last open needn't be reparsed
+FilePath indexCachePath()
+{
+   return projects::projectContext().scratchPath().complete(
+                                                   "source_index.json");
+}
+
+const int kCacheWriteDelaySeconds = 30;
+
 class SourceFileIndex : boost::noncopyable
 {
 public:
    SourceFileIndex()
-      : pEntries_(new EntryTree()), indexing_(false)
+      : pEntries_(new EntryTree()),
+        indexing_(false),
+        cacheDirty_(false),
+        cacheWritePending_(false)
    {
    }
 
@@ -440,36 +451,9 @@ public:
                            const std::set<std::string>& excludeContexts,
                            r_util::RSourceItem* pFunctionItem)
    {
-      std::vector<r_util::RSourceItem> sourceItems;
-      BOOST_FOREACH(const Entry& entry, *pEntries_)
-      {
-         // bail if there is no index
-         if (!entry.hasIndex())
-            continue;
-
-         // bail if this is an exluded context
-         if (excludeContexts.find(entry.pIndex->context()) !=
-             excludeContexts.end())
-         {
-            continue;
-         }
-
-         // scan the next index
-         sourceItems.clear();
-         entry.pIndex->search(
-                  boost::bind(isGlobalFunctionNamed, _1, functionName),
-                  std::back_inserter(sourceItems));
-
-         // return if we got a hit
-         if (sourceItems.size() > 0)
-         {
-            *pFunctionItem = sourceItems[0];
-            return true;
-         }
-      }
-
-      // none found
-      return false;
+      return symbols_.findGlobalFunction(functionName,
+                                         excludeContexts,
+                                         pFunctionItem);
    }
 
    void searchSource(const std::string& term,
@@ -478,32 +462,9 @@ public:
                      const std::set<std::string>& excludeContexts,
                      std::vector<r_util::RSourceItem>* pItems)
    {
-      BOOST_FOREACH(const Entry& entry, *pEntries_)
-      {
-         // skip if it has no index
-         if (!entry.hasIndex())
-            continue;
-
-         // bail if this is an exluded context
-         if (excludeContexts.find(entry.pIndex->context()) !=
-             excludeContexts.end())
-         {
-            continue;
-         }
-
-         // scan the next index
-         entry.pIndex->search(term,
-                              prefixOnly,
-                              false,
-                              std::back_inserter(*pItems));
-
-         // return if we are past maxResults
-         if (pItems->size() >= maxResults)
-         {
-            pItems->resize(maxResults);
-            return;
-         }
-      }
+      symbols_.search(term, maxResults, prefixOnly, excludeContexts, pItems);
+      if (pItems->size() > maxResults)
+         pItems->resize(maxResults);
    }
    
    template <typename T>
@@ -698,9 +659,43 @@ public:
 
    void clear()
    {
+      // save any changes not yet written to the cache
+      flushCache();
+
       indexing_ = false;
       indexingQueue_ = std::queue<core::system::FileChangeEvent>();
       pEntries_->clear();
+      symbols_.clear();
+      indexedFiles_.clear();
+      cachedFiles_.clear();
+      cacheDirty_ = false;
+   }
+
+   // write the index to the cache if it has changed since it was last
+   // written (changes made while indexing are written once it completes)
+   void flushCache()
+   {
+      cacheWritePending_ = false;
+      if (!cacheDirty_ || indexing_)
+         return;
+
+      cacheDirty_ = false;
+      Error error = writeIndexCache(
+                           indexCachePath(),
+                           projects::projectContext().defaultEncoding(),
+                           indexedFiles_);
+      if (error)
+         LOG_ERROR(error);
+   }
+
+   // restore the index saved for the project (files which are unchanged
+   // since it was saved are then not reparsed)
+   void loadCache()
+   {
+      cachedFiles_.clear();
+      readIndexCache(indexCachePath(),
+                     projects::projectContext().defaultEncoding(),
+                     &cachedFiles_);
    }
 
 private:
@@ -739,14 +734,46 @@ private:
 
       // return status
       indexing_ = !indexingQueue_.empty();
+      if (!indexing_)
+         onIndexingCompleted();
       return indexing_;
    }
 
+   void onIndexingCompleted()
+   {
+      // the cache is only needed for the initial indexing pass (anything
+      // left in it is for files which no longer exist)
+      if (!cachedFiles_.empty())
+      {
+         cacheDirty_ = true;
+         cachedFiles_.clear();
+      }
+
+      // indexing completes after every batch of file changes so rather
+      // than rewriting the whole cache each time we wait a while for
+      // changes to settle (it is also flushed on suspend and shutdown)
+      if (cacheDirty_ && !cacheWritePending_)
+      {
+         cacheWritePending_ = true;
+         module_context::scheduleDelayedWork(
+                  boost::posix_time::seconds(kCacheWriteDelaySeconds),
+                  boost::bind(&SourceFileIndex::flushCache, this));
+      }
+   }
+
    void updateIndexEntry(const FileInfo& fileInfo)
    {
       // index the source if necessary
       boost::shared_ptr<r_util::RSourceIndex> pIndex;
-      if (isIndexableSourceFile(fileInfo))
+      IndexedFiles::iterator cached = cachedFiles_.find(
+                                                fileInfo.absolutePath());
+      if (cached != cachedFiles_.end() && cached->second.isCurrent(fileInfo))
+      {
+         // unchanged since the index was saved
+         pIndex = cached->second.pIndex;
+         cachedFiles_.erase(cached);
+      }
+      else if (isIndexableSourceFile(fileInfo))
       {
          // read the file
          FilePath filePath(fileInfo.absolutePath());
@@ -771,6 +798,16 @@ private:
          // add index entry
          std::string context = module_context::createAliasedPath(filePath);
          pIndex.reset(new r_util::RSourceIndex(context, code));
+         cacheDirty_ = true;
+      }
+
+      // replace any symbols previously indexed for the file
+      removeSymbols(fileInfo);
+      if (pIndex)
+      {
+         symbols_.add(pIndex);
+         indexedFiles_[fileInfo.absolutePath()] = IndexedFile(fileInfo,
+                                                              pIndex);
       }
 
       // attempt to add the entry
@@ -778,8 +815,21 @@ private:
       pEntries_->insertEntry(entry);
    }
 
+   void removeSymbols(const FileInfo& fileInfo)
+   {
+      IndexedFiles::iterator it = indexedFiles_.find(fileInfo.absolutePath());
+      if (it != indexedFiles_.end())
+      {
+         symbols_.remove(it->second.pIndex);
+         indexedFiles_.erase(it);
+         cacheDirty_ = true;
+      }
+   }
+
    void removeIndexEntry(const FileInfo& fileInfo)
    {
+      removeSymbols(fileInfo);
+
       // create a fake entry with a null source index to pass to find
       Entry entry(fileInfo, boost::shared_ptr<r_util::RSourceIndex>());
 
@@ -842,6 +892,15 @@ private:
    // indexing queue
    bool indexing_;
    std::queue<core::system::FileChangeEvent> indexingQueue_;
+
+   // symbols of indexed files (and the files they came from)
+   SymbolIndex symbols_;
+   IndexedFiles indexedFiles_;
+
+   // files restored from the saved index (until indexing completes)
+   IndexedFiles cachedFiles_;
+   bool cacheDirty_;
+   bool cacheWritePending_;
 };
 
 // global source file index
@@ -2124,6 +2183,7 @@ Error findFunctionInSearchPath(const json::JsonRpcRequest& request,
 
 void onFileMonitorEnabled(const tree<core::FileInfo>& files)
 {
+   s_projectIndex.loadCache();
    s_projectIndex.enqueFiles(files.begin_leaf(), files.end_leaf());
 }
 
@@ -2141,6 +2201,20 @@ void onFileMonitorDisabled()
    s_projectIndex.clear();
 }
 
+void onSuspend(Settings*)
+{
+   s_projectIndex.flushCache();
+}
+
+void onResume(const Settings&)
+{
+}
+
+void onShutdown(bool)
+{
+   s_projectIndex.flushCache();
+}
+
 SEXP rs_scoreMatches(SEXP suggestionsSEXP,
                      SEXP querySEXP)
 {
@@ -2278,6 +2352,12 @@ Error initialize()
    cb.onMonitoringDisabled = onFileMonitorDisabled;
    projects::projectContext().subscribeToFileMonitor("R source file indexing",
                                                      cb);
+
+   // make sure changes to the index are saved before the session exits
+   module_context::events().onShutdown.connect(onShutdown);
+   module_context::addSuspendHandler(
+            module_context::SuspendHandler(boost::bind(onSuspend, _2),
+                                           onResume));
    
    // register viewFunction method
    R_CallMethodDef methodDef ;
@@ -0,0 +1,382 @@
+/*
+ * SessionCodeSearchIndex.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionCodeSearchIndex.hpp"
+
+#include <algorithm>
+#include <sstream>
+
+#include <boost/bind.hpp>
+#include <boost/foreach.hpp>
+#include <boost/regex.hpp>
+#include <boost/algorithm/string/predicate.hpp>
+
+#include <core/Error.hpp>
+#include <core/FilePath.hpp>
+#include <core/FileSerializer.hpp>
+#include <core/Log.hpp>
+#include <core/RegexUtils.hpp>
+#include <core/StringUtils.hpp>
+#include <core/json/Json.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace code_search {
+
+namespace {
+
+const int kIndexCacheVersion = 1;
+
+json::Array sourceItemToJson(const r_util::RSourceItem& item)
+{
+   json::Array signatureJson;
+   BOOST_FOREACH(const r_util::RS4MethodParam& param, item.signature())
+   {
+      json::Array paramJson;
+      paramJson.push_back(param.name());
+      paramJson.push_back(param.type());
+      signatureJson.push_back(paramJson);
+   }
+
+   json::Array itemJson;
+   itemJson.push_back(item.type());
+   itemJson.push_back(item.name());
+   itemJson.push_back(item.braceLevel());
+   itemJson.push_back(item.line());
+   itemJson.push_back(item.column());
+   itemJson.push_back(signatureJson);
+   return itemJson;
+}
+
+bool sourceItemFromJson(const json::Value& value, r_util::RSourceItem* pItem)
+{
+   if (!json::isType<json::Array>(value))
+      return false;
+   const json::Array& itemJson = value.get_array();
+   if (itemJson.size() != 6 ||
+       !json::isType<int>(itemJson[0]) ||
+       !json::isType<std::string>(itemJson[1]) ||
+       !json::isType<int>(itemJson[2]) ||
+       !json::isType<int>(itemJson[3]) ||
+       !json::isType<int>(itemJson[4]) ||
+       !json::isType<json::Array>(itemJson[5]))
+   {
+      return false;
+   }
+
+   std::vector<r_util::RS4MethodParam> signature;
+   BOOST_FOREACH(const json::Value& paramValue, itemJson[5].get_array())
+   {
+      if (!json::isType<json::Array>(paramValue))
+         return false;
+      const json::Array& paramJson = paramValue.get_array();
+      if (paramJson.size() != 2 ||
+          !json::isType<std::string>(paramJson[0]) ||
+          !json::isType<std::string>(paramJson[1]))
+      {
+         return false;
+      }
+      signature.push_back(r_util::RS4MethodParam(paramJson[0].get_str(),
+                                                 paramJson[1].get_str()));
+   }
+
+   *pItem = r_util::RSourceItem(itemJson[0].get_int(),
+                                itemJson[1].get_str(),
+                                signature,
+                                itemJson[2].get_int(),
+                                itemJson[3].get_int(),
+                                itemJson[4].get_int());
+   return true;
+}
+
+} // anonymous namespace
+
+bool isGlobalFunctionNamed(const r_util::RSourceItem& sourceItem,
+                           const std::string& name)
+{
+   return sourceItem.braceLevel() == 0 &&
+          (sourceItem.type() == r_util::RSourceItem::Function ||
+           sourceItem.type() == r_util::RSourceItem::Method) &&
+          sourceItem.name() == name;
+}
+
+void SymbolIndex::add(const boost::shared_ptr<r_util::RSourceIndex>& pIndex)
+{
+   const std::vector<r_util::RSourceItem>& items = pIndex->items();
+   for (std::size_t i = 0; i < items.size(); i++)
+   {
+      symbols_[string_utils::toLower(items[i].name())].push_back(
+                                                      Symbol(pIndex, i));
+   }
+}
+
+void SymbolIndex::remove(const boost::shared_ptr<r_util::RSourceIndex>& pIndex)
+{
+   BOOST_FOREACH(const r_util::RSourceItem& item, pIndex->items())
+   {
+      Symbols::iterator it = symbols_.find(
+                                    string_utils::toLower(item.name()));
+      if (it == symbols_.end())
+         continue;
+
+      std::vector<Symbol>& symbols = it->second;
+      symbols.erase(std::remove_if(symbols.begin(),
+                                   symbols.end(),
+                                   boost::bind(&Symbol::isFrom, _1, pIndex)),
+                    symbols.end());
+      if (symbols.empty())
+         symbols_.erase(it);
+   }
+}
+
+void SymbolIndex::clear()
+{
+   symbols_.clear();
+}
+
+bool SymbolIndex::findGlobalFunction(
+                           const std::string& functionName,
+                           const std::set<std::string>& excludeContexts,
+                           r_util::RSourceItem* pFunctionItem) const
+{
+   Symbols::const_iterator it = symbols_.find(
+                                 string_utils::toLower(functionName));
+   if (it == symbols_.end())
+      return false;
+
+   BOOST_FOREACH(const Symbol& symbol, it->second)
+   {
+      if (isExcluded(symbol, excludeContexts))
+         continue;
+
+      if (isGlobalFunctionNamed(symbol.item(), functionName))
+      {
+         *pFunctionItem = symbol.contextItem();
+         return true;
+      }
+   }
+
+   return false;
+}
+
+void SymbolIndex::search(const std::string& term,
+                         std::size_t maxResults,
+                         bool prefixOnly,
+                         const std::set<std::string>& excludeContexts,
+                         std::vector<r_util::RSourceItem>* pItems) const
+{
+   std::string lowerTerm = string_utils::toLower(term);
+
+   // wildcard searches need to consider every name
+   if (term.find('*') != std::string::npos)
+   {
+      boost::regex pattern = regex_utils::wildcardPatternToRegex(lowerTerm);
+      for (Symbols::const_iterator it = symbols_.begin();
+           it != symbols_.end(); ++it)
+      {
+         if (regex_utils::textMatches(it->first, pattern, prefixOnly, true))
+         {
+            if (addSymbols(it->second, maxResults, excludeContexts, pItems))
+               return;
+         }
+      }
+      return;
+   }
+
+   // names starting with the term (these are the best matches so are
+   // returned first even for subsequence searches)
+   for (Symbols::const_iterator it = symbols_.lower_bound(lowerTerm);
+        it != symbols_.end() &&
+        boost::algorithm::starts_with(it->first, lowerTerm); ++it)
+   {
+      if (addSymbols(it->second, maxResults, excludeContexts, pItems))
+         return;
+   }
+
+   if (prefixOnly)
+      return;
+
+   // other names containing the term as a subsequence
+   for (Symbols::const_iterator it = symbols_.begin();
+        it != symbols_.end(); ++it)
+   {
+      if (boost::algorithm::starts_with(it->first, lowerTerm))
+         continue;
+
+      if (string_utils::isSubsequence(it->first, lowerTerm, true))
+      {
+         if (addSymbols(it->second, maxResults, excludeContexts, pItems))
+            return;
+      }
+   }
+}
+
+bool SymbolIndex::isExcluded(const Symbol& symbol,
+                             const std::set<std::string>& excludeContexts)
+{
+   return excludeContexts.find(symbol.context()) != excludeContexts.end();
+}
+
+// returns true once maxResults have been added
+bool SymbolIndex::addSymbols(const std::vector<Symbol>& symbols,
+                             std::size_t maxResults,
+                             const std::set<std::string>& excludeContexts,
+                             std::vector<r_util::RSourceItem>* pItems)
+{
+   BOOST_FOREACH(const Symbol& symbol, symbols)
+   {
+      if (isExcluded(symbol, excludeContexts))
+         continue;
+
+      pItems->push_back(symbol.contextItem());
+      if (pItems->size() >= maxResults)
+         return true;
+   }
+   return false;
+}
+
+Error writeIndexCache(const FilePath& cachePath,
+                      const std::string& encoding,
+                      const IndexedFiles& files)
+{
+   json::Object filesJson;
+   for (IndexedFiles::const_iterator it = files.begin();
+        it != files.end(); ++it)
+   {
+      const IndexedFile& file = it->second;
+
+      json::Array itemsJson;
+      BOOST_FOREACH(const r_util::RSourceItem& item, file.pIndex->items())
+      {
+         itemsJson.push_back(sourceItemToJson(item));
+      }
+
+      json::Object fileJson;
+      fileJson["size"] = static_cast<double>(file.size);
+      fileJson["mtime"] = static_cast<double>(file.lastWriteTime);
+      fileJson["context"] = file.pIndex->context();
+      fileJson["items"] = itemsJson;
+      filesJson[it->first] = fileJson;
+   }
+
+   json::Object cacheJson;
+   cacheJson["version"] = kIndexCacheVersion;
+   cacheJson["encoding"] = encoding;
+   cacheJson["files"] = filesJson;
+
+   std::ostringstream ostr;
+   json::write(cacheJson, ostr);
+
+   // write to a temporary file and then rename it over the cache so that
+   // readers never see a partially written cache
+   FilePath tempPath = cachePath.parent().complete(cachePath.filename() +
+                                                   ".tmp");
+   Error error = writeStringToFile(tempPath, ostr.str());
+   if (error)
+      return error;
+
+   error = tempPath.move(cachePath);
+   if (error)
+   {
+      Error removeError = tempPath.removeIfExists();
+      if (removeError)
+         LOG_ERROR(removeError);
+      return error;
+   }
+
+   return Success();
+}
+
+void readIndexCache(const FilePath& cachePath,
+                    const std::string& encoding,
+                    IndexedFiles* pFiles)
+{
+   if (!cachePath.exists())
+      return;
+
+   std::string contents;
+   Error error = readStringFromFile(cachePath, &contents);
+   if (error)
+   {
+      LOG_ERROR(error);
+      return;
+   }
+
+   // discard caches written by other versions or with another encoding
+   // (the encoding affects how files were decoded for indexing)
+   json::Value cacheValue;
+   if (!json::parse(contents, &cacheValue) ||
+       !json::isType<json::Object>(cacheValue))
+   {
+      LOG_WARNING_MESSAGE("Invalid source index cache " +
+                          cachePath.absolutePath());
+      return;
+   }
+
+   int version = 0;
+   std::string cacheEncoding;
+   json::Object filesJson;
+   error = json::readObject(cacheValue.get_obj(),
+                            "version", &version,
+                            "encoding", &cacheEncoding,
+                            "files", &filesJson);
+   if (error || version != kIndexCacheVersion || cacheEncoding != encoding)
+      return;
+
+   for (json::Object::const_iterator it = filesJson.begin();
+        it != filesJson.end(); ++it)
+   {
+      if (!json::isType<json::Object>(it->second))
+         continue;
+
+      double size, lastWriteTime;
+      std::string context;
+      json::Array itemsJson;
+      error = json::readObject(it->second.get_obj(),
+                               "size", &size,
+                               "mtime", &lastWriteTime,
+                               "context", &context,
+                               "items", &itemsJson);
+      if (error)
+         continue;
+
+      std::vector<r_util::RSourceItem> items;
+      bool valid = true;
+      BOOST_FOREACH(const json::Value& itemJson, itemsJson)
+      {
+         r_util::RSourceItem item;
+         if (!sourceItemFromJson(itemJson, &item))
+         {
+            valid = false;
+            break;
+         }
+         items.push_back(item);
+      }
+      if (!valid)
+         continue;
+
+      IndexedFile file;
+      file.size = static_cast<uintmax_t>(size);
+      file.lastWriteTime = static_cast<std::time_t>(lastWriteTime);
+      file.pIndex.reset(new r_util::RSourceIndex(context, items));
+      pFiles->insert(std::make_pair(it->first, file));
+   }
+}
+
+} // namespace code_search
+} // namespace modules
+} // namespace session
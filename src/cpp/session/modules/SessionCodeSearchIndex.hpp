@@ -0,0 +1,160 @@
+/*
+ * SessionCodeSearchIndex.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_CODE_SEARCH_INDEX_HPP
+#define SESSION_CODE_SEARCH_INDEX_HPP
+
+#include <ctime>
+#include <map>
+#include <set>
+#include <string>
+#include <vector>
+
+#include <boost/utility.hpp>
+#include <boost/shared_ptr.hpp>
+#include <boost/cstdint.hpp>
+
+#include <core/FileInfo.hpp>
+#include <core/r_util/RSourceIndex.hpp>
+
+namespace core {
+   class Error;
+   class FilePath;
+}
+
+namespace session {
+namespace modules {
+namespace code_search {
+
+bool isGlobalFunctionNamed(const core::r_util::RSourceItem& sourceItem,
+                           const std::string& name);
+
+// Inverted index from symbol names (lower cased) to the items indexed in
+// project source files. Names are kept sorted so that exact and prefix
+// lookups only visit matching names.
+class SymbolIndex : boost::noncopyable
+{
+public:
+   void add(const boost::shared_ptr<core::r_util::RSourceIndex>& pIndex);
+   void remove(const boost::shared_ptr<core::r_util::RSourceIndex>& pIndex);
+   void clear();
+
+   bool findGlobalFunction(const std::string& functionName,
+                           const std::set<std::string>& excludeContexts,
+                           core::r_util::RSourceItem* pFunctionItem) const;
+
+   // finds the same items as RSourceIndex::search (case insensitively) on
+   // each of the indexes, but with names starting with the term first
+   void search(const std::string& term,
+               std::size_t maxResults,
+               bool prefixOnly,
+               const std::set<std::string>& excludeContexts,
+               std::vector<core::r_util::RSourceItem>* pItems) const;
+
+private:
+
+   class Symbol
+   {
+   public:
+      Symbol(const boost::shared_ptr<core::r_util::RSourceIndex>& pIndex,
+             std::size_t item)
+         : pIndex_(pIndex), item_(item)
+      {
+      }
+
+      const std::string& context() const { return pIndex_->context(); }
+
+      const core::r_util::RSourceItem& item() const
+      {
+         return pIndex_->items()[item_];
+      }
+
+      core::r_util::RSourceItem contextItem() const
+      {
+         return item().withContext(context());
+      }
+
+      bool isFrom(
+            const boost::shared_ptr<core::r_util::RSourceIndex>& pIndex) const
+      {
+         return pIndex_ == pIndex;
+      }
+
+   private:
+      boost::shared_ptr<core::r_util::RSourceIndex> pIndex_;
+      std::size_t item_;
+   };
+
+   static bool isExcluded(const Symbol& symbol,
+                          const std::set<std::string>& excludeContexts);
+
+   static bool addSymbols(const std::vector<Symbol>& symbols,
+                          std::size_t maxResults,
+                          const std::set<std::string>& excludeContexts,
+                          std::vector<core::r_util::RSourceItem>* pItems);
+
+   typedef std::map<std::string, std::vector<Symbol> > Symbols;
+   Symbols symbols_;
+};
+
+// An indexed source file along with the size and modification time of
+// the file when it was indexed
+struct IndexedFile
+{
+   IndexedFile() : size(0), lastWriteTime(0) {}
+
+   IndexedFile(const core::FileInfo& fileInfo,
+               boost::shared_ptr<core::r_util::RSourceIndex> pIndex)
+      : size(fileInfo.size()),
+        lastWriteTime(fileInfo.lastWriteTime()),
+        pIndex(pIndex)
+   {
+   }
+
+   // (a file rewritten within the resolution of its write time is usually
+   // caught by a change in its size)
+   bool isCurrent(const core::FileInfo& fileInfo) const
+   {
+      return size == fileInfo.size() &&
+             lastWriteTime == fileInfo.lastWriteTime();
+   }
+
+   uintmax_t size;
+   std::time_t lastWriteTime;
+   boost::shared_ptr<core::r_util::RSourceIndex> pIndex;
+};
+
+typedef std::map<std::string, IndexedFile> IndexedFiles;
+
+// The index of the project's source files is persisted so that files which
+// haven't changed since the project was last open needn't be reparsed. The
+// cache is written to a temporary file which is then renamed into place (so
+// a crash never leaves a partial cache), and caches written by another
+// version or with another encoding are ignored.
+core::Error writeIndexCache(const core::FilePath& cachePath,
+                            const std::string& encoding,
+                            const IndexedFiles& files);
+
+void readIndexCache(const core::FilePath& cachePath,
+                    const std::string& encoding,
+                    IndexedFiles* pFiles);
+
+void runCodeSearchIndexTests();
+
+} // namespace code_search
+} // namespace modules
+} // namespace session
+
+#endif // SESSION_CODE_SEARCH_INDEX_HPP
@@ -0,0 +1,324 @@
+/*
+ * SessionCodeSearchIndexTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionCodeSearchIndex.hpp"
+
+#include <algorithm>
+#include <iterator>
+#include <limits>
+#include <set>
+
+#include <boost/assert.hpp>
+#include <boost/foreach.hpp>
+#include <boost/shared_ptr.hpp>
+#include <boost/algorithm/string/predicate.hpp>
+
+#include <core/Error.hpp>
+#include <core/FileInfo.hpp>
+#include <core/FilePath.hpp>
+#include <core/FileSerializer.hpp>
+#include <core/SafeConvert.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace code_search {
+
+namespace {
+
+typedef boost::shared_ptr<r_util::RSourceIndex> SourceIndexPtr;
+
+SourceIndexPtr sourceIndex(const std::string& context,
+                           const char* names[],
+                           std::size_t count)
+{
+   std::vector<r_util::RSourceItem> items;
+   for (std::size_t i = 0; i < count; i++)
+   {
+      std::vector<r_util::RS4MethodParam> signature;
+      if (i % 2 == 1)
+         signature.push_back(r_util::RS4MethodParam("x", "numeric"));
+
+      items.push_back(r_util::RSourceItem(
+                         (i % 2 == 0) ? r_util::RSourceItem::Function :
+                                        r_util::RSourceItem::Method,
+                         names[i],
+                         signature,
+                         0,
+                         i + 1,
+                         i + 2));
+   }
+   return SourceIndexPtr(new r_util::RSourceIndex(context, items));
+}
+
+std::string itemKey(const r_util::RSourceItem& item)
+{
+   return item.context() + ":" + item.name() + ":" +
+          safe_convert::numberToString(item.line()) + ":" +
+          safe_convert::numberToString(item.column());
+}
+
+std::multiset<std::string> itemKeys(
+                           const std::vector<r_util::RSourceItem>& items)
+{
+   std::multiset<std::string> keys;
+   BOOST_FOREACH(const r_util::RSourceItem& item, items)
+   {
+      keys.insert(itemKey(item));
+   }
+   return keys;
+}
+
+// the symbol index must find exactly what searching each of the source
+// indexes in turn would
+void checkSearch(const SymbolIndex& symbols,
+                 const std::vector<SourceIndexPtr>& indexes,
+                 const std::string& term,
+                 bool prefixOnly,
+                 const std::set<std::string>& excludeContexts)
+{
+   std::vector<r_util::RSourceItem> expected;
+   BOOST_FOREACH(const SourceIndexPtr& pIndex, indexes)
+   {
+      if (excludeContexts.find(pIndex->context()) != excludeContexts.end())
+         continue;
+      pIndex->search(term, prefixOnly, false, std::back_inserter(expected));
+   }
+
+   std::vector<r_util::RSourceItem> actual;
+   symbols.search(term,
+                  std::numeric_limits<std::size_t>::max(),
+                  prefixOnly,
+                  excludeContexts,
+                  &actual);
+
+   BOOST_ASSERT(itemKeys(actual) == itemKeys(expected));
+}
+
+const char* kNamesA[] = { "foo", "fooBar", "barFoo", "plot", "print.foo" };
+const char* kNamesB[] = { "Foo2", "fxoxo", "foo", "summary", "FOOBAR" };
+const char* kNamesC[] = { "bar", "baz", "f_o_o", "zfoo", "plotFoo" };
+
+void testSearchEquivalence()
+{
+   std::vector<SourceIndexPtr> indexes;
+   indexes.push_back(sourceIndex("a.R", kNamesA, 5));
+   indexes.push_back(sourceIndex("b.R", kNamesB, 5));
+   indexes.push_back(sourceIndex("c.R", kNamesC, 5));
+
+   SymbolIndex symbols;
+   BOOST_FOREACH(const SourceIndexPtr& pIndex, indexes)
+   {
+      symbols.add(pIndex);
+   }
+
+   const char* terms[] = { "foo", "FO", "fb", "pl", "f*o", "*bar", "p*t",
+                           "x", "zzz" };
+   std::set<std::string> noContexts;
+   std::set<std::string> excludeB;
+   excludeB.insert("b.R");
+
+   BOOST_FOREACH(const char* term, terms)
+   {
+      checkSearch(symbols, indexes, term, true, noContexts);
+      checkSearch(symbols, indexes, term, false, noContexts);
+      checkSearch(symbols, indexes, term, true, excludeB);
+      checkSearch(symbols, indexes, term, false, excludeB);
+   }
+
+   // removing an index removes exactly its symbols
+   symbols.remove(indexes[1]);
+   indexes.erase(indexes.begin() + 1);
+   BOOST_FOREACH(const char* term, terms)
+   {
+      checkSearch(symbols, indexes, term, false, noContexts);
+   }
+}
+
+void testSearchOrder()
+{
+   SymbolIndex symbols;
+   symbols.add(sourceIndex("a.R", kNamesA, 5));
+   symbols.add(sourceIndex("b.R", kNamesB, 5));
+   symbols.add(sourceIndex("c.R", kNamesC, 5));
+
+   // names starting with the term come before other matches
+   std::vector<r_util::RSourceItem> items;
+   symbols.search("foo",
+                  std::numeric_limits<std::size_t>::max(),
+                  false,
+                  std::set<std::string>(),
+                  &items);
+   BOOST_ASSERT(items.size() == 11);
+   for (std::size_t i = 0; i < items.size(); i++)
+   {
+      bool isPrefix = boost::algorithm::istarts_with(items[i].name(), "foo");
+      BOOST_ASSERT(isPrefix == (i < 5));
+   }
+
+   // results stop at maxResults (taking the prefix matches first)
+   items.clear();
+   symbols.search("foo", 4, false, std::set<std::string>(), &items);
+   BOOST_ASSERT(items.size() == 4);
+   BOOST_FOREACH(const r_util::RSourceItem& item, items)
+   {
+      BOOST_ASSERT(boost::algorithm::istarts_with(item.name(), "foo"));
+   }
+
+   // global functions are found by their exact name
+   r_util::RSourceItem item;
+   std::set<std::string> excludeA;
+   excludeA.insert("a.R");
+   BOOST_ASSERT(symbols.findGlobalFunction("foo", excludeA, &item));
+   BOOST_ASSERT(item.context() == "b.R");
+   BOOST_ASSERT(!symbols.findGlobalFunction("Foo", excludeA, &item));
+}
+
+IndexedFile indexedFile(const std::string& path,
+                        uintmax_t size,
+                        std::time_t lastWriteTime,
+                        const SourceIndexPtr& pIndex)
+{
+   return IndexedFile(FileInfo(path, false, size, lastWriteTime), pIndex);
+}
+
+void testCacheRoundTrip(const FilePath& dir)
+{
+   IndexedFiles files;
+   files["/project/a.R"] = indexedFile("/project/a.R", 120, 1000,
+                                       sourceIndex("a.R", kNamesA, 5));
+   files["/project/b.R"] = indexedFile("/project/b.R", 4096, 2000,
+                                       sourceIndex("b.R", kNamesB, 5));
+
+   FilePath cachePath = dir.complete("source_index.json");
+   Error error = writeIndexCache(cachePath, "UTF-8", files);
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(cachePath.exists());
+   BOOST_ASSERT(!dir.complete("source_index.json.tmp").exists());
+
+   IndexedFiles restored;
+   readIndexCache(cachePath, "UTF-8", &restored);
+   BOOST_ASSERT(restored.size() == files.size());
+
+   for (IndexedFiles::const_iterator it = files.begin();
+        it != files.end(); ++it)
+   {
+      IndexedFiles::const_iterator restoredIt = restored.find(it->first);
+      BOOST_ASSERT(restoredIt != restored.end());
+
+      const IndexedFile& file = it->second;
+      const IndexedFile& restoredFile = restoredIt->second;
+      BOOST_ASSERT(restoredFile.size == file.size);
+      BOOST_ASSERT(restoredFile.lastWriteTime == file.lastWriteTime);
+      BOOST_ASSERT(restoredFile.pIndex->context() == file.pIndex->context());
+
+      const std::vector<r_util::RSourceItem>& items = file.pIndex->items();
+      const std::vector<r_util::RSourceItem>& restoredItems =
+                                             restoredFile.pIndex->items();
+      BOOST_ASSERT(restoredItems.size() == items.size());
+      for (std::size_t i = 0; i < items.size(); i++)
+      {
+         BOOST_ASSERT(restoredItems[i].type() == items[i].type());
+         BOOST_ASSERT(restoredItems[i].name() == items[i].name());
+         BOOST_ASSERT(restoredItems[i].braceLevel() == items[i].braceLevel());
+         BOOST_ASSERT(restoredItems[i].line() == items[i].line());
+         BOOST_ASSERT(restoredItems[i].column() == items[i].column());
+         BOOST_ASSERT(restoredItems[i].signature().size() ==
+                      items[i].signature().size());
+      }
+   }
+
+   // rewriting replaces the previous cache
+   files.erase("/project/b.R");
+   error = writeIndexCache(cachePath, "UTF-8", files);
+   BOOST_ASSERT(!error);
+   restored.clear();
+   readIndexCache(cachePath, "UTF-8", &restored);
+   BOOST_ASSERT(restored.size() == 1);
+   BOOST_ASSERT(restored.count("/project/a.R") == 1);
+}
+
+void testCacheInvalidation(const FilePath& dir)
+{
+   IndexedFiles files;
+   files["/project/a.R"] = indexedFile("/project/a.R", 120, 1000,
+                                       sourceIndex("a.R", kNamesA, 5));
+
+   FilePath cachePath = dir.complete("source_index.json");
+   Error error = writeIndexCache(cachePath, "UTF-8", files);
+   BOOST_ASSERT(!error);
+
+   // caches written with another encoding are discarded
+   IndexedFiles restored;
+   readIndexCache(cachePath, "ISO-8859-1", &restored);
+   BOOST_ASSERT(restored.empty());
+
+   // as are caches written by another version
+   std::string contents;
+   error = readStringFromFile(cachePath, &contents);
+   BOOST_ASSERT(!error);
+   std::string::size_type pos = contents.find("\"version\":");
+   BOOST_ASSERT(pos != std::string::npos);
+   pos += std::string("\"version\":").length();
+   std::string::size_type end = contents.find_first_of(",}", pos);
+   contents.replace(pos, end - pos, "9999");
+   error = writeStringToFile(cachePath, contents);
+   BOOST_ASSERT(!error);
+   readIndexCache(cachePath, "UTF-8", &restored);
+   BOOST_ASSERT(restored.empty());
+
+   // and corrupt caches (e.g. left by a crash) are ignored
+   error = writeStringToFile(cachePath, "{\"version\":1,\"files\":{");
+   BOOST_ASSERT(!error);
+   readIndexCache(cachePath, "UTF-8", &restored);
+   BOOST_ASSERT(restored.empty());
+
+   // restored files are only current if both their size and their
+   // modification time are unchanged
+   const IndexedFile& file = files["/project/a.R"];
+   BOOST_ASSERT(file.isCurrent(FileInfo("/project/a.R", false, 120, 1000)));
+   BOOST_ASSERT(!file.isCurrent(FileInfo("/project/a.R", false, 121, 1000)));
+   BOOST_ASSERT(!file.isCurrent(FileInfo("/project/a.R", false, 120, 1001)));
+}
+
+} // anonymous namespace
+
+void runCodeSearchIndexTests()
+{
+   testSearchEquivalence();
+   testSearchOrder();
+
+   FilePath dir;
+   Error error = FilePath::tempFilePath(&dir);
+   BOOST_ASSERT(!error);
+
+   FilePath roundTripDir = dir.complete("roundtrip");
+   error = roundTripDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testCacheRoundTrip(roundTripDir);
+
+   FilePath invalidationDir = dir.complete("invalidation");
+   error = invalidationDir.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testCacheInvalidation(invalidationDir);
+
+   error = dir.remove();
+   BOOST_ASSERT(!error);
+}
+
+} // namespace code_search
+} // namespace modules
+} // namespace session
@@ -14,19 +14,28 @@
  */
 
 #include "SessionFind.hpp"
+#include "SessionFindEngine.hpp"
+#include "SessionFindParser.hpp"
 
 #include <algorithm>
+#include <set>
 
 #include <boost/algorithm/string.hpp>
 #include <boost/bind.hpp>
 #include <boost/enable_shared_from_this.hpp>
+#include <boost/foreach.hpp>
+#include <boost/regex.hpp>
+#include <boost/scoped_ptr.hpp>
 
 #include <core/Exec.hpp>
+#include <core/RegexUtils.hpp>
 #include <core/StringUtils.hpp>
+#include <core/collection/Tree.hpp>
 #include <core/system/Environment.hpp>
 #include <core/system/Process.hpp>
 #include <core/system/ShellUtils.hpp>
 
+#include <r/ROptions.hpp>
 #include <r/RUtil.hpp>
 
 #include <session/SessionModuleContext.hpp>
@@ -192,6 +201,115 @@ FindInFilesState& findResults()
    return *s_pFindResults;
 }
 
+// Converts lines of search output from the project encoding to UTF-8,
+// removing grep's color escapes and recording where the matches are
+class LineDecoder
+{
+public:
+   explicit LineDecoder(const std::string& encoding)
+      : firstDecodeError_(true), encoding_(encoding)
+   {
+   }
+
+   std::string decode(const std::string& encoded)
+   {
+      if (encoded.empty())
+         return encoded;
+
+      // plain ASCII needs no conversion
+      bool ascii = true;
+      for (std::string::const_iterator it = encoded.begin();
+           it != encoded.end(); ++it)
+      {
+         if (static_cast<unsigned char>(*it) >= 0x80)
+         {
+            ascii = false;
+            break;
+         }
+      }
+      if (ascii)
+         return encoded;
+
+      std::string decoded;
+      Error error = r::util::iconvstr(encoded, encoding_, "UTF-8", true,
+                                      &decoded);
+
+      // Log error, but only once per find operation
+      if (error && firstDecodeError_)
+      {
+         firstDecodeError_ = false;
+         LOG_ERROR(error);
+      }
+
+      return decoded;
+   }
+
+   void processContents(std::string* pContent,
+                        json::Array* pMatchOn,
+                        json::Array* pMatchOff)
+   {
+      // the color escapes are ASCII so survive decoding intact; decoding
+      // first lets the match offsets be computed in UTF-8 characters
+      std::string decodedLine;
+      std::vector<int> matchOn, matchOff;
+      stripColorCodes(decode(*pContent), &decodedLine, &matchOn, &matchOff);
+
+      std::copy(matchOn.begin(), matchOn.end(),
+                std::back_inserter(*pMatchOn));
+      std::copy(matchOff.begin(), matchOff.end(),
+                std::back_inserter(*pMatchOff));
+
+      if (decodedLine.size() > 300)
+      {
+         decodedLine = decodedLine.erase(300);
+         decodedLine.append("...");
+      }
+
+      *pContent = decodedLine;
+   }
+
+private:
+   bool firstDecodeError_;
+   std::string encoding_;
+};
+
+bool isIgnoredPath(const std::string& path)
+{
+   return path.find("/.Rproj.user/") != std::string::npos ||
+          path.find("/.git/") != std::string::npos ||
+          path.find("/.svn/") != std::string::npos ||
+          path.find("/packrat/lib/") != std::string::npos ||
+          path.find("/packrat/src/") != std::string::npos;
+}
+
+void sendResults(const std::string& handle,
+                 const json::Array& files,
+                 const json::Array& lineNums,
+                 const json::Array& contents,
+                 const json::Array& matchOns,
+                 const json::Array& matchOffs)
+{
+   json::Object result;
+   result["handle"] = handle;
+   json::Object results;
+   results["file"] = files;
+   results["line"] = lineNums;
+   results["lineValue"] = contents;
+   results["matchOn"] = matchOns;
+   results["matchOff"] = matchOffs;
+   result["results"] = results;
+
+   findResults().addResult(handle,
+                           files,
+                           lineNums,
+                           contents,
+                           matchOns,
+                           matchOffs);
+
+   module_context::enqueClientEvent(
+            ClientEvent(client_events::kFindResult, result));
+}
+
 class GrepOperation : public boost::enable_shared_from_this<GrepOperation>
 {
 public:
@@ -205,7 +323,7 @@ public:
 private:
    GrepOperation(const std::string& encoding,
                  const FilePath& tempFile)
-      : firstDecodeError_(true), encoding_(encoding), tempFile_(tempFile)
+      : decoder_(encoding), tempFile_(tempFile)
    {
       handle_ = core::system::generateUuid(false);
    }
@@ -240,177 +358,322 @@ private:
       return findResults().isRunning() && findResults().handle() == handle();
    }
 
-   std::string decode(const std::string& encoded)
+   void onStdout(const core::system::ProcessOperations& ops, const std::string& data)
    {
-      if (encoded.empty())
-         return encoded;
+      json::Array files;
+      json::Array lineNums;
+      json::Array contents;
+      json::Array matchOns;
+      json::Array matchOffs;
 
-      std::string decoded;
-      Error error = r::util::iconvstr(encoded, encoding_, "UTF-8", true,
-                                      &decoded);
+      int recordsToProcess = MAX_COUNT + 1 - findResults().resultCount();
+      if (recordsToProcess < 0)
+         recordsToProcess = 0;
 
-      // Log error, but only once per grep operation
-      if (error && firstDecodeError_)
+      stdOutBuf_.append(data);
+      const char* lineBegin;
+      const char* lineEnd;
+      GrepLine grepLine;
+      while (recordsToProcess && stdOutBuf_.nextLine(&lineBegin, &lineEnd))
       {
-         firstDecodeError_ = false;
-         LOG_ERROR(error);
+         if (!parseGrepLine(lineBegin, lineEnd, &grepLine))
+            continue;
+
+         std::string file = module_context::createAliasedPath(
+               FilePath(string_utils::systemToUtf8(
+                  std::string(grepLine.fileBegin, grepLine.fileEnd))));
+         if (isIgnoredPath(file))
+            continue;
+
+         std::string lineContents(grepLine.contentsBegin,
+                                  grepLine.contentsEnd);
+         boost::algorithm::trim(lineContents);
+         json::Array matchOn, matchOff;
+         decoder_.processContents(&lineContents, &matchOn, &matchOff);
+
+         files.push_back(file);
+         lineNums.push_back(grepLine.lineNum);
+         contents.push_back(lineContents);
+         matchOns.push_back(matchOn);
+         matchOffs.push_back(matchOff);
+
+         recordsToProcess--;
       }
 
-      return decoded;
+      if (files.size() > 0)
+         sendResults(handle(), files, lineNums, contents, matchOns, matchOffs);
+
+      if (recordsToProcess <= 0)
+         findResults().onFindEnd(handle());
    }
 
-   void processContents(std::string* pContent,
-                        json::Array* pMatchOn,
-                        json::Array* pMatchOff)
+   void onStderr(const core::system::ProcessOperations& ops, const std::string& data)
    {
-      using namespace boost;
-
-      std::string decodedLine;
-
-      std::string::iterator inputPos = pContent->begin();
-
-      smatch match;
-      while (regex_search(std::string(inputPos, pContent->end()), match,
-                          regex("\x1B\\[(\\d\\d)?m(\x1B\\[K)?")))
-      {
-         std::string match1 = match[1];
-
-         decodedLine.append(decode(
-               std::string(inputPos, inputPos + match.position())));
+      LOG_ERROR_MESSAGE("grep: " + data);
+   }
 
-         inputPos += match.position() + match.length();
+   void onExit(int exitCode)
+   {
+      findResults().onFindEnd(handle());
+      module_context::enqueClientEvent(
+            ClientEvent(client_events::kFindOperationEnded, handle()));
+      if (!tempFile_.empty())
+         tempFile_.removeIfExists();
+   }
 
-         size_t charSize;
-         Error error = string_utils::utf8Distance(decodedLine.begin(),
-                                                  decodedLine.end(),
-                                                  &charSize);
-         if (error)
-            charSize = decodedLine.size();
+   LineDecoder decoder_;
+   FilePath tempFile_;
+   LineBuffer stdOutBuf_;
+   std::string handle_;
+};
 
-         if (match1 == "01")
-            pMatchOn->push_back(static_cast<int>(charSize));
-         else
-            pMatchOff->push_back(static_cast<int>(charSize));
-      }
-      if (inputPos != pContent->end())
-         decodedLine.append(decode(std::string(inputPos, pContent->end())));
 
-      if (decodedLine.size() > 300)
-      {
-         decodedLine = decodedLine.erase(300);
-         decodedLine.append("...");
-      }
+// Searches the project's monitored files in-process (see SessionFindEngine)
+class NativeFindOperation
+   : public boost::enable_shared_from_this<NativeFindOperation>
+{
+public:
+   static boost::shared_ptr<NativeFindOperation> create(
+                                       const std::string& encoding,
+                                       const LineMatcher& matcher,
+                                       const std::vector<FilePath>& files)
+   {
+      return boost::shared_ptr<NativeFindOperation>(
+                     new NativeFindOperation(encoding, matcher, files));
+   }
 
-      *pContent = decodedLine;
+private:
+   NativeFindOperation(const std::string& encoding,
+                       const LineMatcher& matcher,
+                       const std::vector<FilePath>& files)
+      : decoder_(encoding),
+        pFind_(new ParallelFind(matcher, files, MAX_COUNT + 1))
+   {
+      handle_ = core::system::generateUuid(false);
    }
 
-   void onStdout(const core::system::ProcessOperations& ops, const std::string& data)
+public:
+   std::string handle() const
    {
-      json::Array files;
-      json::Array lineNums;
-      json::Array contents;
-      json::Array matchOns;
-      json::Array matchOffs;
+      return handle_;
+   }
 
-      int recordsToProcess = MAX_COUNT + 1 - findResults().resultCount();
-      if (recordsToProcess < 0)
-         recordsToProcess = 0;
+   void start()
+   {
+      pFind_->start(ParallelFind::defaultThreadCount());
+
+      // deliver results as they are found (including while R is busy)
+      module_context::schedulePeriodicWork(
+               boost::posix_time::milliseconds(50),
+               boost::bind(&NativeFindOperation::deliverResults,
+                           shared_from_this()),
+               false,
+               false);
+   }
 
-      stdOutBuf_.append(data);
-      size_t nextLineStart = 0;
-      size_t pos = -1;
-      while (recordsToProcess &&
-             std::string::npos != (pos = stdOutBuf_.find('\n', pos + 1)))
+private:
+   bool deliverResults()
+   {
+      // stopFind (or a newer find) ends this operation
+      bool running = findResults().isRunning() &&
+                     findResults().handle() == handle();
+      if (!running)
+         pFind_->cancel();
+
+      // check for completion before taking matches so none are missed
+      bool complete = pFind_->isComplete();
+      std::vector<FindMatch> matches;
+      pFind_->takeMatches(&matches);
+
+      if (running && !matches.empty())
       {
-         std::string line = stdOutBuf_.substr(nextLineStart, pos - nextLineStart);
-         nextLineStart = pos + 1;
-
-         boost::smatch match;
-         if (boost::regex_match(line, match, boost::regex("^((?:[a-zA-Z]:)?[^:]+):(\\d+):(.*)")))
+         json::Array files;
+         json::Array lineNums;
+         json::Array contents;
+         json::Array matchOns;
+         json::Array matchOffs;
+         BOOST_FOREACH(const FindMatch& match, matches)
          {
-            std::string file = module_context::createAliasedPath(
-                  FilePath(string_utils::systemToUtf8(match[1])));
-
-            if (file.find("/.Rproj.user/") != std::string::npos)
-               continue;
-            if (file.find("/.git/") != std::string::npos)
-               continue;
-            if (file.find("/.svn/") != std::string::npos)
-               continue;
-            if (file.find("/packrat/lib/") != std::string::npos)
-               continue;
-            if (file.find("/packrat/src/") != std::string::npos)
-               continue;
-
-            int lineNum = safe_convert::stringTo<int>(std::string(match[2]), -1);
-            std::string lineContents = match[3];
-            boost::algorithm::trim(lineContents);
             json::Array matchOn, matchOff;
-            processContents(&lineContents, &matchOn, &matchOff);
+            std::string lineContents = colorize(match);
+            decoder_.processContents(&lineContents, &matchOn, &matchOff);
 
-            files.push_back(file);
-            lineNums.push_back(lineNum);
+            files.push_back(module_context::createAliasedPath(match.file));
+            lineNums.push_back(match.lineNum);
             contents.push_back(lineContents);
             matchOns.push_back(matchOn);
             matchOffs.push_back(matchOff);
-
-            recordsToProcess--;
          }
+         sendResults(handle(), files, lineNums, contents, matchOns, matchOffs);
       }
 
-      if (nextLineStart)
+      if (!complete)
+         return true;
+
+      findResults().onFindEnd(handle());
+      module_context::enqueClientEvent(
+            ClientEvent(client_events::kFindOperationEnded, handle()));
+      pFind_.reset();
+      return false;
+   }
+
+   // mark up matches the way grep --color does so that both search
+   // backends share the same decoding of results
+   static std::string colorize(const FindMatch& match)
+   {
+      std::string colorized;
+      std::size_t pos = 0;
+      for (std::size_t i = 0; i < match.matchOn.size(); i++)
       {
-         stdOutBuf_.erase(0, nextLineStart);
+         std::size_t on = match.matchOn[i];
+         std::size_t off = match.matchOff[i];
+         colorized.append(match.contents, pos, on - pos);
+         colorized.append("\x1B[01m");
+         colorized.append(match.contents, on, off - on);
+         colorized.append("\x1B[m");
+         pos = off;
       }
+      colorized.append(match.contents, pos, std::string::npos);
+      return colorized;
+   }
 
-      if (files.size() > 0)
+   LineDecoder decoder_;
+   boost::scoped_ptr<ParallelFind> pFind_;
+   std::string handle_;
+};
+
+// files in the project (maintained from the project file monitor) which
+// the native search engine searches
+class ProjectFiles : boost::noncopyable
+{
+public:
+   void reset(const tree<core::FileInfo>& files)
+   {
+      paths_.clear();
+      for (tree<core::FileInfo>::leaf_iterator it = files.begin_leaf();
+           it != files.end_leaf(); ++it)
       {
-         json::Object result;
-         result["handle"] = handle();
-         json::Object results;
-         results["file"] = files;
-         results["line"] = lineNums;
-         results["lineValue"] = contents;
-         results["matchOn"] = matchOns;
-         results["matchOff"] = matchOffs;
-         result["results"] = results;
-
-         findResults().addResult(handle(),
-                                 files,
-                                 lineNums,
-                                 contents,
-                                 matchOns,
-                                 matchOffs);
-
-         module_context::enqueClientEvent(
-                  ClientEvent(client_events::kFindResult, result));
+         if (!it->isDirectory())
+            paths_.insert(it->absolutePath());
       }
+   }
 
-      if (recordsToProcess <= 0)
-         findResults().onFindEnd(handle());
+   void update(const std::vector<core::system::FileChangeEvent>& events)
+   {
+      BOOST_FOREACH(const core::system::FileChangeEvent& event, events)
+      {
+         const core::FileInfo& fileInfo = event.fileInfo();
+         if (fileInfo.isDirectory())
+            continue;
+
+         if (event.type() == core::system::FileChangeEvent::FileAdded)
+            paths_.insert(fileInfo.absolutePath());
+         else if (event.type() == core::system::FileChangeEvent::FileRemoved)
+            paths_.erase(fileInfo.absolutePath());
+      }
    }
 
-   void onStderr(const core::system::ProcessOperations& ops, const std::string& data)
+   void clear()
    {
-      LOG_ERROR_MESSAGE("grep: " + data);
+      paths_.clear();
    }
 
-   void onExit(int exitCode)
+   bool empty() const
    {
-      findResults().onFindEnd(handle());
-      module_context::enqueClientEvent(
-            ClientEvent(client_events::kFindOperationEnded, handle()));
-      if (!tempFile_.empty())
-         tempFile_.removeIfExists();
+      return paths_.empty();
    }
 
-   bool firstDecodeError_;
-   std::string encoding_;
-   FilePath tempFile_;
-   std::string stdOutBuf_;
-   std::string handle_;
+   // files within the directory whose names match one of the patterns
+   // (or any file if there are no patterns)
+   void list(const FilePath& directory,
+             const std::vector<boost::regex>& patterns,
+             std::vector<FilePath>* pFiles) const
+   {
+      BOOST_FOREACH(const std::string& path, paths_)
+      {
+         if (isIgnoredPath(path))
+            continue;
+
+         FilePath filePath(path);
+         if (!filePath.isWithin(directory))
+            continue;
+
+         bool included = patterns.empty();
+         BOOST_FOREACH(const boost::regex& pattern, patterns)
+         {
+            if (boost::regex_match(filePath.filename(), pattern))
+            {
+               included = true;
+               break;
+            }
+         }
+
+         if (included)
+            pFiles->push_back(filePath);
+      }
+   }
+
+private:
+   std::set<std::string> paths_;
 };
 
+ProjectFiles s_projectFiles;
+
+void onFileMonitorEnabled(const tree<core::FileInfo>& files)
+{
+   s_projectFiles.reset(files);
+}
+
+void onFilesChanged(const std::vector<core::system::FileChangeEvent>& events)
+{
+   s_projectFiles.update(events);
+}
+
+void onFileMonitorDisabled()
+{
+   s_projectFiles.clear();
+}
+
+// the in-process engine is opt in (options(rstudio.nativeFind = TRUE))
+// and only knows about files in the project
+bool useNativeFind(const FilePath& directory)
+{
+   return r::options::getOption<bool>("rstudio.nativeFind", false, false) &&
+          projects::projectContext().isMonitoringDirectory(directory) &&
+          !s_projectFiles.empty();
+}
+
+Error createNativeFind(const std::string& pattern,
+                       bool asRegex,
+                       bool ignoreCase,
+                       const FilePath& directory,
+                       const json::Array& filePatterns,
+                       const std::string& encoding,
+                       boost::shared_ptr<NativeFindOperation>* pFindOp)
+{
+   LineMatcher matcher(pattern, asRegex, ignoreCase);
+   if (!matcher.isValid())
+   {
+      Error error = systemError(boost::system::errc::invalid_argument,
+                                ERROR_LOCATION);
+      error.addProperty("pattern", pattern);
+      return error;
+   }
+
+   std::vector<boost::regex> patterns;
+   BOOST_FOREACH(const json::Value& filePattern, filePatterns)
+   {
+      patterns.push_back(
+               regex_utils::wildcardPatternToRegex(filePattern.get_str()));
+   }
+
+   std::vector<FilePath> files;
+   s_projectFiles.list(directory, patterns, &files);
+
+   *pFindOp = NativeFindOperation::create(encoding, matcher, files);
+   return Success();
+}
+
 } // namespace
 
 core::Error beginFind(const json::JsonRpcRequest& request,
@@ -444,12 +707,6 @@ core::Error beginFind(const json::JsonRpcRequest& request,
 #endif
    options.environment = childEnv;
 
-   // Put the grep pattern in a file
-   FilePath tempFile = module_context::tempFile("rs_grep", "txt");
-   boost::shared_ptr<std::ostream> pStream;
-   error = tempFile.open_w(&pStream);
-   if (error)
-      return error;
    std::string encoding = projects::projectContext().hasProject() ?
                           projects::projectContext().defaultEncoding() :
                           userSettings().defaultEncoding();
@@ -465,6 +722,41 @@ core::Error beginFind(const json::JsonRpcRequest& request,
       encodedString = searchString;
    }
 
+   // search in-process if enabled for this directory
+   FilePath searchPath = module_context::resolveAliasedPath(directory);
+   if (useNativeFind(searchPath))
+   {
+      boost::shared_ptr<NativeFindOperation> pFindOp;
+      error = createNativeFind(encodedString,
+                               asRegex,
+                               ignoreCase,
+                               searchPath,
+                               filePatterns,
+                               encoding,
+                               &pFindOp);
+      if (error)
+         return error;
+
+      // Clear existing results
+      findResults().clear();
+
+      pFindOp->start();
+
+      findResults().onFindBegin(pFindOp->handle(),
+                                searchString,
+                                directory,
+                                asRegex);
+      pResponse->setResult(pFindOp->handle());
+
+      return Success();
+   }
+
+   // Put the grep pattern in a file
+   FilePath tempFile = module_context::tempFile("rs_grep", "txt");
+   boost::shared_ptr<std::ostream> pStream;
+   error = tempFile.open_w(&pStream);
+   if (error)
+      return error;
    *pStream << encodedString << std::endl;
    pStream.reset(); // release file handle
 
@@ -499,7 +791,7 @@ core::Error beginFind(const json::JsonRpcRequest& request,
    }
 
    cmd << shell_utils::EscapeFilesOnly << "--" << shell_utils::EscapeAll;
-   cmd << module_context::resolveAliasedPath(directory);
+   cmd << searchPath;
 
    // Clear existing results
    findResults().clear();
@@ -577,6 +869,13 @@ core::Error initialize()
    // register suspend handler
    addSuspendHandler(SuspendHandler(bind(onSuspend, _2), onResume));
 
+   // track project files for the native search engine
+   session::projects::FileMonitorCallbacks cb;
+   cb.onMonitoringEnabled = onFileMonitorEnabled;
+   cb.onFilesChanged = onFilesChanged;
+   cb.onMonitoringDisabled = onFileMonitorDisabled;
+   projects::projectContext().subscribeToFileMonitor("", cb);
+
    // install handlers
    ExecBlock initBlock ;
    initBlock.addFunctions()
@@ -0,0 +1,432 @@
+/*
+ * SessionFindEngine.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionFindEngine.hpp"
+
+#include <algorithm>
+#include <cstring>
+#include <iterator>
+
+#include <boost/bind.hpp>
+
+#include <core/Error.hpp>
+#include <core/Log.hpp>
+#include <core/system/System.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace find {
+
+namespace {
+
+// grep only looks for NUL bytes near the start of a file
+const std::size_t kBinaryCheckBytes = 8192;
+
+typedef std::pair<std::size_t, std::size_t> MatchRange;
+
+inline bool isTrimmedSpace(char ch)
+{
+   return ch == ' ' || ch == '\t' || ch == '\r' ||
+          ch == '\n' || ch == '\v' || ch == '\f';
+}
+
+inline char asciiToLower(char ch)
+{
+   return (ch >= 'A' && ch <= 'Z') ? ch + ('a' - 'A') : ch;
+}
+
+bool isAscii(const std::string& str)
+{
+   for (std::string::const_iterator it = str.begin(); it != str.end(); ++it)
+   {
+      if (static_cast<unsigned char>(*it) >= 0x80)
+         return false;
+   }
+   return true;
+}
+
+// record a matching line, trimming surrounding whitespace (and adjusting
+// the match ranges, which are relative to the line, to suit)
+void addMatch(const FilePath& file,
+              int lineNum,
+              const char* lineBegin,
+              const char* lineEnd,
+              const std::vector<MatchRange>& ranges,
+              std::vector<FindMatch>* pMatches)
+{
+   const char* begin = lineBegin;
+   while (begin != lineEnd && isTrimmedSpace(*begin))
+      ++begin;
+   const char* end = lineEnd;
+   while (end != begin && isTrimmedSpace(*(end - 1)))
+      --end;
+
+   std::size_t lead = begin - lineBegin;
+   std::size_t length = end - begin;
+
+   pMatches->push_back(FindMatch());
+   FindMatch& match = pMatches->back();
+   match.file = file;
+   match.lineNum = lineNum;
+   match.contents.assign(begin, end);
+   for (std::vector<MatchRange>::const_iterator it = ranges.begin();
+        it != ranges.end(); ++it)
+   {
+      std::size_t on = it->first > lead ? it->first - lead : 0;
+      std::size_t off = it->second > lead ? it->second - lead : 0;
+      match.matchOn.push_back(static_cast<int>(std::min(on, length)));
+      match.matchOff.push_back(static_cast<int>(std::min(off, length)));
+   }
+}
+
+} // anonymous namespace
+
+LineMatcher::LineMatcher(const std::string& pattern,
+                         bool asRegex,
+                         bool ignoreCase)
+   : valid_(true),
+     useRegex_(false),
+     ignoreCase_(ignoreCase)
+{
+   try
+   {
+      if (asRegex)
+      {
+         // grep syntax is POSIX basic with newline separated alternatives
+         boost::regex::flag_type flags = boost::regex::grep;
+         if (ignoreCase)
+            flags |= boost::regex::icase;
+         regex_ = boost::regex(pattern, flags);
+         useRegex_ = true;
+      }
+      else if (ignoreCase && !isAscii(pattern))
+      {
+         // case folding beyond ASCII is left to the regex engine
+         regex_ = boost::regex(pattern,
+                               boost::regex::literal | boost::regex::icase);
+         useRegex_ = true;
+      }
+      else
+      {
+         literal_ = pattern;
+         if (ignoreCase)
+         {
+            std::transform(literal_.begin(), literal_.end(),
+                           literal_.begin(), asciiToLower);
+         }
+      }
+   }
+   catch(const boost::regex_error&)
+   {
+      valid_ = false;
+   }
+}
+
+void LineMatcher::findMatches(const FilePath& file,
+                              const std::string& contents,
+                              std::size_t maxMatches,
+                              std::vector<FindMatch>* pMatches) const
+{
+   if (!valid_ || maxMatches == 0)
+      return;
+
+   if (useRegex_)
+      findRegex(file, contents, maxMatches, pMatches);
+   else
+      findLiteral(file, contents, maxMatches, pMatches);
+}
+
+void LineMatcher::findLiteral(const FilePath& file,
+                              const std::string& contents,
+                              std::size_t maxMatches,
+                              std::vector<FindMatch>* pMatches) const
+{
+   // search the whole file at once rather than line by line; only lines
+   // containing a match need to be looked at individually
+   std::string lowered;
+   if (ignoreCase_)
+   {
+      lowered.resize(contents.size());
+      std::transform(contents.begin(), contents.end(),
+                     lowered.begin(), asciiToLower);
+   }
+   const std::string& haystack = ignoreCase_ ? lowered : contents;
+
+   std::size_t found = 0;
+   std::size_t pos = 0;
+   std::size_t linePos = 0;
+   int lineNum = 1;
+   std::vector<MatchRange> ranges;
+   while (found < maxMatches && pos < haystack.size())
+   {
+      std::size_t matchPos = haystack.find(literal_, pos);
+      if (matchPos == std::string::npos)
+         break;
+
+      // locate the line containing the match
+      std::size_t lineStart = haystack.rfind('\n', matchPos);
+      lineStart = lineStart == std::string::npos ? 0 : lineStart + 1;
+      lineNum += static_cast<int>(std::count(haystack.begin() + linePos,
+                                             haystack.begin() + lineStart,
+                                             '\n'));
+      std::size_t lineEnd = haystack.find('\n', matchPos);
+      if (lineEnd == std::string::npos)
+         lineEnd = haystack.size();
+
+      // an empty pattern matches every line, but highlights nothing
+      ranges.clear();
+      if (!literal_.empty())
+      {
+         while (matchPos != std::string::npos &&
+                matchPos + literal_.size() <= lineEnd)
+         {
+            ranges.push_back(MatchRange(matchPos - lineStart,
+                                        matchPos - lineStart + literal_.size()));
+            matchPos = haystack.find(literal_, matchPos + literal_.size());
+         }
+      }
+
+      addMatch(file,
+               lineNum,
+               contents.data() + lineStart,
+               contents.data() + lineEnd,
+               ranges,
+               pMatches);
+      found++;
+
+      linePos = lineStart;
+      pos = lineEnd + 1;
+   }
+}
+
+void LineMatcher::findRegex(const FilePath& file,
+                            const std::string& contents,
+                            std::size_t maxMatches,
+                            std::vector<FindMatch>* pMatches) const
+{
+   std::size_t found = 0;
+   int lineNum = 0;
+   const char* pos = contents.data();
+   const char* end = contents.data() + contents.size();
+   std::vector<MatchRange> ranges;
+   while (found < maxMatches && pos < end)
+   {
+      const char* lineEnd = static_cast<const char*>(
+                                 std::memchr(pos, '\n', end - pos));
+      if (lineEnd == NULL)
+         lineEnd = end;
+      lineNum++;
+
+      ranges.clear();
+      bool matched = false;
+      boost::cregex_iterator it(pos, lineEnd, regex_);
+      boost::cregex_iterator itEnd;
+      for (; it != itEnd; ++it)
+      {
+         matched = true;
+         const boost::cmatch& match = *it;
+         if (match.length() > 0)
+         {
+            std::size_t start = match.position();
+            ranges.push_back(MatchRange(start, start + match.length()));
+         }
+      }
+
+      if (matched)
+      {
+         addMatch(file, lineNum, pos, lineEnd, ranges, pMatches);
+         found++;
+      }
+
+      pos = lineEnd + 1;
+   }
+}
+
+ParallelFind::ParallelFind(const LineMatcher& matcher,
+                           const std::vector<FilePath>& files,
+                           std::size_t maxMatches)
+   : matcher_(matcher),
+     files_(files),
+     maxMatches_(maxMatches),
+     nextFile_(0),
+     matchCount_(0),
+     runningWorkers_(0),
+     cancelled_(false)
+{
+}
+
+ParallelFind::~ParallelFind()
+{
+   try
+   {
+      cancel();
+      threads_.join_all();
+   }
+   catch(...)
+   {
+   }
+}
+
+void ParallelFind::start(std::size_t threads)
+{
+   // block all signals for launch of background threads (will cause them
+   // to never receive signals)
+   core::system::SignalBlocker signalBlocker;
+   Error error = signalBlocker.blockAll();
+   if (error)
+      LOG_ERROR(error);
+
+   threads = std::max<std::size_t>(1, std::min(threads, files_.size()));
+   for (std::size_t i = 0; i < threads; i++)
+   {
+      {
+         boost::mutex::scoped_lock lock(mutex_);
+         runningWorkers_++;
+      }
+
+      try
+      {
+         threads_.create_thread(boost::bind(&ParallelFind::worker, this));
+      }
+      catch(const boost::thread_resource_error& e)
+      {
+         LOG_ERROR(Error(boost::thread_error::ec_from_exception(e),
+                         ERROR_LOCATION));
+
+         boost::mutex::scoped_lock lock(mutex_);
+         runningWorkers_--;
+         break;
+      }
+   }
+
+   // search on the calling thread if no workers could be started
+   bool noWorkers;
+   {
+      boost::mutex::scoped_lock lock(mutex_);
+      noWorkers = runningWorkers_ == 0;
+      if (noWorkers)
+         runningWorkers_++;
+   }
+   if (noWorkers)
+      worker();
+}
+
+void ParallelFind::cancel()
+{
+   boost::mutex::scoped_lock lock(mutex_);
+   cancelled_ = true;
+}
+
+bool ParallelFind::isComplete()
+{
+   boost::mutex::scoped_lock lock(mutex_);
+   return runningWorkers_ == 0;
+}
+
+void ParallelFind::takeMatches(std::vector<FindMatch>* pMatches)
+{
+   boost::mutex::scoped_lock lock(mutex_);
+   std::copy(matches_.begin(), matches_.end(), std::back_inserter(*pMatches));
+   matches_.clear();
+}
+
+std::size_t ParallelFind::defaultThreadCount()
+{
+   std::size_t cores = boost::thread::hardware_concurrency();
+   return std::max<std::size_t>(1, std::min<std::size_t>(cores, 8));
+}
+
+void ParallelFind::worker()
+{
+   try
+   {
+      FilePath file;
+      std::vector<FindMatch> matches;
+      while (nextFile(&file))
+      {
+         boost::shared_ptr<std::istream> pStream;
+         Error error = file.open_r(&pStream);
+         if (error)
+            continue;
+
+         // check for binary content before reading the rest of the file
+         std::string contents(kBinaryCheckBytes, '\0');
+         pStream->read(&contents[0], kBinaryCheckBytes);
+         contents.resize(pStream->gcount());
+         if (isBinaryContent(contents))
+            continue;
+         if (contents.size() == kBinaryCheckBytes)
+         {
+            contents.append(std::istreambuf_iterator<char>(*pStream),
+                            std::istreambuf_iterator<char>());
+         }
+
+         std::size_t remaining;
+         {
+            boost::mutex::scoped_lock lock(mutex_);
+            remaining = maxMatches_ > matchCount_ ?
+                                    maxMatches_ - matchCount_ : 0;
+         }
+
+         matches.clear();
+         matcher_.findMatches(file, contents, remaining, &matches);
+         if (!matches.empty())
+            addMatches(&matches);
+      }
+   }
+   CATCH_UNEXPECTED_EXCEPTION
+
+   boost::mutex::scoped_lock lock(mutex_);
+   runningWorkers_--;
+}
+
+bool ParallelFind::nextFile(FilePath* pFile)
+{
+   boost::mutex::scoped_lock lock(mutex_);
+   if (cancelled_ ||
+       matchCount_ >= maxMatches_ ||
+       nextFile_ >= files_.size())
+   {
+      return false;
+   }
+
+   *pFile = files_[nextFile_++];
+   return true;
+}
+
+void ParallelFind::addMatches(std::vector<FindMatch>* pMatches)
+{
+   boost::mutex::scoped_lock lock(mutex_);
+   if (cancelled_ || matchCount_ >= maxMatches_)
+      return;
+
+   // another worker may have used up some of the remaining matches
+   std::size_t count = std::min(pMatches->size(), maxMatches_ - matchCount_);
+   std::copy(pMatches->begin(), pMatches->begin() + count,
+             std::back_inserter(matches_));
+   matchCount_ += count;
+}
+
+bool isBinaryContent(const std::string& contents)
+{
+   std::size_t n = std::min(contents.size(), kBinaryCheckBytes);
+   return std::memchr(contents.data(), '\0', n) != NULL;
+}
+
+} // namespace find
+} // namespace modules
+} // namespace session
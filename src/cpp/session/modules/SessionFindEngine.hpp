@@ -0,0 +1,133 @@
+/*
+ * SessionFindEngine.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_FIND_ENGINE_HPP
+#define SESSION_FIND_ENGINE_HPP
+
+#include <string>
+#include <vector>
+
+#include <boost/regex.hpp>
+#include <boost/utility.hpp>
+#include <boost/thread/mutex.hpp>
+#include <boost/thread/thread.hpp>
+
+#include <core/FilePath.hpp>
+
+namespace session {
+namespace modules {
+namespace find {
+
+// A matching line. The contents are in the file's encoding with
+// surrounding whitespace trimmed, and the match offsets are in bytes
+struct FindMatch
+{
+   core::FilePath file;
+   int lineNum;
+   std::string contents;
+   std::vector<int> matchOn;
+   std::vector<int> matchOff;
+};
+
+// Matches lines against a literal string or (grep compatible, i.e. POSIX
+// basic) regular expression. Instances are immutable once constructed so
+// may be shared between threads.
+class LineMatcher
+{
+public:
+   LineMatcher(const std::string& pattern, bool asRegex, bool ignoreCase);
+
+   // false if the pattern isn't a valid regular expression
+   bool isValid() const { return valid_; }
+
+   // find the matching lines in a file's contents, stopping once
+   // maxMatches have been found
+   void findMatches(const core::FilePath& file,
+                    const std::string& contents,
+                    std::size_t maxMatches,
+                    std::vector<FindMatch>* pMatches) const;
+
+private:
+   void findLiteral(const core::FilePath& file,
+                    const std::string& contents,
+                    std::size_t maxMatches,
+                    std::vector<FindMatch>* pMatches) const;
+
+   void findRegex(const core::FilePath& file,
+                  const std::string& contents,
+                  std::size_t maxMatches,
+                  std::vector<FindMatch>* pMatches) const;
+
+   bool valid_;
+   bool useRegex_;
+   bool ignoreCase_;
+   std::string literal_;
+   boost::regex regex_;
+};
+
+// Searches a list of files using a pool of worker threads. Matches are
+// collected as each file is completed and handed to the caller (on its own
+// thread) via takeMatches.
+class ParallelFind : boost::noncopyable
+{
+public:
+   ParallelFind(const LineMatcher& matcher,
+                const std::vector<core::FilePath>& files,
+                std::size_t maxMatches);
+
+   // cancels and waits for the workers
+   virtual ~ParallelFind();
+
+   void start(std::size_t threads);
+
+   void cancel();
+
+   // true once every worker has exited (all matches are then available
+   // from takeMatches)
+   bool isComplete();
+
+   void takeMatches(std::vector<FindMatch>* pMatches);
+
+   static std::size_t defaultThreadCount();
+
+private:
+   void worker();
+   bool nextFile(core::FilePath* pFile);
+   void addMatches(std::vector<FindMatch>* pMatches);
+
+   const LineMatcher matcher_;
+   const std::vector<core::FilePath> files_;
+   const std::size_t maxMatches_;
+
+   boost::mutex mutex_;
+   std::size_t nextFile_;
+   std::size_t matchCount_;
+   std::size_t runningWorkers_;
+   bool cancelled_;
+   std::vector<FindMatch> matches_;
+   boost::thread_group threads_;
+};
+
+// true if the contents look like a binary file (as with grep, a NUL byte
+// near the start of the file)
+bool isBinaryContent(const std::string& contents);
+
+void runFindEngineTests();
+
+} // namespace find
+} // namespace modules
+} // namespace session
+
+#endif // SESSION_FIND_ENGINE_HPP
@@ -0,0 +1,222 @@
+/*
+ * SessionFindEngineTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionFindEngine.hpp"
+#include "SessionFindParser.hpp"
+
+#include <sstream>
+
+#include <boost/assert.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
+#include <boost/lexical_cast.hpp>
+
+#include <core/Error.hpp>
+#include <core/FileSerializer.hpp>
+#include <core/Log.hpp>
+#include <core/system/Process.hpp>
+#include <core/system/ShellUtils.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace find {
+
+namespace {
+
+std::vector<FindMatch> findInString(const std::string& pattern,
+                                    bool asRegex,
+                                    bool ignoreCase,
+                                    const std::string& contents)
+{
+   LineMatcher matcher(pattern, asRegex, ignoreCase);
+   BOOST_ASSERT(matcher.isValid());
+
+   std::vector<FindMatch> matches;
+   matcher.findMatches(FilePath(), contents, 1000, &matches);
+   return matches;
+}
+
+void testLiteral()
+{
+   std::vector<FindMatch> matches =
+      findInString("foo", false, false, "foo <- 1\nbar\n  x <- foo(foo)\n");
+   BOOST_ASSERT(matches.size() == 2);
+
+   BOOST_ASSERT(matches[0].lineNum == 1);
+   BOOST_ASSERT(matches[0].contents == "foo <- 1");
+   BOOST_ASSERT(matches[0].matchOn.size() == 1);
+   BOOST_ASSERT(matches[0].matchOn[0] == 0 && matches[0].matchOff[0] == 3);
+
+   // contents are trimmed (and offsets adjusted)
+   BOOST_ASSERT(matches[1].lineNum == 3);
+   BOOST_ASSERT(matches[1].contents == "x <- foo(foo)");
+   BOOST_ASSERT(matches[1].matchOn.size() == 2);
+   BOOST_ASSERT(matches[1].matchOn[0] == 5 && matches[1].matchOff[0] == 8);
+   BOOST_ASSERT(matches[1].matchOn[1] == 9 && matches[1].matchOff[1] == 12);
+
+   // case
+   BOOST_ASSERT(findInString("FOO", false, false, "foo\nFOO\n").size() == 1);
+   BOOST_ASSERT(findInString("FOO", false, true, "foo\nFOO\n").size() == 2);
+
+   // the last line matches even without a trailing newline
+   matches = findInString("z", false, false, "a\nb\nz");
+   BOOST_ASSERT(matches.size() == 1 && matches[0].lineNum == 3);
+
+   // regex characters are literal
+   BOOST_ASSERT(findInString("a.b", false, false, "axb\na.b\n").size() == 1);
+}
+
+void testRegex()
+{
+   // grep (POSIX basic) syntax
+   std::vector<FindMatch> matches =
+      findInString("^f\\(oo\\)*", true, false, "foo\n ffoo\nfoooo\n");
+   BOOST_ASSERT(matches.size() == 2);
+   BOOST_ASSERT(matches[0].lineNum == 1);
+   BOOST_ASSERT(matches[1].lineNum == 3);
+   BOOST_ASSERT(matches[1].matchOn[0] == 0 && matches[1].matchOff[0] == 5);
+
+   BOOST_ASSERT(findInString("a+", true, false, "aaa\na+\n").size() == 1);
+   BOOST_ASSERT(findInString("B[0-9]", true, true, "b1\nb\n").size() == 1);
+
+   // zero length matches match the line but highlight nothing
+   matches = findInString("x*", true, false, "abc\n");
+   BOOST_ASSERT(matches.size() == 1 && matches[0].matchOn.empty());
+
+   BOOST_ASSERT(!LineMatcher("\\(", true, false).isValid());
+}
+
+void testBinary()
+{
+   BOOST_ASSERT(!isBinaryContent("foo\nbar\n"));
+   BOOST_ASSERT(isBinaryContent(std::string("foo\0bar", 7)));
+}
+
+// waits for a search to complete, returning the matches
+std::vector<FindMatch> runFind(ParallelFind* pFind)
+{
+   std::vector<FindMatch> matches;
+   pFind->start(ParallelFind::defaultThreadCount());
+   while (!pFind->isComplete())
+      boost::this_thread::sleep(boost::posix_time::milliseconds(5));
+   pFind->takeMatches(&matches);
+   return matches;
+}
+
+// compares the native engine with grep on a synthetic tree of files
+void benchmarkAgainstGrep()
+{
+   const int kFiles = 400;
+   const int kLines = 500;
+
+   FilePath treePath;
+   Error error = FilePath::tempFilePath(&treePath);
+   BOOST_ASSERT(!error);
+   error = treePath.ensureDirectory();
+   BOOST_ASSERT(!error);
+
+   std::vector<FilePath> files;
+   for (int i = 0; i < kFiles; i++)
+   {
+      FilePath dir = treePath.complete("dir" +
+                                       boost::lexical_cast<std::string>(i % 20));
+      dir.ensureDirectory();
+
+      std::ostringstream ostr;
+      for (int line = 0; line < kLines; line++)
+      {
+         if (line % 50 == 0)
+            ostr << "result <- find_me(x, " << line << ")\n";
+         else
+            ostr << "value_" << line << " <- compute(value_" << line - 1
+                 << ", list(a = 1, b = 2))\n";
+      }
+
+      FilePath file = dir.complete("file" +
+                                   boost::lexical_cast<std::string>(i) + ".R");
+      error = writeStringToFile(file, ostr.str());
+      BOOST_ASSERT(!error);
+      files.push_back(file);
+   }
+
+   std::size_t expected = kFiles * (kLines / 50);
+
+   // native
+   boost::posix_time::ptime start =
+                  boost::posix_time::microsec_clock::universal_time();
+   ParallelFind find(LineMatcher("find_me", false, false), files, expected * 2);
+   std::vector<FindMatch> matches = runFind(&find);
+   boost::posix_time::time_duration nativeTime =
+         boost::posix_time::microsec_clock::universal_time() - start;
+   BOOST_ASSERT(matches.size() == expected);
+
+   // grep
+   start = boost::posix_time::microsec_clock::universal_time();
+   shell_utils::ShellCommand cmd("grep");
+   cmd << "-rHn" << "--binary-files=without-match" << "-F" << "find_me";
+   cmd << shell_utils::EscapeFilesOnly << "--" << shell_utils::EscapeAll;
+   cmd << treePath;
+   core::system::ProcessResult result;
+   error = core::system::runCommand(cmd, core::system::ProcessOptions(),
+                                    &result);
+   boost::posix_time::time_duration grepTime =
+         boost::posix_time::microsec_clock::universal_time() - start;
+
+   if (!error)
+   {
+      LineBuffer buffer;
+      buffer.append(result.stdOut);
+      const char* begin;
+      const char* end;
+      GrepLine line;
+      std::size_t grepMatches = 0;
+      while (buffer.nextLine(&begin, &end))
+      {
+         if (parseGrepLine(begin, end, &line))
+            grepMatches++;
+      }
+      BOOST_ASSERT(grepMatches == expected);
+   }
+   else
+   {
+      LOG_ERROR(error);
+   }
+
+   LOG_INFO_MESSAGE("find in files (" +
+                    boost::lexical_cast<std::string>(kFiles) +
+                    " files): native " +
+                    boost::lexical_cast<std::string>(
+                                    nativeTime.total_milliseconds()) +
+                    "ms, grep " +
+                    boost::lexical_cast<std::string>(
+                                    grepTime.total_milliseconds()) + "ms");
+
+   treePath.removeIfExists();
+}
+
+} // anonymous namespace
+
+void runFindEngineTests()
+{
+   testLiteral();
+   testRegex();
+   testBinary();
+   benchmarkAgainstGrep();
+}
+
+} // namespace find
+} // namespace modules
+} // namespace session
@@ -0,0 +1,160 @@
+/*
+ * SessionFindParser.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionFindParser.hpp"
+
+#include <cstring>
+
+namespace session {
+namespace modules {
+namespace find {
+
+namespace {
+
+const char kEscape = '\x1B';
+
+inline bool isDigit(char ch)
+{
+   return ch >= '0' && ch <= '9';
+}
+
+inline bool isAsciiAlpha(char ch)
+{
+   return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z');
+}
+
+// parse "file:line:contents" where the file name (which starts at
+// fileBegin) contains no colons
+bool parseFrom(const char* begin,
+               const char* fileBegin,
+               const char* end,
+               GrepLine* pLine)
+{
+   const char* colon = static_cast<const char*>(
+                           std::memchr(fileBegin, ':', end - fileBegin));
+   if (colon == NULL || colon == fileBegin)
+      return false;
+
+   const char* pos = colon + 1;
+   int lineNum = 0;
+   const char* digitsBegin = pos;
+   while (pos != end && isDigit(*pos))
+   {
+      lineNum = lineNum * 10 + (*pos - '0');
+      ++pos;
+   }
+   if (pos == digitsBegin || pos == end || *pos != ':')
+      return false;
+
+   pLine->fileBegin = begin;
+   pLine->fileEnd = colon;
+   pLine->lineNum = lineNum;
+   pLine->contentsBegin = pos + 1;
+   pLine->contentsEnd = end;
+   return true;
+}
+
+} // anonymous namespace
+
+void LineBuffer::append(const std::string& data)
+{
+   // discard lines which have already been returned
+   if (offset_ > 0)
+   {
+      buffer_.erase(0, offset_);
+      offset_ = 0;
+   }
+   buffer_.append(data);
+}
+
+bool LineBuffer::nextLine(const char** pBegin, const char** pEnd)
+{
+   std::size_t pos = buffer_.find('\n', offset_);
+   if (pos == std::string::npos)
+      return false;
+
+   *pBegin = buffer_.data() + offset_;
+   *pEnd = buffer_.data() + pos;
+   offset_ = pos + 1;
+   return true;
+}
+
+bool parseGrepLine(const char* begin, const char* end, GrepLine* pLine)
+{
+   // allow for a drive letter (e.g. C:/foo.R:12:bar) but fall back to
+   // treating the letter as the file name (e.g. a:12:bar)
+   if (end - begin > 2 && isAsciiAlpha(begin[0]) && begin[1] == ':')
+   {
+      if (parseFrom(begin, begin + 2, end, pLine))
+         return true;
+   }
+   return parseFrom(begin, begin, end, pLine);
+}
+
+void stripColorCodes(const std::string& text,
+                     std::string* pStripped,
+                     std::vector<int>* pMatchOn,
+                     std::vector<int>* pMatchOff)
+{
+   pStripped->clear();
+   pStripped->reserve(text.size());
+
+   int chars = 0;
+   std::size_t i = 0;
+   const std::size_t n = text.size();
+   while (i < n)
+   {
+      // escapes are of the form ESC[01m or ESC[m, optionally followed by
+      // an erase to end of line (ESC[K)
+      if (text[i] == kEscape && i + 2 < n && text[i + 1] == '[')
+      {
+         std::size_t pos = i + 2;
+         bool highlight = false;
+         if (pos + 1 < n && isDigit(text[pos]) && isDigit(text[pos + 1]))
+         {
+            highlight = text[pos] == '0' && text[pos + 1] == '1';
+            pos += 2;
+         }
+
+         if (pos < n && text[pos] == 'm')
+         {
+            pos++;
+            if (pos + 2 < n && text[pos] == kEscape &&
+                text[pos + 1] == '[' && text[pos + 2] == 'K')
+            {
+               pos += 3;
+            }
+
+            if (highlight)
+               pMatchOn->push_back(chars);
+            else
+               pMatchOff->push_back(chars);
+
+            i = pos;
+            continue;
+         }
+      }
+
+      // count characters rather than UTF-8 continuation bytes
+      if ((static_cast<unsigned char>(text[i]) & 0xC0) != 0x80)
+         chars++;
+      pStripped->push_back(text[i]);
+      i++;
+   }
+}
+
+} // namespace find
+} // namespace modules
+} // namespace session
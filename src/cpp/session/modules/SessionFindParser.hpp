@@ -0,0 +1,73 @@
+/*
+ * SessionFindParser.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_FIND_PARSER_HPP
+#define SESSION_FIND_PARSER_HPP
+
+#include <string>
+#include <vector>
+
+namespace session {
+namespace modules {
+namespace find {
+
+// Accumulates process output and returns it one complete line at a time;
+// a partial line at the end of a chunk is kept until the rest arrives
+class LineBuffer
+{
+public:
+   LineBuffer() : offset_(0) {}
+
+   void append(const std::string& data);
+
+   // returns the next complete line (excluding the newline); the returned
+   // range is only valid until the next call to append
+   bool nextLine(const char** pBegin, const char** pEnd);
+
+   std::size_t pendingBytes() const { return buffer_.size() - offset_; }
+
+private:
+   std::string buffer_;
+   std::size_t offset_;
+};
+
+// A line of "grep -Hn" output (file:line:contents); the ranges point into
+// the parsed line
+struct GrepLine
+{
+   const char* fileBegin;
+   const char* fileEnd;
+   int lineNum;
+   const char* contentsBegin;
+   const char* contentsEnd;
+};
+
+bool parseGrepLine(const char* begin, const char* end, GrepLine* pLine);
+
+// Removes the escape sequences written by "grep --color=always", recording
+// the offsets (in UTF-8 characters) at which highlighted matches begin and
+// end in the remaining text
+void stripColorCodes(const std::string& text,
+                     std::string* pStripped,
+                     std::vector<int>* pMatchOn,
+                     std::vector<int>* pMatchOff);
+
+void runFindParserTests();
+
+} // namespace find
+} // namespace modules
+} // namesapce session
+
+#endif // SESSION_FIND_PARSER_HPP
@@ -0,0 +1,200 @@
+/*
+ * SessionFindParserTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionFindParser.hpp"
+
+#include <ctime>
+#include <iostream>
+#include <sstream>
+
+#include <boost/assert.hpp>
+
+namespace session {
+namespace modules {
+namespace find {
+
+namespace {
+
+std::string str(const char* begin, const char* end)
+{
+   return std::string(begin, end);
+}
+
+struct ParsedLine
+{
+   std::string file;
+   int lineNum;
+   std::string contents;
+};
+
+bool parse(const std::string& text, ParsedLine* pParsed)
+{
+   GrepLine line;
+   if (!parseGrepLine(text.data(), text.data() + text.size(), &line))
+      return false;
+
+   pParsed->file = str(line.fileBegin, line.fileEnd);
+   pParsed->lineNum = line.lineNum;
+   pParsed->contents = str(line.contentsBegin, line.contentsEnd);
+   return true;
+}
+
+void testParseGrepLine()
+{
+   ParsedLine line;
+
+   BOOST_ASSERT(parse("/foo/bar.R:12:x <- 1", &line));
+   BOOST_ASSERT(line.file == "/foo/bar.R");
+   BOOST_ASSERT(line.lineNum == 12);
+   BOOST_ASSERT(line.contents == "x <- 1");
+
+   // contents may contain colons
+   BOOST_ASSERT(parse("a.R:3:x[, 1:2]", &line));
+   BOOST_ASSERT(line.contents == "x[, 1:2]");
+
+   // drive letters
+   BOOST_ASSERT(parse("C:/foo/bar.R:7:", &line));
+   BOOST_ASSERT(line.file == "C:/foo/bar.R");
+   BOOST_ASSERT(line.lineNum == 7);
+   BOOST_ASSERT(line.contents.empty());
+
+   // single letter file name
+   BOOST_ASSERT(parse("a:12:bar", &line));
+   BOOST_ASSERT(line.file == "a");
+   BOOST_ASSERT(line.lineNum == 12);
+
+   BOOST_ASSERT(!parse("", &line));
+   BOOST_ASSERT(!parse("Binary file foo matches", &line));
+   BOOST_ASSERT(!parse("foo.R:x:bar", &line));
+   BOOST_ASSERT(!parse("foo.R:12", &line));
+   BOOST_ASSERT(!parse(":12:bar", &line));
+}
+
+void testLineBuffer()
+{
+   LineBuffer buffer;
+   const char* begin;
+   const char* end;
+
+   buffer.append("foo.R:1:a\nfoo.R:2");
+   BOOST_ASSERT(buffer.nextLine(&begin, &end));
+   BOOST_ASSERT(str(begin, end) == "foo.R:1:a");
+   BOOST_ASSERT(!buffer.nextLine(&begin, &end));
+
+   // partial line is completed by the next chunk
+   buffer.append(":b\n\n");
+   BOOST_ASSERT(buffer.nextLine(&begin, &end));
+   BOOST_ASSERT(str(begin, end) == "foo.R:2:b");
+   BOOST_ASSERT(buffer.nextLine(&begin, &end));
+   BOOST_ASSERT(begin == end);
+   BOOST_ASSERT(!buffer.nextLine(&begin, &end));
+   BOOST_ASSERT(buffer.pendingBytes() == 0);
+}
+
+void testStripColorCodes()
+{
+   std::string stripped;
+   std::vector<int> on, off;
+
+   stripColorCodes("x <- \x1B[01m\x1B[Kfoo\x1B[m\x1B[K(1)",
+                   &stripped, &on, &off);
+   BOOST_ASSERT(stripped == "x <- foo(1)");
+   BOOST_ASSERT(on.size() == 1 && on[0] == 5);
+   BOOST_ASSERT(off.size() == 1 && off[0] == 8);
+
+   // offsets are in characters (\xC3\xA9 is a two byte character)
+   on.clear();
+   off.clear();
+   stripColorCodes("\xC3\xA9\x1B[01mb\x1B[m", &stripped, &on, &off);
+   BOOST_ASSERT(stripped == "\xC3\xA9" "b");
+   BOOST_ASSERT(on.size() == 1 && on[0] == 1);
+   BOOST_ASSERT(off.size() == 1 && off[0] == 2);
+
+   // other escapes are left alone
+   on.clear();
+   off.clear();
+   stripColorCodes("a\x1B[2Jb", &stripped, &on, &off);
+   BOOST_ASSERT(stripped == "a\x1B[2Jb");
+   BOOST_ASSERT(on.empty() && off.empty());
+}
+
+// feeds canned grep output through the buffer, parser and color stripping
+// in chunks (as it arrives from the child process) and checks throughput
+void benchmarkGrepOutput()
+{
+   const int kLines = 200000;
+   const std::size_t kChunkSize = 8192;
+
+   std::ostringstream ostr;
+   for (int i = 0; i < kLines; i++)
+   {
+      ostr << "/home/user/project/R/file" << (i % 100) << ".R:" << i
+           << ":   result <- \x1B[01m\x1B[Kfind_me\x1B[m\x1B[K(x, y = "
+           << i << ")\n";
+   }
+   std::string output = ostr.str();
+
+   std::clock_t start = std::clock();
+
+   LineBuffer buffer;
+   GrepLine line;
+   std::string contents, stripped;
+   std::vector<int> on, off;
+   int parsed = 0;
+   for (std::size_t pos = 0; pos < output.size(); pos += kChunkSize)
+   {
+      buffer.append(output.substr(pos, kChunkSize));
+
+      const char* begin;
+      const char* end;
+      while (buffer.nextLine(&begin, &end))
+      {
+         if (!parseGrepLine(begin, end, &line))
+            continue;
+
+         contents.assign(line.contentsBegin, line.contentsEnd);
+         on.clear();
+         off.clear();
+         stripColorCodes(contents, &stripped, &on, &off);
+         parsed++;
+      }
+   }
+
+   double seconds = static_cast<double>(std::clock() - start) /
+                    CLOCKS_PER_SEC;
+   double linesPerSecond = seconds > 0 ? kLines / seconds : kLines * 1000.0;
+   // the rate is reported rather than asserted (it depends on the machine
+   // and build); the regex based parser this replaced managed well under
+   // 100,000 lines/sec
+   std::cout << "grep output: " << static_cast<long>(linesPerSecond)
+             << " lines/sec" << std::endl;
+
+   BOOST_ASSERT(parsed == kLines);
+   BOOST_ASSERT(buffer.pendingBytes() == 0);
+}
+
+} // anonymous namespace
+
+void runFindParserTests()
+{
+   testParseGrepLine();
+   testLineBuffer();
+   testStripColorCodes();
+   benchmarkGrepOutput();
+}
+
+} // namespace find
+} // namespace modules
+} // namespace session
@@ -32,9 +32,11 @@
 #include <boost/lexical_cast.hpp>
 #include <boost/optional.hpp>
 #include <boost/regex.hpp>
+#include <boost/scoped_ptr.hpp>
 #include <core/BoostLamda.hpp>
 
 #include <core/json/JsonRpc.hpp>
+#include <core/json/JsonWriter.hpp>
 #include <core/system/Crypto.hpp>
 #include <core/system/ShellUtils.hpp>
 #include <core/system/System.hpp>
@@ -56,6 +58,7 @@
 #include <session/SessionConsoleProcess.hpp>
 
 #include "SessionAskPass.hpp"
+#include "SessionGitStatusCache.hpp"
 
 #include "SessionVCS.hpp"
 
@@ -388,42 +391,28 @@ public:
    core::Error status(const FilePath& dir,
                       StatusResult* pStatusResult)
    {
-      using namespace boost;
-
-      std::vector<FileWithStatus> files;
-
-      std::vector<std::string> lines;
       std::string output;
-      Error error = runGit(ShellArgs() << "status" << "--porcelain" << "--" << dir,
-                           &output);
+      Error error = statusOutput(std::vector<FilePath>(1, dir), &output);
       if (error)
          return error;
-      lines = split(output);
-
-      for (std::vector<std::string>::iterator it = lines.begin();
-           it != lines.end();
-           it++)
-      {
-         std::string line = *it;
-         if (line.length() < 4)
-            continue;
-         FileWithStatus file;
-
-         file.status = line.substr(0, 2);
-
-         std::string filePath = line.substr(3);
-         if (filePath.length() > 1 && filePath[filePath.length() - 1] == '/')
-            filePath = filePath.substr(0, filePath.size() - 1);
-         file.path = root_.childPath(string_utils::systemToUtf8(filePath));
-
-         files.push_back(file);
-      }
 
+      std::vector<FileWithStatus> files;
+      parseStatus(output, root_, &files);
       *pStatusResult = StatusResult(files);
 
       return Success();
    }
 
+   // `git status --porcelain -z` output for the passed paths (or for the
+   // whole working tree if no paths are passed)
+   core::Error statusOutput(const std::vector<FilePath>& paths,
+                            std::string* pOutput)
+   {
+      return runGit(ShellArgs() << "status" << "--porcelain" << "-z" <<
+                                   "--" << paths,
+                    pOutput);
+   }
+
    core::Error add(const std::vector<FilePath>& filePaths)
    {
       return runGit(ShellArgs() << "add" << "--" << filePaths);
@@ -1150,6 +1139,43 @@ public:
 
 Git s_git_;
 
+// status of the working tree, kept current using the project's file monitor
+boost::scoped_ptr<StatusCache> s_pStatusCache;
+
+Error queryStatus(const std::vector<FilePath>& paths, std::string* pOutput)
+{
+   return s_git_.statusOutput(paths, pOutput);
+}
+
+// returns NULL unless the project's file monitor covers the whole working
+// tree (otherwise changes outside of the project would be missed)
+StatusCache* statusCache()
+{
+   FilePath root = s_git_.root();
+   if (root.empty() || !projects::projectContext().isMonitoringDirectory(root))
+   {
+      s_pStatusCache.reset();
+      return NULL;
+   }
+
+   if (!s_pStatusCache || s_pStatusCache->root() != root)
+      s_pStatusCache.reset(new StatusCache(root, queryStatus));
+
+   return s_pStatusCache.get();
+}
+
+// returns the status cache if it can be read from: the whole working tree
+// has been queried and the index and HEAD haven't changed since (e.g.
+// because of git commands run in a terminal)
+StatusCache* currentStatusCache()
+{
+   StatusCache* pCache = statusCache();
+   if (pCache && pCache->isValid() && !pCache->indexChanged())
+      return pCache;
+   else
+      return NULL;
+}
+
 FilePath resolveAliasedPath(const std::string& path)
 {
    if (boost::algorithm::starts_with(path, "~/"))
@@ -1227,8 +1253,18 @@ FilePath detectGitDir(const FilePath& workingDir)
 } // anonymous namespace
 
 GitFileDecorationContext::GitFileDecorationContext(const FilePath& rootDir)
-   : fullRefreshRequired_(false)
+   : fullRefreshRequired_(false), statusCached_(false)
 {
+   // use the status cache if it's current (the client is sent any changes
+   // to the cache's entries as they happen)
+   StatusCache* pCache = currentStatusCache();
+   if (pCache)
+   {
+      vcsStatus_ = pCache->status(rootDir);
+      statusCached_ = true;
+      return;
+   }
+
    // get source control status (merely log errors doing this)
    Error error = git::status(rootDir, &vcsStatus_);
    if (error)
@@ -1246,7 +1282,7 @@ void GitFileDecorationContext::decorateFile(const FilePath &filePath,
 {
    VCSStatus status = vcsStatus_.getStatus(filePath);
 
-   if (status.status().empty() && !fullRefreshRequired_)
+   if (status.status().empty() && !fullRefreshRequired_ && !statusCached_)
    {
       // Special edge case when file is inside an untracked directory
       // that may or may not be known to the client. (It wouldn't be
@@ -1279,11 +1315,25 @@ core::Error status(const FilePath& dir, StatusResult* pStatusResult)
    if (s_git_.root().empty())
       return Success();
 
+   StatusCache* pCache = currentStatusCache();
+   if (pCache)
+   {
+      *pStatusResult = pCache->status(dir);
+      return Success();
+   }
+
    return s_git_.status(dir, pStatusResult);
 }
 
 Error fileStatus(const FilePath& filePath, VCSStatus* pStatus)
 {
+   StatusCache* pCache = currentStatusCache();
+   if (pCache)
+   {
+      *pStatus = pCache->getStatus(filePath);
+      return Success();
+   }
+
    StatusResult statusResult;
    Error error = git::status(filePath.parent(), &statusResult);
    if (error)
@@ -1430,8 +1480,20 @@ Error vcsCheckout(const json::JsonRpcRequest& request,
 Error vcsFullStatus(const json::JsonRpcRequest&,
                     json::JsonRpcResponse* pResponse)
 {
+   // always re-query the whole working tree since changes to the index
+   // (e.g. by git operations) aren't reported by the file monitor
    StatusResult statusResult;
-   Error error = s_git_.status(s_git_.root(), &statusResult);
+   Error error;
+   StatusCache* pCache = statusCache();
+   if (pCache)
+   {
+      error = pCache->refresh();
+      statusResult = pCache->status(s_git_.root());
+   }
+   else
+   {
+      error = s_git_.status(s_git_.root(), &statusResult);
+   }
    if (error)
       return error;
 
@@ -1455,6 +1517,75 @@ Error vcsFullStatus(const json::JsonRpcRequest&,
    return Success();
 }
 
+json::Array statusArrayJson(const std::vector<FileWithStatus>& files)
+{
+   json::Array filesJson;
+   BOOST_FOREACH(const FileWithStatus& file, files)
+   {
+      json::Object fileJson;
+      Error error = statusToJson(file.path, file.status, &fileJson);
+      if (error)
+         LOG_ERROR(error);
+      else
+         filesJson.push_back(fileJson);
+   }
+   return filesJson;
+}
+
+void updateStatusCache(StatusCache* pCache)
+{
+   StatusDelta delta;
+   Error error = pCache->update(&delta);
+   if (error)
+   {
+      LOG_ERROR(error);
+      return;
+   }
+
+   // send the client the entries which changed (rather than having it
+   // re-query the status of the whole working tree)
+   if (!delta.empty())
+   {
+      json::Object deltaJson;
+      deltaJson["added"] = statusArrayJson(delta.added);
+      deltaJson["removed"] = statusArrayJson(delta.removed);
+      deltaJson["changed"] = statusArrayJson(delta.changed);
+      module_context::enqueClientEvent(
+               ClientEvent(client_events::kVcsStatusChanged, deltaJson));
+   }
+}
+
+void onFilesChanged(const std::vector<core::system::FileChangeEvent>& events)
+{
+   // nothing to update until the whole working tree has been queried
+   StatusCache* pCache = statusCache();
+   if (!pCache || !pCache->isValid())
+      return;
+
+   BOOST_FOREACH(const core::system::FileChangeEvent& event, events)
+   {
+      pCache->invalidate(FilePath(event.fileInfo().absolutePath()));
+   }
+
+   updateStatusCache(pCache);
+}
+
+void onDetectChanges(module_context::ChangeSource source)
+{
+   // git commands (e.g. run with system() from the console) change the
+   // index without the file monitor noticing
+   StatusCache* pCache = statusCache();
+   if (!pCache || !pCache->isValid() || !pCache->indexChanged())
+      return;
+
+   updateStatusCache(pCache);
+}
+
+void onMonitoringDisabled()
+{
+   s_pStatusCache.reset();
+}
+
 Error vcsAllStatus(const json::JsonRpcRequest& request,
                    json::JsonRpcResponse* pResponse)
 {
@@ -1850,6 +1981,83 @@ Error vcsHistoryCount(const json::JsonRpcRequest& request,
    return Success();
 }
 
+void writeCommitField(const std::vector<CommitInfo>& commits,
+                      std::string CommitInfo::* field,
+                      json::Writer* pWriter)
+{
+   pWriter->beginArray();
+   BOOST_FOREACH(const CommitInfo& commit, commits)
+   {
+      pWriter->value(string_utils::filterControlChars(commit.*field));
+   }
+   pWriter->endArray();
+}
+
+void writeCommitLists(const std::vector<CommitInfo>& commits,
+                      std::vector<std::string> CommitInfo::* field,
+                      json::Writer* pWriter)
+{
+   pWriter->beginArray();
+   BOOST_FOREACH(const CommitInfo& commit, commits)
+   {
+      pWriter->beginArray();
+      BOOST_FOREACH(const std::string& value, commit.*field)
+      {
+         pWriter->value(value);
+      }
+      pWriter->endArray();
+   }
+   pWriter->endArray();
+}
+
+void writeHistory(boost::shared_ptr<std::vector<CommitInfo> > pCommits,
+                  json::Writer* pWriter)
+{
+   const std::vector<CommitInfo>& commits = *pCommits;
+
+   pWriter->beginObject();
+
+   pWriter->key("id");
+   pWriter->beginArray();
+   BOOST_FOREACH(const CommitInfo& commit, commits)
+   {
+      pWriter->value(commit.id.substr(0, 8));
+   }
+   pWriter->endArray();
+
+   pWriter->key("author");
+   writeCommitField(commits, &CommitInfo::author, pWriter);
+   pWriter->key("parent");
+   writeCommitField(commits, &CommitInfo::parent, pWriter);
+   pWriter->key("subject");
+   writeCommitField(commits, &CommitInfo::subject, pWriter);
+   pWriter->key("description");
+   writeCommitField(commits, &CommitInfo::description, pWriter);
+
+   pWriter->key("date");
+   pWriter->beginArray();
+   BOOST_FOREACH(const CommitInfo& commit, commits)
+   {
+      pWriter->value(static_cast<double>(commit.date));
+   }
+   pWriter->endArray();
+
+   pWriter->key("refs");
+   writeCommitLists(commits, &CommitInfo::refs, pWriter);
+   pWriter->key("tags");
+   writeCommitLists(commits, &CommitInfo::tags, pWriter);
+
+   pWriter->key("graph");
+   pWriter->beginArray();
+   BOOST_FOREACH(const CommitInfo& commit, commits)
+   {
+      pWriter->value(commit.graph);
+   }
+   pWriter->endArray();
+
+   pWriter->endObject();
+}
+
 Error vcsHistory(const json::JsonRpcRequest& request,
                  json::JsonRpcResponse* pResponse)
 {
@@ -1874,49 +2082,11 @@ Error vcsHistory(const json::JsonRpcRequest& request,
    if (error)
       return error;
 
-   json::Array ids;
-   json::Array authors;
-   json::Array parents;
-   json::Array subjects;
-   json::Array dates;
-   json::Array descriptions;
-   json::Array refs;
-   json::Array tags;
-   json::Array graphs;
-
-   for (std::vector<CommitInfo>::const_iterator it = commits.begin();
-        it != commits.end();
-        it++)
-   {
-      ids.push_back(it->id.substr(0, 8));
-      authors.push_back(string_utils::filterControlChars(it->author));
-      parents.push_back(string_utils::filterControlChars(it->parent));
-      subjects.push_back(string_utils::filterControlChars(it->subject));
-      descriptions.push_back(string_utils::filterControlChars(it->description));
-      dates.push_back(static_cast<double>(it->date));
-      graphs.push_back(it->graph);
-
-      json::Array theseRefs;
-      std::copy(it->refs.begin(), it->refs.end(), std::back_inserter(theseRefs));
-      refs.push_back(theseRefs);
-
-      json::Array theseTags;
-      std::copy(it->tags.begin(), it->tags.end(), std::back_inserter(theseTags));
-      tags.push_back(theseTags);
-   }
-
-   json::Object result;
-   result["id"] = ids;
-   result["author"] = authors;
-   result["parent"] = parents;
-   result["subject"] = subjects;
-   result["description"] = descriptions;
-   result["date"] = dates;
-   result["refs"] = refs;
-   result["tags"] = tags;
-   result["graph"] = graphs;
-
-   pResponse->setResult(result);
+   // the history can be long so it's written directly to the response
+   boost::shared_ptr<std::vector<CommitInfo> > pCommits(
+                                    new std::vector<CommitInfo>());
+   pCommits->swap(commits);
+   pResponse->setResultWriter(boost::bind(writeHistory, pCommits, _1));
 
    return Success();
 }
@@ -2771,6 +2941,7 @@ core::Error initialize()
    Error error;
 
    module_context::events().onShutdown.connect(onShutdown);
+   module_context::events().onDetectChanges.connect(onDetectChanges);
 
    initGitBin();
 
@@ -2814,6 +2985,12 @@ core::Error initialize()
    // add settings changed handler
    userSettings().onChanged.connect(onUserSettingsChanged);
 
+   // keep the status cache current
+   projects::FileMonitorCallbacks cb;
+   cb.onFilesChanged = onFilesChanged;
+   cb.onMonitoringDisabled = onMonitoringDisabled;
+   projects::projectContext().subscribeToFileMonitor("", cb);
+
    // install rpc methods
    using boost::bind;
    using namespace module_context;
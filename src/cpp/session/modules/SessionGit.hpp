@@ -49,6 +49,7 @@ public:
 private:
    source_control::StatusResult vcsStatus_;
    bool fullRefreshRequired_;
+   bool statusCached_;
 };
 
 bool isGitInstalled();
@@ -0,0 +1,629 @@
+/*
+ * SessionGitStatusCache.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionGitStatusCache.hpp"
+
+#include <cstring>
+
+#include <boost/algorithm/string/predicate.hpp>
+#include <boost/algorithm/string/trim.hpp>
+#include <boost/foreach.hpp>
+
+#include <core/FileSerializer.hpp>
+#include <core/SafeConvert.hpp>
+#include <core/StringUtils.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace git {
+
+using namespace source_control;
+
+namespace {
+
+std::string parentPath(const std::string& path)
+{
+   std::string::size_type slash = path.rfind('/');
+   if (slash == std::string::npos)
+      return std::string();
+   else
+      return path.substr(0, slash);
+}
+
+bool isWithinPath(const std::string& path, const std::string& parent)
+{
+   if (parent.empty() || path == parent)
+      return true;
+
+   return path.size() > parent.size() &&
+          path[parent.size()] == '/' &&
+          path.compare(0, parent.size(), parent) == 0;
+}
+
+// the paths of the set which aren't within other paths of the set
+std::vector<std::string> outermostPaths(const std::set<std::string>& paths)
+{
+   std::vector<std::string> outermost;
+   BOOST_FOREACH(const std::string& path, paths)
+   {
+      bool within = false;
+      std::string parent = path;
+      while (!parent.empty() && !within)
+      {
+         parent = parentPath(parent);
+         within = paths.count(parent) > 0;
+      }
+
+      if (!within)
+         outermost.push_back(path);
+   }
+   return outermost;
+}
+
+const char * const kRenameSeparator = " -> ";
+
+// splits a path reported as "from -> to" (returns false if it isn't)
+bool splitRename(const std::string& path,
+                 std::string* pFrom,
+                 std::string* pTo)
+{
+   std::string::size_type arrow = path.find(kRenameSeparator);
+   if (arrow == std::string::npos)
+      return false;
+
+   *pFrom = path.substr(0, arrow);
+   *pTo = path.substr(arrow + std::strlen(kRenameSeparator));
+   return true;
+}
+
+// the git directory of a working tree (.git is a file which points to it
+// for worktrees and submodules)
+FilePath gitDirectory(const FilePath& root)
+{
+   FilePath dotGit = root.childPath(".git");
+   if (!dotGit.exists() || dotGit.isDirectory())
+      return dotGit;
+
+   std::string contents;
+   Error error = readStringFromFile(dotGit, &contents);
+   if (error || !boost::algorithm::starts_with(contents, "gitdir:"))
+      return dotGit;
+
+   std::string path = boost::algorithm::trim_copy(contents.substr(7));
+   return FilePath::isRootPath(path) ? FilePath(path) : root.childPath(path);
+}
+
+} // anonymous namespace
+
+void parseStatus(const std::string& output,
+                 const FilePath& root,
+                 std::vector<FileWithStatus>* pFiles)
+{
+   std::string::size_type pos = 0;
+   while (pos < output.size())
+   {
+      std::string::size_type end = output.find('\0', pos);
+      if (end == std::string::npos)
+         end = output.size();
+      std::string entry = output.substr(pos, end - pos);
+      pos = end + 1;
+
+      if (entry.length() < 4)
+         continue;
+
+      FileWithStatus file;
+      file.status = entry.substr(0, 2);
+
+      std::string filePath = entry.substr(3);
+
+      // renames and copies are followed by the path they were made from.
+      // they're reported as "from -> to" (as git does without -z) since
+      // that's the form the client passes back when staging them.
+      if (entry[0] == 'R' || entry[0] == 'C')
+      {
+         end = output.find('\0', pos);
+         if (end == std::string::npos)
+            end = output.size();
+         filePath = output.substr(pos, end - pos) + kRenameSeparator +
+                    filePath;
+         pos = end + 1;
+      }
+
+      if (filePath.length() > 1 && filePath[filePath.length() - 1] == '/')
+         filePath = filePath.substr(0, filePath.size() - 1);
+      file.path = root.childPath(string_utils::systemToUtf8(filePath));
+
+      pFiles->push_back(file);
+   }
+}
+
+StatusCache::StatusCache(const FilePath& root, const StatusQuery& query)
+   : root_(root), gitDir_(gitDirectory(root)), query_(query), valid_(false)
+{
+}
+
+bool StatusCache::indexChanged() const
+{
+   return indexState() != indexState_;
+}
+
+void StatusCache::invalidate()
+{
+   // entries are kept so that the next update can report what changed
+   valid_ = false;
+   changedPaths_.clear();
+}
+
+void StatusCache::invalidate(const FilePath& path)
+{
+   if (!valid_ || !path.isWithin(root_))
+      return;
+
+   // changes to ignore rules can affect any path
+   if (path.filename() == ".gitignore")
+   {
+      invalidate();
+      return;
+   }
+
+   changedPaths_.insert(relativePath(path));
+}
+
+Error StatusCache::update(StatusDelta* pDelta)
+{
+   if (!valid_ || indexChanged())
+      return refresh(pDelta);
+
+   if (changedPaths_.empty())
+      return Success();
+
+   // git reports untracked directories as a whole, so a change within one
+   // is a change to the directory's entry
+   std::set<std::string> paths;
+   BOOST_FOREACH(const std::string& path, changedPaths_)
+   {
+      paths.insert(untrackedParent(path));
+   }
+   changedPaths_.clear();
+
+   // a path queried without the other side of its rename would be
+   // reported as added (or deleted) instead
+   addRenamedPaths(&paths);
+
+   Touched touched;
+   Error error = queryPaths(paths, &touched);
+   if (error)
+   {
+      invalidate();
+      return error;
+   }
+
+   if (pDelta)
+      computeDelta(touched, pDelta);
+
+   return Success();
+}
+
+Error StatusCache::refresh(StatusDelta* pDelta)
+{
+   changedPaths_.clear();
+
+   // noted before querying so that changes made during the query are
+   // picked up by the next update
+   indexState_ = indexState();
+
+   std::set<std::string> paths;
+   paths.insert(std::string());
+
+   Touched touched;
+   Error error = queryPaths(paths, &touched);
+   if (error)
+   {
+      invalidate();
+      return error;
+   }
+   valid_ = true;
+
+   if (pDelta)
+      computeDelta(touched, pDelta);
+
+   return Success();
+}
+
+VCSStatus StatusCache::getStatus(const FilePath& path) const
+{
+   if (!path.isWithin(root_))
+      return VCSStatus();
+
+   Entries::const_iterator it = entries_.find(relativePath(path));
+   if (it != entries_.end())
+      return it->second.status;
+   else
+      return VCSStatus();
+}
+
+StatusResult StatusCache::status(const FilePath& dir) const
+{
+   std::vector<FileWithStatus> files;
+
+   std::string path;
+   if (dir.isWithin(root_))
+      path = relativePath(dir);
+   else if (!root_.isWithin(dir))
+      return StatusResult();
+
+   std::vector<std::string> paths;
+   if (path.empty())
+   {
+      for (Entries::const_iterator it = entries_.begin();
+           it != entries_.end();
+           ++it)
+      {
+         paths.push_back(it->first);
+      }
+   }
+   else
+   {
+      // parents (e.g. an untracked directory containing dir)
+      std::string parent = path;
+      while (!parent.empty())
+      {
+         parent = parentPath(parent);
+         if (entries_.count(parent))
+            paths.push_back(parent);
+      }
+
+      // dir itself and its children
+      if (entries_.count(path))
+         paths.push_back(path);
+      std::string prefix = path + "/";
+      for (Entries::const_iterator it = entries_.lower_bound(prefix);
+           it != entries_.end() && it->first.compare(0, prefix.size(), prefix) == 0;
+           ++it)
+      {
+         paths.push_back(it->first);
+      }
+   }
+
+   BOOST_FOREACH(const std::string& entryPath, paths)
+   {
+      files.push_back(fileWithStatus(entryPath,
+                                     entries_.find(entryPath)->second));
+   }
+
+   return StatusResult(files);
+}
+
+// the modification time and size of the index and HEAD (the reflog for
+// HEAD is included since HEAD itself doesn't change when committing)
+std::string StatusCache::indexState() const
+{
+   std::string state;
+   const char * const files[] = { "index", "HEAD", "logs/HEAD" };
+   BOOST_FOREACH(const char * const file, files)
+   {
+      FilePath path = gitDir_.childPath(file);
+      if (path.exists())
+      {
+         state += safe_convert::numberToString(path.lastWriteTime()) + ":" +
+                  safe_convert::numberToString(path.size());
+      }
+      state += ";";
+   }
+   return state;
+}
+
+std::string StatusCache::relativePath(const FilePath& path) const
+{
+   if (path == root_)
+      return std::string();
+   else
+      return path.relativePath(root_);
+}
+
+FileWithStatus StatusCache::fileWithStatus(const std::string& path,
+                                           const Entry& entry) const
+{
+   FileWithStatus file;
+   file.status = entry.status;
+   if (entry.from.empty())
+      file.path = root_.childPath(path);
+   else
+      file.path = root_.childPath(entry.from + kRenameSeparator + path);
+   return file;
+}
+
+std::string StatusCache::untrackedParent(const std::string& path) const
+{
+   std::string untracked = path;
+   std::string parent = path;
+   while (!parent.empty())
+   {
+      parent = parentPath(parent);
+      Entries::const_iterator it = entries_.find(parent);
+      if (it != entries_.end() && it->second.status.status() == "??")
+         untracked = parent;
+   }
+   return untracked;
+}
+
+void StatusCache::addRenamedPaths(std::set<std::string>* pPaths) const
+{
+   std::vector<std::string> renamed;
+   BOOST_FOREACH(const std::string& path, *pPaths)
+   {
+      // the whole working tree includes both sides of every rename
+      if (path.empty())
+         return;
+
+      // renames made to (or within) path
+      Entries::const_iterator entryIt = entries_.find(path);
+      if (entryIt != entries_.end() && !entryIt->second.from.empty())
+         renamed.push_back(entryIt->second.from);
+      std::string prefix = path + "/";
+      for (entryIt = entries_.lower_bound(prefix);
+           entryIt != entries_.end() && isWithinPath(entryIt->first, path);
+           ++entryIt)
+      {
+         if (!entryIt->second.from.empty())
+            renamed.push_back(entryIt->second.from);
+      }
+
+      // renames made from (or from within) path
+      std::multimap<std::string, std::string>::const_iterator renameIt;
+      for (renameIt = renamedTo_.lower_bound(path);
+           renameIt != renamedTo_.end() &&
+              renameIt->first.compare(0, path.size(), path) == 0;
+           ++renameIt)
+      {
+         if (isWithinPath(renameIt->first, path))
+            renamed.push_back(renameIt->second);
+      }
+   }
+
+   pPaths->insert(renamed.begin(), renamed.end());
+}
+
+Error StatusCache::queryPaths(const std::set<std::string>& paths,
+                              Touched* pTouched)
+{
+   std::set<std::string> pending = paths;
+   while (!pending.empty())
+   {
+      std::vector<std::string> outermost = outermostPaths(pending);
+      pending.clear();
+
+      // the root is queried by passing no paths at all
+      std::vector<FilePath> queryPaths;
+      BOOST_FOREACH(const std::string& path, outermost)
+      {
+         if (path.empty())
+         {
+            queryPaths.clear();
+            outermost.assign(1, std::string());
+            break;
+         }
+         queryPaths.push_back(root_.childPath(path));
+      }
+
+      std::string output;
+      Error error = query_(queryPaths, &output);
+      if (error)
+         return error;
+
+      std::vector<FileWithStatus> files;
+      parseStatus(output, root_, &files);
+
+      // group the results by the path they were queried for
+      std::map<std::string, Entries> results;
+      BOOST_FOREACH(const std::string& path, outermost)
+      {
+         results[path];
+      }
+      BOOST_FOREACH(const FileWithStatus& file, files)
+      {
+         // renames are kept under the path they were made to (and found by
+         // it, or failing that by the path they were made from)
+         Entry entry;
+         entry.status = file.status;
+         std::string path = relativePath(file.path);
+         std::string queried = path;
+         if (splitRename(path, &entry.from, &path))
+            queried = path;
+         while (!results.count(queried) && !queried.empty())
+            queried = parentPath(queried);
+         if (queried.empty() && !entry.from.empty() && !results.count(queried))
+         {
+            queried = entry.from;
+            while (!results.count(queried) && !queried.empty())
+               queried = parentPath(queried);
+         }
+
+         std::map<std::string, Entries>::iterator it = results.find(queried);
+         if (it != results.end())
+         {
+            it->second[path] = entry;
+            continue;
+         }
+
+         // an untracked directory containing the queried paths
+         std::string prefix = path + "/";
+         for (it = results.lower_bound(prefix);
+              it != results.end() && isWithinPath(it->first, path);
+              ++it)
+         {
+            it->second[path] = entry;
+         }
+      }
+
+      for (std::map<std::string, Entries>::const_iterator it = results.begin();
+           it != results.end();
+           ++it)
+      {
+         // an untracked entry for the path itself (or for a directory
+         // containing it) might be within a directory which is untracked
+         // as a whole (e.g. a new file within a new directory), in which
+         // case git reports only that directory. query the parent to find
+         // out (paths at the root can't be within an untracked directory).
+         const std::string& path = it->first;
+         std::string untracked;
+         bool isUntracked = false;
+         for (Entries::const_iterator entryIt = it->second.begin();
+              entryIt != it->second.end() && !isUntracked;
+              ++entryIt)
+         {
+            if (isWithinPath(path, entryIt->first) &&
+                entryIt->second.status.status() == "??")
+            {
+               untracked = entryIt->first;
+               isUntracked = true;
+            }
+         }
+
+         if (isUntracked && !path.empty())
+         {
+            std::string parent = parentPath(untracked);
+            if (!parent.empty())
+               pending.insert(parent);
+            else
+               replaceEntries(untracked, it->second, pTouched);
+            continue;
+         }
+
+         replaceEntries(path, it->second, pTouched);
+      }
+   }
+
+   return Success();
+}
+
+void StatusCache::replaceEntries(const std::string& path,
+                                 const Entries& entries,
+                                 Touched* pTouched)
+{
+   // existing entries at or within path
+   std::vector<std::string> existing;
+   if (path.empty())
+   {
+      for (Entries::const_iterator it = entries_.begin();
+           it != entries_.end();
+           ++it)
+      {
+         existing.push_back(it->first);
+      }
+   }
+   else
+   {
+      if (entries_.count(path))
+         existing.push_back(path);
+      std::string prefix = path + "/";
+      for (Entries::const_iterator it = entries_.lower_bound(prefix);
+           it != entries_.end() && it->first.compare(0, prefix.size(), prefix) == 0;
+           ++it)
+      {
+         existing.push_back(it->first);
+      }
+   }
+
+   // record the status each path had before the update
+   std::vector<std::string> touched = existing;
+   for (Entries::const_iterator it = entries.begin(); it != entries.end(); ++it)
+      touched.push_back(it->first);
+   BOOST_FOREACH(const std::string& touchedPath, touched)
+   {
+      if (pTouched->count(touchedPath))
+         continue;
+
+      Entries::const_iterator it = entries_.find(touchedPath);
+      if (it != entries_.end())
+         (*pTouched)[touchedPath] = std::make_pair(true, it->second);
+      else
+         (*pTouched)[touchedPath] = std::make_pair(false, Entry());
+   }
+
+   BOOST_FOREACH(const std::string& existingPath, existing)
+   {
+      eraseEntry(existingPath);
+   }
+   for (Entries::const_iterator it = entries.begin(); it != entries.end(); ++it)
+   {
+      eraseEntry(it->first);
+      entries_[it->first] = it->second;
+      if (!it->second.from.empty())
+         renamedTo_.insert(std::make_pair(it->second.from, it->first));
+   }
+}
+
+void StatusCache::eraseEntry(const std::string& path)
+{
+   Entries::iterator it = entries_.find(path);
+   if (it == entries_.end())
+      return;
+
+   if (!it->second.from.empty())
+   {
+      typedef std::multimap<std::string, std::string>::iterator RenameIterator;
+      std::pair<RenameIterator, RenameIterator> range =
+                                    renamedTo_.equal_range(it->second.from);
+      for (RenameIterator renameIt = range.first;
+           renameIt != range.second;
+           ++renameIt)
+      {
+         if (renameIt->second == path)
+         {
+            renamedTo_.erase(renameIt);
+            break;
+         }
+      }
+   }
+
+   entries_.erase(it);
+}
+
+void StatusCache::computeDelta(const Touched& touched,
+                               StatusDelta* pDelta) const
+{
+   for (Touched::const_iterator it = touched.begin(); it != touched.end(); ++it)
+   {
+      bool existed = it->second.first;
+      const Entry& previous = it->second.second;
+      Entries::const_iterator entryIt = entries_.find(it->first);
+      if (entryIt == entries_.end())
+      {
+         if (existed)
+            pDelta->removed.push_back(fileWithStatus(it->first, previous));
+      }
+      else if (!existed)
+      {
+         pDelta->added.push_back(fileWithStatus(it->first, entryIt->second));
+      }
+      else if (entryIt->second.from != previous.from)
+      {
+         // reported under a different path ("from -> to")
+         pDelta->removed.push_back(fileWithStatus(it->first, previous));
+         pDelta->added.push_back(fileWithStatus(it->first, entryIt->second));
+      }
+      else if (entryIt->second.status.status() != previous.status.status())
+      {
+         pDelta->changed.push_back(fileWithStatus(it->first, entryIt->second));
+      }
+   }
+}
+
+} // namespace git
+} // namespace modules
+} // namespace session
@@ -0,0 +1,153 @@
+/*
+ * SessionGitStatusCache.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_GIT_STATUS_CACHE_HPP
+#define SESSION_GIT_STATUS_CACHE_HPP
+
+#include <map>
+#include <set>
+#include <string>
+#include <vector>
+
+#include <boost/function.hpp>
+#include <boost/noncopyable.hpp>
+
+#include <core/Error.hpp>
+#include <core/FilePath.hpp>
+
+#include "vcs/SessionVCSCore.hpp"
+
+namespace session {
+namespace modules {
+namespace git {
+
+// parse the output of `git status --porcelain -z` (paths within the output
+// are relative to root)
+void parseStatus(const std::string& output,
+                 const core::FilePath& root,
+                 std::vector<source_control::FileWithStatus>* pFiles);
+
+// entries which were added, removed, or changed by a status cache update
+struct StatusDelta
+{
+   bool empty() const
+   {
+      return added.empty() && removed.empty() && changed.empty();
+   }
+
+   std::vector<source_control::FileWithStatus> added;
+   std::vector<source_control::FileWithStatus> removed;
+   std::vector<source_control::FileWithStatus> changed;
+};
+
+// runs `git status --porcelain -z` limited to the passed paths (or over the
+// whole working tree if no paths are passed) and returns its output
+typedef boost::function<core::Error(const std::vector<core::FilePath>&,
+                                    std::string*)> StatusQuery;
+
+// Status of the files within a working tree. The whole tree is queried
+// once; after that only the paths reported as changed (e.g. by the file
+// monitor) are re-queried, so that the cost of keeping the status current
+// is proportional to the number of changes rather than to the size of the
+// repository. Changes to the index and HEAD (e.g. by git commands run in a
+// terminal) aren't reported by the file monitor, so they're detected by
+// their modification time and size and cause the whole tree to be queried
+// again.
+//
+// Renames and copies are kept under the path they were made to, and are
+// reported (by status and in deltas) as "from -> to" as git reports them.
+class StatusCache : boost::noncopyable
+{
+public:
+   StatusCache(const core::FilePath& root, const StatusQuery& query);
+
+   const core::FilePath& root() const { return root_; }
+
+   // false until the whole working tree has been queried (and again after
+   // the cache has been invalidated)
+   bool isValid() const { return valid_; }
+
+   // whether the index or HEAD has changed since the whole working tree
+   // was last queried (in which case the next update re-queries all of it)
+   bool indexChanged() const;
+
+   // forget the status of the whole working tree (e.g. because .gitignore
+   // changed); the next update re-queries all of it
+   void invalidate();
+
+   // note that a file or directory within the working tree has changed
+   void invalidate(const core::FilePath& path);
+
+   // re-query the paths which have changed since the last update
+   core::Error update(StatusDelta* pDelta = NULL);
+
+   // re-query the whole working tree
+   core::Error refresh(StatusDelta* pDelta = NULL);
+
+   source_control::VCSStatus getStatus(const core::FilePath& path) const;
+
+   // entries within dir (along with those for any of its parents)
+   source_control::StatusResult status(const core::FilePath& dir) const;
+
+private:
+   struct Entry
+   {
+      source_control::VCSStatus status;
+
+      // for renames and copies, the path they were made from
+      std::string from;
+   };
+   typedef std::map<std::string, Entry> Entries;
+
+   // the entry for each touched path before the update (first is false if
+   // there was no entry for the path)
+   typedef std::map<std::string, std::pair<bool, Entry> > Touched;
+
+   std::string indexState() const;
+   std::string relativePath(const core::FilePath& path) const;
+   source_control::FileWithStatus fileWithStatus(const std::string& path,
+                                                 const Entry& entry) const;
+   std::string untrackedParent(const std::string& path) const;
+   void addRenamedPaths(std::set<std::string>* pPaths) const;
+   core::Error queryPaths(const std::set<std::string>& paths,
+                          Touched* pTouched);
+   void replaceEntries(const std::string& path,
+                       const Entries& entries,
+                       Touched* pTouched);
+   void eraseEntry(const std::string& path);
+   void computeDelta(const Touched& touched, StatusDelta* pDelta) const;
+
+   core::FilePath root_;
+   core::FilePath gitDir_;
+   StatusQuery query_;
+   bool valid_;
+   std::string indexState_;
+   std::set<std::string> changedPaths_;
+
+   // keyed by path relative to root (without any trailing slash)
+   Entries entries_;
+
+   // the paths renames and copies were made to, keyed by the paths they
+   // were made from
+   std::multimap<std::string, std::string> renamedTo_;
+};
+
+void runGitStatusCacheTests();
+
+} // namespace git
+} // namespace modules
+} // namespace session
+
+#endif // SESSION_GIT_STATUS_CACHE_HPP
@@ -0,0 +1,392 @@
+/*
+ * SessionGitStatusCacheTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionGitStatusCache.hpp"
+
+#include <map>
+
+#include <boost/assert.hpp>
+#include <boost/bind.hpp>
+#include <boost/foreach.hpp>
+
+#include <core/Error.hpp>
+#include <core/FilePath.hpp>
+#include <core/FileSerializer.hpp>
+#include <core/SafeConvert.hpp>
+
+#include <core/system/Process.hpp>
+#include <core/system/ShellUtils.hpp>
+
+using namespace core;
+using namespace core::shell_utils;
+
+namespace session {
+namespace modules {
+namespace git {
+
+using namespace source_control;
+
+namespace {
+
+typedef std::map<std::string, std::string> StatusMap;
+
+StatusMap asMap(const std::vector<FileWithStatus>& files)
+{
+   StatusMap statusMap;
+   BOOST_FOREACH(const FileWithStatus& file, files)
+   {
+      statusMap[file.path.absolutePath()] = file.status.status();
+   }
+   return statusMap;
+}
+
+// a temporary repository along with a status cache for it
+class TestRepo
+{
+public:
+   explicit TestRepo(const FilePath& root)
+      : root_(root),
+        cache_(root, boost::bind(&TestRepo::query, this, _1, _2)),
+        queries_(0),
+        wholeTreeQueries_(0)
+   {
+   }
+
+   bool init()
+   {
+      return git(ShellArgs() << "init") &&
+             git(ShellArgs() << "config" << "user.name" << "Test") &&
+             git(ShellArgs() << "config" << "user.email" << "test@example.com");
+   }
+
+   bool git(const ShellArgs& args, std::string* pOutput = NULL)
+   {
+      core::system::ProcessOptions options;
+      options.workingDir = root_;
+
+      ShellCommand command("git");
+      command << args.args();
+
+      core::system::ProcessResult result;
+      Error error = core::system::runCommand(command, "", options, &result);
+      if (error || result.exitStatus != EXIT_SUCCESS)
+         return false;
+
+      if (pOutput)
+         *pOutput = result.stdOut;
+      return true;
+   }
+
+   FilePath path(const std::string& file) const
+   {
+      return root_.childPath(file);
+   }
+
+   void write(const std::string& file, const std::string& contents)
+   {
+      Error error = path(file).parent().ensureDirectory();
+      BOOST_ASSERT(!error);
+      error = writeStringToFile(path(file), contents);
+      BOOST_ASSERT(!error);
+   }
+
+   // status of the whole working tree, straight from git
+   StatusMap fullStatus()
+   {
+      std::string output;
+      BOOST_ASSERT(git(ShellArgs() << "status" << "--porcelain" << "-z",
+                       &output));
+      std::vector<FileWithStatus> files;
+      parseStatus(output, root_, &files);
+      return asMap(files);
+   }
+
+   // report the changed paths to the cache (as the file monitor does) and
+   // check that both the cache and the delta it reports match git's status
+   void changed(const std::vector<std::string>& paths,
+                bool expectWholeTreeQuery = false)
+   {
+      StatusMap before = asMap(cache_.status(root_).files());
+
+      BOOST_FOREACH(const std::string& changedPath, paths)
+      {
+         cache_.invalidate(path(changedPath));
+      }
+
+      int wholeTreeQueries = wholeTreeQueries_;
+      StatusDelta delta;
+      Error error = cache_.update(&delta);
+      BOOST_ASSERT(!error);
+      BOOST_ASSERT((wholeTreeQueries_ > wholeTreeQueries) ==
+                   expectWholeTreeQuery);
+
+      StatusMap after = fullStatus();
+      BOOST_ASSERT(asMap(cache_.status(root_).files()) == after);
+
+      // applying the delta to the previous status yields the new status
+      StatusMap applied = before;
+      BOOST_FOREACH(const FileWithStatus& file, delta.removed)
+      {
+         BOOST_ASSERT(applied.count(file.path.absolutePath()));
+         applied.erase(file.path.absolutePath());
+      }
+      BOOST_FOREACH(const FileWithStatus& file, delta.added)
+      {
+         BOOST_ASSERT(!applied.count(file.path.absolutePath()));
+         applied[file.path.absolutePath()] = file.status.status();
+      }
+      BOOST_FOREACH(const FileWithStatus& file, delta.changed)
+      {
+         BOOST_ASSERT(applied.count(file.path.absolutePath()));
+         applied[file.path.absolutePath()] = file.status.status();
+      }
+      BOOST_ASSERT(applied == after);
+   }
+
+   void changed(const std::string& path, bool expectWholeTreeQuery = false)
+   {
+      changed(std::vector<std::string>(1, path), expectWholeTreeQuery);
+   }
+
+   StatusCache& cache() { return cache_; }
+   int queries() const { return queries_; }
+
+private:
+
+   Error query(const std::vector<FilePath>& paths, std::string* pOutput)
+   {
+      queries_++;
+      if (paths.empty())
+         wholeTreeQueries_++;
+
+      if (!git(ShellArgs() << "status" << "--porcelain" << "-z" << "--" << paths,
+               pOutput))
+      {
+         return systemError(boost::system::errc::io_error, ERROR_LOCATION);
+      }
+      return Success();
+   }
+
+   FilePath root_;
+   StatusCache cache_;
+   int queries_;
+   int wholeTreeQueries_;
+};
+
+void testParseStatus()
+{
+   FilePath root("/repo");
+   std::string output("?? new dir/\0 M a.R\0R  b.R\0old b.R\0A  c.R\0", 40);
+
+   std::vector<FileWithStatus> files;
+   parseStatus(output, root, &files);
+
+   BOOST_ASSERT(files.size() == 4);
+   BOOST_ASSERT(files[0].status.status() == "??");
+   BOOST_ASSERT(files[0].path == root.childPath("new dir"));
+   BOOST_ASSERT(files[1].status.status() == " M");
+   BOOST_ASSERT(files[2].status.status() == "R ");
+   BOOST_ASSERT(files[2].path == root.childPath("old b.R -> b.R"));
+   BOOST_ASSERT(files[3].path == root.childPath("c.R"));
+}
+
+void testDeltas(const FilePath& root)
+{
+   TestRepo repo(root);
+   if (!repo.init())
+      return;
+
+   repo.write("a.R", "a");
+   repo.write("src/b.R", "b");
+   repo.write("src/c.R", "c");
+   repo.write("docs/d.md", "d");
+   BOOST_ASSERT(repo.git(ShellArgs() << "add" << "."));
+   BOOST_ASSERT(repo.git(ShellArgs() << "commit" << "-m" << "initial"));
+
+   Error error = repo.cache().refresh();
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(repo.cache().isValid());
+   BOOST_ASSERT(repo.cache().status(root).files().empty());
+
+   // modified tracked files
+   repo.write("src/b.R", "b2");
+   repo.changed("src/b.R");
+   repo.write("a.R", "a2");
+   repo.changed("a.R");
+
+   // new untracked files
+   repo.write("new.R", "new");
+   repo.changed("new.R");
+   repo.write("src/e.R", "e");
+   repo.changed("src/e.R");
+
+   // a new directory is reported as a whole...
+   repo.write("tmp/x.R", "x");
+   repo.write("tmp/sub/y.R", "y");
+   std::vector<std::string> paths;
+   paths.push_back("tmp");
+   paths.push_back("tmp/x.R");
+   paths.push_back("tmp/sub");
+   paths.push_back("tmp/sub/y.R");
+   repo.changed(paths);
+   BOOST_ASSERT(repo.cache().getStatus(repo.path("tmp")).status() == "??");
+   BOOST_ASSERT(repo.cache().getStatus(repo.path("tmp/x.R")).status().empty());
+
+   // ...as are changes within it
+   repo.write("tmp/z.R", "z");
+   repo.changed("tmp/z.R");
+   repo.write("tmp/sub/y.R", "y2");
+   repo.changed("tmp/sub/y.R");
+
+   // a file added to a directory which was empty (and so had no status)
+   error = repo.path("empty/nested").ensureDirectory();
+   BOOST_ASSERT(!error);
+   repo.changed("empty");
+   repo.write("empty/nested/f.R", "f");
+   repo.changed("empty/nested/f.R");
+   BOOST_ASSERT(repo.cache().getStatus(repo.path("empty")).status() == "??");
+
+   // new directory within a tracked directory
+   repo.write("src/new/g.R", "g");
+   repo.changed("src/new/g.R");
+
+   // removals
+   error = repo.path("src/new/g.R").remove();
+   BOOST_ASSERT(!error);
+   repo.changed("src/new/g.R");
+   error = repo.path("tmp").remove();
+   BOOST_ASSERT(!error);
+   repo.changed("tmp");
+   error = repo.path("docs/d.md").remove();
+   BOOST_ASSERT(!error);
+   repo.changed("docs/d.md");
+   error = repo.path("new.R").remove();
+   BOOST_ASSERT(!error);
+   repo.changed("new.R");
+
+   // changes to ignore rules require the whole tree to be queried
+   repo.write("debug.log", "log");
+   repo.changed("debug.log");
+   repo.write(".gitignore", "*.log\n");
+   repo.changed(".gitignore", true);
+   BOOST_ASSERT(repo.cache().getStatus(repo.path("debug.log")).status().empty());
+
+   // changes to the index aren't reported by the file monitor but are
+   // detected by the next update (which re-queries the whole tree)
+   BOOST_ASSERT(!repo.cache().indexChanged());
+   BOOST_ASSERT(repo.git(ShellArgs() << "add" << "src"));
+   BOOST_ASSERT(repo.cache().indexChanged());
+   repo.changed(std::vector<std::string>(), true);
+   BOOST_ASSERT(!repo.cache().indexChanged());
+
+   // status within a directory
+   StatusMap srcStatus = asMap(repo.cache().status(repo.path("src")).files());
+   BOOST_ASSERT(srcStatus.count(repo.path("src/b.R").absolutePath()));
+   BOOST_ASSERT(!srcStatus.count(repo.path("a.R").absolutePath()));
+
+   // a burst of changes is queried together
+   int queries = repo.queries();
+   paths.clear();
+   for (int i = 0; i < 20; i++)
+   {
+      std::string file = "src/b" + safe_convert::numberToString(i) + ".R";
+      repo.write(file, file);
+      paths.push_back(file);
+   }
+   repo.changed(paths);
+   BOOST_ASSERT(repo.queries() - queries <= 2);
+}
+
+void testRenames(const FilePath& root)
+{
+   TestRepo repo(root);
+   if (!repo.init())
+      return;
+
+   repo.write("a.R", "the contents of a.R\n");
+   repo.write("b.R", "the contents of b.R\n");
+   repo.write("src/c.R", "the contents of c.R\n");
+   BOOST_ASSERT(repo.git(ShellArgs() << "add" << "."));
+   BOOST_ASSERT(repo.git(ShellArgs() << "commit" << "-m" << "initial"));
+
+   Error error = repo.cache().refresh();
+   BOOST_ASSERT(!error);
+
+   // renaming changes the index (so the whole tree is queried)
+   BOOST_ASSERT(repo.git(ShellArgs() << "mv" << "a.R" << "renamed.R"));
+   BOOST_ASSERT(repo.git(ShellArgs() << "mv" << "src/c.R" << "c.R"));
+   std::vector<std::string> paths;
+   paths.push_back("a.R");
+   paths.push_back("renamed.R");
+   paths.push_back("src/c.R");
+   paths.push_back("c.R");
+   repo.changed(paths, true);
+   StatusMap status = asMap(repo.cache().status(root).files());
+   BOOST_ASSERT(status[repo.path("a.R -> renamed.R").absolutePath()] == "R ");
+   BOOST_ASSERT(repo.cache().getStatus(repo.path("renamed.R")).status() ==
+                "R ");
+
+   // changes to either side of a rename re-query both sides (a query for
+   // just one side would report it as added or deleted)
+   repo.write("renamed.R", "the contents of a.R\nand more\n");
+   repo.changed("renamed.R");
+   repo.write("a.R", "a new a.R\n");
+   repo.changed("a.R");
+   error = repo.path("a.R").remove();
+   BOOST_ASSERT(!error);
+   repo.changed("a.R");
+
+   // and to directories containing them
+   repo.write("src/c.R", "a new c.R\n");
+   repo.changed("src");
+   error = repo.path("src/c.R").remove();
+   BOOST_ASSERT(!error);
+   repo.changed("src");
+
+   // the rename is gone once it's committed
+   BOOST_ASSERT(repo.git(ShellArgs() << "commit" << "-a" << "-m" << "rename"));
+   repo.changed(std::vector<std::string>(), true);
+   BOOST_ASSERT(repo.cache().status(root).files().empty());
+}
+
+} // anonymous namespace
+
+void runGitStatusCacheTests()
+{
+   testParseStatus();
+
+   FilePath root;
+   Error error = FilePath::tempFilePath(&root);
+   BOOST_ASSERT(!error);
+   error = root.ensureDirectory();
+   BOOST_ASSERT(!error);
+
+   FilePath deltasRoot = root.childPath("deltas");
+   error = deltasRoot.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testDeltas(deltasRoot);
+
+   FilePath renamesRoot = root.childPath("renames");
+   error = renamesRoot.ensureDirectory();
+   BOOST_ASSERT(!error);
+   testRenames(renamesRoot);
+
+   error = root.remove();
+   BOOST_ASSERT(!error);
+}
+
+} // namespace git
+} // namespace modules
+} // namespace session
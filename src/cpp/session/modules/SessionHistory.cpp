@@ -22,6 +22,8 @@
 
 #include <boost/utility.hpp>
 #include <boost/bind.hpp>
+#include <boost/foreach.hpp>
+#include <boost/shared_ptr.hpp>
 #include <boost/function.hpp>
 #include <boost/format.hpp>
 #include <boost/tokenizer.hpp>
@@ -34,6 +36,7 @@
 #include <core/DateTime.hpp>
 
 #include <core/json/JsonRpc.hpp>
+#include <core/json/JsonWriter.hpp>
 
 #include <r/RSexp.hpp>
 #include <r/RRoutines.hpp>
@@ -73,6 +76,54 @@ void historyEntriesAsJson(const std::vector<HistoryEntry>& entries,
    pEntriesJson->operator[]("command") = commandArray;
 }
 
+void writeHistoryEntries(
+               boost::shared_ptr<std::vector<HistoryEntry> > pEntries,
+               json::Writer* pWriter)
+{
+   const std::vector<HistoryEntry>& entries = *pEntries;
+
+   pWriter->beginObject();
+
+   pWriter->key("index");
+   pWriter->beginArray();
+   BOOST_FOREACH(const HistoryEntry& entry, entries)
+   {
+      pWriter->value(entry.index);
+   }
+   pWriter->endArray();
+
+   pWriter->key("timestamp");
+   pWriter->beginArray();
+   BOOST_FOREACH(const HistoryEntry& entry, entries)
+   {
+      pWriter->value(entry.timestamp);
+   }
+   pWriter->endArray();
+
+   pWriter->key("command");
+   pWriter->beginArray();
+   BOOST_FOREACH(const HistoryEntry& entry, entries)
+   {
+      pWriter->value(entry.command);
+   }
+   pWriter->endArray();
+
+   pWriter->endObject();
+}
+
+// the archive can be large so entries from it are written directly to the
+// response (rather than converted to json arrays first)
+void setHistoryEntriesResult(std::vector<HistoryEntry>* pEntries,
+                             json::JsonRpcResponse* pResponse)
+{
+   boost::shared_ptr<std::vector<HistoryEntry> > pResultEntries(
+                                          new std::vector<HistoryEntry>());
+   pResultEntries->swap(*pEntries);
+   pResponse->setResultWriter(boost::bind(writeHistoryEntries,
+                                          pResultEntries,
+                                          _1));
+}
+
 Error setJsonResultFromHistory(int startIndex,
                                int endIndex,
                                json::JsonRpcResponse* pResponse)
@@ -95,29 +146,10 @@ Error setJsonResultFromHistory(int startIndex,
    std::copy(allEntries.begin() + startIndex,
              allEntries.begin() + endIndex,
              std::back_inserter(entries));
-   json::Object entriesJson;
-   historyEntriesAsJson(entries, &entriesJson);
-   pResponse->setResult(entriesJson);
+   setHistoryEntriesResult(&entries, pResponse);
    return Success();
 }
    
-bool matches(const HistoryEntry& entry,
-             const std::vector<std::string>& searchTerms)
-{   
-   // look for each search term in the input
-   for (std::vector<std::string>::const_iterator it = searchTerms.begin();
-        it != searchTerms.end();
-        ++it)
-   {
-      if (!boost::algorithm::contains(entry.command, *it))
-         return false;
-   }
-   
-   // had all of the search terms, return true
-   return true;
-}
-
-
 void historyRangeAsJson(int startIndex,
                         int endIndex,
                         json::Object* pHistoryJson)
@@ -271,29 +303,13 @@ Error searchHistoryArchive(const json::JsonRpcRequest& request,
    std::copy(tok.begin(), tok.end(), std::back_inserter(searchTerms));
    
    // examine the items in the history for matches
-   const std::vector<HistoryEntry>& allEntries =  historyArchive().entries();
    std::vector<HistoryEntry> matchingEntries;
-   for (std::vector<HistoryEntry>::const_reverse_iterator 
-            it = allEntries.rbegin();
-            it != allEntries.rend();
-            ++it)
-   {
-      // check limit
-      if (matchingEntries.size() >= static_cast<std::size_t>(maxEntries))
-         break;
-
-      // look for match
-      if (matches(*it, searchTerms))
-      {
-         // add entry
-         matchingEntries.push_back(*it);
-      }
-   }
+   historyArchive().search(searchTerms,
+                           static_cast<std::size_t>(maxEntries),
+                           &matchingEntries);
 
    // return json
-   json::Object entriesJson;
-   historyEntriesAsJson(matchingEntries, &entriesJson);
-   pResponse->setResult(entriesJson);
+   setHistoryEntriesResult(&matchingEntries, pResponse);
    return Success();
 }
    
@@ -337,23 +353,23 @@ Error searchHistoryArchiveByPrefix(const json::JsonRpcRequest& request,
    }
    
    // return json
-   json::Object entriesJson;
-   historyEntriesAsJson(matchingEntries, &entriesJson);
-   pResponse->setResult(entriesJson);
+   setHistoryEntriesResult(&matchingEntries, pResponse);
    return Success();
 }
 
 void onHistoryAdd(const std::string& command)
 {   
    // add command to history archive
-   Error error = historyArchive().add(command);
+   double timestamp = date_time::millisecondsSinceEpoch();
+   Error error = historyArchive().add(command, timestamp);
    if (error)
       LOG_ERROR(error);
 
-   // fire event
+   // fire event (with the same timestamp as the archive entry so that the
+   // client's index of the archive can recognize entries it already has)
    int entryIndex = r::session::consoleHistory().size() - 1;
    std::vector<HistoryEntry> entries;
-   entries.push_back(HistoryEntry(entryIndex, 0, command));
+   entries.push_back(HistoryEntry(entryIndex, timestamp, command));
    json::Object entriesJson;
    historyEntriesAsJson(entries, &entriesJson);
    ClientEvent event(client_events::kHistoryEntriesAdded, entriesJson);
@@ -15,8 +15,15 @@
 
 #include "SessionHistoryArchive.hpp"
 
+#include <algorithm>
+#include <cctype>
+#include <iterator>
+#include <map>
 #include <string>
 
+#include <boost/foreach.hpp>
+#include <boost/algorithm/string/predicate.hpp>
+
 #include <core/Error.hpp>
 #include <core/Log.hpp>
 #include <core/FilePath.hpp>
@@ -44,19 +51,18 @@ FilePath historyDatabaseFilePath()
    return module_context::userScratchPath().complete(kHistoryDatabase);
 }
 
-FilePath historyDatabaseRotatedFilePath()
+FilePath rotatedFilePath(const FilePath& databasePath)
 {
-   return module_context::userScratchPath().complete(kHistoryDatabase ".1");
+   return databasePath.parent().complete(databasePath.filename() + ".1");
 }
 
-void rotateHistoryDatabase()
+void rotateHistoryDatabase(const FilePath& historyDB, uintmax_t maxBytes)
 {
-   FilePath historyDB = historyDatabaseFilePath();
-   if (historyDB.exists() && (historyDB.size() > kHistoryMaxBytes))
+   if (historyDB.exists() && (historyDB.size() > maxBytes))
    {
       // first remove the rotated file if it exists (ignore errors because
       // there's nothing we can do with them at this level)
-      FilePath rotatedHistoryDB = historyDatabaseRotatedFilePath();
+      FilePath rotatedHistoryDB = rotatedFilePath(historyDB);
       rotatedHistoryDB.removeIfExists();
 
       // now rotate the file
@@ -90,115 +96,353 @@ void attemptRhistoryMigration()
 }
 
 // simple reader for parsing lines of history file
-ReadCollectionAction readHistoryEntry(const std::string& line,
-                                      HistoryEntry* pEntry,
-                                      int* pNextIndex)
+bool readHistoryEntry(const std::string& line, HistoryEntry* pEntry)
 {
    // if the line doesn't have a ':' then ignore it
    if (line.find(':') == std::string::npos)
-      return ReadCollectionIgnoreLine;
+      return false;
 
-   pEntry->index = (*pNextIndex)++;
    std::istringstream istr(line);
    istr >> pEntry->timestamp ;
    istr.ignore(1, ':');
    std::getline(istr, pEntry->command);
 
-   // if we had a read failure log it and return ignore state
+   // if we had a read failure log it and ignore the line
    if (!istr.fail())
    {
-      return ReadCollectionAddLine;
+      return true;
    }
    else
    {
       LOG_ERROR_MESSAGE("unexpected io error reading history line: " +
                         line);
-      return ReadCollectionIgnoreLine;
+      return false;
+   }
+}
+
+bool isTokenChar(char ch)
+{
+   unsigned char uch = static_cast<unsigned char>(ch);
+   return std::isalnum(uch) || ch == '_' || ch == '.' || uch >= 0x80;
+}
+
+bool isToken(const std::string& term)
+{
+   if (term.empty())
+      return false;
+
+   BOOST_FOREACH(char ch, term)
+   {
+      if (!isTokenChar(ch))
+         return false;
+   }
+   return true;
+}
+
+bool matches(const HistoryEntry& entry,
+             const std::vector<std::string>& searchTerms)
+{
+   // look for each search term in the input
+   BOOST_FOREACH(const std::string& term, searchTerms)
+   {
+      if (!boost::algorithm::contains(entry.command, term))
+         return false;
+   }
+
+   // had all of the search terms, return true
+   return true;
+}
+
+void readCompleteLines(const std::string& contents,
+                       std::vector<std::string>* pLines,
+                       std::size_t* pConsumed)
+{
+   std::size_t pos = 0;
+   while (true)
+   {
+      std::size_t newline = contents.find('\n', pos);
+      if (newline == std::string::npos)
+         break;
+
+      pLines->push_back(contents.substr(pos, newline - pos));
+      pos = newline + 1;
+   }
+   *pConsumed = pos;
+}
+
+// returns an empty string if the file doesn't have a complete line
+std::string firstLine(const FilePath& filePath)
+{
+   boost::shared_ptr<std::istream> pStream;
+   Error error = filePath.open_r(&pStream);
+   if (error)
+   {
+      LOG_ERROR(error);
+      return std::string();
    }
+
+   std::string line;
+   std::getline(*pStream, line);
+   if (pStream->eof())
+      return std::string();
+
+   return line;
 }
 
 } // anonymous namespace
 
+// Index of the distinct tokens (runs of identifier characters) in history
+// entries. Any occurrence of a search term which is itself a token lies
+// within a single token of the command, so the entries containing it are
+// those containing a token which contains it -- the (much smaller) set of
+// distinct tokens is scanned rather than every entry.
+class HistoryTokenIndex : boost::noncopyable
+{
+public:
+   void add(const HistoryEntry& entry)
+   {
+      const std::string& command = entry.command;
+      std::size_t pos = 0;
+      while (pos < command.size())
+      {
+         if (!isTokenChar(command[pos]))
+         {
+            pos++;
+            continue;
+         }
+
+         std::size_t end = pos;
+         while (end < command.size() && isTokenChar(command[end]))
+            end++;
+
+         std::vector<int>& entries = tokens_[command.substr(pos, end - pos)];
+         if (entries.empty() || entries.back() != entry.index)
+            entries.push_back(entry.index);
+
+         pos = end;
+      }
+   }
+
+   // indexes (ascending) of the entries which contain the token
+   void find(const std::string& token, std::vector<int>* pIndexes) const
+   {
+      std::vector<int> indexes;
+      for (Tokens::const_iterator it = tokens_.begin();
+           it != tokens_.end(); ++it)
+      {
+         if (it->first.find(token) != std::string::npos)
+         {
+            std::copy(it->second.begin(),
+                      it->second.end(),
+                      std::back_inserter(indexes));
+         }
+      }
+
+      std::sort(indexes.begin(), indexes.end());
+      indexes.erase(std::unique(indexes.begin(), indexes.end()),
+                    indexes.end());
+      pIndexes->swap(indexes);
+   }
+
+private:
+   typedef std::map<std::string, std::vector<int> > Tokens;
+   Tokens tokens_;
+};
+
 HistoryArchive& historyArchive()
 {
-   static HistoryArchive instance;
+   static HistoryArchive instance(historyDatabaseFilePath(), kHistoryMaxBytes);
    return instance;
 }
 
+HistoryArchive::HistoryArchive(const FilePath& databasePath,
+                               uintmax_t maxBytes)
+   : databasePath_(databasePath),
+     rotatedDatabasePath_(rotatedFilePath(databasePath)),
+     maxBytes_(maxBytes),
+     offset_(0)
+{
+}
+
 Error HistoryArchive::add(const std::string& command)
 {
-   // reset the cache (since this write will invalidate the current one,
-   // no sense in keeping our cache around in memory)
-   entries_.clear();
-   entryCacheLastWriteTime_ = -1;
+   return add(command, core::date_time::millisecondsSinceEpoch());
+}
 
+Error HistoryArchive::add(const std::string& command, double timestamp)
+{
    // rotate if necessary
-   rotateHistoryDatabase();
+   rotateHistoryDatabase(databasePath_, maxBytes_);
 
-   // write the entry to the file
+   // write the entry to the file (our cache picks it up, along with any
+   // entries appended by other sessions, the next time it's requested)
    std::ostringstream ostrEntry ;
-   double currentTime = core::date_time::millisecondsSinceEpoch();
-   writeEntry(currentTime, command, &ostrEntry);
+   writeEntry(timestamp, command, &ostrEntry);
    ostrEntry << std::endl;
-   return appendToFile(historyDatabaseFilePath(), ostrEntry.str());
+   return appendToFile(databasePath_, ostrEntry.str());
 }
 
 const std::vector<HistoryEntry>& HistoryArchive::entries() const
 {
-   // calculate path to history db
-   FilePath historyDBPath = historyDatabaseFilePath();
-
    // if the file doesn't exist then clear the collection
-   if (!historyDBPath.exists())
+   if (!databasePath_.exists())
    {
-      entries_.clear();
+      clear();
+      return entries_;
    }
 
-   // otherwise check for divergent lastWriteTime and read the file
-   // if our internal list isn't up to date
-   else if (historyDBPath.lastWriteTime() != entryCacheLastWriteTime_)
+   // if the database has been rotated (by us or by another session) since
+   // we read it then start over, otherwise just read what's been appended
+   uintmax_t size = databasePath_.size();
+   if (offset_ == 0 ||
+       size < offset_ ||
+       firstLine(databasePath_) != firstLine_)
    {
-      entries_.clear();
+      reload();
+   }
+   else if (size > offset_)
+   {
+      readEntries(databasePath_, &offset_);
+   }
 
-      // establish a next index counter
-      int nextIndex = 0;
+   // return entries
+   return entries_;
+}
 
-      // first read from rotated file if it exists
-      FilePath rotatedHistoryDBPath = historyDatabaseRotatedFilePath();
-      if (rotatedHistoryDBPath.exists())
+void HistoryArchive::search(const std::vector<std::string>& terms,
+                            std::size_t maxEntries,
+                            std::vector<HistoryEntry>* pMatches) const
+{
+   const std::vector<HistoryEntry>& allEntries = entries();
+
+   if (!pTokenIndex_)
+   {
+      pTokenIndex_.reset(new HistoryTokenIndex());
+      BOOST_FOREACH(const HistoryEntry& entry, allEntries)
       {
-         Error error = readCollectionFromFile<std::vector<HistoryEntry> >(
-                           rotatedHistoryDBPath,
-                           &entries_,
-                           boost::bind(readHistoryEntry, _1, _2, &nextIndex));
-         if (error)
-            LOG_ERROR(error);
+         pTokenIndex_->add(entry);
       }
+   }
 
+   // narrow the candidates using the terms which are tokens (the others
+   // are checked against each candidate)
+   bool narrowed = false;
+   std::vector<int> candidates;
+   BOOST_FOREACH(const std::string& term, terms)
+   {
+      if (!isToken(term))
+         continue;
 
-      // now read from main history db
-      std::vector<HistoryEntry> entries;
-      Error error = readCollectionFromFile<std::vector<HistoryEntry> >(
-                           historyDBPath,
-                           &entries,
-                           boost::bind(readHistoryEntry, _1, _2, &nextIndex));
-      if (error)
+      std::vector<int> indexes;
+      pTokenIndex_->find(term, &indexes);
+      if (narrowed)
       {
-         LOG_ERROR(error);
+         std::vector<int> intersection;
+         std::set_intersection(candidates.begin(), candidates.end(),
+                               indexes.begin(), indexes.end(),
+                               std::back_inserter(intersection));
+         candidates.swap(intersection);
       }
       else
       {
-         std::copy(entries.begin(),
-                   entries.end(),
-                   std::back_inserter(entries_));
+         candidates.swap(indexes);
+         narrowed = true;
+      }
+   }
 
-         entryCacheLastWriteTime_ = historyDBPath.lastWriteTime();
+   if (narrowed)
+   {
+      for (std::vector<int>::const_reverse_iterator it = candidates.rbegin();
+           it != candidates.rend() && pMatches->size() < maxEntries;
+           ++it)
+      {
+         const HistoryEntry& entry = allEntries[*it];
+         if (matches(entry, terms))
+            pMatches->push_back(entry);
       }
+   }
+   else
+   {
+      for (std::vector<HistoryEntry>::const_reverse_iterator
+              it = allEntries.rbegin();
+           it != allEntries.rend() && pMatches->size() < maxEntries;
+           ++it)
+      {
+         if (matches(*it, terms))
+            pMatches->push_back(*it);
+      }
+   }
+}
 
+void HistoryArchive::clear() const
+{
+   entries_.clear();
+   offset_ = 0;
+   firstLine_.clear();
+   pTokenIndex_.reset();
+}
+
+void HistoryArchive::reload() const
+{
+   clear();
+
+   // first read from rotated file if it exists
+   if (rotatedDatabasePath_.exists())
+   {
+      uintmax_t rotatedOffset = 0;
+      readEntries(rotatedDatabasePath_, &rotatedOffset);
    }
 
-   // return entries
-   return entries_;
+   // now read from main history db
+   readEntries(databasePath_, &offset_, &firstLine_);
+}
+
+// read entries from the file starting at the offset (only complete lines
+// are read so that an entry being appended is picked up next time)
+void HistoryArchive::readEntries(const FilePath& filePath,
+                                 uintmax_t* pOffset,
+                                 std::string* pFirstLine) const
+{
+   boost::shared_ptr<std::istream> pStream;
+   Error error = filePath.open_r(&pStream);
+   if (error)
+   {
+      LOG_ERROR(error);
+      return;
+   }
+
+   std::string contents;
+   try
+   {
+      pStream->seekg(static_cast<std::streamoff>(*pOffset));
+      contents.assign(std::istreambuf_iterator<char>(*pStream),
+                      std::istreambuf_iterator<char>());
+   }
+   catch(const std::exception& e)
+   {
+      LOG_ERROR_MESSAGE("error reading history database " +
+                        filePath.absolutePath() + ": " + e.what());
+      return;
+   }
+
+   std::vector<std::string> lines;
+   std::size_t consumed = 0;
+   readCompleteLines(contents, &lines, &consumed);
+   if (pFirstLine && *pOffset == 0 && !lines.empty())
+      *pFirstLine = lines.front();
+   *pOffset += consumed;
+
+   BOOST_FOREACH(const std::string& line, lines)
+   {
+      HistoryEntry entry;
+      if (!readHistoryEntry(line, &entry))
+         continue;
+
+      entry.index = entries_.size();
+      entries_.push_back(entry);
+      if (pTokenIndex_)
+         pTokenIndex_->add(entry);
+   }
 }
 
 void HistoryArchive::migrateRhistoryIfNecessary()
@@ -20,10 +20,12 @@
 #include <vector>
 
 #include <boost/utility.hpp>
+#include <boost/shared_ptr.hpp>
+
+#include <core/FilePath.hpp>
 
 namespace core {
    class Error;
-   class FilePath;
 }
  
 namespace session {
@@ -45,23 +47,53 @@ struct HistoryEntry
 class HistoryArchive;
 HistoryArchive& historyArchive();
 
+class HistoryTokenIndex;
+
+// The archive is an append-only file of timestamped commands (shared by all
+// sessions of the user) which is rotated once it exceeds maxBytes. Entries
+// are cached in memory and only the bytes appended since the cache was last
+// updated are read when it is next requested.
 class HistoryArchive : boost::noncopyable
 {
-private:
-   HistoryArchive() : entryCacheLastWriteTime_(-1) {}
-   friend HistoryArchive& historyArchive();
-
 public:
+   HistoryArchive(const core::FilePath& databasePath, uintmax_t maxBytes);
+
    static void migrateRhistoryIfNecessary();
 
 public:
    core::Error add(const std::string& command);
+   core::Error add(const std::string& command, double timestamp);
    const std::vector<HistoryEntry>& entries() const;
 
+   // entries containing all of the terms (most recent first)
+   void search(const std::vector<std::string>& terms,
+               std::size_t maxEntries,
+               std::vector<HistoryEntry>* pMatches) const;
+
 private:
-   mutable time_t entryCacheLastWriteTime_;
+   void clear() const;
+   void reload() const;
+   void readEntries(const core::FilePath& filePath,
+                    uintmax_t* pOffset,
+                    std::string* pFirstLine = NULL) const;
+
+   core::FilePath databasePath_;
+   core::FilePath rotatedDatabasePath_;
+   uintmax_t maxBytes_;
+
    mutable std::vector<HistoryEntry> entries_;
+
+   // bytes of the database which have been read into entries_
+   mutable uintmax_t offset_;
+
+   // first line of the database (it differs once the database is rotated)
+   mutable std::string firstLine_;
+
+   // created by the first search and then kept up to date with entries_
+   mutable boost::shared_ptr<HistoryTokenIndex> pTokenIndex_;
 };
+
+void runHistoryArchiveTests();
                        
 } // namespace history
 } // namespace modules
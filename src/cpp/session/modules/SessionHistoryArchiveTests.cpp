@@ -0,0 +1,213 @@
+/*
+ * SessionHistoryArchiveTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "SessionHistoryArchive.hpp"
+
+#include <boost/assert.hpp>
+#include <boost/algorithm/string/predicate.hpp>
+
+#include <core/Error.hpp>
+#include <core/FilePath.hpp>
+#include <core/FileSerializer.hpp>
+#include <core/SafeConvert.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace history {
+
+namespace {
+
+std::vector<std::string> commands(const HistoryArchive& archive)
+{
+   std::vector<std::string> commands;
+   const std::vector<HistoryEntry>& entries = archive.entries();
+   for (std::size_t i = 0; i < entries.size(); i++)
+   {
+      BOOST_ASSERT(entries[i].index == static_cast<int>(i));
+      commands.push_back(entries[i].command);
+   }
+   return commands;
+}
+
+// two sessions appending to the same archive each see all of the entries
+void testConcurrentSessions(const FilePath& dir)
+{
+   FilePath databasePath = dir.complete("concurrent");
+   HistoryArchive session1(databasePath, 1024 * 1024);
+   HistoryArchive session2(databasePath, 1024 * 1024);
+
+   BOOST_ASSERT(session1.entries().empty());
+
+   session1.add("x <- 1");
+   session2.add("y <- 2");
+   BOOST_ASSERT(commands(session1).size() == 2);
+   BOOST_ASSERT(commands(session1) == commands(session2));
+
+   // entries appended after the caches were loaded are read incrementally
+   session1.add("z <- 3");
+   session2.add("print(x + y + z)");
+   std::vector<std::string> expected = commands(session2);
+   BOOST_ASSERT(expected.size() == 4);
+   BOOST_ASSERT(expected[0] == "x <- 1");
+   BOOST_ASSERT(expected[3] == "print(x + y + z)");
+   BOOST_ASSERT(commands(session1) == expected);
+
+   // an entry which is still being written isn't read until it's complete
+   Error error = appendToFile(databasePath, std::string("1:partial"));
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(commands(session1).size() == 4);
+   error = appendToFile(databasePath, std::string(" entry\n"));
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(commands(session1).size() == 5);
+   BOOST_ASSERT(commands(session1).back() == "partial entry");
+
+   // a session which starts later reads everything
+   HistoryArchive session3(databasePath, 1024 * 1024);
+   BOOST_ASSERT(commands(session3) == commands(session1));
+}
+
+// rotation by either session is noticed by the other
+void testRotation(const FilePath& dir)
+{
+   FilePath databasePath = dir.complete("rotation");
+   HistoryArchive session1(databasePath, 200);
+   HistoryArchive session2(databasePath, 200);
+
+   for (int i = 0; i < 100; i++)
+   {
+      std::string command = "command" + safe_convert::numberToString(i);
+      if (i % 3 == 0)
+         session2.add(command);
+      else
+         session1.add(command);
+
+      if (i % 7 == 0)
+      {
+         // compare against a fresh read of the rotated and current files
+         HistoryArchive fresh(databasePath, 200);
+         BOOST_ASSERT(commands(session1) == commands(fresh));
+         BOOST_ASSERT(commands(session2) == commands(fresh));
+      }
+   }
+
+   std::vector<std::string> all = commands(session1);
+   BOOST_ASSERT(!all.empty());
+   BOOST_ASSERT(all.back() == "command99");
+   BOOST_ASSERT(commands(session2) == all);
+
+   // removing the database clears the entries
+   databasePath.remove();
+   BOOST_ASSERT(session1.entries().empty());
+}
+
+std::vector<std::string> search(const HistoryArchive& archive,
+                                const std::string& term1,
+                                const std::string& term2 = std::string(),
+                                std::size_t maxEntries = 100)
+{
+   std::vector<std::string> terms;
+   terms.push_back(term1);
+   if (!term2.empty())
+      terms.push_back(term2);
+
+   std::vector<HistoryEntry> matches;
+   archive.search(terms, maxEntries, &matches);
+
+   std::vector<std::string> commands;
+   for (std::size_t i = 0; i < matches.size(); i++)
+      commands.push_back(matches[i].command);
+   return commands;
+}
+
+// the same matches (in the same order) as scanning every entry
+std::vector<std::string> scan(const HistoryArchive& archive,
+                              const std::string& term1,
+                              const std::string& term2 = std::string())
+{
+   std::vector<std::string> commands;
+   const std::vector<HistoryEntry>& entries = archive.entries();
+   for (std::size_t i = entries.size(); i > 0; i--)
+   {
+      const std::string& command = entries[i - 1].command;
+      if (boost::algorithm::contains(command, term1) &&
+          boost::algorithm::contains(command, term2))
+      {
+         commands.push_back(command);
+      }
+   }
+   return commands;
+}
+
+void testSearch(const FilePath& dir)
+{
+   FilePath databasePath = dir.complete("search");
+   HistoryArchive archive(databasePath, 1024 * 1024);
+   archive.add("foo(1)");
+   archive.add("x.foobar <- 2");
+   archive.add("fo o");
+   archive.add("library(dplyr)");
+   archive.add("df %>% filter(x > 1)");
+   archive.add("foo(df)");
+
+   // terms which are tokens (or within tokens)
+   BOOST_ASSERT(search(archive, "foo") == scan(archive, "foo"));
+   BOOST_ASSERT(search(archive, "foo").size() == 3);
+   BOOST_ASSERT(search(archive, "foo").front() == "foo(df)");
+   BOOST_ASSERT(search(archive, "oba") == scan(archive, "oba"));
+   BOOST_ASSERT(search(archive, "x.foo") == scan(archive, "x.foo"));
+
+   // terms which aren't tokens
+   BOOST_ASSERT(search(archive, "%>%") == scan(archive, "%>%"));
+   BOOST_ASSERT(search(archive, "o o") == scan(archive, "o o"));
+   BOOST_ASSERT(search(archive, "(1)") == scan(archive, "(1)"));
+
+   // all terms must match
+   BOOST_ASSERT(search(archive, "foo", "df") == scan(archive, "foo", "df"));
+   BOOST_ASSERT(search(archive, "foo", "(") == scan(archive, "foo", "("));
+   BOOST_ASSERT(search(archive, "foo", "nothing").empty());
+
+   // limit
+   BOOST_ASSERT(search(archive, "o", "", 2).size() == 2);
+   BOOST_ASSERT(search(archive, "o", "", 2).front() == "foo(df)");
+
+   // entries added after the index was built are searched
+   archive.add("foo(3)");
+   BOOST_ASSERT(search(archive, "foo").front() == "foo(3)");
+   BOOST_ASSERT(search(archive, "foo") == scan(archive, "foo"));
+}
+
+} // anonymous namespace
+
+void runHistoryArchiveTests()
+{
+   FilePath dir;
+   Error error = FilePath::tempFilePath(&dir);
+   BOOST_ASSERT(!error);
+   error = dir.ensureDirectory();
+   BOOST_ASSERT(!error);
+
+   testConcurrentSessions(dir);
+   testRotation(dir);
+   testSearch(dir);
+
+   error = dir.remove();
+   BOOST_ASSERT(!error);
+}
+
+} // namespace history
+} // namespace modules
+} // namespace session
@@ -15,7 +15,12 @@
 
 #include "SessionPlots.hpp"
 
+#include <algorithm>
+#include <list>
+#include <map>
+
 #include <boost/format.hpp>
+#include <boost/noncopyable.hpp>
 #include <boost/iostreams/filter/regex.hpp>
 
 #include <core/Error.hpp>
@@ -32,6 +37,7 @@
 
 #include <core/http/Request.hpp>
 #include <core/http/Response.hpp>
+#include <core/http/Util.hpp>
 
 #include <r/RSexp.hpp>
 #include <r/RExec.hpp>
@@ -428,6 +434,128 @@ Error getSavePlotContext(const json::JsonRpcRequest& request,
    return Success();
 }
    
+// Images of the active plot rendered at the sizes requested by the zoom
+// window and the export preview. Resizing either of these requests many
+// sizes in quick succession, and each render replays the plot's display
+// list on the main thread, so recently rendered images are kept (and
+// evicted least recently used first) until the display list changes (or
+// the session shuts down).
+class PlotRenderCache : boost::noncopyable
+{
+public:
+   PlotRenderCache() : totalBytes_(0) {}
+
+   // the returned image is owned by the cache (so mustn't be removed)
+   Error render(const std::string& format,
+                int width,
+                int height,
+                FilePath* pImagePath)
+   {
+      using namespace r::session;
+
+      // a plot which has changed since it was last rendered still has its
+      // old image filename, so can't be told apart from its previous
+      // version by key
+      if (graphics::display().hasChanges())
+         clear();
+
+      std::string key = graphics::display().imageFilename() + ":" + format +
+                        ":" + safe_convert::numberToString(width) +
+                        "x" + safe_convert::numberToString(height);
+
+      std::map<std::string, Entries::iterator>::iterator it =
+                                                         entriesByKey_.find(key);
+      if (it != entriesByKey_.end())
+      {
+         // move to the front of the list
+         entries_.splice(entries_.begin(), entries_, it->second);
+         if (it->second->imagePath.exists())
+         {
+            *pImagePath = it->second->imagePath;
+            return Success();
+         }
+         remove(it->second);
+      }
+
+      FilePath imagePath = module_context::tempFile("plot", format);
+      Error error = graphics::display().savePlotAsImage(imagePath,
+                                                        format,
+                                                        width,
+                                                        height);
+      if (error)
+         return error;
+
+      Entry entry;
+      entry.key = key;
+      entry.imagePath = imagePath;
+      entry.bytes = imagePath.size();
+      entries_.push_front(entry);
+      entriesByKey_[key] = entries_.begin();
+      totalBytes_ += entry.bytes;
+
+      // evict least recently used images (always keeping the new one)
+      while (entries_.size() > 1 &&
+             (entries_.size() > kMaxImages || totalBytes_ > kMaxBytes))
+      {
+         Entries::iterator last = entries_.end();
+         remove(--last);
+      }
+
+      *pImagePath = imagePath;
+      return Success();
+   }
+
+   void clear()
+   {
+      while (!entries_.empty())
+         remove(entries_.begin());
+   }
+
+private:
+   struct Entry
+   {
+      std::string key;
+      FilePath imagePath;
+      uintmax_t bytes;
+   };
+   typedef std::list<Entry> Entries;
+
+   void remove(Entries::iterator it)
+   {
+      Error error = it->imagePath.removeIfExists();
+      if (error)
+         LOG_ERROR(error);
+
+      totalBytes_ -= it->bytes;
+      entriesByKey_.erase(it->key);
+      entries_.erase(it);
+   }
+
+   static const std::size_t kMaxImages = 20;
+   static const uintmax_t kMaxBytes = 50 * 1024 * 1024;
+
+   Entries entries_;
+   std::map<std::string, Entries::iterator> entriesByKey_;
+   uintmax_t totalBytes_;
+};
+
+PlotRenderCache s_renderCache;
+
+// interim sizes (requested while a resize is in progress) are rounded up to
+// one of a limited number of sizes so that each is likely to be rendered
+// only once; the browser scales the image to fit. note that resizing the
+// Plots pane doesn't go through here: the graphics device has to be the
+// exact size of the pane (a snapped size would be visibly scaled or
+// cropped), and the client already buffers pane size changes (sending
+// set_workbench_metrics at most once per 500ms, and only when the size has
+// changed appreciably) so the device is replayed once per pause rather than
+// once per resize step.
+int snapToSize(int size, int max)
+{
+   const int kSnapPx = 100;
+   return std::min(((size + kSnapPx - 1) / kSnapPx) * kSnapPx, max);
+}
+
 template <typename T>
 bool extractSizeParams(const http::Request& request,
                        T min, 
@@ -451,6 +579,13 @@ bool extractSizeParams(const http::Request& request,
       pResponse->setError(http::status::BadRequest, "invalid height");
       return false;
    }
+
+   // snap interim sizes
+   if (request.queryParamValue("snap") == "1")
+   {
+      *pWidth = snapToSize(*pWidth, max);
+      *pHeight = snapToSize(*pHeight, max);
+   }
    
    // got two valid params
    return true;
@@ -478,20 +613,15 @@ void setImageFileResponse(const FilePath& imageFilePath,
    }
 }
 
-void setTemporaryFileResponse(const FilePath& filePath, 
-                              const http::Request& request, 
+void setRenderedImageResponse(const FilePath& filePath,
+                              const http::Request& request,
                               http::Response* pResponse)
 {
    // no cache (dynamic content)
    pResponse->setNoCacheHeaders();
-   
+
    // return the file
    pResponse->setFile(filePath, request);
-   
-   // delete the file
-   Error error = filePath.remove();
-   if (error)
-      LOG_ERROR(error);
 }
 
 void handleZoomRequest(const http::Request& request, http::Response* pResponse)
@@ -522,6 +652,25 @@ void handleZoomRequest(const http::Request& request, http::Response* pResponse)
             "<title>Plot Zoom</title>"
             "<script type=\"text/javascript\">"
 
+               // while resizing show plots rendered at snapped sizes (one
+               // at a time, so renders don't queue up)
+               "var interimImage = null;"
+               "function showInterimPlot() {"
+                  "if (interimImage)"
+                     "return;"
+                  "interimImage = new Image();"
+                  "interimImage.onload = function() {"
+                     "document.getElementById('plot').src = interimImage.src;"
+                     "interimImage = null;"
+                  "};"
+                  "interimImage.onerror = function() {"
+                     "interimImage = null;"
+                  "};"
+                  "interimImage.src = \"plot_zoom_png?width=\" + "
+                     "document.body.clientWidth + \"&height=\" + "
+                     "document.body.clientHeight + \"&snap=1&plot=#plot#\";"
+               "}"
+
                "window.onresize = function() {"
 
                   "var plotEl = document.getElementById('plot');"
@@ -530,6 +679,10 @@ void handleZoomRequest(const http::Request& request, http::Response* pResponse)
                      "plotEl.style.height='100%';"
                   "}"
 
+                  "if (plotEl && (#scale#==1) ) {"
+                     "showInterimPlot();"
+                  "}"
+
                   "if(window.activeTimer)"
                      "clearTimeout(window.activeTimer);"
 
@@ -544,7 +697,7 @@ void handleZoomRequest(const http::Request& request, http::Response* pResponse)
             "</script>"
          "</head>"
          "<body style=\"margin: 0; overflow: hidden\">"
-            "<img id=\"plot\" src=\"plot_zoom_png?width=#width#&height=#height#\"/>"
+            "<img id=\"plot\" src=\"plot_zoom_png?width=#width#&height=#height#&plot=#plot#\"/>"
          "</body>"
       "</html>";
 
@@ -552,7 +705,9 @@ void handleZoomRequest(const http::Request& request, http::Response* pResponse)
    std::map<std::string,std::string> variables;
    variables["width"] = safe_convert::numberToString(width);
    variables["height"] = safe_convert::numberToString(height);
-   variables["scale"] = safe_convert::numberToString(scale);;
+   variables["scale"] = safe_convert::numberToString(scale);
+   variables["plot"] = http::util::urlEncode(
+                              graphics::display().imageFilename(), true);
    text::TemplateFilter filter(variables);
 
    pResponse->setNoCacheHeaders();
@@ -570,13 +725,14 @@ void handleZoomPngRequest(const http::Request& request,
    if (!extractSizeParams(request, 100, 5000, &width, &height, pResponse))
      return ;
 
-   // generate the file
+   // generate the file (the plot parameter only serves to make the url
+   // unique to the plot so isn't read here)
    using namespace r::session::graphics;
-   FilePath imagePath = module_context::tempFile("plot", "png");
-   Error saveError = graphics::display().savePlotAsImage(imagePath,
-                                                         kPngFormat,
-                                                         width,
-                                                         height);
+   FilePath imagePath;
+   Error saveError = s_renderCache.render(kPngFormat,
+                                          width,
+                                          height,
+                                          &imagePath);
    if (saveError)
    {
       pResponse->setError(http::status::InternalServerError, 
@@ -586,11 +742,6 @@ void handleZoomPngRequest(const http::Request& request,
    
    // send it back
    setImageFileResponse(imagePath, request, pResponse);
-   
-   // delete the temp file
-   Error error = imagePath.remove();
-   if (error)
-      LOG_ERROR(error);
 }
 
 void handlePngRequest(const http::Request& request, 
@@ -603,11 +754,11 @@ void handlePngRequest(const http::Request& request,
 
    // generate the image
    using namespace r::session;
-   FilePath imagePath = module_context::tempFile("plot", "png");
-   Error error = graphics::display().savePlotAsImage(imagePath,
-                                                      graphics::kPngFormat,
-                                                      width,
-                                                      height);
+   FilePath imagePath;
+   Error error = s_renderCache.render(graphics::kPngFormat,
+                                      width,
+                                      height,
+                                      &imagePath);
    if (error)
    {
       pResponse->setError(http::status::InternalServerError,
@@ -625,7 +776,7 @@ void handlePngRequest(const http::Request& request,
    }
 
    // return it
-   setTemporaryFileResponse(imagePath, request, pResponse);
+   setRenderedImageResponse(imagePath, request, pResponse);
 }
 
 
@@ -690,6 +841,9 @@ void handleGraphicsRequest(const http::Request& request,
 void enquePlotsChanged(const r::session::graphics::DisplayState& displayState,
                        bool activatePlots, bool showManipulator)
 {
+   // images rendered from the previous display list are no longer needed
+   s_renderCache.clear();
+
    // build graphics output event
    json::Object jsonPlotsState;
    jsonPlotsState["filename"] = displayState.imageFilename;
@@ -771,6 +925,13 @@ void onBeforeExecute()
    r::session::graphics::display().onBeforeExecute();
 }
 
+void onShutdown(bool)
+{
+   // remove rendered images while the session (and its logging) is still
+   // up rather than during static destruction
+   s_renderCache.clear();
+}
+
 void onShowManipulator()
 {
    // render changes and show manipulator
@@ -849,6 +1010,7 @@ Error initialize()
    module_context::events().onDetectChanges.connect(bind(onDetectChanges, _1));
    module_context::events().onBeforeExecute.connect(bind(onBeforeExecute));
    module_context::events().onBackgroundProcessing.connect(onBackgroundProcessing);
+   module_context::events().onShutdown.connect(onShutdown);
 
    // connect to onShowManipulator
    using namespace r::session;
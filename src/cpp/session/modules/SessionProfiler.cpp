@@ -16,33 +16,409 @@
 
 #include "SessionProfiler.hpp"
 
+#include <algorithm>
+#include <cctype>
+#include <map>
+#include <vector>
+
+#include <boost/bind.hpp>
+#include <boost/shared_ptr.hpp>
+#include <boost/algorithm/string/predicate.hpp>
+#include <boost/algorithm/string/trim.hpp>
+
+#include <core/Error.hpp>
 #include <core/Exec.hpp>
+#include <core/FilePath.hpp>
+#include <core/SafeConvert.hpp>
+#include <core/json/JsonRpc.hpp>
+
+#include <r/RExec.hpp>
 
 #include <session/SessionModuleContext.hpp>
 
 using namespace core;
 
 namespace session {
-namespace modules { 
+namespace modules {
 namespace profiler {
 
 namespace {
-      
 
+// the file Rprof is currently writing to (empty if not profiling)
+FilePath s_profilePath;
+
+// a function along with the location it was called from (file is an index
+// into the profile's file table, or -1 if the call site is unknown)
+struct CallSite
+{
+   CallSite(const std::string& name, int file, int line)
+      : name(name), file(file), line(line)
+   {
+   }
+
+   bool operator<(const CallSite& other) const
+   {
+      if (name != other.name)
+         return name < other.name;
+      if (file != other.file)
+         return file < other.file;
+      return line < other.line;
+   }
+
+   std::string name;
+   int file;
+   int line;
+};
+
+// sample counts; total samples include those spent in callees
+struct CallCounts
+{
+   CallCounts() : total(0), self(0), lastSample(-1) {}
+   int total;
+   int self;
+
+   // the last sample counted towards total (so recursive calls are only
+   // counted once per sample)
+   int lastSample;
+};
+
+struct CallNode
+{
+   CallCounts counts;
+   std::map<CallSite, boost::shared_ptr<CallNode> > children;
+};
+
+// Aggregates Rprof output one line at a time into a call tree (keyed by
+// call site, outermost call first) and a flat table of call sites, so
+// that only the aggregated profile need be held in memory or sent to the
+// client regardless of the number of samples.
+class ProfileParser
+{
+public:
+   ProfileParser() : intervalMs_(20), samples_(0) {}
+
+   void parseLine(const std::string& line)
+   {
+      if (line.empty())
+         return;
+
+      // file table entry (e.g. "#File 1: foo.R")
+      if (line.compare(0, 6, "#File ") == 0)
+      {
+         parseFile(line);
+         return;
+      }
+
+      // header (e.g. "line profiling: sample.interval=20000")
+      if (std::isalpha(static_cast<unsigned char>(line[0])))
+      {
+         const std::string kInterval = "sample.interval=";
+         std::string::size_type pos = line.find(kInterval);
+         if (pos != std::string::npos)
+         {
+            int interval = safe_convert::stringTo<int>(
+                     line.substr(pos + kInterval.size()), 20000);
+            intervalMs_ = interval / 1000.0;
+         }
+         return;
+      }
+
+      addSample(parseStack(line));
+   }
+
+   json::Object toJson() const
+   {
+      json::Object profileJson;
+      profileJson["interval"] = intervalMs_;
+      profileJson["samples"] = samples_;
+
+      json::Array filesJson;
+      for (std::size_t i = 0; i < files_.size(); i++)
+         filesJson.push_back(resolveFile(files_[i]));
+      profileJson["files"] = filesJson;
+
+      // calls which account for less than this many samples are too small
+      // to be drawn so aren't worth sending
+      int minSamples = std::max(1, samples_ / 5000);
+      profileJson["tree"] = nodeAsJson(CallSite("", -1, 0),
+                                       root_,
+                                       minSamples);
+
+      json::Array callsJson;
+      for (std::map<CallSite, CallCounts>::const_iterator it =
+               callSites_.begin(); it != callSites_.end(); ++it)
+      {
+         callsJson.push_back(callAsJson(it->first, it->second));
+      }
+      profileJson["calls"] = callsJson;
+
+      return profileJson;
+   }
+
+private:
+
+   void parseFile(const std::string& line)
+   {
+      std::string::size_type colon = line.find(':');
+      if (colon == std::string::npos)
+         return;
+
+      int index = safe_convert::stringTo<int>(line.substr(6, colon - 6), 0);
+      if (index < 1)
+         return;
+
+      if (files_.size() < static_cast<std::size_t>(index))
+         files_.resize(index);
+      files_[index - 1] = boost::algorithm::trim_copy(line.substr(colon + 1));
+   }
+
+   // returns the stack innermost call first. each function name is followed
+   // by the location it was called from (when line profiling); the location
+   // before the first function is the line executing within it
+   std::vector<CallSite> parseStack(const std::string& line) const
+   {
+      std::vector<CallSite> stack;
+      std::string::size_type pos = 0;
+      while (pos < line.size())
+      {
+         if (line[pos] == ' ')
+         {
+            pos++;
+         }
+         else if (line[pos] == '"')
+         {
+            std::string::size_type end = line.find('"', pos + 1);
+            if (end == std::string::npos)
+               end = line.size();
+            stack.push_back(CallSite(line.substr(pos + 1, end - pos - 1),
+                                     -1,
+                                     0));
+            pos = end + 1;
+         }
+         else
+         {
+            std::string::size_type end = line.find(' ', pos);
+            if (end == std::string::npos)
+               end = line.size();
+
+            // source reference (e.g. 1#23); memory profiling fields
+            // (e.g. :123:456:789:0:) are ignored
+            std::string::size_type hash = line.find('#', pos);
+            if (!stack.empty() && line[pos] != ':' && hash < end)
+            {
+               stack.back().file = safe_convert::stringTo<int>(
+                        line.substr(pos, hash - pos), 0) - 1;
+               stack.back().line = safe_convert::stringTo<int>(
+                        line.substr(hash + 1, end - hash - 1), 0);
+            }
+            pos = end;
+         }
+      }
+      return stack;
+   }
+
+   void addSample(const std::vector<CallSite>& stack)
+   {
+      int sample = samples_++;
+
+      CallNode* pNode = &root_;
+      pNode->counts.total++;
+      for (std::vector<CallSite>::const_reverse_iterator it = stack.rbegin();
+           it != stack.rend(); ++it)
+      {
+         boost::shared_ptr<CallNode>& pChild = pNode->children[*it];
+         if (!pChild)
+            pChild.reset(new CallNode());
+         pNode = pChild.get();
+         pNode->counts.total++;
+
+         CallCounts& counts = callSites_[*it];
+         if (counts.lastSample != sample)
+         {
+            counts.total++;
+            counts.lastSample = sample;
+         }
+      }
+      pNode->counts.self++;
+
+      if (!stack.empty())
+         callSites_[stack.front()].self++;
+   }
 
+   json::Object callAsJson(const CallSite& site,
+                           const CallCounts& counts) const
+   {
+      json::Object callJson;
+      callJson["name"] = site.name;
+      callJson["file"] = site.file;
+      callJson["line"] = site.line;
+      callJson["total"] = counts.total;
+      callJson["self"] = counts.self;
+      return callJson;
+   }
+
+   json::Object nodeAsJson(const CallSite& site,
+                           const CallNode& node,
+                           int minSamples) const
+   {
+      json::Object nodeJson = callAsJson(site, node.counts);
+      json::Array childrenJson;
+      for (std::map<CallSite, boost::shared_ptr<CallNode> >::const_iterator
+               it = node.children.begin(); it != node.children.end(); ++it)
+      {
+         if (it->second->counts.total >= minSamples)
+         {
+            childrenJson.push_back(nodeAsJson(it->first,
+                                              *(it->second),
+                                              minSamples));
+         }
+      }
+      nodeJson["children"] = childrenJson;
+      return nodeJson;
+   }
+
+   // source file names are recorded as they were passed to source (so may
+   // be relative to the working directory); returns an empty string for
+   // files which can't be found (e.g. code evaluated from the console)
+   static std::string resolveFile(const std::string& file)
+   {
+      if (file.empty())
+         return std::string();
+
+      FilePath filePath = file[0] == '~' ?
+               module_context::resolveAliasedPath(file) :
+               module_context::safeCurrentPath().complete(file);
+      if (!filePath.exists() || filePath.isDirectory())
+         return std::string();
+
+      return module_context::createAliasedPath(filePath);
+   }
+
+   double intervalMs_;
+   int samples_;
+   std::vector<std::string> files_;
+   CallNode root_;
+   std::map<CallSite, CallCounts> callSites_;
+};
+
+Error readProfile(const FilePath& profilePath, json::Value* pProfileJson)
+{
+   // profiles recorded in a previous session may have been cleaned up
+   if (!profilePath.exists())
+   {
+      *pProfileJson = json::Value();
+      return Success();
+   }
+
+   boost::shared_ptr<std::istream> pStream;
+   Error error = profilePath.open_r(&pStream);
+   if (error)
+      return error;
+
+   ProfileParser parser;
+   std::string line;
+   while (std::getline(*pStream, line))
+      parser.parseLine(line);
+
+   *pProfileJson = parser.toJson();
+   return Success();
+}
+
+Error startProfiling(const json::JsonRpcRequest& request,
+                     json::JsonRpcResponse* pResponse)
+{
+   FilePath profilePath = module_context::tempFile("rprof", "out");
+   Error error = r::exec::RFunction(".rs.startProfiling",
+                                    profilePath.absolutePath()).call();
+   if (error)
+      return error;
+
+   s_profilePath = profilePath;
+   pResponse->setResult(profilePath.absolutePath());
+   return Success();
+}
+
+Error stopProfiling(const json::JsonRpcRequest& request,
+                    json::JsonRpcResponse* pResponse)
+{
+   Error error = r::exec::RFunction(".rs.stopProfiling").call();
+   if (error)
+      return error;
+
+   FilePath profilePath = s_profilePath;
+   s_profilePath = FilePath();
+   if (profilePath.empty())
+   {
+      pResponse->setResult(json::Value());
+      return Success();
+   }
+
+   json::Value profileJson;
+   error = readProfile(profilePath, &profileJson);
+   if (error)
+      return error;
+
+   pResponse->setResult(profileJson);
+   return Success();
+}
+
+// profiles are only ever written by startProfiling, to a temporary file
+// in the R session's temporary directory (or, for profiles recorded in a
+// previous session, in that session's temporary directory alongside it)
+bool isProfilePath(const FilePath& profilePath)
+{
+   if (!boost::algorithm::starts_with(profilePath.filename(), "rprof") ||
+       profilePath.extensionLowerCase() != ".out")
+   {
+      return false;
+   }
+
+   FilePath dir = profilePath.parent();
+   FilePath tempDir = module_context::tempDir();
+   return dir == tempDir ||
+          (dir.parent() == tempDir.parent() &&
+           boost::algorithm::starts_with(dir.filename(), "Rtmp"));
+}
+
+Error getProfile(const json::JsonRpcRequest& request,
+                 json::JsonRpcResponse* pResponse)
+{
+   std::string path;
+   Error error = json::readParams(request.params, &path);
+   if (error)
+      return error;
+
+   // don't read arbitrary files on behalf of the client
+   FilePath profilePath(path);
+   if (path.find("..") != std::string::npos || !isProfilePath(profilePath))
+      return Error(json::errc::ParamInvalid, ERROR_LOCATION);
+
+   json::Value profileJson;
+   error = readProfile(profilePath, &profileJson);
+   if (error)
+      return error;
+
+   pResponse->setResult(profileJson);
+   return Success();
+}
 
-   
 } // anonymous namespace
-   
+
 Error initialize()
-{  
+{
+   using boost::bind;
+   using namespace module_context;
+
    ExecBlock initBlock ;
    initBlock.addFunctions()
-      (boost::bind(module_context::sourceModuleRFile, "SessionProfiler.R"));
+      (bind(registerRpcMethod, "start_profiling", startProfiling))
+      (bind(registerRpcMethod, "stop_profiling", stopProfiling))
+      (bind(registerRpcMethod, "get_profile", getProfile))
+      (bind(sourceModuleRFile, "SessionProfiler.R"));
    return initBlock.execute();
 
 }
-   
+
 
 
 } // namespace profiler
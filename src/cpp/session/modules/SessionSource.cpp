@@ -73,6 +73,16 @@ void writeDocToJson(boost::shared_ptr<SourceDocument> pDoc,
                                    .onDetectSourceExtendedType(pDoc);
 }
 
+void enqueExtendedTypeEvent(boost::shared_ptr<SourceDocument> pDoc,
+                            const std::string& extendedType)
+{
+   json::Object jsonData;
+   jsonData["doc_id"] = pDoc->id();
+   jsonData["extended_type"] = extendedType;
+   ClientEvent event(client_events::kSourceExtendedTypeDetected, jsonData);
+   module_context::enqueClientEvent(event);
+}
+
 void detectExtendedType(boost::shared_ptr<SourceDocument> pDoc)
 {
    // detect the extended type of the document by calling any registered
@@ -81,18 +91,14 @@ void detectExtendedType(boost::shared_ptr<SourceDocument> pDoc)
                   module_context::events().onDetectSourceExtendedType(pDoc);
 
    // notify the client
-   json::Object jsonData;
-   jsonData["doc_id"] = pDoc->id();
-   jsonData["extended_type"] = extendedType;
-   ClientEvent event(client_events::kSourceExtendedTypeDetected, jsonData);
-   module_context::enqueClientEvent(event);
+   enqueExtendedTypeEvent(pDoc, extendedType);
 }
 
 int numSourceDocuments()
 {
-   std::vector<boost::shared_ptr<SourceDocument> > docs;
-   source_database::list(&docs);
-   return docs.size();
+   std::vector<SourceDocumentInfo> infos;
+   source_database::listInfo(&infos);
+   return infos.size();
 }
 
 // wrap source_database::put for situations where there are new contents
@@ -568,6 +574,27 @@ Error reopenWithEncoding(const json::JsonRpcRequest& request,
    return reopen(id, std::string(), encoding, pResponse);
 }
 
+// documents restored by client_init are sent without their contents, which
+// the client fetches when it first needs them (e.g. on activating the tab)
+Error getSourceDocument(const json::JsonRpcRequest& request,
+                        json::JsonRpcResponse* pResponse)
+{
+   std::string id;
+   Error error = json::readParams(request.params, &id);
+   if (error)
+      return error;
+
+   boost::shared_ptr<SourceDocument> pDoc(new SourceDocument());
+   error = source_database::get(id, pDoc);
+   if (error)
+      return error;
+
+   json::Object jsonDoc;
+   writeDocToJson(pDoc, &jsonDoc);
+   pResponse->setResult(jsonDoc);
+   return Success();
+}
+
 Error ignoreExternalEdit(const json::JsonRpcRequest& request,
                          json::JsonRpcResponse* pResponse)
 {
@@ -883,21 +910,29 @@ Error setDocOrder(const json::JsonRpcRequest& request,
                   json::JsonRpcResponse* pResponse)
 {
    json::Array ids;
-   std::vector<boost::shared_ptr<SourceDocument> > docs;
+   std::vector<SourceDocumentInfo> infos;
    Error error = json::readParams(request.params, &ids);
    if (error)
       return error;
-   source_database::list(&docs);
+   source_database::listInfo(&infos);
 
-   BOOST_FOREACH( boost::shared_ptr<SourceDocument>& pDoc, docs )
+   // only the documents whose order changed are read and rewritten
+   BOOST_FOREACH( const SourceDocumentInfo& info, infos )
    {
       for (unsigned i = 0; i < ids.size(); i++) 
       {
          // docs are ordered starting at 1; the special value 0 indicates a
          // document with no order
-         if (pDoc->id() == ids[i].get_str() && 
-             pDoc->relativeOrder() != static_cast<int>(i + 1))
+         if (info.id == ids[i].get_str() && 
+             info.relativeOrder != static_cast<int>(i + 1))
          {
+            boost::shared_ptr<SourceDocument> pDoc(new SourceDocument());
+            error = source_database::get(info.id, pDoc);
+            if (error)
+            {
+               LOG_ERROR(error);
+               continue;
+            }
             pDoc->setRelativeOrder(i + 1);
             source_database::put(pDoc);
          }
@@ -1007,22 +1042,62 @@ SEXP rs_fileEdit(SEXP fileSEXP)
    return R_NilValue;
 }
 
+// documents listed by client_init whose contents have yet to be read and
+// passed to onDocUpdated (for the code search index) and to the extended
+// type detectors. a later client_init starts a new pass (the generation
+// stops the old one).
+std::vector<std::string> s_docsToRead;
+int s_docsToReadGeneration = 0;
+
+bool readNextDocument(int generation)
+{
+   if (generation != s_docsToReadGeneration || s_docsToRead.empty())
+      return false;
+
+   std::string id = s_docsToRead.back();
+   s_docsToRead.pop_back();
+
+   // (the document may have since been closed)
+   boost::shared_ptr<SourceDocument> pDoc(new SourceDocument());
+   Error error = source_database::get(id, pDoc);
+   if (!error)
+   {
+      source_database::events().onDocUpdated(pDoc);
+
+      // (the client was sent no extended type)
+      std::string extendedType =
+                  module_context::events().onDetectSourceExtendedType(pDoc);
+      if (!extendedType.empty())
+         enqueExtendedTypeEvent(pDoc, extendedType);
+   }
+   else if (!isPathNotFoundError(error))
+   {
+      LOG_ERROR(error);
+   }
+
+   return !s_docsToRead.empty();
+}
+
 } // anonymous namespace
 
 Error clientInitDocuments(core::json::Array* pJsonDocs)
 {
    source_database::events().onRemoveAll();
 
-   // get the docs and sort them by relative order
-   std::vector<boost::shared_ptr<SourceDocument> > docs ;
-   Error error = source_database::list(&docs);
+   // get the docs and sort them by relative order. only their metadata is
+   // read here (so the client isn't kept waiting on documents it may never
+   // show); the contents are read on demand by get_source_document and
+   // during idle time for the code search index.
+   std::vector<SourceDocumentInfo> infos;
+   Error error = source_database::listInfo(&infos);
    if (error)
       return error ;
-   std::sort(docs.begin(), docs.end(), sortByRelativeOrder);
+   std::sort(infos.begin(), infos.end(), sortInfoByRelativeOrder);
 
    // populate the array
    pJsonDocs->clear();
-   BOOST_FOREACH( boost::shared_ptr<SourceDocument>& pDoc, docs )
+   s_docsToRead.clear();
+   BOOST_FOREACH( SourceDocumentInfo& info, infos )
    {
       // Force dirty state to be checked.
       // Client and server dirty state can get out of sync because
@@ -1035,17 +1110,23 @@ Error clientInitDocuments(core::json::Array* pJsonDocs)
       // it does mean that reloading the client may cause a dirty
       // document to become clean (if the contents are identical
       // to what's on disk).
-      error = pDoc->updateDirty();
+      error = source_database::updateDirty(&info);
       if (error)
          LOG_ERROR(error);
 
       json::Object jsonDoc ;
-      writeDocToJson(pDoc, &jsonDoc);
+      writeInfoToJson(info, &jsonDoc);
       pJsonDocs->push_back(jsonDoc);
 
-      source_database::events().onDocUpdated(pDoc);
+      s_docsToRead.push_back(info.id);
    }
 
+   // (read from the back, so in the order the client lists them)
+   std::reverse(s_docsToRead.begin(), s_docsToRead.end());
+   module_context::scheduleIncrementalWork(
+         boost::posix_time::milliseconds(20),
+         boost::bind(readNextDocument, ++s_docsToReadGeneration));
+
    return Success();
 }
 
@@ -1075,6 +1156,7 @@ Error initialize()
       (bind(registerRpcMethod, "save_document", saveDocument))
       (bind(registerRpcMethod, "save_document_diff", saveDocumentDiff))
       (bind(registerRpcMethod, "check_for_external_edit", checkForExternalEdit))
+      (bind(registerRpcMethod, "get_source_document", getSourceDocument))
       (bind(registerRpcMethod, "ignore_external_edit", ignoreExternalEdit))
       (bind(registerRpcMethod, "set_source_document_on_save", setSourceDocumentOnSave))
       (bind(registerRpcMethod, "modify_document_properties", modifyDocumentProperties))
@@ -111,16 +111,64 @@ namespace {
  *    object in a second environment, .rs.WorkingDataEnv, using the same cache
  *    keys.
  *    
+ *    Alongside the working copy we keep (in .rs.WorkingRowsEnv) the indices
+ *    of the rows which matched its search and filters, and the sort order
+ *    of each column the user has sorted on.
+ *
  *    When a request for data arrives, we check to see if the data requested is
- *    a subset of the data already in our working copy. If it is, we use the
- *    working copy as a starting postion rather than the original or cached
- *    object.
+ *    a subset of the data already in our working copy (e.g. the search was
+ *    extended or a filter's range narrowed). If it is, only the previously
+ *    matching rows are searched and filtered again, rather than all of the
+ *    rows of the original or cached object. Sorting uses the cached order of
+ *    the column, restricted to the matching rows, so the result is the same
+ *    as transforming the object from scratch.
  *
  *    This allows us to efficiently perform operations on very large datasets
  *    once they've been winnowed down to smaller objects using searches and
  *    filters.
  */    
 
+// R's (extended) regular expression metacharacters
+const char * const kRegexMetacharacters = ".\\|()[]{}^$*+?";
+
+bool isLiteralPattern(const std::string& pattern)
+{
+   return pattern.find_first_of(kRegexMetacharacters) == std::string::npos;
+}
+
+// parses the value of a numeric filter: either a range ("2.71-3.14") or a
+// single value ("15", equivalent to the range "15-15")
+bool parseNumericFilter(const std::string& value, double* pMin, double* pMax)
+{
+   boost::regex numFilter("(\\d+\\.?\\d*)(?:-(\\d+\\.?\\d*))?");
+   boost::smatch match;
+   if (!boost::regex_match(value, match, numFilter))
+      return false;
+
+   *pMin = safe_convert::stringTo<double>(match[1], 0);
+   *pMax = match[2].matched ?
+              safe_convert::stringTo<double>(match[2], 0) : *pMin;
+   return true;
+}
+
+} // anonymous namespace
+
+// indicates whether one search string is a subset of another; e.g. if the
+// data is searched for "abc" and then "abcd", the new state is a subset of
+// the previous state. searches are case-insensitive regular expressions, so
+// only literal searches can be compared.
+bool isSearchSubset(const std::string& outer, const std::string& inner)
+{
+   if (inner == outer || outer.empty())
+      return true;
+
+   // a row containing inner also contains outer
+   return !inner.empty() &&
+          isLiteralPattern(outer) &&
+          isLiteralPattern(inner) &&
+          inner.find(outer) != std::string::npos;
+}
+
 // indicates whether one filter string is a subset of another; e.g. if a column
 // is filtered for "abc" and then "abcd", the new state is a subset of the
 // previous state.
@@ -130,6 +178,13 @@ bool isFilterSubset(const std::string& outer, const std::string& inner)
    if (inner == outer) 
       return true;
 
+   // everything is a subset of no filter at all (and no filter is a subset
+   // of nothing but itself)
+   if (outer.empty())
+      return true;
+   if (inner.empty())
+      return false;
+
    // find filter separators; if we can't find them, presume no subset since we
    // can't parse filters
    size_t outerPipe = outer.find(kFilterSeparator);
@@ -152,23 +207,17 @@ bool isFilterSubset(const std::string& outer, const std::string& inner)
 
    if (outerType == "numeric")
    {
-      // matches a numeric filter (i.e. "2.71-3.14") -- in this case we need to
-      // check the components for range inclusion
-      boost::regex numFilter("(\\d+\\.?\\d*)-(\\d+\\.?\\d*)");
-      boost::smatch innerMatch, outerMatch;
-      if (boost::regex_search(innerValue, innerMatch, numFilter) &&
-          boost::regex_search(outerValue, outerMatch, numFilter))
+      // for numeric filters, the inner is a subset if its lower bound is 
+      // larger than the outer lower bound, and the upper bound is smaller
+      // than the outer upper bound
+      double innerMin, innerMax, outerMin, outerMax;
+      if (parseNumericFilter(innerValue, &innerMin, &innerMax) &&
+          parseNumericFilter(outerValue, &outerMin, &outerMax))
       {
-         // for numeric filters, the inner is a subset if its lower bound (1) is 
-         // larger than the outer lower bound, and the upper bound (2) is smaller
-         // than the outer upper bound
-         return safe_convert::stringTo<double>(innerMatch[1], 0) >= 
-                safe_convert::stringTo<double>(outerMatch[1], 0) &&
-                safe_convert::stringTo<double>(innerMatch[2], 0) <= 
-                safe_convert::stringTo<double>(outerMatch[2], 0);
+         return innerMin >= outerMin && innerMax <= outerMax;
       }
 
-      // if not identical and not a range, then not a subset
+      // if not identical and not parseable, then not a subset
       return false;
    } 
    else if (outerType == "factor")
@@ -181,13 +230,15 @@ bool isFilterSubset(const std::string& outer, const std::string& inner)
    {
       // characters are a subset if the outer string is within the inner one
       // (i.e. a seach for "walnuts" (inner) is within "walnut" (outer))
-      return inner.find(outer) != std::string::npos;
+      return isSearchSubset(outerValue, innerValue);
    }
    
    // unknown filter type
    return false;
 }
 
+namespace {
+
 // CachedFrame represents an object that's currently active in a data viewer
 // window.
 struct CachedFrame
@@ -233,12 +284,13 @@ struct CachedFrame
    bool isSupersetOf(const std::string& newSearch, 
                      const std::vector<std::string> &newFilters)
    {
-      if (!isFilterSubset(workingSearch, newSearch))
+      if (!isSearchSubset(workingSearch, newSearch))
          return false;
 
-      for (unsigned i = 0; 
-           i < std::min(newFilters.size(), workingFilters.size()); 
-           i++)
+      if (newFilters.size() != workingFilters.size())
+         return false;
+
+      for (unsigned i = 0; i < newFilters.size(); i++)
       {
          if (!isFilterSubset(workingFilters[i], newFilters[i]))
             return false;
@@ -478,6 +530,7 @@ json::Value getData(SEXP dataSEXP, const http::Fields& fields)
 
    bool needsTransform = ordercol > 0 || hasFilter || !search.empty();
    bool hasTransform = false;
+   bool refine = false;
 
    // check to see if we have an ordered/filtered view we can build from
    std::map<std::string, CachedFrame>::iterator cachedFrame = 
@@ -507,9 +560,9 @@ json::Value getData(SEXP dataSEXP, const http::Fields& fields)
             else if (cachedFrame->second.isSupersetOf(search, filters))
             {
                // we have one that is a strict superset of the parameters
-               // requested; transform the filtered set instead of starting
-               // from scratch
-               dataSEXP = workingDataSEXP;
+               // requested; search and filter only its rows instead of
+               // starting from scratch
+               refine = true;
             }
          }
       }
@@ -525,6 +578,8 @@ json::Value getData(SEXP dataSEXP, const http::Fields& fields)
       transform.addParam("search", search);    // global search (across cols)
       transform.addParam("col", ordercol);     // which column to order on
       transform.addParam("dir", orderdir);     // order direction ("asc"/"desc")
+      transform.addParam("cacheKey", cacheKey); // key of the working rows
+      transform.addParam("refine", refine);    // start from the working rows
       transform.call(&dataSEXP, &protect);
       if (error)
          throw r::exec::RErrorException(error.summary());
@@ -16,6 +16,8 @@
 #ifndef SESSION_DATA_VIEWER_HPP
 #define SESSION_DATA_VIEWER_HPP
 
+#include <string>
+
 namespace core {
    class Error;
 }
@@ -26,6 +28,14 @@ namespace data {
 namespace viewer {
    
 core::Error initialize();
+
+// is every row matched by the inner search (or column filter) also matched
+// by the outer one? (if so, a transform for the inner one can start from the
+// rows matched by the outer one)
+bool isSearchSubset(const std::string& outer, const std::string& inner);
+bool isFilterSubset(const std::string& outer, const std::string& inner);
+
+void runDataViewerTests();
                        
 } // namespace viewer
 } // namespace data
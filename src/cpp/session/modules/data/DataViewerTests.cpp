@@ -0,0 +1,334 @@
+/*
+ * DataViewerTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "DataViewer.hpp"
+
+#include <vector>
+
+#include <boost/assert.hpp>
+#include <boost/algorithm/string/case_conv.hpp>
+
+#include <core/Error.hpp>
+#include <core/SafeConvert.hpp>
+
+#include <r/RInternal.hpp>
+#include <r/RExec.hpp>
+#include <r/RSexp.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace data {
+namespace viewer {
+
+namespace {
+
+struct Row
+{
+   std::string text;
+   double value;
+};
+
+// the rows of a data set with some overlapping text and values
+std::vector<Row> testRows()
+{
+   const char * const kWords[] = {
+      "walnut", "Walnuts", "wal", "almond", "pecan", "pecans", "a.b", "axb",
+      "", "WALNUT pie"
+   };
+   std::vector<Row> rows;
+   for (int i = 0; i < 100; i++)
+   {
+      Row row;
+      row.text = kWords[i % (sizeof(kWords) / sizeof(kWords[0]))];
+      row.value = (i * 7) % 40 + 0.5 * (i % 3);
+      rows.push_back(row);
+   }
+   return rows;
+}
+
+// the rows matched by a literal search (as .rs.filterRows does with grepl,
+// which is a case-insensitive substring match for literal patterns)
+std::vector<int> search(const std::vector<Row>& rows,
+                        const std::vector<int>& indices,
+                        const std::string& term)
+{
+   std::vector<int> matches;
+   std::string lowerTerm = boost::algorithm::to_lower_copy(term);
+   for (std::size_t i = 0; i < indices.size(); i++)
+   {
+      std::string text = boost::algorithm::to_lower_copy(
+                                                   rows[indices[i]].text);
+      if (text.find(lowerTerm) != std::string::npos)
+         matches.push_back(indices[i]);
+   }
+   return matches;
+}
+
+// the rows matched by a numeric range filter
+std::vector<int> filter(const std::vector<Row>& rows,
+                        const std::vector<int>& indices,
+                        double min,
+                        double max)
+{
+   std::vector<int> matches;
+   for (std::size_t i = 0; i < indices.size(); i++)
+   {
+      double value = rows[indices[i]].value;
+      if (value >= min && value <= max)
+         matches.push_back(indices[i]);
+   }
+   return matches;
+}
+
+std::vector<int> allIndices(const std::vector<Row>& rows)
+{
+   std::vector<int> indices;
+   for (std::size_t i = 0; i < rows.size(); i++)
+      indices.push_back(i);
+   return indices;
+}
+
+void testSearchSubset()
+{
+   BOOST_ASSERT(isSearchSubset("", ""));
+   BOOST_ASSERT(isSearchSubset("", "wal"));
+   BOOST_ASSERT(isSearchSubset("wal", "walnut"));
+   BOOST_ASSERT(isSearchSubset("nut", "walnut"));
+   BOOST_ASSERT(!isSearchSubset("walnut", "wal"));
+   BOOST_ASSERT(!isSearchSubset("wal", ""));
+
+   // regular expressions can't be compared (unless identical)
+   BOOST_ASSERT(isSearchSubset("a.b", "a.b"));
+   BOOST_ASSERT(!isSearchSubset("a", "a|x"));
+   BOOST_ASSERT(!isSearchSubset("a.", "a.b"));
+
+   // refining a search gives the same rows as searching from scratch
+   const char * const kTerms[] = {
+      "", "w", "wa", "wal", "walnut", "walnuts", "nut", "pecan", "an", "a",
+      "pie"
+   };
+   const std::size_t kNumTerms = sizeof(kTerms) / sizeof(kTerms[0]);
+   std::vector<Row> rows = testRows();
+   std::vector<int> all = allIndices(rows);
+   for (std::size_t i = 0; i < kNumTerms; i++)
+   {
+      for (std::size_t j = 0; j < kNumTerms; j++)
+      {
+         if (!isSearchSubset(kTerms[i], kTerms[j]))
+            continue;
+
+         std::vector<int> previous = search(rows, all, kTerms[i]);
+         BOOST_ASSERT(search(rows, previous, kTerms[j]) ==
+                      search(rows, all, kTerms[j]));
+      }
+   }
+}
+
+void testFilterSubset()
+{
+   BOOST_ASSERT(isFilterSubset("", "numeric|10-20"));
+   BOOST_ASSERT(!isFilterSubset("numeric|10-20", ""));
+   BOOST_ASSERT(isFilterSubset("numeric|10-20", "numeric|10-20"));
+   BOOST_ASSERT(isFilterSubset("numeric|10-20", "numeric|12.5-15"));
+   BOOST_ASSERT(isFilterSubset("numeric|10-20", "numeric|15"));
+   BOOST_ASSERT(!isFilterSubset("numeric|10-20", "numeric|5-15"));
+   BOOST_ASSERT(!isFilterSubset("numeric|15", "numeric|10-20"));
+   BOOST_ASSERT(isFilterSubset("character|wal", "character|walnut"));
+   BOOST_ASSERT(!isFilterSubset("character|walnut", "character|wal"));
+   BOOST_ASSERT(!isFilterSubset("character|a", "character|a|b"));
+   BOOST_ASSERT(!isFilterSubset("factor|2", "factor|3"));
+   BOOST_ASSERT(!isFilterSubset("character|1", "numeric|1"));
+
+   // narrowing a range gives the same rows as filtering from scratch
+   std::vector<Row> rows = testRows();
+   std::vector<int> all = allIndices(rows);
+   for (int outerMin = 0; outerMin < 40; outerMin += 5)
+   {
+      for (int outerMax = outerMin; outerMax < 40; outerMax += 5)
+      {
+         for (int innerMin = 0; innerMin < 40; innerMin += 3)
+         {
+            for (int innerMax = innerMin; innerMax < 40; innerMax += 3)
+            {
+               std::string outer = "numeric|" +
+                     safe_convert::numberToString(outerMin) + "-" +
+                     safe_convert::numberToString(outerMax);
+               std::string inner = "numeric|" +
+                     safe_convert::numberToString(innerMin) + "-" +
+                     safe_convert::numberToString(innerMax);
+               if (!isFilterSubset(outer, inner))
+                  continue;
+
+               std::vector<int> previous = filter(rows, all,
+                                                  outerMin, outerMax);
+               BOOST_ASSERT(filter(rows, previous, innerMin, innerMax) ==
+                            filter(rows, all, innerMin, innerMax));
+            }
+         }
+      }
+   }
+}
+
+// the parameters of a transform requested by the grid
+struct Transform
+{
+   Transform(const std::string& num,
+             const std::string& text,
+             const std::string& fac,
+             const std::string& searchTerm,
+             int orderCol,
+             const std::string& orderDir)
+      : search(searchTerm), col(orderCol), dir(orderDir)
+   {
+      filtered.push_back(num);
+      filtered.push_back(text);
+      filtered.push_back(fac);
+   }
+
+   std::vector<std::string> filtered;
+   std::string search;
+   int col;
+   std::string dir;
+};
+
+// (as getData calls it)
+SEXP applyTransform(SEXP dataSEXP,
+                    const Transform& transform,
+                    const std::string& cacheKey,
+                    bool refine,
+                    r::sexp::Protect* pProtect)
+{
+   r::exec::RFunction apply(".rs.applyTransform");
+   apply.addParam("x", dataSEXP);
+   apply.addParam("filtered", transform.filtered);
+   apply.addParam("search", transform.search);
+   apply.addParam("col", transform.col);
+   apply.addParam("dir", transform.dir);
+   apply.addParam("cacheKey", cacheKey);
+   apply.addParam("refine", refine);
+
+   SEXP resultSEXP = R_NilValue;
+   Error error = apply.call(&resultSEXP, pProtect);
+   BOOST_ASSERT(!error);
+   return resultSEXP;
+}
+
+// refines narrow from the rows of broad (as getData does when broad is the
+// working transform and isSupersetOf holds) and checks that this gives the
+// same frame as applying narrow from scratch
+void checkRefine(SEXP dataSEXP,
+                 SEXP refineDataSEXP,
+                 const Transform& broad,
+                 const Transform& narrow)
+{
+   // only refinements getData would make are tested
+   BOOST_ASSERT(isSearchSubset(broad.search, narrow.search));
+   for (std::size_t i = 0; i < broad.filtered.size(); i++)
+      BOOST_ASSERT(isFilterSubset(broad.filtered[i], narrow.filtered[i]));
+
+   const std::string cacheKey = "data-viewer-tests";
+   r::exec::RFunction(".rs.removeWorkingData", cacheKey).call();
+
+   r::sexp::Protect protect;
+   applyTransform(dataSEXP, broad, cacheKey, false, &protect);
+   SEXP refinedSEXP = applyTransform(refineDataSEXP, narrow, cacheKey, true,
+                                     &protect);
+   SEXP scratchSEXP = applyTransform(refineDataSEXP, narrow, "", false,
+                                     &protect);
+
+   bool identical = false;
+   Error error = r::exec::RFunction("identical", refinedSEXP, scratchSEXP)
+                                                         .call(&identical);
+   BOOST_ASSERT(!error);
+   BOOST_ASSERT(identical);
+
+   r::exec::RFunction(".rs.removeWorkingData", cacheKey).call();
+}
+
+void testApplyTransformRefine()
+{
+   // numbers with ties, text and a factor, all with missing values
+   r::sexp::Protect protect;
+   SEXP dataSEXP = R_NilValue;
+   Error error = r::exec::evaluateString(
+      "local({"
+      "  i <- seq_len(300);"
+      "  num <- (i * 7) %% 40 + 0.5 * (i %% 3);"
+      "  num[i %% 11 == 0] <- NA;"
+      "  words <- c('walnut', 'Walnuts', 'wal', 'almond', 'pecan',"
+      "             'pecans', 'a.b', 'axb', '', 'WALNUT pie');"
+      "  text <- words[i %% length(words) + 1];"
+      "  text[i %% 13 == 0] <- NA;"
+      "  fac <- factor(c('red', 'green', 'blue')[i %% 3 + 1]);"
+      "  fac[i %% 17 == 0] <- NA;"
+      "  data.frame(num = num, text = text, fac = fac,"
+      "             stringsAsFactors = FALSE)"
+      "})",
+      &dataSEXP,
+      &protect);
+   BOOST_ASSERT(!error);
+
+   // narrower searches, with and without a change of sort
+   checkRefine(dataSEXP, dataSEXP,
+               Transform("", "", "", "wal", 0, "asc"),
+               Transform("", "", "", "walnut", 2, "asc"));
+   checkRefine(dataSEXP, dataSEXP,
+               Transform("", "", "", "a", 1, "desc"),
+               Transform("", "", "", "an", 1, "desc"));
+
+   // narrower ranges (the column has missing values)
+   checkRefine(dataSEXP, dataSEXP,
+               Transform("numeric|0-30", "", "", "", 1, "desc"),
+               Transform("numeric|10-20", "", "", "", 1, "desc"));
+   checkRefine(dataSEXP, dataSEXP,
+               Transform("numeric|0-30", "", "", "", 1, "asc"),
+               Transform("numeric|10-20", "character|wal", "", "", 3,
+                         "desc"));
+
+   // the same filters sorted differently (the matching rows are reused)
+   checkRefine(dataSEXP, dataSEXP,
+               Transform("", "character|wal", "", "", 1, "asc"),
+               Transform("", "character|wal", "", "", 1, "desc"));
+   checkRefine(dataSEXP, dataSEXP,
+               Transform("", "", "factor|2", "", 0, "asc"),
+               Transform("", "", "factor|2", "5", 2, "desc"));
+
+   // rows matched against different data are ignored
+   SEXP changedSEXP = R_NilValue;
+   error = r::exec::RFunction("head", dataSEXP, -1).call(&changedSEXP,
+                                                          &protect);
+   BOOST_ASSERT(!error);
+   checkRefine(dataSEXP, changedSEXP,
+               Transform("numeric|0-30", "", "", "", 1, "asc"),
+               Transform("numeric|10-20", "", "", "", 1, "asc"));
+}
+
+} // anonymous namespace
+
+// NOTE: the .rs.applyTransform tests call into R so they must be run after
+// R has been initialized (as rsession --run-tests does)
+void runDataViewerTests()
+{
+   testSearchSubset();
+   testFilterSubset();
+   testApplyTransformRefine();
+}
+
+} // namespace viewer
+} // namespace data
+} // namespace modules
+} // namespace session
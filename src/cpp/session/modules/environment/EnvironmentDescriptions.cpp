@@ -0,0 +1,165 @@
+/*
+ * EnvironmentDescriptions.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "EnvironmentDescriptions.hpp"
+
+#include <algorithm>
+
+#include <boost/foreach.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
+
+#include "EnvironmentUtils.hpp"
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace environment {
+
+namespace {
+
+// values larger than this are always described later (e.g. assigning a
+// large list shouldn't delay the prompt while str describes it)
+const std::size_t kMaxImmediateSize = 100000;
+
+bool compareVarName(const r::sexp::Variable& var1,
+                    const r::sexp::Variable& var2)
+{
+   return var1.first < var2.first;
+}
+
+} // anonymous namespace
+
+DescriptionCache::DescriptionCache(const DescribeVariable& describe,
+                                   const ValueVersion& version,
+                                   const ValueSize& size)
+   : describe_(describe), version_(version), size_(size)
+{
+}
+
+void DescriptionCache::describe(
+                     const std::vector<r::sexp::Variable>& vars,
+                     const boost::posix_time::time_duration& budget,
+                     json::Array* pDescriptions)
+{
+   using namespace boost::posix_time;
+   ptime deadline = microsec_clock::universal_time() + budget;
+
+   BOOST_FOREACH(const r::sexp::Variable& var, vars)
+   {
+      std::map<std::string, Description>::const_iterator it =
+                                                descriptions_.find(var.first);
+      int version = version_(var.second);
+      if (it != descriptions_.end() &&
+          it->second.value == var.second &&
+          it->second.version == version &&
+          version >= 0)
+      {
+         pDescriptions->push_back(it->second.json);
+         pending_.erase(var.first);
+      }
+      else if (microsec_clock::universal_time() >= deadline ||
+               isExpensive(var, budget))
+      {
+         descriptions_.erase(var.first);
+         pDescriptions->push_back(placeholderToJson(var.first));
+         pending_.insert(var.first);
+      }
+      else
+      {
+         pDescriptions->push_back(describeVariable(var));
+      }
+   }
+}
+
+bool DescriptionCache::describeNext(const std::vector<r::sexp::Variable>& vars,
+                                    json::Value* pDescription)
+{
+   if (pending_.empty())
+      return false;
+
+   std::string name = *pending_.begin();
+   pending_.erase(pending_.begin());
+
+   r::sexp::Variable key(name, NULL);
+   std::vector<r::sexp::Variable>::const_iterator it =
+         std::lower_bound(vars.begin(), vars.end(), key, compareVarName);
+   if (it == vars.end() || it->first != name)
+      return false;
+
+   *pDescription = describeVariable(*it);
+   return true;
+}
+
+void DescriptionCache::remove(const std::string& name)
+{
+   descriptions_.erase(name);
+   pending_.erase(name);
+   describeTimes_.erase(name);
+}
+
+void DescriptionCache::clear()
+{
+   descriptions_.clear();
+   pending_.clear();
+   describeTimes_.clear();
+}
+
+// whether describing the variable is likely to take a significant part of
+// the budget
+bool DescriptionCache::isExpensive(
+                  const r::sexp::Variable& var,
+                  const boost::posix_time::time_duration& budget) const
+{
+   if (size_(var.second) > kMaxImmediateSize)
+      return true;
+
+   std::map<std::string, boost::posix_time::time_duration>::const_iterator it =
+                                                describeTimes_.find(var.first);
+   return it != describeTimes_.end() && it->second * 10 > budget;
+}
+
+json::Value DescriptionCache::describeVariable(const r::sexp::Variable& var)
+{
+   using namespace boost::posix_time;
+
+   pending_.erase(var.first);
+
+   ptime start = microsec_clock::universal_time();
+   json::Value json = describe_(var);
+   describeTimes_[var.first] = microsec_clock::universal_time() - start;
+
+   // describing a value can change its version (e.g. by marking it as
+   // shared), so the version it's stored with is taken afterwards
+   int version = version_(var.second);
+   if (version >= 0)
+   {
+      Description description;
+      description.value = var.second;
+      description.version = version;
+      description.json = json;
+      descriptions_[var.first] = description;
+   }
+   else
+   {
+      descriptions_.erase(var.first);
+   }
+
+   return json;
+}
+
+} // namespace environment
+} // namespace modules
+} // namespace session
@@ -0,0 +1,118 @@
+/*
+ * EnvironmentDescriptions.hpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#ifndef SESSION_ENVIRONMENT_DESCRIPTIONS_HPP
+#define SESSION_ENVIRONMENT_DESCRIPTIONS_HPP
+
+#include <map>
+#include <set>
+#include <string>
+#include <vector>
+
+#include <boost/function.hpp>
+#include <boost/noncopyable.hpp>
+#include <boost/date_time/posix_time/posix_time_types.hpp>
+
+#include <core/json/Json.hpp>
+#include <r/RSexp.hpp>
+
+namespace session {
+namespace modules {
+namespace environment {
+
+// describes a variable (as varToJson does)
+typedef boost::function<core::json::Value(const r::sexp::Variable&)>
+                                                            DescribeVariable;
+
+// returns the version of a value: a description of the value is reused for
+// as long as the variable refers to the same object with the same version.
+// values which could change without their version changing (e.g. because
+// they can be modified in place) have a negative version.
+typedef boost::function<int(SEXP)> ValueVersion;
+
+// returns a cheap estimate of the size of a value (e.g. the number of
+// elements it holds)
+typedef boost::function<std::size_t(SEXP)> ValueSize;
+
+// Descriptions of the variables in an environment. Describing a variable
+// runs R code (e.g. object.size and str) whose cost grows with the size of
+// the value, so descriptions are reused for as long as the values they
+// describe are unchanged, and each batch of descriptions is limited to a
+// time budget: variables which don't fit within the budget are described
+// with a placeholder and queued to be described later. Whether a variable
+// fits is decided before describing it, so variables which are likely to
+// be expensive to describe (large values, and those whose last description
+// was slow) are always queued.
+class DescriptionCache : boost::noncopyable
+{
+public:
+   DescriptionCache(const DescribeVariable& describe,
+                    const ValueVersion& version,
+                    const ValueSize& size);
+
+   // describe the variables, spending at most budget doing so (beyond the
+   // time taken by the description which exhausts it, which is one that
+   // isn't expected to be expensive)
+   void describe(const std::vector<r::sexp::Variable>& vars,
+                 const boost::posix_time::time_duration& budget,
+                 core::json::Array* pDescriptions);
+
+   // whether there are placeholders awaiting a description
+   bool hasPending() const { return !pending_.empty(); }
+
+   // describe the next of the queued variables. vars is the current
+   // contents of the environment (sorted by name); returns false if the
+   // queued variable is no longer in it.
+   bool describeNext(const std::vector<r::sexp::Variable>& vars,
+                     core::json::Value* pDescription);
+
+   // forget the description of a variable (e.g. because it was removed)
+   void remove(const std::string& name);
+
+   void clear();
+
+private:
+   bool isExpensive(const r::sexp::Variable& var,
+                    const boost::posix_time::time_duration& budget) const;
+   core::json::Value describeVariable(const r::sexp::Variable& var);
+
+   struct Description
+   {
+      SEXP value;
+      int version;
+      core::json::Value json;
+   };
+
+   DescribeVariable describe_;
+   ValueVersion version_;
+   ValueSize size_;
+
+   // keyed by variable name. values are compared by identity only (as is
+   // done when monitoring the environment for changes) and so aren't
+   // protected.
+   std::map<std::string, Description> descriptions_;
+   std::set<std::string> pending_;
+
+   // how long the last description of each variable took
+   std::map<std::string, boost::posix_time::time_duration> describeTimes_;
+};
+
+void runEnvironmentDescriptionsTests();
+
+} // namespace environment
+} // namespace modules
+} // namespace session
+
+#endif // SESSION_ENVIRONMENT_DESCRIPTIONS_HPP
@@ -0,0 +1,332 @@
+/*
+ * EnvironmentDescriptionsTests.cpp
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+#include "EnvironmentDescriptions.hpp"
+
+#include <boost/assert.hpp>
+#include <boost/bind.hpp>
+#include <boost/thread.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
+
+#include <core/Log.hpp>
+#include <core/SafeConvert.hpp>
+
+using namespace core;
+
+namespace session {
+namespace modules {
+namespace environment {
+
+namespace {
+
+// an environment whose values are stand-ins for R objects (they're only
+// compared by identity, never dereferenced). describing a value takes a
+// fixed amount of time, and values are small unless given a size.
+class TestEnvironment
+{
+public:
+   TestEnvironment(std::size_t size, int describeMs)
+      : storage_(size * 2), describeMs_(describeMs), describeCount_(0),
+        cache_(boost::bind(&TestEnvironment::describe, this, _1),
+               boost::bind(&TestEnvironment::version, this, _1),
+               boost::bind(&TestEnvironment::size, this, _1))
+   {
+      for (std::size_t i = 0; i < size; i++)
+      {
+         // zero-padded so that the names sort in order
+         std::string name = safe_convert::numberToString(100000 + i);
+         vars_.push_back(r::sexp::Variable(name, value(i)));
+      }
+   }
+
+   // assign a different value to the i-th variable
+   void assign(std::size_t i)
+   {
+      vars_[i].second = value(vars_.size() + i);
+   }
+
+   // describing a value marks it as shared (as .rs.describeObject does)
+   json::Value describe(const r::sexp::Variable& var)
+   {
+      describeCount_++;
+      shared_.insert(var.second);
+      if (describeMs_ > 0)
+         boost::this_thread::sleep(boost::posix_time::milliseconds(describeMs_));
+
+      json::Object description;
+      description["name"] = var.first;
+      description["value"] = std::string("described");
+      return description;
+   }
+
+   int version(SEXP value)
+   {
+      if (mutable_.count(value))
+         return -1;
+      return shared_.count(value) ? 2 : -1;
+   }
+
+   std::size_t size(SEXP value)
+   {
+      std::map<SEXP, std::size_t>::const_iterator it = sizes_.find(value);
+      return it != sizes_.end() ? it->second : 1;
+   }
+
+   void setSize(std::size_t i, std::size_t size)
+   {
+      sizes_[vars_[i].second] = size;
+   }
+
+   void setDescribeMs(int describeMs)
+   {
+      describeMs_ = describeMs;
+   }
+
+   void setMutable(std::size_t i)
+   {
+      mutable_.insert(vars_[i].second);
+   }
+
+   std::vector<r::sexp::Variable>& vars() { return vars_; }
+   DescriptionCache& cache() { return cache_; }
+   int describeCount() const { return describeCount_; }
+
+private:
+   SEXP value(std::size_t i)
+   {
+      return reinterpret_cast<SEXP>(&storage_[i]);
+   }
+
+   std::vector<int> storage_;
+   std::vector<r::sexp::Variable> vars_;
+   std::set<SEXP> shared_;
+   std::set<SEXP> mutable_;
+   std::map<SEXP, std::size_t> sizes_;
+   int describeMs_;
+   int describeCount_;
+   DescriptionCache cache_;
+};
+
+bool isPlaceholder(const json::Value& description)
+{
+   return description.get_obj().find("value")->second.get_str() !=
+          "described";
+}
+
+std::size_t placeholders(const json::Array& descriptions)
+{
+   std::size_t count = 0;
+   for (std::size_t i = 0; i < descriptions.size(); i++)
+   {
+      if (isPlaceholder(descriptions[i]))
+         count++;
+   }
+   return count;
+}
+
+void testMemoization()
+{
+   TestEnvironment env(10, 0);
+   const boost::posix_time::time_duration budget =
+                                    boost::posix_time::seconds(10);
+
+   json::Array descriptions;
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(descriptions.size() == 10);
+   BOOST_ASSERT(placeholders(descriptions) == 0);
+   BOOST_ASSERT(env.describeCount() == 10);
+
+   // unchanged values aren't described again
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(descriptions.size() == 10);
+   BOOST_ASSERT(env.describeCount() == 10);
+
+   // reassigned values are
+   env.assign(3);
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(env.describeCount() == 11);
+
+   // as are values which could have been modified in place
+   env.setMutable(5);
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(env.describeCount() == 12);
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(env.describeCount() == 13);
+
+   // and removed variables
+   env.cache().remove(env.vars()[7].first);
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(env.describeCount() == 15);
+}
+
+void testBudget()
+{
+   TestEnvironment env(20, 10);
+
+   // values which don't fit within the budget get placeholders
+   json::Array descriptions;
+   env.cache().describe(env.vars(),
+                        boost::posix_time::milliseconds(35),
+                        &descriptions);
+   BOOST_ASSERT(descriptions.size() == 20);
+   BOOST_ASSERT(placeholders(descriptions) > 0);
+   BOOST_ASSERT(placeholders(descriptions) < 20);
+   BOOST_ASSERT(env.cache().hasPending());
+
+   // and are described later (skipping those which have since gone)
+   std::size_t pending = placeholders(descriptions);
+   env.vars().pop_back();
+   std::size_t described = 0;
+   json::Value description;
+   while (env.cache().hasPending())
+   {
+      if (env.cache().describeNext(env.vars(), &description))
+      {
+         BOOST_ASSERT(!isPlaceholder(description));
+         described++;
+      }
+   }
+   BOOST_ASSERT(described == pending - 1);
+
+   // after which all of the descriptions are available without describing
+   int describeCount = env.describeCount();
+   descriptions.clear();
+   env.cache().describe(env.vars(),
+                        boost::posix_time::milliseconds(0),
+                        &descriptions);
+   BOOST_ASSERT(placeholders(descriptions) == 0);
+   BOOST_ASSERT(env.describeCount() == describeCount);
+}
+
+// values which are likely to be expensive to describe are deferred before
+// describing them, however large the remaining budget
+void testExpensiveValues()
+{
+   TestEnvironment env(5, 0);
+   const boost::posix_time::time_duration budget =
+                                    boost::posix_time::milliseconds(100);
+
+   // a large value
+   env.setSize(2, 1000000);
+   json::Array descriptions;
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(descriptions.size() == 5);
+   BOOST_ASSERT(placeholders(descriptions) == 1);
+   BOOST_ASSERT(isPlaceholder(descriptions[2]));
+   BOOST_ASSERT(env.describeCount() == 4);
+
+   json::Value description;
+   BOOST_ASSERT(env.cache().describeNext(env.vars(), &description));
+   BOOST_ASSERT(!isPlaceholder(description));
+   BOOST_ASSERT(!env.cache().hasPending());
+
+   // a value whose previous description was slow (described on each
+   // refresh since it could have been modified in place)
+   env.setDescribeMs(30);
+   env.setMutable(4);
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(placeholders(descriptions) == 0);
+   BOOST_ASSERT(env.describeCount() == 6);
+
+   env.setDescribeMs(0);
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(isPlaceholder(descriptions[4]));
+   BOOST_ASSERT(env.describeCount() == 6);
+
+   // (and isn't once a description is quick again)
+   BOOST_ASSERT(env.cache().describeNext(env.vars(), &description));
+   descriptions.clear();
+   env.cache().describe(env.vars(), budget, &descriptions);
+   BOOST_ASSERT(placeholders(descriptions) == 0);
+   BOOST_ASSERT(env.describeCount() == 8);
+}
+
+// the time spent describing the environment after a change is bounded by
+// the budget regardless of the size of the environment (the remaining
+// slack is for the bookkeeping, which is cheap but linear in the size)
+void benchmarkEnvironmentSize()
+{
+   const int kDescribeMs = 2;
+   const boost::posix_time::time_duration budget =
+                                    boost::posix_time::milliseconds(50);
+
+   std::string report = "environment descriptions (" +
+                        safe_convert::numberToString(kDescribeMs) +
+                        "ms per value):";
+
+   for (std::size_t size = 10; size <= 10000; size *= 10)
+   {
+      TestEnvironment env(size, kDescribeMs);
+
+      // the whole environment is new (e.g. after load())
+      boost::posix_time::ptime start =
+                  boost::posix_time::microsec_clock::universal_time();
+      json::Array descriptions;
+      env.cache().describe(env.vars(), budget, &descriptions);
+      boost::posix_time::time_duration initialTime =
+            boost::posix_time::microsec_clock::universal_time() - start;
+      BOOST_ASSERT(descriptions.size() == size);
+      BOOST_ASSERT(initialTime < budget * 2);
+
+      // describe the rest (as is done during idle time; the cost of doing
+      // so isn't what's being measured)
+      env.setDescribeMs(0);
+      json::Value description;
+      while (env.cache().hasPending())
+         env.cache().describeNext(env.vars(), &description);
+      env.setDescribeMs(kDescribeMs);
+
+      // a refresh after one value was assigned
+      env.assign(size / 2);
+      start = boost::posix_time::microsec_clock::universal_time();
+      descriptions.clear();
+      env.cache().describe(env.vars(), budget, &descriptions);
+      boost::posix_time::time_duration refreshTime =
+            boost::posix_time::microsec_clock::universal_time() - start;
+      BOOST_ASSERT(placeholders(descriptions) == 0);
+      BOOST_ASSERT(refreshTime < budget * 2);
+
+      report += " " + safe_convert::numberToString(size) + " values: " +
+                safe_convert::numberToString(
+                                 initialTime.total_milliseconds()) +
+                "ms initial, " +
+                safe_convert::numberToString(
+                                 refreshTime.total_milliseconds()) +
+                "ms refresh;";
+   }
+
+   LOG_INFO_MESSAGE(report);
+}
+
+} // anonymous namespace
+
+void runEnvironmentDescriptionsTests()
+{
+   testMemoization();
+   testBudget();
+   testExpensiveValues();
+   benchmarkEnvironmentSize();
+}
+
+} // namespace environment
+} // namespace modules
+} // namespace session
@@ -15,6 +15,8 @@
 
 #include "EnvironmentMonitor.hpp"
 
+#include <boost/foreach.hpp>
+
 #include <r/RSexp.hpp>
 #include <r/RInterface.hpp>
 #include <session/SessionModuleContext.hpp>
@@ -28,6 +30,45 @@ namespace modules {
 namespace environment {
 namespace {
 
+// the time spent describing variables after a change to the environment
+// (variables which don't fit within it are described during idle time)
+const boost::posix_time::time_duration kDescribeBudget =
+                                       boost::posix_time::milliseconds(100);
+
+// the time spent describing queued variables in each pass during idle time
+const boost::posix_time::time_duration kDescribePendingBudget =
+                                       boost::posix_time::milliseconds(20);
+
+// descriptions are only reused for values which can't have been modified
+// in place: those which are shared (NAMED is 2, so that any modification
+// would duplicate them) and which aren't reference objects
+int valueVersion(SEXP value)
+{
+   switch (TYPEOF(value))
+   {
+   case ENVSXP:
+   case EXTPTRSXP:
+   case WEAKREFSXP:
+   case PROMSXP:
+      return -1;
+   default:
+      return NAMED(value) < 2 ? -1 : NAMED(value);
+   }
+}
+
+// the number of elements in a value (and, for lists, in each of their
+// elements), which is cheap to compute relative to describing it
+std::size_t valueSize(SEXP value)
+{
+   std::size_t size = r::sexp::length(value);
+   if (TYPEOF(value) == VECSXP)
+   {
+      for (int i = 0; i < r::sexp::length(value); i++)
+         size += r::sexp::length(VECTOR_ELT(value, i));
+   }
+   return size;
+}
+
 bool compareVarName(const r::sexp::Variable& var1,
                     const r::sexp::Variable& var2)
 {
@@ -71,23 +112,98 @@ void removeVarFromList(std::vector<r::sexp::Variable>* pEnv,
 
 EnvironmentMonitor::EnvironmentMonitor() :
    initialized_(false),
-   refreshOnInit_(false)
+   refreshOnInit_(false),
+   descriptions_(boost::bind(&EnvironmentMonitor::describeVariable, this, _1),
+                 valueVersion,
+                 valueSize),
+   describingPending_(false)
 {}
 
 void EnvironmentMonitor::enqueRemovedEvent(const r::sexp::Variable& variable)
 {
+   descriptions_.remove(variable.first);
+
    ClientEvent removedEvent(client_events::kEnvironmentRemoved, variable.first);
    module_context::enqueClientEvent(removedEvent);
 }
 
-void EnvironmentMonitor::enqueAssignedEvent(const r::sexp::Variable& variable)
+void EnvironmentMonitor::enqueAssignedEvents(
+                           const std::vector<r::sexp::Variable>& variables)
 {
    // get object info
-   json::Value objInfo = varToJson(getMonitoredEnvironment(), variable);
+   json::Array objInfo;
+   descriptions_.describe(variables, kDescribeBudget, &objInfo);
+   scheduleDescribePending();
+
+   // enque events
+   BOOST_FOREACH(const json::Value& info, objInfo)
+   {
+      ClientEvent assignedEvent(client_events::kEnvironmentAssigned, info);
+      module_context::enqueClientEvent(assignedEvent);
+   }
+}
+
+json::Array EnvironmentMonitor::describeVariables(
+                           const std::vector<r::sexp::Variable>& variables)
+{
+   json::Array listJson;
+   descriptions_.describe(variables, kDescribeBudget, &listJson);
+   scheduleDescribePending();
+   return listJson;
+}
+
+json::Value EnvironmentMonitor::describeVariable(
+                                       const r::sexp::Variable& variable)
+{
+   return varToJson(getMonitoredEnvironment(), variable);
+}
+
+void EnvironmentMonitor::scheduleDescribePending()
+{
+   if (!descriptions_.hasPending() || describingPending_)
+      return;
+
+   describingPending_ = true;
+   module_context::scheduleIncrementalWork(
+            kDescribePendingBudget,
+            boost::bind(&EnvironmentMonitor::describePending, this));
+}
+
+bool EnvironmentMonitor::describePending()
+{
+   if (hasEnvironment())
+   {
+      // list the environment again since it may have changed since the
+      // placeholders were sent (it can't change while this pass runs, so
+      // it's listed once for all of the variables described in it)
+      std::vector<r::sexp::Variable> currentEnv;
+      listEnv(&currentEnv);
+      std::sort(currentEnv.begin(), currentEnv.end(), compareVarName);
+
+      // replace placeholders with descriptions until the budget is spent
+      using namespace boost::posix_time;
+      ptime deadline = microsec_clock::universal_time() +
+                       kDescribePendingBudget;
+      do
+      {
+         json::Value objInfo;
+         if (descriptions_.describeNext(currentEnv, &objInfo))
+         {
+            ClientEvent assignedEvent(client_events::kEnvironmentAssigned,
+                                      objInfo);
+            module_context::enqueClientEvent(assignedEvent);
+         }
+      }
+      while (descriptions_.hasPending() &&
+             microsec_clock::universal_time() < deadline);
+   }
+   else
+   {
+      descriptions_.clear();
+   }
 
-   // enque event
-   ClientEvent assignedEvent(client_events::kEnvironmentAssigned, objInfo);
-   module_context::enqueClientEvent(assignedEvent);
+   describingPending_ = descriptions_.hasPending();
+   return describingPending_;
 }
 
 void EnvironmentMonitor::setMonitoredEnvironment(SEXP pEnvironment,
@@ -98,6 +214,7 @@ void EnvironmentMonitor::setMonitoredEnvironment(SEXP pEnvironment,
       return;
 
    environment_.set(pEnvironment);
+   descriptions_.clear();
 
    // init the environment by doing an initial check for changes
    initialized_ = false;
@@ -220,10 +337,7 @@ void EnvironmentMonitor::checkForChanges()
          }
 
          // fire assigned event for adds, assigns, and promise evaluations
-         std::for_each(addedVars.begin(),
-                       addedVars.end(),
-                       boost::bind(&EnvironmentMonitor::enqueAssignedEvent,
-                                    this, _1));
+         enqueAssignedEvents(addedVars);
       }
    }
 
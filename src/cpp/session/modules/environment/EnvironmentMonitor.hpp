@@ -16,6 +16,8 @@
 #include <r/RSexp.hpp>
 #include <r/RInterface.hpp>
 
+#include "EnvironmentDescriptions.hpp"
+
 namespace session {
 namespace modules {
 namespace environment {
@@ -30,16 +32,23 @@ public:
    SEXP getMonitoredEnvironment();
    bool hasEnvironment();
    void checkForChanges();
+   core::json::Array describeVariables(
+                              const std::vector<r::sexp::Variable>& variables);
 private:
    void listEnv(std::vector<r::sexp::Variable>* pEnvironment);
    void enqueRemovedEvent(const r::sexp::Variable& variable);
-   void enqueAssignedEvent(const r::sexp::Variable& variable);
+   void enqueAssignedEvents(const std::vector<r::sexp::Variable>& variables);
+   core::json::Value describeVariable(const r::sexp::Variable& variable);
+   void scheduleDescribePending();
+   bool describePending();
 
    std::vector<r::sexp::Variable> lastEnv_;
    std::vector<r::sexp::Variable> unevaledPromises_;
    r::sexp::PreservedSEXP environment_;
    bool initialized_;
    bool refreshOnInit_;
+   DescriptionCache descriptions_;
+   bool describingPending_;
 };
 
 } // namespace environment
@@ -144,6 +144,22 @@ json::Value varToJson(SEXP env, const r::sexp::Variable& var)
    return varJson;
 }
 
+// a description of a variable which is still being computed
+json::Value placeholderToJson(const std::string& name)
+{
+   json::Object varJson;
+   varJson["name"] = name;
+   varJson["type"] = std::string("");
+   varJson["is_data"] = false;
+   varJson["value"] = std::string("<Computing...>");
+   varJson["description"] = std::string("");
+   varJson["contents"] = json::Array();
+   varJson["length"] = 0;
+   varJson["size"] = 0;
+   varJson["contents_deferred"] = false;
+   return varJson;
+}
+
 bool functionDiffersFromSource(
       SEXP srcRef,
       const std::string& functionCode)
@@ -21,6 +21,7 @@ namespace modules {
 namespace environment {
 
 core::json::Value varToJson(SEXP env, const r::sexp::Variable& var);
+core::json::Value placeholderToJson(const std::string& name);
 bool isUnevaluatedPromise(SEXP var);
 bool functionDiffersFromSource(SEXP srcRef, const std::string& functionCode);
 void sourceRefToJson(const SEXP srcref, core::json::Object* pObject);
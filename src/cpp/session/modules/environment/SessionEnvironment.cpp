@@ -528,10 +528,7 @@ json::Array environmentListAsJson()
           listEnvironment(env, false, &rProtect, &vars);
 
        // get object details and transform to json
-       std::transform(vars.begin(),
-                      vars.end(),
-                      std::back_inserter(listJson),
-                      boost::bind(varToJson, env, _1));
+       listJson = s_pEnvironmentMonitor->describeVariables(vars);
     }
 
     return listJson;
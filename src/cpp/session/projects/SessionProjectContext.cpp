@@ -413,11 +413,12 @@ void ProjectContext::fileMonitorRegistered(
 void ProjectContext::fileMonitorFilesChanged(
                    const std::vector<core::system::FileChangeEvent>& events)
 {
+   // notify subscribers (first, so that the git status cache is current
+   // when the changed files are decorated)
+   onFilesChanged_(events);
+
    // notify client (gwt)
    module_context::enqueFileChangedEvents(directory(), events);
-
-   // notify subscribers
-   onFilesChanged_(events);
 }
 
 void ProjectContext::fileMonitorTermination(const Error& error)
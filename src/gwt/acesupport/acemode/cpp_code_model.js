@@ -567,6 +567,15 @@ var CppCodeModel = function(session, tokenizer, statePattern, codeBeginPattern)
       this.$buildScopeTreeUpToRow(this.$doc.getLength() - 1);
       return this.$scopes.getScopeList();
    };
+
+   // the scope tree as far as maxrow (scopes still open at maxrow have no
+   // end yet); unlike getScopeTree this doesn't parse the rest of the
+   // document
+   this.getScopeTreeUpToRow = function(maxrow)
+   {
+      this.$buildScopeTreeUpToRow(maxrow);
+      return this.$scopes.getScopeList();
+   };
    
 
    // Given a row with a '{', we look back for the row that provides
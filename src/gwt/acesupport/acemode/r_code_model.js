@@ -1532,6 +1532,15 @@ var RCodeModel = function(doc, tokenizer, statePattern, codeBeginPattern) {
       return this.$scopes.getScopeList();
    };
 
+   // the scope tree as far as maxrow (scopes still open at maxrow have no
+   // end yet); unlike getScopeTree this doesn't parse the rest of the
+   // document
+   this.getScopeTreeUpToRow = function(maxrow)
+   {
+      this.$buildScopeTreeUpToRow(maxrow);
+      return this.$scopes.getScopeList();
+   };
+
    this.findFunctionDefinitionFromUsage = function(usagePos, functionName)
    {
       this.$buildScopeTreeUpToRow(this.$doc.getLength() - 1);
@@ -61,8 +61,6 @@ import org.rstudio.studio.client.dataviewer.DataViewerSatellite;
 import org.rstudio.studio.client.htmlpreview.HTMLPreviewApplication;
 import org.rstudio.studio.client.impl.BrowserFence;
 import org.rstudio.studio.client.notebookv2.CompileNotebookv2OptionsDialog;
-import org.rstudio.studio.client.packrat.ui.PackratActionDialog;
-import org.rstudio.studio.client.packrat.ui.PackratResolveConflictDialog;
 import org.rstudio.studio.client.projects.ui.newproject.NewProjectResources;
 import org.rstudio.studio.client.projects.ui.prefs.ProjectPreferencesDialogResources;
 import org.rstudio.studio.client.rmarkdown.RmdOutputSatellite;
@@ -88,7 +86,6 @@ import org.rstudio.studio.client.workbench.views.source.editors.text.findreplace
 import org.rstudio.studio.client.workbench.views.vcs.common.ChangelistTable;
 import org.rstudio.studio.client.workbench.views.vcs.common.diff.LineTableView;
 import org.rstudio.studio.client.workbench.views.vcs.dialog.DiffFrame;
-import org.rstudio.studio.client.workbench.views.environment.dataimport.ImportFileSettingsDialog;
 
 public class RStudio implements EntryPoint
 {  
@@ -162,36 +159,71 @@ public class RStudio implements EntryPoint
                {
                   ensureStylesInjected();
                   
+                  // each satellite window is its own split point so that
+                  // the main window doesn't download satellite code. the
+                  // main application stays in this fragment since nearly
+                  // every session loads it (and splitting it would add a
+                  // round trip before the workbench appears)
                   String view = Window.Location.getParameter("view");
                   if ("review_changes".equals(view))
                   {
-                     RStudioGinjector.INSTANCE.getVCSApplication().go(
-                           RootLayoutPanel.get(),
-                           dismissProgressAnimation);
+                     GWT.runAsync(new ViewCallback(dismissProgressAnimation)
+                     {
+                        public void onSuccess()
+                        {
+                           RStudioGinjector.INSTANCE.getVCSApplication().go(
+                                 RootLayoutPanel.get(),
+                                 dismissProgressAnimation);
+                        }
+                     });
                   }
                   else if (HTMLPreviewApplication.NAME.equals(view))
                   {
-                     RStudioGinjector.INSTANCE.getHTMLPreviewApplication().go(
-                           RootLayoutPanel.get(),
-                           dismissProgressAnimation);
+                     GWT.runAsync(new ViewCallback(dismissProgressAnimation)
+                     {
+                        public void onSuccess()
+                        {
+                           RStudioGinjector.INSTANCE.getHTMLPreviewApplication().go(
+                                 RootLayoutPanel.get(),
+                                 dismissProgressAnimation);
+                        }
+                     });
                   }
                   else if (ShinyApplicationSatellite.NAME.equals(view))
                   {
-                     RStudioGinjector.INSTANCE.getShinyApplicationSatellite().go(
-                           RootLayoutPanel.get(),
-                           dismissProgressAnimation);
+                     GWT.runAsync(new ViewCallback(dismissProgressAnimation)
+                     {
+                        public void onSuccess()
+                        {
+                           RStudioGinjector.INSTANCE.getShinyApplicationSatellite().go(
+                                 RootLayoutPanel.get(),
+                                 dismissProgressAnimation);
+                        }
+                     });
                   }
                   else if (RmdOutputSatellite.NAME.equals(view))
                   {
-                     RStudioGinjector.INSTANCE.getRmdOutputSatellite().go(
-                           RootLayoutPanel.get(), 
-                           dismissProgressAnimation);
+                     GWT.runAsync(new ViewCallback(dismissProgressAnimation)
+                     {
+                        public void onSuccess()
+                        {
+                           RStudioGinjector.INSTANCE.getRmdOutputSatellite().go(
+                                 RootLayoutPanel.get(), 
+                                 dismissProgressAnimation);
+                        }
+                     });
                   }
                   else if (DataViewerSatellite.NAME.equals(view))
                   {
-                     RStudioGinjector.INSTANCE.getDataViewerSatellite().go(
-                           RootLayoutPanel.get(), 
-                           dismissProgressAnimation);
+                     GWT.runAsync(new ViewCallback(dismissProgressAnimation)
+                     {
+                        public void onSuccess()
+                        {
+                           RStudioGinjector.INSTANCE.getDataViewerSatellite().go(
+                                 RootLayoutPanel.get(), 
+                                 dismissProgressAnimation);
+                        }
+                     });
                   }
                   else
                   {
@@ -205,6 +237,22 @@ public class RStudio implements EntryPoint
       });
    }
    
+   private abstract static class ViewCallback implements RunAsyncCallback
+   {
+      public ViewCallback(Command dismissProgressAnimation)
+      {
+         dismissProgressAnimation_ = dismissProgressAnimation;
+      }
+      
+      public void onFailure(Throwable reason)
+      {
+         dismissProgressAnimation_.execute();
+         Window.alert("Error: " + reason.getMessage());
+      }
+      
+      private final Command dismissProgressAnimation_;
+   }
+   
    private void ensureStylesInjected()
    {
       ThemeResources.INSTANCE.themeStyles().ensureInjected();
@@ -230,7 +278,6 @@ public class RStudio implements EntryPoint
       ApplicationSerializationProgress.ensureStylesInjected();
       HistoryPane.ensureStylesInjected();
       Shelf.ensureStylesInjected();
-      ImportFileSettingsDialog.ensureStylesInjected();
       FindReplaceBar.ensureStylesInjected();
       FontSizer.ensureStylesInjected();
       PreferencesDialogBaseResources.INSTANCE.styles().ensureInjected();
@@ -257,8 +304,6 @@ public class RStudio implements EntryPoint
       AboutDialogContents.ensureStylesInjected();
       CompileNotebookv2OptionsDialog.ensureStylesInjected();
       ActionCenter.ensureStylesInjected();
-      PackratResolveConflictDialog.ensureStylesInjected();
-      PackratActionDialog.ensureStylesInjected();
       LocalRepositoriesWidget.ensureStylesInjected();
       CppCompletionResources.INSTANCE.styles().ensureInjected();
       
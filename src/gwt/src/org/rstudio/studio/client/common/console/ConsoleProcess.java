@@ -14,6 +14,8 @@
  */
 package org.rstudio.studio.client.common.console;
 
+import java.util.ArrayList;
+
 import com.google.gwt.core.client.JsArray;
 import com.google.gwt.event.shared.GwtEvent;
 import com.google.gwt.event.shared.HandlerManager;
@@ -107,12 +109,12 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
                                  // showOnOutput dialog that already has 
                                  // output -- make sure the user sees it
                                  //
-                                 // NOTE: we have to trim the  buffered output
-                                 // for the comparison because when the password
+                                 // NOTE: the server trims the buffered output
+                                 // for this check because when the password
                                  // manager provides a password the back-end
                                  // process sometimes echos a newline back to us
                                  //
-                                 else if (proc.getBufferedOutput().trim().length() > 0)
+                                 else if (proc.hasBufferedOutput())
                                  {
                                     createDialog = true;
                                     showDialog = true;
@@ -132,20 +134,36 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
                                     createDialog = true;
                                  }
                                   
-                                 // take indicated actions
-                                 if (createDialog)
+                                 // take indicated actions (fetching the
+                                 // output the dialog needs to show first)
+                                 if (createDialog && proc.hasBufferedOutput())
+                                 {
+                                    final boolean show = showDialog;
+                                    cproc.getBufferedOutput(
+                                          new ServerRequestCallback<String>()
+                                    {
+                                       @Override
+                                       public void onResponseReceived(
+                                                               String output)
+                                       {
+                                          createProgressDialog(cproc,
+                                                               output,
+                                                               show);
+                                       }
+
+                                       @Override
+                                       public void onError(ServerError error)
+                                       {
+                                          Debug.logError(error);
+                                          createProgressDialog(cproc, "", show);
+                                       }
+                                    });
+                                 }
+                                 else if (createDialog)
                                  {
-                                    ConsoleProgressDialog dlg = new ConsoleProgressDialog(
-                                       proc.getCaption(),
-                                       cproc,
-                                       proc.getBufferedOutput(),
-                                       proc.getExitCode(),
-                                       cryptoServer);
-                                    
-                                    if (showDialog)
-                                       dlg.showModal();
-                                    else
-                                       dlg.showOnOutput();
+                                    createProgressDialog(cproc,
+                                                         "",
+                                                         showDialog);
                                  }
                               }
                               else
@@ -166,6 +184,24 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
                            {
                               Debug.logError(error);
                            }
+
+                           private void createProgressDialog(ConsoleProcess cproc,
+                                                             String output,
+                                                             boolean show)
+                           {
+                              ConsoleProgressDialog dlg =
+                                    new ConsoleProgressDialog(
+                                          proc.getCaption(),
+                                          cproc,
+                                          output,
+                                          proc.getExitCode(),
+                                          cryptoServer);
+
+                              if (show)
+                                 dlg.showModal();
+                              else
+                                 dlg.showOnOutput();
+                           }
                         });
                }
             }
@@ -275,8 +311,7 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
                                              ServerConsoleOutputEvent event)
                {
                   if (event.getProcessHandle().equals(procInfo.getHandle()))
-                     fireEvent(new ConsoleOutputEvent(event.getOutput(),
-                                                      event.getError()));
+                     dispatchServerEvent(event);
                }
             }));
       registrations_.add(eventBus.addHandler(
@@ -288,7 +323,7 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
                                              ServerConsolePromptEvent event)
                {
                   if (event.getProcessHandle().equals(procInfo.getHandle()))
-                     fireEvent(new ConsolePromptEvent(event.getPrompt()));
+                     dispatchServerEvent(event);
                }
             }));
       registrations_.add(eventBus.addHandler(
@@ -303,7 +338,7 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
                      // no more events are coming
                      registrations_.removeHandler();
                      
-                     fireEvent(new ProcessExitEvent(event.getExitCode()));
+                     dispatchServerEvent(event);
                   }
                }
             }
@@ -336,6 +371,37 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
       server_.processReap(procInfo_.getHandle(), requestCallback);
    }
 
+   // Fetches the output buffered by the server (from the first line it
+   // has kept). Processes a client connects to at session init don't come
+   // with their output, so it's only fetched for those which are shown.
+   // Events which arrive while the output is being fetched are held until
+   // it has been returned and those for output it includes are dropped.
+   public void getBufferedOutput(
+                           final ServerRequestCallback<String> requestCallback)
+   {
+      fetchingOutput_ = true;
+      server_.processGetBufferedOutput(
+            procInfo_.getHandle(),
+            procInfo_.getBufferedOutputLine(),
+            new ServerRequestCallback<ProcessBufferedOutput>()
+            {
+               @Override
+               public void onResponseReceived(ProcessBufferedOutput output)
+               {
+                  outputOffset_ = output.getEndOffset();
+                  requestCallback.onResponseReceived(output.getOutput());
+                  dispatchPendingEvents();
+               }
+
+               @Override
+               public void onError(ServerError error)
+               {
+                  requestCallback.onError(error);
+                  dispatchPendingEvents();
+               }
+            });
+   }
+
    @Override
    public HandlerRegistration addConsoleOutputHandler(
                                              ConsoleOutputEvent.Handler handler)
@@ -363,8 +429,50 @@ public class ConsoleProcess implements ConsoleOutputEvent.HasHandlers,
       handlers_.fireEvent(event);
    }
 
+   private void dispatchServerEvent(GwtEvent<?> event)
+   {
+      if (fetchingOutput_)
+      {
+         pendingEvents_.add(event);
+      }
+      else if (event instanceof ServerConsoleOutputEvent)
+      {
+         ServerConsoleOutputEvent outputEvent =
+                                          (ServerConsoleOutputEvent) event;
+         if (outputEvent.getOffset() >= outputOffset_)
+         {
+            fireEvent(new ConsoleOutputEvent(outputEvent.getOutput(),
+                                             outputEvent.getError()));
+         }
+      }
+      else if (event instanceof ServerConsolePromptEvent)
+      {
+         fireEvent(new ConsolePromptEvent(
+                        ((ServerConsolePromptEvent) event).getPrompt()));
+      }
+      else if (event instanceof ServerProcessExitEvent)
+      {
+         fireEvent(new ProcessExitEvent(
+                        ((ServerProcessExitEvent) event).getExitCode()));
+      }
+   }
+
+   private void dispatchPendingEvents()
+   {
+      fetchingOutput_ = false;
+      ArrayList<GwtEvent<?>> pendingEvents = pendingEvents_;
+      pendingEvents_ = new ArrayList<GwtEvent<?>>();
+      for (GwtEvent<?> event : pendingEvents)
+         dispatchServerEvent(event);
+   }
+
    private HandlerRegistrations registrations_ = new HandlerRegistrations();
    private final HandlerManager handlers_ = new HandlerManager(this);
    private final ConsoleServerOperations server_;
    private final ConsoleProcessInfo procInfo_;
+
+   // output events for output before this offset have been fetched
+   private double outputOffset_ = 0;
+   private boolean fetchingOutput_ = false;
+   private ArrayList<GwtEvent<?>> pendingEvents_ = new ArrayList<GwtEvent<?>>();
 }
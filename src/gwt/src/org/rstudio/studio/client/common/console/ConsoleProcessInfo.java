@@ -53,6 +53,18 @@ public class ConsoleProcessInfo extends JavaScriptObject
       return this.buffered_output;
    }-*/;
 
+   // the first line of the output buffered by the server
+   public final native int getBufferedOutputLine() /*-{
+      return this.buffered_output_line;
+   }-*/;
+
+   // processes sent with the session info don't include their buffered
+   // output (see ConsoleProcess.getBufferedOutput), just whether there is
+   // any (other than whitespace)
+   public final native boolean hasBufferedOutput() /*-{
+      return !!this.has_buffered_output;
+   }-*/;
+
    public final Integer getExitCode()
    {
       JsObject self = this.cast();
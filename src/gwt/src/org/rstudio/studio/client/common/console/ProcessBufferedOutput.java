@@ -0,0 +1,36 @@
+/*
+ * ProcessBufferedOutput.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.common.console;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+public class ProcessBufferedOutput extends JavaScriptObject
+{
+   protected ProcessBufferedOutput() {}
+
+   public final native String getOutput() /*-{
+      return this.output;
+   }-*/;
+
+   // the line the output starts at
+   public final native int getStartLine() /*-{
+      return this.start_line;
+   }-*/;
+
+   // the offset of the process output following this output
+   public final native double getEndOffset() /*-{
+      return this.end_offset;
+   }-*/;
+}
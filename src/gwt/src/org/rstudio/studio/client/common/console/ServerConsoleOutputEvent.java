@@ -33,17 +33,22 @@ public class ServerConsoleOutputEvent
       public native final String getHandle() /*-{ return this.handle; }-*/;
       public native final String getOutput() /*-{ return this.output; }-*/;
       public native final boolean isError() /*-{ return this.error; }-*/;
+      public native final double getOffset() /*-{
+         return this.output_offset;
+      }-*/;
    }
 
 
    public ServerConsoleOutputEvent(String procHandle,
                                    String output,
-                                   boolean error)
+                                   boolean error,
+                                   double offset)
    {
 
       procHandle_ = procHandle;
       output_ = output;
       error_ = error;
+      offset_ = offset;
    }
 
    public String getProcessHandle()
@@ -61,6 +66,12 @@ public class ServerConsoleOutputEvent
       return error_;
    }
 
+   // the offset of the output within all of the process's output
+   public double getOffset()
+   {
+      return offset_;
+   }
+
    @Override
    public Type<Handler> getAssociatedType()
    {
@@ -76,6 +87,7 @@ public class ServerConsoleOutputEvent
    private final String procHandle_;
    private final String output_;
    private final boolean error_;
+   private final double offset_;
 
    public static final Type<Handler> TYPE = new Type<Handler>();
 }
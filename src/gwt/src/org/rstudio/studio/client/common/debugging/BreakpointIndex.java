@@ -0,0 +1,166 @@
+/*
+ * BreakpointIndex.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+
+package org.rstudio.studio.client.common.debugging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.rstudio.studio.client.common.FilePathUtils;
+import org.rstudio.studio.client.common.debugging.model.Breakpoint;
+
+// The breakpoints known to the BreakpointManager, indexed by id, by path, and
+// by function (a breakpoint's path and function never change; moves only
+// change its line). Functions are keyed by name and file name rather than
+// full path since call frames only identify functions by file name; lookups
+// by full path filter the bucket.
+public class BreakpointIndex
+{
+   public void add(Breakpoint breakpoint)
+   {
+      breakpoints_.put(breakpoint.getBreakpointId(), breakpoint);
+      addToBucket(breakpointsByPath_, breakpoint.getPath(), breakpoint);
+      addToBucket(breakpointsByFunction_,
+                  functionKey(breakpoint.getFunctionName(),
+                              breakpoint.getPath()),
+                  breakpoint);
+   }
+
+   public void remove(Breakpoint breakpoint)
+   {
+      breakpoints_.remove(breakpoint.getBreakpointId());
+      removeFromBucket(breakpointsByPath_, breakpoint.getPath(), breakpoint);
+      removeFromBucket(breakpointsByFunction_,
+                       functionKey(breakpoint.getFunctionName(),
+                                   breakpoint.getPath()),
+                       breakpoint);
+   }
+
+   public void clear()
+   {
+      breakpoints_.clear();
+      breakpointsByPath_.clear();
+      breakpointsByFunction_.clear();
+   }
+
+   public Breakpoint get(int breakpointId)
+   {
+      return breakpoints_.get(breakpointId);
+   }
+
+   public boolean isEmpty()
+   {
+      return breakpoints_.isEmpty();
+   }
+
+   public int size()
+   {
+      return breakpoints_.size();
+   }
+
+   // all of the breakpoints, in the order they were added
+   public Collection<Breakpoint> all()
+   {
+      return breakpoints_.values();
+   }
+
+   public ArrayList<Breakpoint> getBreakpointsInFile(String path)
+   {
+      ArrayList<Breakpoint> breakpoints = breakpointsByPath_.get(path);
+      return breakpoints == null ? new ArrayList<Breakpoint>() :
+                                   new ArrayList<Breakpoint>(breakpoints);
+   }
+
+   // the breakpoints in the given function; if fullPath is false then
+   // fileName need only match the file name of the breakpoint's path
+   public ArrayList<Breakpoint> getBreakpointsInFunction(String functionName,
+                                                         String fileName,
+                                                         boolean fullPath)
+   {
+      ArrayList<Breakpoint> breakpoints = new ArrayList<Breakpoint>();
+      ArrayList<Breakpoint> bucket = breakpointsByFunction_.get(
+            functionKey(functionName, fileName));
+      if (bucket != null)
+      {
+         for (Breakpoint breakpoint: bucket)
+         {
+            if (isInFunction(breakpoint, functionName, fileName, fullPath))
+               breakpoints.add(breakpoint);
+         }
+      }
+      return breakpoints;
+   }
+
+   public static boolean isInFunction(Breakpoint breakpoint,
+                                      String functionName,
+                                      String fileName,
+                                      boolean fullPath)
+   {
+      if (!breakpoint.getFunctionName().equals(functionName))
+      {
+         return false;
+      }
+      if (fullPath)
+      {
+         return breakpoint.getPath().equals(fileName);
+      }
+      else
+      {
+         return FilePathUtils.friendlyFileName(breakpoint.getPath()).equals(
+               FilePathUtils.friendlyFileName(fileName));
+      }
+   }
+
+   private static void addToBucket(
+         HashMap<String, ArrayList<Breakpoint>> index,
+         String key,
+         Breakpoint breakpoint)
+   {
+      ArrayList<Breakpoint> bucket = index.get(key);
+      if (bucket == null)
+      {
+         bucket = new ArrayList<Breakpoint>();
+         index.put(key, bucket);
+      }
+      bucket.add(breakpoint);
+   }
+
+   private static void removeFromBucket(
+         HashMap<String, ArrayList<Breakpoint>> index,
+         String key,
+         Breakpoint breakpoint)
+   {
+      ArrayList<Breakpoint> bucket = index.get(key);
+      if (bucket == null)
+         return;
+      bucket.remove(breakpoint);
+      if (bucket.isEmpty())
+         index.remove(key);
+   }
+
+   private static String functionKey(String functionName, String path)
+   {
+      return functionName + "|" + FilePathUtils.friendlyFileName(path);
+   }
+
+   private final LinkedHashMap<Integer, Breakpoint> breakpoints_ =
+         new LinkedHashMap<Integer, Breakpoint>();
+   private final HashMap<String, ArrayList<Breakpoint>> breakpointsByPath_ =
+         new HashMap<String, ArrayList<Breakpoint>>();
+   private final HashMap<String, ArrayList<Breakpoint>>
+         breakpointsByFunction_ = new HashMap<String, ArrayList<Breakpoint>>();
+}
@@ -16,6 +16,7 @@
 package org.rstudio.studio.client.common.debugging;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -265,15 +266,7 @@ public class BreakpointManager
    
    public ArrayList<Breakpoint> getBreakpointsInFile(String fileName)
    {
-      ArrayList<Breakpoint> breakpoints = new ArrayList<Breakpoint>();
-      for (Breakpoint breakpoint: breakpoints_)
-      {
-         if (breakpoint.isInFile(fileName))
-         {
-            breakpoints.add(breakpoint);
-         }
-      }
-      return breakpoints;
+      return breakpoints_.getBreakpointsInFile(fileName);
    }
    
    // Event handlers ----------------------------------------------------------
@@ -318,8 +311,8 @@ public class BreakpointManager
                 // up, so fire an event to the editor to show all known 
                 // breakpoints. as new source windows are opened, they will
                 // call getBreakpointsInFile to populate themselves.
-                events_.fireEvent(
-                      new BreakpointsSavedEvent(breakpoints_, true));
+                events_.fireEvent(new BreakpointsSavedEvent(
+                      new ArrayList<Breakpoint>(breakpoints_.all()), true));
              }
           }
    
@@ -328,7 +321,7 @@ public class BreakpointManager
           {
              BreakpointState state = 
                    BreakpointState.create();
-             for (Breakpoint breakpoint: breakpoints_)
+             for (Breakpoint breakpoint: breakpoints_.all())
              {
                 state.addPersistedBreakpoint(breakpoint);
              }
@@ -347,15 +340,18 @@ public class BreakpointManager
    @Override
    public void onConsoleWriteInput(ConsoleWriteInputEvent event)
    {
+      // nothing to replay if there are no breakpoints
+      if (breakpoints_.isEmpty())
+         return;
+      
       // when a file is sourced, replay all the breakpoints in the file.
-      RegExp sourceExp = RegExp.compile("source(.with.encoding)?\\('([^']*)'.*");
-      MatchResult fileMatch = sourceExp.exec(event.getInput());
-      if (fileMatch == null || fileMatch.getGroupCount() == 0)
+      String sourcedFile = getSourcedFile(event.getInput());
+      if (sourcedFile == null)
       {
          return;
       }      
       String path = FilePathUtils.normalizePath(
-            fileMatch.getGroup(2), 
+            sourcedFile, 
             workbench_.getCurrentWorkingDir().getPath());
       resetBreakpointsInPath(path, true);
    }
@@ -411,13 +407,13 @@ public class BreakpointManager
       {
          if (!activeFunctions.contains(function))
          {
-            for (Breakpoint breakpoint: breakpoints_)
+            for (Breakpoint breakpoint: getBreakpointsInFunction(function))
             {
                if (breakpoint.isPendingDebugCompletion() &&
-                   breakpoint.getState() == Breakpoint.STATE_INACTIVE &&
-                   function.containsBreakpoint(breakpoint))
+                   breakpoint.getState() == Breakpoint.STATE_INACTIVE)
                {
                   enableFunctions.add(function);
+                  break;
                }
             }
          }
@@ -478,7 +474,7 @@ public class BreakpointManager
          // Restarting R unloads all the packages, so mark all active package
          // breakpoints as inactive when this happens.
          ArrayList<Breakpoint> breakpoints = new ArrayList<Breakpoint>();
-         for (Breakpoint breakpoint: breakpoints_)
+         for (Breakpoint breakpoint: breakpoints_.all())
          {
             if (breakpoint.isPackageBreakpoint())
             {
@@ -495,14 +491,11 @@ public class BreakpointManager
    private void setFunctionBreakpoints(FileFunction function)
    {
       ArrayList<String> steps = new ArrayList<String>();
-      final ArrayList<Breakpoint> breakpoints = new ArrayList<Breakpoint>();
-      for (Breakpoint breakpoint: breakpoints_)
+      final ArrayList<Breakpoint> breakpoints = 
+            getBreakpointsInFunction(function);
+      for (Breakpoint breakpoint: breakpoints)
       {
-         if (function.containsBreakpoint(breakpoint))
-         {
-            steps.add(breakpoint.getFunctionSteps());
-            breakpoints.add(breakpoint);
-         }
+         steps.add(breakpoint.getFunctionSteps());
       }
       server_.setFunctionBreakpoints(
             function.functionName,
@@ -536,18 +529,19 @@ public class BreakpointManager
       // when a function has had steps added or removed in the editor)
       final ArrayList<Breakpoint> inactiveBreakpoints = 
             new ArrayList<Breakpoint>();
-      int[] inactiveLines = new int[]{};
-      int numLines = 0;
-      for (Breakpoint breakpoint: breakpoints_)
+      for (Breakpoint breakpoint: getBreakpointsInFunction(function))
       {
-         if (function.containsBreakpoint(breakpoint) &&
-             (breakpoint.getState() != Breakpoint.STATE_ACTIVE ||
-              breakpoint.needsUpdatedSteps()))
+         if (breakpoint.getState() != Breakpoint.STATE_ACTIVE ||
+             breakpoint.needsUpdatedSteps())
          {
             inactiveBreakpoints.add(breakpoint);
-            inactiveLines[numLines++] = breakpoint.getLineNumber();
          }
       }
+      int[] inactiveLines = new int[inactiveBreakpoints.size()];
+      for (int i = 0; i < inactiveLines.length; i++)
+      {
+         inactiveLines[i] = inactiveBreakpoints.get(i).getLineNumber();
+      }
       
       // if we found breakpoints that aren't yet active, try to get the 
       // corresponding steps from the function 
@@ -607,7 +601,12 @@ public class BreakpointManager
    private void resetBreakpointsInPath(String path, boolean isFile)
    {
       Set<FileFunction> functionsToBreak = new TreeSet<FileFunction>();
-      for (Breakpoint breakpoint: breakpoints_)
+      
+      // for a single file only the breakpoints in that file need be checked
+      Collection<Breakpoint> candidates = isFile ?
+            breakpoints_.getBreakpointsInFile(path) : breakpoints_.all();
+      
+      for (Breakpoint breakpoint: candidates)
       {
          // set this breakpoint if it's a function breakpoint in the file 
          // (or path) given
@@ -657,11 +656,10 @@ public class BreakpointManager
             // line; if there is, discard this one.
             if (breakpoint.getLineNumber() != steps.getLineNumber())
             {
-               for (Breakpoint possibleDupe: breakpoints_)
+               for (Breakpoint possibleDupe: 
+                        getBreakpointsInFile(breakpoint.getPath()))
                {
-                  if (breakpoint.getPath().equals(
-                         possibleDupe.getPath()) &&
-                      steps.getLineNumber() == 
+                  if (steps.getLineNumber() == 
                          possibleDupe.getLineNumber() &&
                       breakpoint.getBreakpointId() != 
                          possibleDupe.getBreakpointId())
@@ -692,16 +690,19 @@ public class BreakpointManager
             new BreakpointsSavedEvent(breakpoints, saved));
    }
    
+   // the file sourced by the given console input (or null if it doesn't
+   // source a file)
+   public static String getSourcedFile(String input)
+   {
+      MatchResult fileMatch = SOURCE_PATTERN.exec(input);
+      if (fileMatch == null || fileMatch.getGroupCount() == 0)
+         return null;
+      return fileMatch.getGroup(2);
+   }
+   
    private Breakpoint getBreakpoint (int breakpointId)
    {
-      for (Breakpoint breakpoint: breakpoints_)
-      {
-         if (breakpoint.getBreakpointId() == breakpointId)
-         {
-            return breakpoint;
-         }
-      }
-      return null;
+      return breakpoints_.get(breakpointId);
    }
    
    private Breakpoint addBreakpoint (Breakpoint breakpoint)
@@ -711,11 +712,19 @@ public class BreakpointManager
       return breakpoint;
    }
    
+   private ArrayList<Breakpoint> getBreakpointsInFunction(
+         FileFunction function)
+   {
+      return breakpoints_.getBreakpointsInFunction(function.functionName,
+                                                   function.fileName,
+                                                   function.fullPath);
+   }
+   
    private void updatePackageBreakpoints(String packageName, boolean enable)
    {
       Set<FileFunction> functionsToBreak = new TreeSet<FileFunction>();
       ArrayList<Breakpoint> breakpointsToDisable = new ArrayList<Breakpoint>();
-      for (Breakpoint breakpoint: breakpoints_)
+      for (Breakpoint breakpoint: breakpoints_.all())
       {
          if (breakpoint.isPackageBreakpoint() &&
              breakpoint.getPackageName().equals(packageName))
@@ -747,7 +756,7 @@ public class BreakpointManager
    private void clearAllBreakpoints()
    {
       Set<FileFunction> functions = new TreeSet<FileFunction>();
-      for (Breakpoint breakpoint: breakpoints_)
+      for (Breakpoint breakpoint: breakpoints_.all())
       {
          breakpoint.setState(Breakpoint.STATE_REMOVING);
          if (breakpoint.getType () == Breakpoint.TYPE_FUNCTION)
@@ -776,7 +785,8 @@ public class BreakpointManager
       }
 
       server_.removeAllBreakpoints(new VoidServerRequestCallback());
-      notifyBreakpointsSaved(new ArrayList<Breakpoint>(breakpoints_), false);
+      notifyBreakpointsSaved(
+            new ArrayList<Breakpoint>(breakpoints_.all()), false);
       breakpoints_.clear();
       onBreakpointAddOrRemove();
    }
@@ -797,14 +807,13 @@ public class BreakpointManager
    
    private void activateTopLevelBreakpoints(String path)
    {
-      for (Breakpoint breakpoint: breakpoints_)
+      for (Breakpoint breakpoint: getBreakpointsInFile(path))
       {
          ArrayList<Breakpoint> activatedBreakpoints = 
                new ArrayList<Breakpoint>();
          if (breakpoint.isPendingDebugCompletion() &&
              breakpoint.getState() == Breakpoint.STATE_INACTIVE &&
-             breakpoint.getType() == Breakpoint.TYPE_TOPLEVEL &&
-             breakpoint.getPath().equals(path))
+             breakpoint.getType() == Breakpoint.TYPE_TOPLEVEL)
          {
             // If this is a top-level breakpoint in the file that we 
             // just finished sourcing, activate the breakpoint.
@@ -850,19 +859,8 @@ public class BreakpointManager
       
       public boolean containsBreakpoint(Breakpoint breakpoint)
       {
-         if (!breakpoint.getFunctionName().equals(functionName))
-         {
-            return false;
-         }
-         if (fullPath)
-         {
-            return breakpoint.getPath().equals(fileName);
-         }
-         else
-         {
-            return FilePathUtils.friendlyFileName(breakpoint.getPath()).equals(
-                  FilePathUtils.friendlyFileName(fileName));
-         }  
+         return BreakpointIndex.isInFunction(
+               breakpoint, functionName, fileName, fullPath);
       }
       
       @Override
@@ -889,10 +887,13 @@ public class BreakpointManager
    private final GlobalDisplay globalDisplay_;
    private final Commands commands_;
 
-   private ArrayList<Breakpoint> breakpoints_ = new ArrayList<Breakpoint>();
+   private final BreakpointIndex breakpoints_ = new BreakpointIndex();
    private Set<FileFunction> activeFunctions_ = new TreeSet<FileFunction>();
    private String activeSource_;
 
    private boolean breakpointStateDirty_ = false;
+   
+   private static final RegExp SOURCE_PATTERN = 
+         RegExp.compile("source(.with.encoding)?\\('([^']*)'.*");
    private int currentBreakpointId_ = 0;
 }
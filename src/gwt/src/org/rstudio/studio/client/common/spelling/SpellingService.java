@@ -17,6 +17,8 @@ package org.rstudio.studio.client.common.spelling;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import org.rstudio.core.client.js.JsUtil;
@@ -29,6 +31,8 @@ import org.rstudio.studio.client.workbench.prefs.model.UIPrefs;
 
 import com.google.gwt.core.client.JsArrayInteger;
 import com.google.gwt.core.client.JsArrayString;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.event.dom.client.ChangeEvent;
 import com.google.gwt.event.dom.client.ChangeHandler;
@@ -104,7 +108,55 @@ public class SpellingService implements HasChangeHandlers
          return;
       }
       
+      // queue the request -- requests made during the same event loop turn
+      // (e.g. by several editors checking in the background) are sent to
+      // the server as a single batch
+      pendingRequests_.add(new PendingRequest(wordsToCheck, 
+                                              spellCheckerResult, 
+                                              callback));
+      if (!flushScheduled_)
+      {
+         flushScheduled_ = true;
+         Scheduler.get().scheduleDeferred(new ScheduledCommand()
+         {
+            @Override
+            public void execute()
+            {
+               flushPendingRequests();
+            }
+         });
+      }
+   }
+   
+   private void flushPendingRequests()
+   {
+      flushScheduled_ = false;
+      final ArrayList<PendingRequest> requests = pendingRequests_;
+      pendingRequests_ = new ArrayList<PendingRequest>();
+      
+      // collect the distinct words that still aren't cached
+      LinkedHashSet<String> uniqueWords = new LinkedHashSet<String>();
+      for (PendingRequest request : requests)
+      {
+         for (String word : request.getWords())
+         {
+            if (!previousResults_.containsKey(word))
+               uniqueWords.add(word);
+         }
+      }
+      final ArrayList<String> wordsToCheck = 
+                                    new ArrayList<String>(uniqueWords);
+      final HashMap<String,Boolean> results = new HashMap<String,Boolean>();
+      
+      if (wordsToCheck.size() == 0)
+      {
+         for (PendingRequest request : requests)
+            request.complete(results);
+         return;
+      }
+      
       // hit the server
+      final int generation = cacheGeneration_;
       server_.checkSpelling(JsUtil.toJsArrayString(wordsToCheck), 
                             new ServerRequestCallback<JsArrayInteger>() {
 
@@ -112,38 +164,33 @@ public class SpellingService implements HasChangeHandlers
          public void onResponseReceived(JsArrayInteger result)
          {
             // get misspelled indexes
-            ArrayList<Integer> misspelledIndexes = new ArrayList<Integer>();
+            HashSet<Integer> misspelledIndexes = new HashSet<Integer>();
             for (int i=0; i<result.length(); i++)
                misspelledIndexes.add(result.get(i));
             
-            // determine correct/incorrect status and populate result & cache
+            // determine correct/incorrect status
             for (int i=0; i<wordsToCheck.size(); i++)
-            {
-               String word = wordsToCheck.get(i);
-               if (misspelledIndexes.contains(i))
-               {
-                  spellCheckerResult.getIncorrect().add(word);
-                  previousResults_.put(word, false);
-               }
-               else
-               {
-                  spellCheckerResult.getCorrect().add(word);
-                  previousResults_.put(word,  true);
-               }
-            }
+               results.put(wordsToCheck.get(i), !misspelledIndexes.contains(i));
+            
+            // populate the cache (unless it was invalidated while the
+            // request was in flight)
+            if (generation == cacheGeneration_)
+               previousResults_.putAll(results);
             
-            // return result
-            callback.onResponseReceived(spellCheckerResult);     
+            // return results
+            for (PendingRequest request : requests)
+               request.complete(results);
          }
          
          @Override
          public void onError(ServerError error)
          {
-            callback.onError(error);
+            for (PendingRequest request : requests)
+               request.getCallback().onError(error);
          }
       });
    }
-
+   
    public void suggestionList(String word,
                               ServerRequestCallback<JsArrayString> callback)
    {
@@ -173,6 +220,7 @@ public class SpellingService implements HasChangeHandlers
    public void invalidateCache()
    {
       previousResults_.clear();
+      cacheGeneration_++;
       DomEvent.fireNativeEvent(Document.get().createChangeEvent(),
                                handlerManager_);
    }
@@ -189,6 +237,50 @@ public class SpellingService implements HasChangeHandlers
       handlerManager_.fireEvent(event);
    }
    
+   private class PendingRequest
+   {
+      public PendingRequest(
+                     ArrayList<String> words,
+                     SpellCheckerResult result,
+                     ServerRequestCallback<SpellCheckerResult> callback)
+      {
+         words_ = words;
+         result_ = result;
+         callback_ = callback;
+      }
+      
+      public ArrayList<String> getWords()
+      {
+         return words_;
+      }
+      
+      public ServerRequestCallback<SpellCheckerResult> getCallback()
+      {
+         return callback_;
+      }
+      
+      public void complete(HashMap<String,Boolean> results)
+      {
+         for (String word : words_)
+         {
+            // words not in the batch results were cached before it was sent
+            Boolean isCorrect = results.get(word);
+            if (isCorrect == null)
+               isCorrect = previousResults_.get(word);
+            
+            if (isCorrect == null || isCorrect)
+               result_.getCorrect().add(word);
+            else
+               result_.getIncorrect().add(word);
+         }
+         callback_.onResponseReceived(result_);
+      }
+      
+      private final ArrayList<String> words_;
+      private final SpellCheckerResult result_;
+      private final ServerRequestCallback<SpellCheckerResult> callback_;
+   }
+   
    private class CustomDictCallback extends ServerRequestCallback<JsArrayString>
    {
       public CustomDictCallback(ServerRequestCallback<JsArrayString> callback)
@@ -227,6 +319,11 @@ public class SpellingService implements HasChangeHandlers
    
    private HashMap<String,Boolean> previousResults_ = 
                                              new HashMap<String,Boolean>();
+   private int cacheGeneration_ = 0;
+   
+   private ArrayList<PendingRequest> pendingRequests_ = 
+                                             new ArrayList<PendingRequest>();
+   private boolean flushScheduled_ = false;
    
    HandlerManager handlerManager_ = new HandlerManager(this);
    
@@ -47,6 +47,7 @@ public class PackratResolveConflictDialog
                OperationWithInput<PackratConflictResolution> onResolved)
    {
       super("Resolve Conflict", onResolved);
+      ensureStylesInjected();
       
       setOkButtonCaption("Resolve");
          
@@ -122,6 +122,7 @@ import org.rstudio.studio.client.workbench.views.source.model.DataItem;
 import org.rstudio.studio.client.workbench.views.vcs.common.events.AskPassEvent;
 import org.rstudio.studio.client.workbench.views.vcs.common.events.VcsRefreshEvent;
 import org.rstudio.studio.client.workbench.views.vcs.common.events.VcsRefreshEvent.Reason;
+import org.rstudio.studio.client.workbench.views.vcs.common.events.VcsStatusChangedEvent;
 import org.rstudio.studio.client.workbench.views.viewer.events.ViewerNavigateEvent;
 
 import java.util.ArrayList;
@@ -311,6 +312,11 @@ public class ClientEventDispatcher
             eventBus_.fireEvent(new VcsRefreshEvent(Reason.NA,
                                                     data.getInteger("delay")));
          }
+         else if (type.equals(ClientEvent.VcsStatusChanged))
+         {
+            VcsStatusChangedEvent.Data data = event.getData();
+            eventBus_.fireEvent(new VcsStatusChangedEvent(data));
+         }
          else if (type.equals(ClientEvent.AskPass))
          {
             AskPassEvent.Data data = event.getData();
@@ -321,7 +327,8 @@ public class ClientEventDispatcher
             ServerConsoleOutputEvent.Data data = event.getData();
             eventBus_.fireEvent(new ServerConsoleOutputEvent(data.getHandle(),
                                                             data.getOutput(),
-                                                            data.isError()));
+                                                            data.isError(),
+                                                            data.getOffset()));
          }
          else if (type.equals(ClientEvent.ConsoleProcessPrompt))
          {
@@ -46,6 +46,7 @@ import org.rstudio.studio.client.common.codetools.Completions;
 import org.rstudio.studio.client.common.console.ConsoleProcess;
 import org.rstudio.studio.client.common.console.ConsoleProcess.ConsoleProcessFactory;
 import org.rstudio.studio.client.common.console.ConsoleProcessInfo;
+import org.rstudio.studio.client.common.console.ProcessBufferedOutput;
 import org.rstudio.studio.client.common.crypto.PublicKeyInfo;
 import org.rstudio.studio.client.common.debugging.model.Breakpoint;
 import org.rstudio.studio.client.common.debugging.model.FunctionState;
@@ -123,6 +124,7 @@ import org.rstudio.studio.client.workbench.views.packages.model.PackageState;
 import org.rstudio.studio.client.workbench.views.packages.model.PackageUpdate;
 import org.rstudio.studio.client.workbench.views.plots.model.Point;
 import org.rstudio.studio.client.workbench.views.presentation.model.PresentationRPubsSource;
+import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.Profile;
 import org.rstudio.studio.client.workbench.views.source.editors.text.IconvListResult;
 import org.rstudio.studio.client.workbench.views.source.model.CheckForExternalEditResult;
 import org.rstudio.studio.client.workbench.views.source.model.CppCapabilities;
@@ -518,6 +520,19 @@ public class RemoteServer implements Server
       sendRequest(RPC_SCOPE, PROCESS_REAP, handle, requestCallback);
    }
 
+   @Override
+   public void processGetBufferedOutput(
+                  String handle,
+                  int line,
+                  ServerRequestCallback<ProcessBufferedOutput> requestCallback)
+   {
+      JSONArray params = new JSONArray();
+      params.set(0, new JSONString(handle));
+      params.set(1, new JSONNumber(line));
+      sendRequest(RPC_SCOPE, PROCESS_GET_BUFFERED_OUTPUT, params,
+                  requestCallback);
+   }
+
    @Override
    public void processWriteStdin(String handle,
                                  ShellInput input,
@@ -1488,6 +1503,12 @@ public class RemoteServer implements Server
       sendRequest(RPC_SCOPE, REVERT_DOCUMENT, params, requestCallback);
    }
    
+   public void getSourceDocument(String id,
+                                 ServerRequestCallback<SourceDocument> requestCallback)
+   {
+      sendRequest(RPC_SCOPE, GET_SOURCE_DOCUMENT, id, requestCallback);
+   }
+
    public void reopenWithEncoding(String id,
                               String encoding,
                               ServerRequestCallback<SourceDocument> requestCallback)
@@ -1509,6 +1530,25 @@ public class RemoteServer implements Server
    {
       sendRequest(RPC_SCOPE, REMOVE_CACHED_DATA, cacheKey, requestCallback);
    }
+   
+   @Override
+   public void startProfiling(ServerRequestCallback<String> requestCallback)
+   {
+      sendRequest(RPC_SCOPE, START_PROFILING, requestCallback);
+   }
+   
+   @Override
+   public void stopProfiling(ServerRequestCallback<Profile> requestCallback)
+   {
+      sendRequest(RPC_SCOPE, STOP_PROFILING, requestCallback);
+   }
+   
+   @Override
+   public void getProfile(String profilePath,
+                          ServerRequestCallback<Profile> requestCallback)
+   {
+      sendRequest(RPC_SCOPE, GET_PROFILE, profilePath, requestCallback);
+   }
 
    public void duplicateDataView(String caption, String envName,
          String objName, String cacheKey,
@@ -3866,6 +3906,8 @@ public class RemoteServer implements Server
    private static final String PROCESS_START = "process_start";
    private static final String PROCESS_INTERRUPT = "process_interrupt";
    private static final String PROCESS_REAP = "process_reap";
+   private static final String PROCESS_GET_BUFFERED_OUTPUT =
+                                                "process_get_buffered_output";
    private static final String PROCESS_WRITE_STDIN = "process_write_stdin";
 
    private static final String REMOVE_ALL_OBJECTS = "remove_all_objects";
@@ -3940,6 +3982,7 @@ public class RemoteServer implements Server
    private static final String MODIFY_DOCUMENT_PROPERTIES = "modify_document_properties";
    private static final String REVERT_DOCUMENT = "revert_document";
    private static final String REOPEN_WITH_ENCODING = "reopen_with_encoding";
+   private static final String GET_SOURCE_DOCUMENT = "get_source_document";
    private static final String REMOVE_CONTENT_URL = "remove_content_url";
    private static final String DETECT_FREE_VARS = "detect_free_vars";
    private static final String ICONVLIST = "iconvlist";
@@ -3948,6 +3991,9 @@ public class RemoteServer implements Server
    private static final String SET_DOC_ORDER = "set_doc_order";
    private static final String REMOVE_CACHED_DATA = "remove_cached_data";
    private static final String DUPLICATE_DATA_VIEW = "duplicate_data_view";
+   private static final String START_PROFILING = "start_profiling";
+   private static final String STOP_PROFILING = "stop_profiling";
+   private static final String GET_PROFILE = "get_profile";
 
    private static final String GET_RECENT_HISTORY = "get_recent_history";
    private static final String GET_HISTORY_ITEMS = "get_history_items";
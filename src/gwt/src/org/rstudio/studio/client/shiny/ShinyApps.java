@@ -39,8 +39,6 @@ import org.rstudio.studio.client.shiny.events.ShinyAppsDeploymentStartedEvent;
 import org.rstudio.studio.client.shiny.model.ShinyAppsApplicationInfo;
 import org.rstudio.studio.client.shiny.model.ShinyAppsDeploymentRecord;
 import org.rstudio.studio.client.shiny.model.ShinyAppsDirectoryState;
-import org.rstudio.studio.client.shiny.ui.ShinyAppsAccountManagerDialog;
-import org.rstudio.studio.client.shiny.ui.ShinyAppsDeployDialog;
 import org.rstudio.studio.client.workbench.commands.Commands;
 import org.rstudio.studio.client.workbench.events.SessionInitEvent;
 import org.rstudio.studio.client.workbench.events.SessionInitHandler;
@@ -72,7 +70,8 @@ public class ShinyApps implements SessionInitHandler,
                     GlobalDisplay display,
                     DependencyManager dependencyManager,
                     Binder binder, 
-                    ShinyAppsServerOperations server)
+                    ShinyAppsServerOperations server,
+                    ShinyAppsDialogs.Shim dialogs)
                     
    {
       commands_ = commands;
@@ -82,6 +81,7 @@ public class ShinyApps implements SessionInitHandler,
       server_ = server;
       events_ = events;
       satellite_ = satellite;
+      dialogs_ = dialogs;
 
       binder.bind(commands, this);
 
@@ -134,12 +134,8 @@ public class ShinyApps implements SessionInitHandler,
             file = FilePathUtils.friendlyFileName(event.getPath());
          }
 
-         ShinyAppsDeployDialog dialog = 
-               new ShinyAppsDeployDialog(
-                         server_, display_, events_, 
-                         dir, file, lastAccount, lastAppName,
-                         satellite_.isCurrentWindowSatellite());
-         dialog.showModal();
+         dialogs_.showDeployDialog(dir, file, lastAccount, lastAppName,
+                                   satellite_.isCurrentWindowSatellite());
       }
       else if (event.getAction() == ShinyAppsActionEvent.ACTION_TYPE_TERMINATE)
       {
@@ -205,9 +201,7 @@ public class ShinyApps implements SessionInitHandler,
             @Override
             public void execute()
             {
-               ShinyAppsAccountManagerDialog dialog = 
-                     new ShinyAppsAccountManagerDialog(server_, display_);
-               dialog.showModal();
+               dialogs_.showAccountManager();
             }
          });
    }
@@ -425,6 +419,7 @@ public class ShinyApps implements SessionInitHandler,
    private final DependencyManager dependencyManager_;
    private final EventBus events_;
    private final Satellite satellite_;
+   private final ShinyAppsDialogs.Shim dialogs_;
    private boolean launchBrowser_ = false;
    private boolean sessionInited_ = false;
    
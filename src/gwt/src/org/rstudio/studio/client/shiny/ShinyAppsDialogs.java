@@ -0,0 +1,84 @@
+/*
+ * ShinyAppsDialogs.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.shiny;
+
+import org.rstudio.core.client.AsyncShim;
+import org.rstudio.studio.client.RStudioGinjector;
+import org.rstudio.studio.client.application.events.EventBus;
+import org.rstudio.studio.client.common.GlobalDisplay;
+import org.rstudio.studio.client.common.shiny.model.ShinyAppsServerOperations;
+import org.rstudio.studio.client.shiny.ui.ShinyAppsAccountManagerDialog;
+import org.rstudio.studio.client.shiny.ui.ShinyAppsDeployDialog;
+
+import com.google.inject.Inject;
+
+// The ShinyApps dialogs are only needed once the user deploys, so they're
+// loaded on demand rather than with the (eagerly created) ShinyApps 
+// presenter.
+public class ShinyAppsDialogs
+{
+   public abstract static class Shim extends AsyncShim<ShinyAppsDialogs>
+   {
+      public abstract void showDeployDialog(String dir,
+                                            String file,
+                                            String lastAccount,
+                                            String lastAppName,
+                                            boolean isSatellite);
+      
+      public abstract void showAccountManager();
+      
+      @Override
+      protected void onDelayLoadFailure(Throwable reason)
+      {
+         RStudioGinjector.INSTANCE.getGlobalDisplay().showErrorMessage(
+               "Error Loading ShinyApps", reason.getMessage());
+      }
+   }
+   
+   @Inject
+   public ShinyAppsDialogs(ShinyAppsServerOperations server,
+                           GlobalDisplay display,
+                           EventBus events)
+   {
+      server_ = server;
+      display_ = display;
+      events_ = events;
+   }
+   
+   public void showDeployDialog(String dir,
+                                String file,
+                                String lastAccount,
+                                String lastAppName,
+                                boolean isSatellite)
+   {
+      ShinyAppsDeployDialog dialog = 
+            new ShinyAppsDeployDialog(
+                      server_, display_, events_, 
+                      dir, file, lastAccount, lastAppName,
+                      isSatellite);
+      dialog.showModal();
+   }
+   
+   public void showAccountManager()
+   {
+      ShinyAppsAccountManagerDialog dialog = 
+            new ShinyAppsAccountManagerDialog(server_, display_);
+      dialog.showModal();
+   }
+   
+   private final ShinyAppsServerOperations server_;
+   private final GlobalDisplay display_;
+   private final EventBus events_;
+}
@@ -14,6 +14,7 @@
  */
 package org.rstudio.studio.client.workbench;
 
+import com.google.gwt.core.client.JavaScriptObject;
 import com.google.inject.Inject;
 import org.rstudio.core.client.Barrier.Token;
 import org.rstudio.core.client.TimeBufferedCommand;
@@ -37,7 +38,8 @@ public class ClientStateUpdater extends TimeBufferedCommand
     * that handler, add values to the ClientState if they have changed.
     * Values that are unchanged since the last update need not be added,
     * as the values that are put in ClientState will be merged with previous
-    * values.
+    * values. Values identical to those the server last acknowledged are
+    * dropped before sending, so an idle session sends nothing.
     *
     * The SaveClientStateEvent fires either passively (on a timer) or actively
     * (on request [though in fact also on a timer, just a shorter one]). Any
@@ -90,12 +92,22 @@ public class ClientStateUpdater extends TimeBufferedCommand
          return;
       }
 
+      // resend values from a failed update (unless superseded), then drop
+      // anything the server already has so only changes are sent
+      if (unsent_ != null)
+      {
+         state.addUnsent(unsent_);
+         unsent_ = null;
+      }
+      state.removeAcknowledged(acknowledged_);
+
       if (state.isEmpty())
       {
          onComplete(shouldSchedulePassive);
          return;
       }
 
+      final ClientState sent = state;
       server_.updateClientState(
             state.getTemporaryData(),
             state.getPersistentData(),
@@ -104,12 +116,14 @@ public class ClientStateUpdater extends TimeBufferedCommand
                @Override
                public void onError(ServerError error)
                {
+                  unsent_ = sent;
                   onComplete(shouldSchedulePassive);
                }
 
                @Override
                public void onResponseReceived(Void response)
                {
+                  sent.acknowledge(acknowledged_);
                   onComplete(shouldSchedulePassive);
                }
             });
@@ -131,4 +145,9 @@ public class ClientStateUpdater extends TimeBufferedCommand
    private final EventBus events_;
    private final WorkbenchServerOperations server_;
    private Token barrierToken_;
+   
+   // hashes of the last value the server acknowledged for each key
+   private final JavaScriptObject acknowledged_ =
+                                          JavaScriptObject.createObject();
+   private ClientState unsent_;
 }
@@ -44,9 +44,109 @@ public final class ClientState extends JavaScriptObject
             grp[name] = value;
             this.isEmpty = false;
          },
+         get: function(persist) {
+            if (persist == 1)
+               return this.persistent;
+            else if (persist == 2)
+               return this.project_persistent;
+            else
+               return this.temporary;
+         },
+         // calls f(persist, group, name, value) for each value
+         each: function(f) {
+            for (var persist = 0; persist <= 2; persist++) {
+               var base = this.get(persist);
+               for (var group in base) {
+                  if (!base.hasOwnProperty(group))
+                     continue;
+                  for (var name in base[group]) {
+                     if (base[group].hasOwnProperty(name))
+                        f(persist, group, name, base[group][name]);
+                  }
+               }
+            }
+         },
+         key: function(persist, group, name) {
+            return persist + "/" + group + "/" + name;
+         },
+         // compact fingerprint of a value's serialized form
+         hash: function(value) {
+            var json = JSON.stringify(value);
+            if (json === undefined)
+               json = "undefined";
+            var hash = 5381;
+            for (var i = 0; i < json.length; i++)
+               hash = ((hash << 5) + hash + json.charCodeAt(i)) | 0;
+            return json.length + ":" + hash;
+         },
          isEmpty: true
       };
    }-*/;
+   
+   /**
+    * Drop values which are identical to the last value acknowledged by
+    * the server for the same scope and name, so only changes are sent.
+    */
+   public native final void removeAcknowledged(
+                                    JavaScriptObject acknowledged) /*-{
+      var self = this;
+      var empty = true;
+      this.each(function(persist, group, name, value) {
+         var key = self.key(persist, group, name);
+         if (acknowledged[key] === self.hash(value))
+         {
+            var base = self.get(persist);
+            delete base[group][name];
+         }
+         else
+         {
+            empty = false;
+         }
+      });
+      
+      // remove groups left without any values
+      for (var persist = 0; persist <= 2; persist++) {
+         var base = this.get(persist);
+         for (var group in base) {
+            if (!base.hasOwnProperty(group))
+               continue;
+            var hasValues = false;
+            for (var name in base[group]) {
+               if (base[group].hasOwnProperty(name)) {
+                  hasValues = true;
+                  break;
+               }
+            }
+            if (!hasValues)
+               delete base[group];
+         }
+      }
+      
+      this.isEmpty = empty;
+   }-*/;
+   
+   /**
+    * Record the values in this state as received by the server.
+    */
+   public native final void acknowledge(JavaScriptObject acknowledged) /*-{
+      var self = this;
+      this.each(function(persist, group, name, value) {
+         acknowledged[self.key(persist, group, name)] = self.hash(value);
+      });
+   }-*/;
+   
+   /**
+    * Add values from a state which failed to reach the server, unless this
+    * state has a newer value for them.
+    */
+   public native final void addUnsent(ClientState unsent) /*-{
+      var self = this;
+      unsent.each(function(persist, group, name, value) {
+         var grp = self.get(persist)[group];
+         if (!grp || !grp.hasOwnProperty(name))
+            self.set(group, name, value, persist);
+      });
+   }-*/;
 
    public native final JavaScriptObject getTemporaryData() /*-{
       return this.temporary;
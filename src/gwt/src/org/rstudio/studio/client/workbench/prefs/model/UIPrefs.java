@@ -283,6 +283,10 @@ public class UIPrefs extends UIPrefsAccessor implements UiPrefsChangedHandler
          ignoreWordsWithNumbers().setGlobalValue(
                     newUiPrefs.ignoreWordsWithNumbers().getGlobalValue());
          
+         // real time spell checking
+         realTimeSpellChecking().setGlobalValue(
+                    newUiPrefs.realTimeSpellChecking().getGlobalValue());
+         
          // navigate to build error
          navigateToBuildError().setGlobalValue(
                     newUiPrefs.navigateToBuildError().getGlobalValue());
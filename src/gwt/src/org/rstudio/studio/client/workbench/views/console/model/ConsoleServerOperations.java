@@ -15,6 +15,7 @@
 package org.rstudio.studio.client.workbench.views.console.model;
 
 import org.rstudio.studio.client.common.codetools.CodeToolsServerOperations;
+import org.rstudio.studio.client.common.console.ProcessBufferedOutput;
 import org.rstudio.studio.client.common.shell.ShellInput;
 import org.rstudio.studio.client.server.ServerRequestCallback;
 import org.rstudio.studio.client.server.Void;
@@ -41,6 +42,12 @@ public interface ConsoleServerOperations extends CodeToolsServerOperations,
    void processReap(String handle,
                     ServerRequestCallback<Void> requestCallback);
 
+   // output buffered by the server from the start of line onward
+   void processGetBufferedOutput(
+                  String handle,
+                  int line,
+                  ServerRequestCallback<ProcessBufferedOutput> requestCallback);
+
    void processWriteStdin(String handle,
                           ShellInput input,
                           ServerRequestCallback<Void> requestCallback);
@@ -56,6 +56,7 @@ import org.rstudio.studio.client.workbench.views.console.shell.assist.HistoryCom
 import org.rstudio.studio.client.workbench.views.console.shell.assist.RCompletionManager;
 import org.rstudio.studio.client.workbench.views.console.shell.editor.InputEditorDisplay;
 import org.rstudio.studio.client.workbench.views.environment.events.DebugModeChangedEvent;
+import org.rstudio.studio.client.workbench.views.history.model.HistoryArchiveIndex;
 import org.rstudio.studio.client.workbench.views.source.editors.text.DocDisplay;
 import org.rstudio.studio.client.workbench.views.source.editors.text.ace.AceEditorNative;
 
@@ -93,7 +94,8 @@ public class Shell implements ConsoleInputHandler,
                 Session session,
                 Commands commands,
                 UIPrefs uiPrefs, 
-                ErrorManager errorManager)
+                ErrorManager errorManager,
+                HistoryArchiveIndex historyArchiveIndex)
    {
       super() ;
 
@@ -150,7 +152,7 @@ public class Shell implements ConsoleInputHandler,
       addKeyPressPreviewHandler(completionManager) ;
       
       addKeyDownPreviewHandler(new HistoryCompletionManager(
-            view_.getInputEditorDisplay(), server));
+            view_.getInputEditorDisplay(), server, historyArchiveIndex));
 
       uiPrefs.insertMatching().bind(new CommandWithArg<Boolean>() {
          public void execute(Boolean arg) {
@@ -14,12 +14,15 @@
  */
 package org.rstudio.studio.client.workbench.views.console.shell.assist;
 
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.NativeEvent;
 import com.google.gwt.event.dom.client.KeyCodes;
 import com.google.gwt.event.logical.shared.CloseEvent;
 import com.google.gwt.event.logical.shared.CloseHandler;
 import com.google.gwt.user.client.ui.PopupPanel;
 import com.google.gwt.user.client.ui.PopupPanel.PositionCallback;
+import org.rstudio.core.client.BrowseCap;
 import org.rstudio.core.client.Invalidation;
 import org.rstudio.core.client.Invalidation.Token;
 import org.rstudio.core.client.Rectangle;
@@ -30,17 +33,23 @@ import org.rstudio.studio.client.common.SimpleRequestCallback;
 import org.rstudio.studio.client.workbench.views.console.shell.KeyDownPreviewHandler;
 import org.rstudio.studio.client.workbench.views.console.shell.KeyPressPreviewHandler;
 import org.rstudio.studio.client.workbench.views.console.shell.editor.InputEditorDisplay;
+import org.rstudio.studio.client.workbench.views.history.model.HistoryArchiveIndex;
 import org.rstudio.studio.client.workbench.views.history.model.HistoryEntry;
 import org.rstudio.studio.client.workbench.views.history.model.HistoryServerOperations;
 
+import java.util.ArrayList;
+
 public class HistoryCompletionManager implements KeyDownPreviewHandler,
                                                  KeyPressPreviewHandler
 {
    public HistoryCompletionManager(InputEditorDisplay input,
-                                   HistoryServerOperations server)
+                                   HistoryServerOperations server,
+                                   HistoryArchiveIndex index)
    {
       input_ = input;
       server_ = server;
+      index_ = index;
+      index_.ensureLoaded();
    }
 
    public boolean previewKeyDown(NativeEvent event)
@@ -53,6 +62,17 @@ public class HistoryCompletionManager implements KeyDownPreviewHandler,
             beginSuggest();
             return true;
          }
+         // (ctrl+r is bound to executeCode on windows desktop)
+         else if (event.getKeyCode() == 'R'
+                  && event.getCtrlKey()
+                  && !event.getAltKey()
+                  && !event.getShiftKey()
+                  && !BrowseCap.isWindowsDesktop()
+                  && index_.isLoaded())
+         {
+            beginReverseSearch();
+            return true;
+         }
       }
       else
       {
@@ -102,6 +122,30 @@ public class HistoryCompletionManager implements KeyDownPreviewHandler,
             dismiss();
             return true ;
          }
+         else if (reverseSearch_)
+         {
+            // ctrl+r again moves to the next older match
+            if (event.getKeyCode() == 'R' && event.getCtrlKey())
+            {
+               popup_.selectPrev();
+               return true;
+            }
+
+            // plain keystrokes edit the query (i.e. the console input), so
+            // let the editor handle them and then refresh the matches
+            if (!event.getCtrlKey() && !event.getAltKey() && !event.getMetaKey())
+            {
+               Scheduler.get().scheduleDeferred(new ScheduledCommand()
+               {
+                  public void execute()
+                  {
+                     if (reverseSearch_)
+                        updateReverseSearch();
+                  }
+               });
+               return false;
+            }
+         }
 
          dismiss();
          return false;
@@ -112,6 +156,7 @@ public class HistoryCompletionManager implements KeyDownPreviewHandler,
 
    private void dismiss()
    {
+      reverseSearch_ = false;
       if (popup_ != null)
       {
          popup_.hide();
@@ -125,6 +170,15 @@ public class HistoryCompletionManager implements KeyDownPreviewHandler,
       final Token token = historyRequestInvalidation_.getInvalidationToken();
 
       String value = input_.getText();
+
+      // use the client side index if it's available
+      if (index_.isLoaded())
+      {
+         showSuggestions(toCommands(index_.searchByPrefix(value, 20, true)),
+                         "(No matching commands)");
+         return;
+      }
+
       server_.searchHistoryArchiveByPrefix(
             value, 20, true,
             new SimpleRequestCallback<RpcObjectList<HistoryEntry>>()
@@ -135,55 +189,97 @@ public class HistoryCompletionManager implements KeyDownPreviewHandler,
                   if (token.isInvalid())
                      return;
 
-                  if (resp.length() == 0)
-                  {
-                     popup_ = new CompletionListPopupPanel(new String[0]);
-                     popup_.setText("(No matching commands)");
-                  }
-                  else
-                  {
-                     String[] entries = new String[resp.length()];
-                     for (int i = 0; i < entries.length; i++)
-                        entries[i] = resp.get(entries.length - i - 1).getCommand();
-                     popup_ = new CompletionListPopupPanel(entries);
-                  }
+                  showSuggestions(toCommands(resp.toArrayList()),
+                                  "(No matching commands)");
+               }
+            });
+   }
 
-                  popup_.setMaxWidth(input_.getBounds().getWidth());
-                  popup_.setPopupPositionAndShow(new PositionCallback()
-                  {
-                     public void setPosition(int offsetWidth, int offsetHeight)
-                     {
-                        Rectangle bounds = input_.getBounds();
+   private void beginReverseSearch()
+   {
+      historyRequestInvalidation_.invalidate();
+      reverseSearch_ = true;
+      updateReverseSearch();
+   }
 
-                        int top = bounds.getTop() - offsetHeight;
-                        if (top < 20)
-                           top = bounds.getBottom();
+   private void updateReverseSearch()
+   {
+      String query = input_.getText();
+      String[] commands = query.trim().length() == 0 ?
+            new String[0] :
+            toCommands(index_.search(query, 20));
+      showSuggestions(commands, "(reverse-i-search) No matching commands");
+   }
 
-                        popup_.selectLast();
-                        popup_.setPopupPosition(bounds.getLeft() - 6, top);
-                     }
-                  });
+   // entries are newest first; the popup shows the newest entry at the
+   // bottom (adjacent to the console input)
+   private String[] toCommands(ArrayList<HistoryEntry> entries)
+   {
+      String[] commands = new String[entries.size()];
+      for (int i = 0; i < commands.length; i++)
+         commands[i] = entries.get(commands.length - i - 1).getCommand();
+      return commands;
+   }
 
-                  popup_.addSelectionCommitHandler(new SelectionCommitHandler<String>()
-                  {
-                     public void onSelectionCommit(SelectionCommitEvent<String> e)
-                     {
-                        input_.setText(e.getSelectedItem());
-                        dismiss();
-                     }
-                  });
-                  
-                  popup_.addCloseHandler(new CloseHandler<PopupPanel>() {
-
-                     @Override
-                     public void onClose(CloseEvent<PopupPanel> event)
-                     {
-                        popup_ = null;          
-                     }
-                     
-                  });
-               }
-            });
+   private void showSuggestions(String[] entries, String emptyText)
+   {
+      // replace any existing popup (without leaving reverse search mode)
+      if (popup_ != null)
+      {
+         CompletionListPopupPanel popup = popup_;
+         popup_ = null;
+         popup.hide();
+      }
+
+      if (entries.length == 0)
+      {
+         popup_ = new CompletionListPopupPanel(new String[0]);
+         popup_.setText(emptyText);
+      }
+      else
+      {
+         popup_ = new CompletionListPopupPanel(entries);
+      }
+
+      final CompletionListPopupPanel popup = popup_;
+      popup.setMaxWidth(input_.getBounds().getWidth());
+      popup.setPopupPositionAndShow(new PositionCallback()
+      {
+         public void setPosition(int offsetWidth, int offsetHeight)
+         {
+            Rectangle bounds = input_.getBounds();
+
+            int top = bounds.getTop() - offsetHeight;
+            if (top < 20)
+               top = bounds.getBottom();
+
+            popup.selectLast();
+            popup.setPopupPosition(bounds.getLeft() - 6, top);
+         }
+      });
+
+      popup.addSelectionCommitHandler(new SelectionCommitHandler<String>()
+      {
+         public void onSelectionCommit(SelectionCommitEvent<String> e)
+         {
+            input_.setText(e.getSelectedItem());
+            dismiss();
+         }
+      });
+      
+      popup.addCloseHandler(new CloseHandler<PopupPanel>() {
+
+         @Override
+         public void onClose(CloseEvent<PopupPanel> event)
+         {
+            if (popup_ == popup)
+            {
+               popup_ = null;
+               reverseSearch_ = false;
+            }
+         }
+         
+      });
    }
 
    public boolean previewKeyPress(char charCode)
@@ -194,5 +290,7 @@ public class HistoryCompletionManager implements KeyDownPreviewHandler,
    private CompletionListPopupPanel popup_;
    private final InputEditorDisplay input_;
    private final HistoryServerOperations server_;
+   private final HistoryArchiveIndex index_;
+   private boolean reverseSearch_ = false;
    private final Invalidation historyRequestInvalidation_ = new Invalidation();
 }
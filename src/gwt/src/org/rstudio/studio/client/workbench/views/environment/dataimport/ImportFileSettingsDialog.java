@@ -79,6 +79,7 @@ public class ImportFileSettingsDialog extends ModalDialog<ImportFileSettingsDial
 
       Resources res = GWT.create(Resources.class);
       styles_ = res.styles();
+      styles_.ensureInjected();
 
       MyBinder binder = GWT.create(MyBinder.class);
       widget_ = binder.createAndBindUi(this);
@@ -15,9 +15,12 @@
 package org.rstudio.studio.client.workbench.views.files.ui;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
 
 import org.rstudio.core.client.Debug;
 import org.rstudio.core.client.StringUtil;
@@ -33,7 +36,12 @@ import org.rstudio.studio.client.workbench.views.files.model.FileChange;
 import com.google.gwt.cell.client.CheckboxCell;
 import com.google.gwt.cell.client.ImageResourceCell;
 import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.Style.Unit;
+import com.google.gwt.dom.client.TableRowElement;
+import com.google.gwt.event.dom.client.ScrollEvent;
+import com.google.gwt.event.dom.client.ScrollHandler;
 import com.google.gwt.resources.client.ImageResource;
 import com.google.gwt.safehtml.shared.SafeHtmlBuilder;
 import com.google.gwt.safehtml.shared.SafeHtmlUtils;
@@ -44,12 +52,15 @@ import com.google.gwt.user.cellview.client.ColumnSortList;
 import com.google.gwt.user.cellview.client.TextColumn;
 import com.google.gwt.user.cellview.client.ColumnSortEvent.Handler;
 import com.google.gwt.user.client.ui.Composite;
+import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.HasVerticalAlignment;
 import com.google.gwt.user.client.ui.ScrollPanel;
+import com.google.gwt.user.client.ui.SimplePanel;
 import com.google.gwt.view.client.DefaultSelectionEventManager;
 import com.google.gwt.view.client.ListDataProvider;
 import com.google.gwt.view.client.MultiSelectionModel;
 import com.google.gwt.view.client.ProvidesKey;
+import com.google.gwt.view.client.Range;
 
 public class FilesList extends Composite
 {
@@ -87,10 +98,23 @@ public class FilesList extends Composite
       // initialize sorting
       addColumnSortHandler();
       
-      // enclose in scroll panel
+      // enclose in scroll panel (the spacers stand in for the rows outside
+      // of the rendered window when the list is virtualized)
+      FlowPanel rowsPanel = new FlowPanel();
+      rowsPanel.add(topSpacer_);
+      rowsPanel.add(filesCellTable_);
+      rowsPanel.add(bottomSpacer_);
       scrollPanel_ = new ScrollPanel();
       initWidget(scrollPanel_);
-      scrollPanel_.setWidget(filesCellTable_);   
+      scrollPanel_.setWidget(rowsPanel);
+      scrollPanel_.addScrollHandler(new ScrollHandler()
+      {
+         @Override
+         public void onScroll(ScrollEvent event)
+         {
+            updateVisibleRange();
+         }
+      });
    }
    
    private Column<FileSystemItem, Boolean> addSelectionColumn()
@@ -307,6 +331,7 @@ public class FilesList extends Composite
             
             // delegate the sort
             sortHandler_.onColumnSort(event);
+            rowIndex_ = null;
          }
          
          private native final JsArray<ColumnSortInfo> newSortOrderArray()
@@ -345,12 +370,12 @@ public class FilesList extends Composite
       containingPath_ = containingPath;
       parentPath_ = containingPath_.getParentPath();
       
-      // set page size (+1 for parent path)
-      filesCellTable_.setPageSize(files.length() + 1);
+      // changes queued for the previous listing no longer apply
+      pendingChanges_.clear();
       
-      // get underlying list
-      List<FileSystemItem> fileList = dataProvider_.getList();
-      fileList.clear();
+      // build the new list (+1 for parent path)
+      ArrayList<FileSystemItem> fileList = 
+                        new ArrayList<FileSystemItem>(files.length() + 1);
             
       // add entry for parent path if we have one
       if (parentPath_ != null)
@@ -359,6 +384,9 @@ public class FilesList extends Composite
       // add files to table
       for (int i=0; i<files.length(); i++)
          fileList.add(files.get(i));
+      
+      scrollPanel_.scrollToTop();
+      setFiles(fileList);
            
       // apply sort list
       applyColumnSortList();
@@ -385,79 +413,176 @@ public class FilesList extends Composite
    public ArrayList<FileSystemItem> getSelectedFiles()
    {    
       // first make sure there are no leftover items in the selected set
-      Set<FileSystemItem> selectedSet = selectionModel_.getSelectedSet();
-      selectedSet.retainAll(dataProvider_.getList());
+      ArrayList<FileSystemItem> selectedFiles = new ArrayList<FileSystemItem>();
+      for (FileSystemItem item : selectionModel_.getSelectedSet())
+      {
+         if (rowForFile(item) != -1)
+            selectedFiles.add(item);
+      }
    
-      return new ArrayList<FileSystemItem>(selectedSet);
+      return selectedFiles;
    }
    
    public void updateWithAction(FileChange viewAction)
    {        
-      final FileSystemItem file = viewAction.getFile();
-      final List<FileSystemItem> files = getFiles();
-      switch(viewAction.getType())
+      // file changes tend to arrive in bursts (e.g. a checkout or build
+      // touching many files) so queue them and apply them as a batch
+      pendingChanges_.add(viewAction);
+      if (!applyChangesScheduled_)
       {
-      case FileChange.ADD:
-         if (file.getParentPath().equalTo(containingPath_))
+         applyChangesScheduled_ = true;
+         Scheduler.get().scheduleDeferred(new ScheduledCommand()
          {
-            int row = rowForFile(file);
-            if (row == -1)
+            @Override
+            public void execute()
             {
-               files.add(file);
-               filesCellTable_.setPageSize(files.size() + 1);
+               applyPendingChanges();
             }
-            else
+         });
+      }
+   }
+   
+   public void renameFile(FileSystemItem from, FileSystemItem to)
+   {
+      applyPendingChanges();
+      
+      int index = rowForFile(from);
+      if (index != -1)
+      {
+         selectNone();
+         getFiles().set(index, to);
+         rowIndex_ = null;
+      }
+   }
+   
+   private void applyPendingChanges()
+   {
+      applyChangesScheduled_ = false;
+      if (pendingChanges_.isEmpty())
+         return;
+      
+      // reduce the changes to the net set of files to add/update and files
+      // to remove (later changes to a path supersede earlier ones)
+      LinkedHashMap<String, FileSystemItem> upserts = 
+                              new LinkedHashMap<String, FileSystemItem>();
+      HashSet<String> deletes = new HashSet<String>();
+      for (FileChange change : pendingChanges_)
+      {
+         FileSystemItem file = change.getFile();
+         String path = fileKey(file);
+         switch(change.getType())
+         {
+         case FileChange.ADD:
+            // since we eagerly perform renames at the client UI layer 
+            // then sometimes an "added" file is really just a rename. in 
+            // this case the file already exists due to the eager rename in 
+            // the client but still needs its metadata updated (which is 
+            // what an update does)
+            if (file.getParentPath().equalTo(containingPath_))
             {
-               // since we eagerly perform renames at the client UI
-               // layer then sometimes an "added" file is really just
-               // a rename. in this case the file already exists due
-               // to the eager rename in the client but still needs its
-               // metadata updated
-               files.set(row, file);
+               upserts.put(path, file);
+               deletes.remove(path);
             }
+            break;
+            
+         case FileChange.MODIFIED:
+            if (upserts.containsKey(path) || rowForFile(file) != -1)
+               upserts.put(path, file);
+            break;
+            
+         case FileChange.DELETE:
+            upserts.remove(path);
+            deletes.add(path);
+            break;
+            
+         default:
+            Debug.log("Unexpected file change type: " + change.getType());
+            break;
          }
-         break;
-         
-      case FileChange.MODIFIED:
-         {
-            int row = rowForFile(file);
-            if (row != -1)
-               files.set(row, file);
-         }
-         break;
- 
-      case FileChange.DELETE:
+      }
+      pendingChanges_.clear();
+      
+      if (upserts.isEmpty() && deletes.isEmpty())
+         return;
+      
+      // copy the rows which aren't changing (these remain in sorted order)
+      List<FileSystemItem> files = getFiles();
+      ArrayList<FileSystemItem> kept = 
+               new ArrayList<FileSystemItem>(files.size() + upserts.size());
+      for (FileSystemItem item : files)
+      {
+         String path = fileKey(item);
+         if (item == parentPath_ || 
+             (!deletes.contains(path) && !upserts.containsKey(path)))
          {
-            int row = rowForFile(file);
-            if (row != -1)
-            {
-               files.remove(row);
-               
-               // if a file is deleted and then re-added within the same
-               // event loop (as occurs when gedit saves a text file) the
-               // table doesn't always update correctly (it has a duplicate
-               // of the item deleted / re-added). the call to flush overcomes
-               // this issue
-               dataProvider_.flush();
-            }
+            kept.add(item);
          }
-         break;
+      }
       
-      default:
-         Debug.log("Unexpected file change type: " + viewAction.getType());
-         
-         break;
+      // merge in the added/updated rows at their sorted positions
+      ArrayList<FileSystemItem> added = 
+                        new ArrayList<FileSystemItem>(upserts.values());
+      Comparator<FileSystemItem> comparator = getActiveComparator();
+      if (comparator == null)
+      {
+         kept.addAll(added);
+         setFiles(kept);
+      }
+      else
+      {
+         Collections.sort(added, comparator);
+         setFiles(merge(kept, added, comparator));
       }
    }
    
-   public void renameFile(FileSystemItem from, FileSystemItem to)
+   private static ArrayList<FileSystemItem> merge(
+                                 ArrayList<FileSystemItem> a,
+                                 ArrayList<FileSystemItem> b,
+                                 Comparator<FileSystemItem> comparator)
    {
-      int index = getFiles().indexOf(from);
-      if (index != -1)
+      ArrayList<FileSystemItem> merged = 
+                        new ArrayList<FileSystemItem>(a.size() + b.size());
+      int i = 0, j = 0;
+      while (i < a.size() && j < b.size())
       {
-         selectNone();
-         getFiles().set(index, to);
+         if (comparator.compare(b.get(j), a.get(i)) < 0)
+            merged.add(b.get(j++));
+         else
+            merged.add(a.get(i++));
       }
+      while (i < a.size())
+         merged.add(a.get(i++));
+      while (j < b.size())
+         merged.add(b.get(j++));
+      return merged;
+   }
+   
+   // the comparator for the primary sort column (mirrors the ordering
+   // applied by the column sort handler)
+   @SuppressWarnings("unchecked")
+   private Comparator<FileSystemItem> getActiveComparator()
+   {
+      ColumnSortList sortList = filesCellTable_.getColumnSortList();
+      if (sortList.size() == 0)
+         return null;
+      
+      com.google.gwt.user.cellview.client.ColumnSortList.ColumnSortInfo 
+                                                sortInfo = sortList.get(0);
+      final Comparator<FileSystemItem> comparator = sortHandler_.getComparator(
+                  (Column<FileSystemItem, ?>) sortInfo.getColumn());
+      if (comparator == null)
+         return null;
+      
+      if (sortInfo.isAscending())
+         return comparator;
+      
+      return new Comparator<FileSystemItem>() {
+         @Override
+         public int compare(FileSystemItem arg0, FileSystemItem arg1)
+         {
+            return -comparator.compare(arg0, arg1);
+         }
+      };
    }
    
    private List<FileSystemItem> getFiles()
@@ -465,14 +590,80 @@ public class FilesList extends Composite
       return dataProvider_.getList();
    }
    
+   private void setFiles(ArrayList<FileSystemItem> files)
+   {
+      dataProvider_.setList(files);
+      sortHandler_.setList(dataProvider_.getList());
+      rowIndex_ = null;
+      updateVisibleRange();
+   }
+   
    private int rowForFile(FileSystemItem file)
    {
-      List<FileSystemItem> files = getFiles();
-      for (int i=0; i<files.size(); i++)
-         if (files.get(i).equalTo(file))
-            return i ;
+      // (re)build the path index if the list has changed
+      if (rowIndex_ == null)
+      {
+         List<FileSystemItem> files = getFiles();
+         rowIndex_ = new HashMap<String, Integer>(files.size());
+         for (int i=0; i<files.size(); i++)
+            rowIndex_.put(fileKey(files.get(i)), i);
+      }
+      
+      Integer row = rowIndex_.get(fileKey(file));
+      return row != null ? row : -1;
+   }
+   
+   // files with the same key are equalTo one another (which compares paths
+   // case insensitively and distinguishes files from directories)
+   private static String fileKey(FileSystemItem file)
+   {
+      return (file.isDirectory() ? "d:" : "f:") + 
+             file.getPath().toLowerCase();
+   }
+   
+   // render all rows of small listings; for large listings render only the
+   // rows in (and near) the viewport
+   private void updateVisibleRange()
+   {
+      int count = getFiles().size();
+      if (count <= VIRTUALIZE_THRESHOLD)
+      {
+         setSpacerHeights(0, 0);
+         setVisibleRange(0, count + 1);
+         return;
+      }
+      
+      // measure the row height from a rendered row
+      if (filesCellTable_.getVisibleItemCount() > 0)
+      {
+         TableRowElement row = filesCellTable_.getRowElement(0);
+         if (row != null && row.getOffsetHeight() > 0)
+            rowHeight_ = row.getOffsetHeight();
+      }
+      
+      int viewportHeight = scrollPanel_.getOffsetHeight();
+      int rows = viewportHeight > 0 ? (viewportHeight / rowHeight_) + 1 
+                                    : DEFAULT_WINDOW_ROWS;
+      int first = scrollPanel_.getVerticalScrollPosition() / rowHeight_;
+      first = Math.max(0, Math.min(count - 1, first - OVERSCAN_ROWS));
+      int length = Math.min(count - first, rows + (2 * OVERSCAN_ROWS));
       
-      return -1;
+      setSpacerHeights(first * rowHeight_, 
+                       (count - first - length) * rowHeight_);
+      setVisibleRange(first, length);
+   }
+   
+   private void setVisibleRange(int start, int length)
+   {
+      Range range = filesCellTable_.getVisibleRange();
+      if (range.getStart() != start || range.getLength() != length)
+         filesCellTable_.setVisibleRange(start, length);
+   }
+   
+   private void setSpacerHeights(int top, int bottom)
+   {
+      topSpacer_.setHeight(top + "px");
+      bottomSpacer_.setHeight(bottom + "px");
    }
    
    private void applyColumnSortList()
@@ -556,6 +747,10 @@ public class FilesList extends Composite
     }
     
    
+   private static final int VIRTUALIZE_THRESHOLD = 500;
+   private static final int DEFAULT_WINDOW_ROWS = 50;
+   private static final int OVERSCAN_ROWS = 20;
+   
    private FileSystemItem containingPath_ = null;
    private FileSystemItem parentPath_ = null;
   
@@ -566,6 +761,13 @@ public class FilesList extends Composite
    private boolean activeSortColumnAscending_ = true;
    private boolean applyingProgrammaticSort_ = false;
    
+   private HashMap<String, Integer> rowIndex_ = null;
+   private ArrayList<FileChange> pendingChanges_ = new ArrayList<FileChange>();
+   private boolean applyChangesScheduled_ = false;
+   private int rowHeight_ = 22;
+   private final SimplePanel topSpacer_ = new SimplePanel();
+   private final SimplePanel bottomSpacer_ = new SimplePanel();
+   
    
    private final MultiSelectionModel<FileSystemItem> selectionModel_;
    private final ListDataProvider<FileSystemItem> dataProvider_;
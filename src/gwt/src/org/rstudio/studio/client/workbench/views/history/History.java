@@ -28,6 +28,7 @@ import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.user.client.Command;
 import com.google.inject.Inject;
 
+import org.rstudio.core.client.CommandWithArg;
 import org.rstudio.core.client.StringUtil;
 import org.rstudio.core.client.TimeBufferedCommand;
 import org.rstudio.core.client.command.CommandBinder;
@@ -59,6 +60,7 @@ import org.rstudio.studio.client.workbench.views.history.events.FetchCommandsEve
 import org.rstudio.studio.client.workbench.views.history.events.FetchCommandsHandler;
 import org.rstudio.studio.client.workbench.views.history.events.HistoryEntriesAddedEvent;
 import org.rstudio.studio.client.workbench.views.history.events.HistoryEntriesAddedHandler;
+import org.rstudio.studio.client.workbench.views.history.model.HistoryArchiveIndex;
 import org.rstudio.studio.client.workbench.views.history.model.HistoryEntry;
 import org.rstudio.studio.client.workbench.views.history.model.HistoryServerOperations;
 import org.rstudio.studio.client.workbench.views.source.events.InsertSourceEvent;
@@ -98,7 +100,10 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
 
       void setRecentCommands(ArrayList<HistoryEntry> commands, 
                              boolean scrollToBottom);
-      void addRecentCommands(ArrayList<HistoryEntry> entries, boolean top);
+      void addRecentCommands(ArrayList<HistoryEntry> entries);
+      void setRecentCommandsPage(int generation,
+                                 ArrayList<HistoryEntry> entries);
+      void onRecentCommandsPageFailed();
       
       int getRecentCommandsScrollPosition();
       void setRecentCommandsScrollPosition(int scrollPosition);
@@ -109,9 +114,9 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
       void truncateRecentCommands(int maxCommands);   
       
       ArrayList<String> getSelectedCommands();
+      void withSelectedCommands(CommandWithArg<ArrayList<String>> onReady);
       ArrayList<Long> getSelectedCommandIndexes();
       HandlerRegistration addFetchCommandsHandler(FetchCommandsHandler handler);
-      void setMoreCommands(long moreCommands);
       SearchBoxDisplay getSearchBox();
       Mode getMode();
       void scrollToBottom();
@@ -152,6 +157,14 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
          final String query = searchQuery_;
          if (searchQuery_ != null && searchQuery_.length() > 0)
          {
+            // use the client side index if it's available
+            if (archiveIndex_.isLoaded())
+            {
+               view_.showSearchResults(
+                     query, archiveIndex_.search(query, COMMAND_CHUNK_SIZE));
+               return;
+            }
+
             server_.searchHistoryArchive(
                   searchQuery_, COMMAND_CHUNK_SIZE,
                   new SimpleRequestCallback<RpcObjectList<HistoryEntry>>()
@@ -178,6 +191,12 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
          {
             view_.dismissSearchResults();
          }
+         else if (archiveIndex_.isLoaded())
+         {
+            // the client side index is fast enough to search on every
+            // keystroke so there's no need to buffer
+            performAction(false);
+         }
          else
          {
             nudge();
@@ -196,6 +215,7 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
    @Inject
    public History(final Display view,
                   HistoryServerOperations server,
+                  HistoryArchiveIndex archiveIndex,
                   final GlobalDisplay globalDisplay,
                   ConsoleDispatcher consoleDispatcher,
                   EventBus events,
@@ -208,6 +228,7 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
       events_ = events;
       globalDisplay_ = globalDisplay;
       consoleDispatcher_ = consoleDispatcher;
+      archiveIndex_ = archiveIndex;
       searchCommand_ = new SearchCommand(session);
       session_ = session;
 
@@ -217,6 +238,7 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
       view_.addFetchCommandsHandler(this);
 
       server_ = server;
+      archiveIndex_.ensureLoaded();
       events_.addHandler(ConsoleResetHistoryEvent.TYPE, new ConsoleResetHistoryHandler()
       {
          @Override
@@ -228,25 +250,16 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
             ArrayList<HistoryEntry> commands = toRecentCommandsList(
                                                          event.getHistory());
             
-            // determine entries to add
-            int preservedScrollPos = -1;
-            int startIndex = Math.max(0, commands.size() - COMMAND_CHUNK_SIZE);
-            
             // if we are updating an existing context then preserve the 
-            // history position and the scroll position
+            // scroll position
+            int preservedScrollPos = -1;
             if (event.getPreserveUIContext())
-            {
                preservedScrollPos = view_.getRecentCommandsScrollPosition();
-               
-               if (historyPosition_ < commands.size())
-                  startIndex = new Long(historyPosition_).intValue();
-            }
             
-            // set recent commands
-            ArrayList<HistoryEntry> subList = new ArrayList<HistoryEntry>();
-            subList.addAll(commands.subList(startIndex, commands.size()));
+            // set recent commands (the view only renders the rows in view
+            // so we can hand it the entire history)
             boolean scrollToBottom = preservedScrollPos == -1;
-            setRecentCommands(subList, scrollToBottom);
+            view_.setRecentCommands(commands, scrollToBottom);
             
             // restore scroll position if requested
             if (preservedScrollPos != -1)
@@ -267,7 +280,7 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
       {
          public void onHistoryEntriesAdded(HistoryEntriesAddedEvent event)
          {
-            view_.addRecentCommands(toList(event.getEntries()), false);
+            view_.addRecentCommands(toList(event.getEntries()));
             view_.truncateRecentCommands(
                         session_.getSessionInfo().getConsoleHistoryCapacity());
          }
@@ -318,7 +331,7 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
          public void onResponseReceived(RpcObjectList<HistoryEntry> response)
          {
             ArrayList<HistoryEntry> result = toRecentCommandsList(response);
-            setRecentCommands(result, true);
+            view_.setRecentCommands(result, true);
          }
 
          @Override
@@ -330,20 +343,6 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
       });
    }
 
-   
-   private void setRecentCommands(ArrayList<HistoryEntry> commands,
-                                  boolean scrollToBottom)
-   {  
-      view_.setRecentCommands(commands, scrollToBottom);
-
-      if (commands.size() > 0)
-         historyPosition_ = commands.get(0).getIndex();
-      else
-         historyPosition_ = 0;
-      
-      view_.setMoreCommands(Math.min(historyPosition_, COMMAND_CHUNK_SIZE));
-   }
-   
 
    private class KeyHandler implements KeyDownHandler
    {
@@ -423,9 +422,8 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
       
    }
 
-   private String getSelectedCommands()
+   private String joinCommands(ArrayList<String> commands)
    {
-      ArrayList<String> commands = view_.getSelectedCommands();
       StringBuilder cmd = new StringBuilder();
       for (String command : commands)
       {
@@ -439,18 +437,31 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
    @Handler
    void onHistorySendToConsole()
    {
-      String commandString = getSelectedCommands();
-      commandString = StringUtil.chomp(commandString);
-      if (commandString.length() > 0 )
-         events_.fireEvent(new SendToConsoleEvent(commandString, false));
+      // the selection may include rows which have yet to be loaded
+      view_.withSelectedCommands(new CommandWithArg<ArrayList<String>>()
+      {
+         public void execute(ArrayList<String> commands)
+         {
+            String commandString = joinCommands(commands);
+            commandString = StringUtil.chomp(commandString);
+            if (commandString.length() > 0 )
+               events_.fireEvent(new SendToConsoleEvent(commandString, false));
+         }
+      });
    }
 
    @Handler
    void onHistorySendToSource()
    {
-      String commandString = getSelectedCommands();
-      if (commandString.length() > 0)
-         events_.fireEvent(new InsertSourceEvent(commandString, true));
+      view_.withSelectedCommands(new CommandWithArg<ArrayList<String>>()
+      {
+         public void execute(ArrayList<String> commands)
+         {
+            String commandString = joinCommands(commands);
+            if (commandString.length() > 0)
+               events_.fireEvent(new InsertSourceEvent(commandString, true));
+         }
+      });
    }
    
    void onSearchHistory()
@@ -621,63 +632,35 @@ public class History extends BasePresenter implements SelectionCommitHandler<Voi
       onHistorySendToConsole();
    }
 
-   public void onFetchCommands(FetchCommandsEvent event)
+   public void onFetchCommands(final FetchCommandsEvent event)
    {
-      if (fetchingMoreCommands_)
-         return;
-
-      if (historyPosition_ == 0)
-      {
-         // This should rarely/never happen
-         return;
-      }
-
-      long startIndex = Math.max(0, historyPosition_ - COMMAND_CHUNK_SIZE);
-      long endIndex = historyPosition_;
-      server_.getHistoryItems(startIndex, endIndex,
+      server_.getHistoryItems(event.getStartIndex(), event.getEndIndex(),
             new SimpleRequestCallback<RpcObjectList<HistoryEntry>>()
             {
                @Override
                public void onResponseReceived(RpcObjectList<HistoryEntry> response)
                {
-                  ArrayList<HistoryEntry> entries = 
-                                                toRecentCommandsList(response);
-                  view_.addRecentCommands(entries, true);
-                  fetchingMoreCommands_ = false;
-
-                  if (response.length() > 0)
-                     historyPosition_ = response.get(0).getIndex();
-                  else
-                     historyPosition_ = 0; // this shouldn't happen
-
-                  view_.setMoreCommands(Math.min(historyPosition_,
-                                                 COMMAND_CHUNK_SIZE));
+                  view_.setRecentCommandsPage(event.getGeneration(),
+                                              toRecentCommandsList(response));
                }
 
                @Override
                public void onError(ServerError error)
                {
                   super.onError(error);
-                  fetchingMoreCommands_ = false;
+                  view_.onRecentCommandsPageFailed();
                }
             });
    }
-   
-  
-
-   // This field indicates how far into the history stream we have reached.
-   // When this value becomes 0, that means there is no more history to go
-   // fetch.
-   private long historyPosition_ = 0;
 
    private static final int COMMAND_CHUNK_SIZE = 300;
    private static final int CONTEXT_LINES = 50;
-   private boolean fetchingMoreCommands_ = false;
    private final Display view_;
    private final EventBus events_;
    private final GlobalDisplay globalDisplay_;
    private final SearchCommand searchCommand_;
    private HistoryServerOperations server_;
+   private final HistoryArchiveIndex archiveIndex_;
    private final Session session_;
    private final ConsoleDispatcher consoleDispatcher_;
 }
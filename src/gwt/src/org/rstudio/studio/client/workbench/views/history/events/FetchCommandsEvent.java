@@ -20,6 +20,30 @@ public class FetchCommandsEvent extends GwtEvent<FetchCommandsHandler>
 {
    public static final Type<FetchCommandsHandler> TYPE =
          new Type<FetchCommandsHandler>();
+
+   public FetchCommandsEvent(int startIndex, int endIndex, int generation)
+   {
+      startIndex_ = startIndex;
+      endIndex_ = endIndex;
+      generation_ = generation;
+   }
+
+   public int getStartIndex()
+   {
+      return startIndex_;
+   }
+
+   public int getEndIndex()
+   {
+      return endIndex_;
+   }
+
+   // identifies the table contents the indexes refer to (passed back with
+   // the rows so that rows for outdated requests can be dropped)
+   public int getGeneration()
+   {
+      return generation_;
+   }
    
    @Override
    public Type<FetchCommandsHandler> getAssociatedType()
@@ -32,4 +56,8 @@ public class FetchCommandsEvent extends GwtEvent<FetchCommandsHandler>
    {
       handler.onFetchCommands(this);
    }
+
+   private final int startIndex_; // inclusive
+   private final int endIndex_;   // exclusive
+   private final int generation_;
 }
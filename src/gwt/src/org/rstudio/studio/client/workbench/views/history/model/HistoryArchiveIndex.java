@@ -0,0 +1,394 @@
+/*
+ * HistoryArchiveIndex.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.history.model;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayInteger;
+import com.google.gwt.core.client.JsArrayString;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.rstudio.core.client.jsonrpc.RpcObjectList;
+import org.rstudio.studio.client.application.events.EventBus;
+import org.rstudio.studio.client.server.ServerError;
+import org.rstudio.studio.client.server.ServerRequestCallback;
+import org.rstudio.studio.client.workbench.views.history.events.HistoryEntriesAddedEvent;
+import org.rstudio.studio.client.workbench.views.history.events.HistoryEntriesAddedHandler;
+
+import java.util.ArrayList;
+
+// Client side index over the entire history archive. The archive is pulled
+// down in chunks the first time the index is requested and then kept up to
+// date as new entries are added, so that searches (including incremental
+// searches which run on every keystroke) never need a server round trip.
+//
+// Commands are indexed by their distinct trigrams (for substring queries)
+// and by their leading trigram (for prefix queries). Posting lists are kept
+// in ascending archive order so they can be walked newest first.
+@Singleton
+public class HistoryArchiveIndex implements HistoryEntriesAddedHandler
+{
+   @Inject
+   public HistoryArchiveIndex(HistoryServerOperations server, EventBus events)
+   {
+      server_ = server;
+      store_ = Store.create();
+      events.addHandler(HistoryEntriesAddedEvent.TYPE, this);
+   }
+
+   // begin loading the archive (no-op if already loaded or loading)
+   public void ensureLoaded()
+   {
+      if (loaded_ || loading_)
+         return;
+
+      loading_ = true;
+      loadChunk(0);
+   }
+
+   public boolean isLoaded()
+   {
+      return loaded_;
+   }
+
+   public int size()
+   {
+      return store_.size();
+   }
+
+   // return up to maxEntries entries containing all of the terms in query
+   // (newest first, mirroring searchHistoryArchive)
+   public ArrayList<HistoryEntry> search(String query, int maxEntries)
+   {
+      ArrayList<HistoryEntry> entries = new ArrayList<HistoryEntry>();
+      JsArrayString terms = toTerms(query);
+      if (terms.length() == 0)
+         return entries;
+
+      JsArrayInteger matches = store_.search(terms, 0, store_.size(),
+                                             maxEntries);
+      for (int i = 0; i < matches.length(); i++)
+         entries.add(store_.getEntry(matches.get(i)));
+      return entries;
+   }
+
+   // return up to maxEntries entries starting with prefix (newest first,
+   // mirroring searchHistoryArchiveByPrefix)
+   public ArrayList<HistoryEntry> searchByPrefix(String prefix,
+                                                 int maxEntries,
+                                                 boolean uniqueOnly)
+   {
+      ArrayList<HistoryEntry> entries = new ArrayList<HistoryEntry>();
+      JsArrayInteger matches = store_.searchByPrefix(prefix.trim(),
+                                                     maxEntries,
+                                                     uniqueOnly);
+      for (int i = 0; i < matches.length(); i++)
+         entries.add(store_.getEntry(matches.get(i)));
+      return entries;
+   }
+
+   @Override
+   public void onHistoryEntriesAdded(HistoryEntriesAddedEvent event)
+   {
+      // entries added before loading starts will be in the loaded archive
+      if (!loaded_ && !loading_)
+         return;
+
+      // the indexes in the event refer to the console history rather than
+      // the archive, so assign archive indexes as we append
+      RpcObjectList<HistoryEntry> entries = event.getEntries();
+      for (int i = 0; i < entries.length(); i++)
+      {
+         HistoryEntry entry = entries.get(i);
+         if (loaded_)
+            store_.add(entry.getCommand(), entry.getTimestamp().getTime());
+         else
+            pendingEntries_.add(entry);
+      }
+   }
+
+   // split the query into terms the same way searchHistoryArchive does
+   // (boost::char_separator's defaults): whitespace separates terms and is
+   // dropped, and each punctuation character is a term of its own
+   private static JsArrayString toTerms(String query)
+   {
+      JsArrayString terms = JavaScriptObject.createArray().cast();
+      StringBuilder term = new StringBuilder();
+      for (int i = 0; i < query.length(); i++)
+      {
+         char ch = query.charAt(i);
+         if (isSpace(ch) || isPunct(ch))
+         {
+            if (term.length() > 0)
+               terms.push(term.toString());
+            term.setLength(0);
+            if (isPunct(ch))
+               terms.push(String.valueOf(ch));
+         }
+         else
+         {
+            term.append(ch);
+         }
+      }
+      if (term.length() > 0)
+         terms.push(term.toString());
+      return terms;
+   }
+
+   // equivalent to isspace and ispunct in the C locale
+   private static boolean isSpace(char ch)
+   {
+      return ch == ' ' || (ch >= '\t' && ch <= '\r');
+   }
+
+   private static boolean isPunct(char ch)
+   {
+      return ch > ' ' && ch < 0x7F && !Character.isLetterOrDigit(ch);
+   }
+
+   // append entries added while the archive was loading (skipping any which
+   // were written to the archive in time to be in the final chunk)
+   private void addPendingEntries()
+   {
+      for (HistoryEntry entry : pendingEntries_)
+      {
+         String command = entry.getCommand();
+         double timestamp = entry.getTimestamp().getTime();
+         if (!store_.containsEntry(command, timestamp))
+            store_.add(command, timestamp);
+      }
+      pendingEntries_.clear();
+   }
+
+   private void loadChunk(final int start)
+   {
+      server_.getHistoryArchiveItems(
+            start,
+            start + LOAD_CHUNK_SIZE,
+            new ServerRequestCallback<RpcObjectList<HistoryEntry>>()
+            {
+               @Override
+               public void onResponseReceived(
+                                    RpcObjectList<HistoryEntry> response)
+               {
+                  int length = response.length();
+                  store_.addAll(response);
+                  if (length < LOAD_CHUNK_SIZE)
+                  {
+                     addPendingEntries();
+                     loading_ = false;
+                     loaded_ = true;
+                  }
+                  else
+                  {
+                     loadChunk(start + length);
+                  }
+               }
+
+               @Override
+               public void onError(ServerError error)
+               {
+                  // leave the index unloaded; callers fall back to the
+                  // server side search
+                  store_ = Store.create();
+                  pendingEntries_.clear();
+                  loading_ = false;
+               }
+            });
+   }
+
+   private static class Store extends JavaScriptObject
+   {
+      protected Store()
+      {
+      }
+
+      public static final native Store create() /*-{
+         return {
+            commands: [],
+            timestamps: [],
+            grams: {},
+            prefixes: {}
+         };
+      }-*/;
+
+      public final native int size() /*-{
+         return this.commands.length;
+      }-*/;
+
+      public final native HistoryEntry getEntry(int index) /*-{
+         return {
+            index: index,
+            timestamp: this.timestamps[index],
+            command: this.commands[index]
+         };
+      }-*/;
+
+      public final native void addAll(RpcObjectList<HistoryEntry> entries) /*-{
+         var commands = entries.command || [];
+         var timestamps = entries.timestamp || [];
+         for (var i = 0; i < commands.length; i++)
+            this.@org.rstudio.studio.client.workbench.views.history.model.HistoryArchiveIndex.Store::add(Ljava/lang/String;D)(commands[i], timestamps[i]);
+      }-*/;
+
+      public final native void add(String command, double timestamp) /*-{
+         var index = this.commands.length;
+         this.commands.push(command);
+         this.timestamps.push(timestamp);
+
+         // index each distinct trigram once per command
+         var seen = {};
+         for (var i = 0; i + 3 <= command.length; i++)
+         {
+            var gram = "_" + command.substring(i, i + 3);
+            if (seen[gram])
+               continue;
+            seen[gram] = true;
+            var postings = this.grams[gram];
+            if (postings)
+               postings.push(index);
+            else
+               this.grams[gram] = [index];
+         }
+
+         // index the leading trigram for prefix lookups
+         var key = "_" + command.substring(0, 3);
+         var prefixed = this.prefixes[key];
+         if (prefixed)
+            prefixed.push(index);
+         else
+            this.prefixes[key] = [index];
+      }-*/;
+
+      // whether the entry is in the store (entries are appended in time
+      // order, so only the trailing entries need to be examined)
+      public final native boolean containsEntry(String command,
+                                                double timestamp) /*-{
+         for (var i = this.commands.length - 1; i >= 0; i--)
+         {
+            if (this.timestamps[i] < timestamp)
+               return false;
+            if (this.timestamps[i] === timestamp &&
+                this.commands[i] === command)
+               return true;
+         }
+         return false;
+      }-*/;
+
+      // search entries in [start, end) for those containing every term,
+      // walking newest first and stopping after max matches
+      public final native JsArrayInteger search(JsArrayString terms,
+                                                int start,
+                                                int end,
+                                                int max) /*-{
+         var commands = this.commands;
+         var result = [];
+
+         // use the shortest posting list among all of the trigrams in all of
+         // the terms as the candidate set (if no term is long enough to have
+         // a trigram then we need to scan everything)
+         var candidates = null;
+         for (var t = 0; t < terms.length; t++)
+         {
+            var term = terms[t];
+            for (var i = 0; i + 3 <= term.length; i++)
+            {
+               var postings = this.grams["_" + term.substring(i, i + 3)];
+               if (!postings)
+                  return result;
+               if (candidates === null || postings.length < candidates.length)
+                  candidates = postings;
+            }
+         }
+
+         var matches = function(command) {
+            for (var t = 0; t < terms.length; t++)
+               if (command.indexOf(terms[t]) === -1)
+                  return false;
+            return true;
+         };
+
+         if (candidates === null)
+         {
+            for (var i = end - 1; i >= start && result.length < max; i--)
+               if (matches(commands[i]))
+                  result.push(i);
+         }
+         else
+         {
+            for (var i = candidates.length - 1;
+                 i >= 0 && result.length < max;
+                 i--)
+            {
+               var index = candidates[i];
+               if (index >= end)
+                  continue;
+               if (index < start)
+                  break;
+               if (matches(commands[index]))
+                  result.push(index);
+            }
+         }
+
+         return result;
+      }-*/;
+
+      public final native JsArrayInteger searchByPrefix(String prefix,
+                                                        int max,
+                                                        boolean unique) /*-{
+         var commands = this.commands;
+         var result = [];
+         var matched = {};
+
+         var consider = function(index) {
+            var command = commands[index];
+            if (command.lastIndexOf(prefix, 0) !== 0)
+               return;
+            if (unique)
+            {
+               if (matched["_" + command])
+                  return;
+               matched["_" + command] = true;
+            }
+            result.push(index);
+         };
+
+         if (prefix.length >= 3)
+         {
+            var candidates = this.prefixes["_" + prefix.substring(0, 3)] || [];
+            for (var i = candidates.length - 1;
+                 i >= 0 && result.length < max;
+                 i--)
+               consider(candidates[i]);
+         }
+         else
+         {
+            for (var i = commands.length - 1; i >= 0 && result.length < max; i--)
+               consider(i);
+         }
+
+         return result;
+      }-*/;
+   }
+
+   private static final int LOAD_CHUNK_SIZE = 5000;
+
+   private final HistoryServerOperations server_;
+   private Store store_;
+   private final ArrayList<HistoryEntry> pendingEntries_ =
+                                             new ArrayList<HistoryEntry>();
+   private boolean loading_ = false;
+   private boolean loaded_ = false;
+}
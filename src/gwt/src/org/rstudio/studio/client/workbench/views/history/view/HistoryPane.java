@@ -19,7 +19,6 @@ import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.Style.Unit;
-import com.google.gwt.dom.client.TableRowElement;
 import com.google.gwt.event.dom.client.*;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.event.shared.GwtEvent;
@@ -31,6 +30,7 @@ import com.google.gwt.resources.client.CssResource;
 import com.google.gwt.resources.client.ImageResource;
 import com.google.gwt.user.client.ui.*;
 import com.google.inject.Inject;
+import org.rstudio.core.client.CommandWithArg;
 import org.rstudio.core.client.dom.DomUtils;
 import org.rstudio.core.client.events.HasSelectionCommitHandlers;
 import org.rstudio.core.client.events.SelectionCommitEvent;
@@ -63,8 +63,8 @@ public class HistoryPane extends WorkbenchPane
    interface Styles extends CssResource
    {
       String selected();
-      String loadMore();
       String historyTable();
+      String virtualHistoryTable();
 
       String command();
       String timestamp();
@@ -98,7 +98,7 @@ public class HistoryPane extends WorkbenchPane
    public void onBeforeUnselected()
    {
       super.onBeforeUnselected();
-      recentScrollPanel_.saveScrollPosition();
+      commandList_.saveScrollPosition();
    }
 
    @Override
@@ -110,7 +110,7 @@ public class HistoryPane extends WorkbenchPane
          @Override
          public void execute()
          {
-            recentScrollPanel_.restoreScrollPosition();
+            commandList_.restoreScrollPosition();
          }
       });
    }
@@ -126,39 +126,37 @@ public class HistoryPane extends WorkbenchPane
    {
       mainPanel_ = new LayoutPanel();
 
-      VerticalPanel vpanel = new VerticalPanel();
-      vpanel.setSize("100%", "100%");
-
-      loadMore_ = new Anchor("Load more entries...", "javascript:return false");
-      loadMore_.setWidth("100%");
-      loadMore_.setVisible(false);
-      loadMore_.setStyleName(styles_.loadMore());
-      vpanel.add(loadMore_);
-      loadMore_.addClickHandler(new ClickHandler()
+      // the recent commands list is virtual: it only renders the rows in
+      // view and fetches other rows from the server as they scroll in
+      commandList_ = new VirtualHistoryTable(
+            styles_.command(),
+            styles_.timestamp(),
+            styles_.selected(),
+            new VirtualHistoryTable.RowRequester()
+            {
+               public void requestRows(int start, int end, int generation)
+               {
+                  fireEvent(new FetchCommandsEvent(start, end, generation));
+               }
+            });
+      commandList_.addClickHandler(new ClickHandler()
       {
          public void onClick(ClickEvent event)
          {
-            fireEvent(new FetchCommandsEvent());
+            if (doubleClick_.checkForDoubleClick(event.getNativeEvent()))
+            {
+               if (event.getNativeEvent().getShiftKey())
+                  commands_.historySendToSource().execute();
+               else
+                  commands_.historySendToConsole().execute();
+            }
          }
+         private final DoubleClickState doubleClick_ = new DoubleClickState();
       });
 
-      commandList_ = createHistoryTable(TimestampMode.NONE);
-      vpanel.add(commandList_);
-
-      recentScrollPanel_ = new BottomScrollPanel() {
-         @Override
-         protected void onLoad()
-         {
-            super.onLoad();
-         }
-      };
-      recentScrollPanel_.getElement().getStyle().setProperty("overflowX", "hidden");
-      recentScrollPanel_.setWidget(vpanel);
-      commandList_.setOwningScrollPanel(recentScrollPanel_);
-
-      mainPanel_.add(recentScrollPanel_);
-      mainPanel_.setWidgetTopBottom(recentScrollPanel_, 0, Unit.PX, 0, Unit.PX);
-      mainPanel_.setWidgetLeftRight(recentScrollPanel_, 0, Unit.PX, 0, Unit.PX);
+      mainPanel_.add(commandList_);
+      mainPanel_.setWidgetTopBottom(commandList_, 0, Unit.PX, 0, Unit.PX);
+      mainPanel_.setWidgetLeftRight(commandList_, 0, Unit.PX, 0, Unit.PX);
 
       searchLabel_ = new Label();
       searchLabel_.setHeight("");
@@ -247,7 +245,7 @@ public class HistoryPane extends WorkbenchPane
 
    private Widget getWidgetForMode(Mode mode)
    {
-      return (mode == Mode.Recent) ? recentScrollPanel_ :
+      return (mode == Mode.Recent) ? commandList_ :
       (mode == Mode.SearchResults) ? searchResults_ :
       (mode == Mode.CommandContext) ? contextResults_ : null;
    }
@@ -333,7 +331,7 @@ public class HistoryPane extends WorkbenchPane
    public void scrollToBottom()
    {
       assert mode_ == Mode.Recent;
-      recentScrollPanel_.scrollToBottom();
+      commandList_.scrollToBottom();
    }
 
    private HistoryTable createHistoryTable(TimestampMode timestampMode)
@@ -366,15 +364,14 @@ public class HistoryPane extends WorkbenchPane
    public void setRecentCommands(ArrayList<HistoryEntry> entries,
                                  boolean scrollToBottom)
    {
-      commandList_.clear();
-      commandList_.addItems(entries, true);
+      commandList_.setEntries(entries);
       if (scrollToBottom)
       {
          Scheduler.get().scheduleDeferred(new ScheduledCommand()
          {
             public void execute()
             {
-               recentScrollPanel_.scrollToBottom();
+               commandList_.scrollToBottom();
             }
          });
       }
@@ -382,8 +379,7 @@ public class HistoryPane extends WorkbenchPane
    
    public void truncateRecentCommands(int maxCommands)
    {
-      commandList_.removeTopRows(
-            Math.max(0, commandList_.getRowCount() - maxCommands));
+      commandList_.truncate(maxCommands);
    }
    
    public ArrayList<Integer> getRecentCommandsSelectedRowIndexes()
@@ -396,34 +392,20 @@ public class HistoryPane extends WorkbenchPane
       return commandList_.getRowCount();
    }
 
-   public void setMoreCommands(long moreCommands)
+   public void addRecentCommands(ArrayList<HistoryEntry> entries)
    {
-      if (moreCommands <= 0)
-         loadMore_.setVisible(false);
-      else
-      {
-         loadMore_.setVisible(true);
-         loadMore_.setText("Load " + moreCommands + " more entries");
-      }
+      commandList_.appendEntries(entries);
    }
 
-   public void addRecentCommands(ArrayList<HistoryEntry> entries, boolean top)
+   public void setRecentCommandsPage(int generation,
+                                     ArrayList<HistoryEntry> entries)
    {
-      TableRowElement topRow = null;
-      if (top)
-         topRow = commandList_.getTopRow();
-
-      commandList_.addItems(entries, top);
+      commandList_.setPage(generation, entries);
+   }
 
-      if (top)
-      {
-         if (topRow == null)
-            recentScrollPanel_.scrollToBottom();
-         else
-            recentScrollPanel_.setVerticalScrollPosition(topRow.getOffsetTop());
-      }
-      else
-         recentScrollPanel_.onContentSizeChanged();
+   public void onRecentCommandsPageFailed()
+   {
+      commandList_.clearPending();
    }
 
    public ArrayList<String> getSelectedCommands()
@@ -431,6 +413,14 @@ public class HistoryPane extends WorkbenchPane
       return getActiveHistory().getSelectedValues();
    }
 
+   public void withSelectedCommands(CommandWithArg<ArrayList<String>> onReady)
+   {
+      if (mode_ == Mode.Recent)
+         commandList_.withSelectedValues(onReady);
+      else
+         onReady.execute(getSelectedCommands());
+   }
+
    public ArrayList<Long> getSelectedCommandIndexes()
    {
       return getActiveHistory().getSelectedCommandIndexes();
@@ -465,12 +455,12 @@ public class HistoryPane extends WorkbenchPane
    
    public int getRecentCommandsScrollPosition()
    {
-      return recentScrollPanel_.getVerticalScrollPosition();
+      return commandList_.getVerticalScrollPosition();
    }
    
    public void setRecentCommandsScrollPosition(int scrollPosition)
    {
-      recentScrollPanel_.setVerticalScrollPosition(scrollPosition);
+      commandList_.setVerticalScrollPosition(scrollPosition);
    }
 
    private HasHistory getActiveHistory()
@@ -623,15 +613,13 @@ public class HistoryPane extends WorkbenchPane
       return addHandler(handler, SelectionCommitEvent.getType());
    }
 
-   private HistoryTable commandList_;
-   private BottomScrollPanel recentScrollPanel_;
+   private VirtualHistoryTable commandList_;
 
    private Label searchLabel_;
    private Label contextLabel_;
    private HistoryTableWithToolbar contextResults_;
    private HistoryTableWithToolbar searchResults_;
    private final Commands commands_;
-   private Anchor loadMore_;
    private SearchWidget searchWidget_;
    private Styles styles_ = ((Resources) GWT.create(Resources.class)).styles();
    private LayoutPanel mainPanel_;
@@ -0,0 +1,810 @@
+/*
+ * VirtualHistoryTable.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.history.view;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.DivElement;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.NativeEvent;
+import com.google.gwt.dom.client.Style.Cursor;
+import com.google.gwt.dom.client.Style.Position;
+import com.google.gwt.dom.client.Style.Unit;
+import com.google.gwt.dom.client.TableCellElement;
+import com.google.gwt.dom.client.TableElement;
+import com.google.gwt.dom.client.TableRowElement;
+import com.google.gwt.dom.client.TableSectionElement;
+import com.google.gwt.event.dom.client.*;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.user.client.ui.Composite;
+import com.google.gwt.user.client.ui.RequiresResize;
+import com.google.gwt.user.client.ui.ScrollPanel;
+import com.google.gwt.user.client.ui.SimplePanel;
+
+import org.rstudio.core.client.CommandWithArg;
+import org.rstudio.core.client.command.KeyboardShortcut;
+import org.rstudio.core.client.dom.DomUtils;
+import org.rstudio.core.client.dom.NativeWindow;
+import org.rstudio.core.client.widget.FontSizer;
+import org.rstudio.studio.client.workbench.views.history.HasHistory;
+import org.rstudio.studio.client.workbench.views.history.model.HistoryEntry;
+import org.rstudio.studio.client.workbench.views.history.view.HistoryEntryItemCodec.TimestampMode;
+import org.rstudio.studio.client.workbench.views.history.view.HistoryPane.Resources;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A history list which only renders the rows that are currently scrolled
+// into view. Entries are fetched from the server a page at a time as they
+// are needed and a bounded number of pages are kept on the client. The
+// selection is tracked as ranges of row indexes rather than row elements,
+// so it can include rows that have never been rendered or loaded.
+//
+// Rows are identified by an "absolute" index which never changes for the
+// life of the table; when rows are dropped from the top (because the
+// console history has reached its capacity) the logical index of every row
+// shifts down but its absolute index stays the same.
+public class VirtualHistoryTable extends Composite
+   implements HasHistory, HasAllKeyHandlers, HasClickHandlers, RequiresResize
+{
+   public interface RowRequester
+   {
+      // request the rows [start, end) (logical indexes); the rows should be
+      // delivered via setPage (along with the generation) or the request
+      // abandoned via clearPending
+      void requestRows(int start, int end, int generation);
+   }
+
+   public VirtualHistoryTable(String commandClassName,
+                              String timestampClassName,
+                              String selectedClassName,
+                              RowRequester requester)
+   {
+      codec_ = new HistoryEntryItemCodec(commandClassName,
+                                         timestampClassName,
+                                         TimestampMode.NONE,
+                                         false);
+      selectedClassName_ = selectedClassName;
+      requester_ = requester;
+
+      Resources res = GWT.create(Resources.class);
+
+      canvas_ = new SimplePanel();
+      canvas_.getElement().getStyle().setPosition(Position.RELATIVE);
+      canvas_.getElement().getStyle().setOverflow(
+                                 com.google.gwt.dom.client.Style.Overflow.HIDDEN);
+
+      table_ = Document.get().createTableElement();
+      table_.setTabIndex(0);
+      table_.setCellPadding(0);
+      table_.setCellSpacing(0);
+      table_.setBorder(0);
+      table_.setClassName(res.styles().historyTable() + " " +
+                          res.styles().virtualHistoryTable());
+      table_.getStyle().setCursor(Cursor.DEFAULT);
+      table_.getStyle().setPosition(Position.ABSOLUTE);
+      table_.getStyle().setLeft(0, Unit.PX);
+      table_.getStyle().setTop(0, Unit.PX);
+      table_.getStyle().setWidth(100, Unit.PCT);
+      FontSizer.applyNormalFontSize(table_);
+      canvas_.getElement().appendChild(table_);
+
+      tbody_ = Document.get().createTBodyElement();
+      table_.appendChild(tbody_);
+
+      scrollPanel_ = new ScrollPanel(canvas_);
+      scrollPanel_.getElement().getStyle().setProperty("overflowX", "hidden");
+      scrollPanel_.addScrollHandler(new ScrollHandler()
+      {
+         public void onScroll(ScrollEvent event)
+         {
+            scrolledToBottom_ = isAtBottom();
+            render(false);
+         }
+      });
+
+      initWidget(scrollPanel_);
+
+      addDomHandler(new MouseDownHandler()
+      {
+         public void onMouseDown(MouseDownEvent event)
+         {
+            if (event.getNativeButton() != NativeEvent.BUTTON_LEFT)
+               return;
+
+            event.preventDefault();
+            NativeWindow.get().focus();
+            DomUtils.setActive(table_);
+
+            Integer row = rowForEvent(event.getNativeEvent());
+            if (row != null)
+               handleRowClick(event.getNativeEvent(), row);
+         }
+      }, MouseDownEvent.getType());
+
+      addKeyDownHandler(new KeyDownHandler()
+      {
+         public void onKeyDown(KeyDownEvent event)
+         {
+            handleKeyDown(event);
+         }
+      });
+   }
+
+   @Override
+   protected void onLoad()
+   {
+      super.onLoad();
+      render(true);
+   }
+
+   // replace the contents of the table; entries need not start at index 0
+   // (any earlier rows will be fetched on demand)
+   public void setEntries(ArrayList<HistoryEntry> entries)
+   {
+      pages_.clear();
+      pending_.clear();
+      generation_++;
+      selection_.clear();
+      anchor_ = null;
+      base_ = 0;
+      rowCount_ = entries.size() > 0 ?
+            (int)entries.get(entries.size() - 1).getIndex() + 1 : 0;
+      setPage(generation_, entries);
+   }
+
+   // append entries to the bottom of the table
+   public void appendEntries(ArrayList<HistoryEntry> entries)
+   {
+      for (HistoryEntry entry : entries)
+      {
+         int abs = base_ + rowCount_;
+         ArrayList<HistoryEntry> page = pages_.get(abs / PAGE_SIZE);
+         if (page == null && abs % PAGE_SIZE == 0)
+         {
+            page = new ArrayList<HistoryEntry>();
+            pages_.put(abs / PAGE_SIZE, page);
+         }
+         if (page != null)
+            setPageEntry(page, abs % PAGE_SIZE, entry);
+         rowCount_++;
+      }
+      updateCanvasHeight();
+      render(true);
+      if (scrolledToBottom_)
+         scrollToBottom();
+   }
+
+   // deliver previously requested rows (each entry's index is its logical
+   // index within the table at the time of the request). rows requested
+   // before the table was truncated or replaced are dropped since their
+   // indexes no longer line up (they're requested again as needed).
+   public void setPage(int generation, ArrayList<HistoryEntry> entries)
+   {
+      if (generation != generation_)
+         return;
+
+      for (HistoryEntry entry : entries)
+      {
+         int abs = base_ + (int)entry.getIndex();
+         int pageIndex = abs / PAGE_SIZE;
+         pending_.remove(pageIndex);
+         ArrayList<HistoryEntry> page = pages_.get(pageIndex);
+         if (page == null)
+         {
+            page = new ArrayList<HistoryEntry>();
+            pages_.put(pageIndex, page);
+         }
+         setPageEntry(page, abs % PAGE_SIZE, entry);
+      }
+      updateCanvasHeight();
+      render(true);
+      notifySelectionWaiters();
+   }
+
+   // abandon all outstanding row requests (e.g. after a server error)
+   public void clearPending()
+   {
+      pending_.clear();
+      selectionWaiters_.clear();
+   }
+
+   // drop rows from the top of the table so that at most maxRows remain
+   public void truncate(int maxRows)
+   {
+      int excess = rowCount_ - maxRows;
+      if (excess <= 0)
+         return;
+
+      base_ += excess;
+      rowCount_ -= excess;
+
+      // outstanding requests were made relative to the old base
+      pending_.clear();
+      generation_++;
+
+      selection_.removeBefore(base_);
+      updateCanvasHeight();
+      render(true);
+      notifySelectionWaiters();
+      if (scrolledToBottom_)
+         scrollToBottom();
+   }
+
+   public int getRowCount()
+   {
+      return rowCount_;
+   }
+
+   public ArrayList<Integer> getSelectedRowIndexes()
+   {
+      ArrayList<Integer> results = new ArrayList<Integer>();
+      for (Range range : selection_.ranges())
+         for (int i = range.start; i < range.end; i++)
+            results.add(i - base_);
+      return results;
+   }
+
+   // invoke the callback with the selected commands once every selected
+   // row has been loaded
+   public void withSelectedValues(CommandWithArg<ArrayList<String>> callback)
+   {
+      if (requestMissingSelectedRows())
+         selectionWaiters_.add(callback);
+      else
+         callback.execute(getSelectedValues());
+   }
+
+   // note that this only includes the selected rows that are loaded; use
+   // withSelectedValues to get the complete selection
+   public ArrayList<String> getSelectedValues()
+   {
+      ArrayList<String> results = new ArrayList<String>();
+      for (Range range : selection_.ranges())
+      {
+         for (int i = range.start; i < range.end; i++)
+         {
+            HistoryEntry entry = getEntry(i);
+            if (entry != null)
+               results.add(entry.getCommand());
+         }
+      }
+      return results;
+   }
+
+   public ArrayList<Long> getSelectedCommandIndexes()
+   {
+      ArrayList<Long> results = new ArrayList<Long>();
+      for (Range range : selection_.ranges())
+         for (int i = range.start; i < range.end; i++)
+            results.add((long)(i - base_));
+      return results;
+   }
+
+   public void scrollToBottom()
+   {
+      DomUtils.scrollToBottom(scrollPanel_.getElement());
+      scrolledToBottom_ = true;
+      render(false);
+   }
+
+   public int getVerticalScrollPosition()
+   {
+      return scrollPanel_.getVerticalScrollPosition();
+   }
+
+   public void setVerticalScrollPosition(int position)
+   {
+      scrollPanel_.setVerticalScrollPosition(position);
+      scrolledToBottom_ = isAtBottom();
+      render(false);
+   }
+
+   public void saveScrollPosition()
+   {
+      savedScroll_ = scrolledToBottom_ ? null : getVerticalScrollPosition();
+   }
+
+   public void restoreScrollPosition()
+   {
+      if (savedScroll_ == null)
+         scrollToBottom();
+      else
+         setVerticalScrollPosition(savedScroll_);
+   }
+
+   @Override
+   public void onResize()
+   {
+      if (scrolledToBottom_)
+         scrollToBottom();
+      else
+         render(false);
+   }
+
+   public HasAllKeyHandlers getKeyTarget()
+   {
+      return this;
+   }
+
+   public Element getFocusTarget()
+   {
+      return table_;
+   }
+
+   private boolean isAtBottom()
+   {
+      return scrollPanel_.getVerticalScrollPosition() >=
+             scrollPanel_.getMaximumVerticalScrollPosition();
+   }
+
+   private void updateCanvasHeight()
+   {
+      canvas_.getElement().getStyle().setHeight(rowCount_ * rowHeight_,
+                                                Unit.PX);
+   }
+
+   // render the rows in view (plus some overscan); unless force is true
+   // nothing is done if the visible range hasn't changed
+   private void render(boolean force)
+   {
+      if (!isAttached())
+         return;
+
+      int scrollTop = scrollPanel_.getVerticalScrollPosition();
+      int height = scrollPanel_.getOffsetHeight();
+      int first = Math.max(0, scrollTop / rowHeight_ - OVERSCAN_ROWS);
+      int last = Math.min(rowCount_,
+                          (scrollTop + height) / rowHeight_ + 1 + OVERSCAN_ROWS);
+
+      if (!force && first == renderedFirst_ && last == renderedLast_)
+         return;
+      renderedFirst_ = first;
+      renderedLast_ = last;
+
+      TableSectionElement tbody = Document.get().createTBodyElement();
+      for (int i = first; i < last; i++)
+      {
+         int abs = base_ + i;
+         HistoryEntry entry = getEntry(abs);
+         TableRowElement tr;
+         if (entry != null)
+         {
+            // rows never wrap (all rows must be the same height), so the
+            // full command is shown in a tooltip
+            tr = codec_.getRowForItem(entry);
+            tr.setTitle(entry.getCommand());
+         }
+         else
+         {
+            tr = createPlaceholderRow();
+            requestPage(abs / PAGE_SIZE);
+         }
+         tr.setAttribute(ROW_ATTRIBUTE, abs + "");
+         if (selection_.contains(abs))
+            tr.addClassName(selectedClassName_);
+         tbody.appendChild(tr);
+      }
+      table_.replaceChild(tbody, tbody_);
+      tbody_ = tbody;
+      table_.getStyle().setTop(first * rowHeight_, Unit.PX);
+
+      // measure the actual row height the first time we have a row
+      if (!rowHeightMeasured_ && tbody_.getRows().getLength() > 0)
+      {
+         int measured = tbody_.getRows().getItem(0).getOffsetHeight();
+         if (measured > 0)
+         {
+            rowHeightMeasured_ = true;
+            if (measured != rowHeight_)
+            {
+               rowHeight_ = measured;
+               updateCanvasHeight();
+               render(true);
+            }
+         }
+      }
+   }
+
+   private TableRowElement createPlaceholderRow()
+   {
+      TableRowElement tr = Document.get().createTRElement();
+      TableCellElement td = Document.get().createTDElement();
+      td.setColSpan(2);
+      DivElement div = Document.get().createDivElement();
+      div.setInnerText("...");
+      td.appendChild(div);
+      tr.appendChild(td);
+      return tr;
+   }
+
+   private HistoryEntry getEntry(int abs)
+   {
+      if (abs < base_ || abs >= base_ + rowCount_)
+         return null;
+      ArrayList<HistoryEntry> page = pages_.get(abs / PAGE_SIZE);
+      if (page == null)
+         return null;
+      int offset = abs % PAGE_SIZE;
+      return offset < page.size() ? page.get(offset) : null;
+   }
+
+   private void setPageEntry(ArrayList<HistoryEntry> page,
+                             int offset,
+                             HistoryEntry entry)
+   {
+      while (page.size() <= offset)
+         page.add(null);
+      page.set(offset, entry);
+   }
+
+   private void requestPage(int pageIndex)
+   {
+      if (pending_.contains(pageIndex))
+         return;
+
+      int start = Math.max(base_, pageIndex * PAGE_SIZE);
+      int end = Math.min(base_ + rowCount_, (pageIndex + 1) * PAGE_SIZE);
+      if (start >= end)
+         return;
+
+      pending_.add(pageIndex);
+      requester_.requestRows(start - base_, end - base_, generation_);
+   }
+
+   // request any selected rows which aren't loaded, returning true if
+   // there were any
+   private boolean requestMissingSelectedRows()
+   {
+      boolean missing = false;
+      for (Range range : selection_.ranges())
+      {
+         for (int i = range.start; i < range.end; i++)
+         {
+            if (getEntry(i) == null)
+            {
+               missing = true;
+               requestPage(i / PAGE_SIZE);
+
+               // skip to the next page
+               i = (i / PAGE_SIZE + 1) * PAGE_SIZE - 1;
+            }
+         }
+      }
+      return missing;
+   }
+
+   private void notifySelectionWaiters()
+   {
+      if (selectionWaiters_.isEmpty() || requestMissingSelectedRows())
+         return;
+
+      ArrayList<CommandWithArg<ArrayList<String>>> waiters =
+            new ArrayList<CommandWithArg<ArrayList<String>>>(selectionWaiters_);
+      selectionWaiters_.clear();
+      ArrayList<String> values = getSelectedValues();
+      trimPages();
+      for (CommandWithArg<ArrayList<String>> waiter : waiters)
+         waiter.execute(values);
+   }
+
+   private boolean isPinned(int pageIndex)
+   {
+      // pages holding selected rows are kept while we're waiting to
+      // deliver the selection
+      if (selectionWaiters_.isEmpty())
+         return false;
+
+      for (Range range : selection_.ranges())
+      {
+         if (range.start < (pageIndex + 1) * PAGE_SIZE &&
+             range.end > pageIndex * PAGE_SIZE)
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void trimPages()
+   {
+      Iterator<Integer> it = pages_.keySet().iterator();
+      while (pages_.size() > MAX_PAGES && it.hasNext())
+      {
+         it.next();
+         it.remove();
+      }
+   }
+
+   private Integer rowForEvent(NativeEvent event)
+   {
+      Element el = Element.as(event.getEventTarget());
+      for (; el != null && el != table_; el = el.getParentElement())
+      {
+         if (el.getTagName().equalsIgnoreCase("tr") &&
+             el.hasAttribute(ROW_ATTRIBUTE))
+         {
+            return Integer.parseInt(el.getAttribute(ROW_ATTRIBUTE));
+         }
+      }
+      return null;
+   }
+
+   private void handleRowClick(NativeEvent event, int row)
+   {
+      int modifiers = KeyboardShortcut.getModifierValue(event);
+      modifiers &= ~KeyboardShortcut.ALT; // ALT has no effect
+
+      // We'll treat Ctrl and Meta as equivalent--and normalize to Ctrl.
+      if (KeyboardShortcut.META == (modifiers & KeyboardShortcut.META))
+         modifiers |= KeyboardShortcut.CTRL;
+      modifiers &= ~KeyboardShortcut.META;
+
+      if (modifiers == KeyboardShortcut.NONE)
+      {
+         selection_.clear();
+         selection_.add(row, row + 1);
+         anchor_ = row;
+      }
+      else if (modifiers == KeyboardShortcut.CTRL)
+      {
+         selection_.toggle(row);
+         anchor_ = row;
+      }
+      else
+      {
+         // SHIFT or CTRL+SHIFT: select from the anchor to the target
+         int anchor = anchor_ != null ? anchor_ : row;
+         if (modifiers == KeyboardShortcut.SHIFT)
+            selection_.clear();
+         selection_.add(Math.min(anchor, row), Math.max(anchor, row) + 1);
+      }
+
+      render(true);
+   }
+
+   private void handleKeyDown(KeyDownEvent event)
+   {
+      int keyCode = event.getNativeKeyCode();
+      if (keyCode != KeyCodes.KEY_UP && keyCode != KeyCodes.KEY_DOWN)
+         return;
+
+      event.preventDefault();
+      event.stopPropagation();
+
+      int modifiers = KeyboardShortcut.getModifierValue(event.getNativeEvent());
+      if (modifiers != KeyboardShortcut.NONE &&
+          modifiers != KeyboardShortcut.SHIFT)
+      {
+         return;
+      }
+
+      if (rowCount_ == 0)
+         return;
+
+      int target;
+      if (selection_.isEmpty())
+      {
+         target = keyCode == KeyCodes.KEY_UP ? base_ + rowCount_ - 1 : base_;
+      }
+      else if (keyCode == KeyCodes.KEY_UP)
+      {
+         target = selection_.min() - 1;
+      }
+      else
+      {
+         target = selection_.max() + 1;
+      }
+
+      if (target < base_ || target >= base_ + rowCount_)
+         return;
+
+      if (modifiers == KeyboardShortcut.SHIFT)
+      {
+         selection_.add(target, target + 1);
+      }
+      else
+      {
+         selection_.clear();
+         selection_.add(target, target + 1);
+         anchor_ = target;
+      }
+
+      ensureRowVisible(target);
+      render(true);
+   }
+
+   private void ensureRowVisible(int abs)
+   {
+      int top = (abs - base_) * rowHeight_;
+      int scrollTop = scrollPanel_.getVerticalScrollPosition();
+      int height = scrollPanel_.getOffsetHeight();
+      if (top < scrollTop)
+         setVerticalScrollPosition(top);
+      else if (top + rowHeight_ > scrollTop + height)
+         setVerticalScrollPosition(top + rowHeight_ - height);
+   }
+
+   public HandlerRegistration addClickHandler(ClickHandler handler)
+   {
+      return addDomHandler(handler, ClickEvent.getType());
+   }
+
+   public HandlerRegistration addKeyUpHandler(KeyUpHandler handler)
+   {
+      return addDomHandler(handler, KeyUpEvent.getType());
+   }
+
+   public HandlerRegistration addKeyDownHandler(KeyDownHandler handler)
+   {
+      return addDomHandler(handler, KeyDownEvent.getType());
+   }
+
+   public HandlerRegistration addKeyPressHandler(KeyPressHandler handler)
+   {
+      return addDomHandler(handler, KeyPressEvent.getType());
+   }
+
+   private static class Range
+   {
+      Range(int start, int end)
+      {
+         this.start = start;
+         this.end = end;
+      }
+
+      int start; // inclusive
+      int end;   // exclusive
+   }
+
+   // sorted, non-overlapping, non-adjacent ranges of selected rows
+   private static class RangeSelection
+   {
+      public boolean isEmpty()
+      {
+         return ranges_.isEmpty();
+      }
+
+      public ArrayList<Range> ranges()
+      {
+         return ranges_;
+      }
+
+      public void clear()
+      {
+         ranges_.clear();
+      }
+
+      public int min()
+      {
+         return ranges_.get(0).start;
+      }
+
+      public int max()
+      {
+         return ranges_.get(ranges_.size() - 1).end - 1;
+      }
+
+      public boolean contains(int index)
+      {
+         int i = find(index);
+         return i < ranges_.size() && ranges_.get(i).start <= index;
+      }
+
+      public void add(int start, int end)
+      {
+         // absorb every range which overlaps or touches [start, end)
+         int i = find(start - 1);
+         while (i < ranges_.size() && ranges_.get(i).start <= end)
+         {
+            Range range = ranges_.remove(i);
+            start = Math.min(start, range.start);
+            end = Math.max(end, range.end);
+         }
+         ranges_.add(i, new Range(start, end));
+      }
+
+      public void toggle(int index)
+      {
+         int i = find(index);
+         if (i < ranges_.size() && ranges_.get(i).start <= index)
+         {
+            Range range = ranges_.remove(i);
+            if (index + 1 < range.end)
+               ranges_.add(i, new Range(index + 1, range.end));
+            if (range.start < index)
+               ranges_.add(i, new Range(range.start, index));
+         }
+         else
+         {
+            add(index, index + 1);
+         }
+      }
+
+      public void removeBefore(int index)
+      {
+         while (!ranges_.isEmpty() && ranges_.get(0).start < index)
+         {
+            Range range = ranges_.remove(0);
+            if (range.end > index)
+            {
+               ranges_.add(0, new Range(index, range.end));
+               break;
+            }
+         }
+      }
+
+      // index of the first range whose end is greater than index
+      private int find(int index)
+      {
+         int lo = 0;
+         int hi = ranges_.size();
+         while (lo < hi)
+         {
+            int mid = (lo + hi) >>> 1;
+            if (ranges_.get(mid).end <= index)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }
+         return lo;
+      }
+
+      private final ArrayList<Range> ranges_ = new ArrayList<Range>();
+   }
+
+   private static final String ROW_ATTRIBUTE = "data-row";
+   private static final int PAGE_SIZE = 200;
+   private static final int MAX_PAGES = 20;
+   private static final int OVERSCAN_ROWS = 20;
+
+   private final HistoryEntryItemCodec codec_;
+   private final String selectedClassName_;
+   private final RowRequester requester_;
+   private final ScrollPanel scrollPanel_;
+   private final SimplePanel canvas_;
+   private final TableElement table_;
+   private TableSectionElement tbody_;
+
+   @SuppressWarnings("serial")
+   private final LinkedHashMap<Integer, ArrayList<HistoryEntry>> pages_ =
+         new LinkedHashMap<Integer, ArrayList<HistoryEntry>>(16, 0.75f, true)
+         {
+            @Override
+            protected boolean removeEldestEntry(
+                  Map.Entry<Integer, ArrayList<HistoryEntry>> eldest)
+            {
+               return size() > MAX_PAGES && !isPinned(eldest.getKey());
+            }
+         };
+   private final HashSet<Integer> pending_ = new HashSet<Integer>();
+   private final ArrayList<CommandWithArg<ArrayList<String>>> selectionWaiters_ =
+         new ArrayList<CommandWithArg<ArrayList<String>>>();
+   private final RangeSelection selection_ = new RangeSelection();
+   private Integer anchor_;
+
+   private int base_ = 0;
+   private int generation_ = 0;
+   private int rowCount_ = 0;
+   private int rowHeight_ = 16;
+   private boolean rowHeightMeasured_ = false;
+   private int renderedFirst_ = -1;
+   private int renderedLast_ = -1;
+   private boolean scrolledToBottom_ = true;
+   private Integer savedScroll_;
+}
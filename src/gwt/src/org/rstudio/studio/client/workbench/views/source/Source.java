@@ -14,8 +14,10 @@
  */
 package org.rstudio.studio.client.workbench.views.source;
 
+import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.JsArray;
 import com.google.gwt.core.client.JsArrayString;
+import com.google.gwt.core.client.RunAsyncCallback;
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.event.dom.client.ChangeEvent;
@@ -860,37 +862,57 @@ public class Source implements InsertSourceHandler,
             @Override
             public void execute(RMarkdownContext context)
             {
-               new NewRMarkdownDialog(
-                  context,
-                  workbenchContext_,
-                  uiPrefs_.documentAuthor().getGlobalValue(),
-                  new OperationWithInput<NewRMarkdownDialog.Result>()
+               showNewRMarkdownDialog(context);
+            }
+         }
+      );
+   }
+   
+   private void showNewRMarkdownDialog(final RMarkdownContext context)
+   {
+      // the template wizard is loaded on demand
+      GWT.runAsync(new RunAsyncCallback()
+      {
+         @Override
+         public void onFailure(Throwable reason)
+         {
+            globalDisplay_.showErrorMessage("Error Loading R Markdown",
+                                            reason.getMessage());
+         }
+         
+         @Override
+         public void onSuccess()
+         {
+            new NewRMarkdownDialog(
+               context,
+               workbenchContext_,
+               uiPrefs_.documentAuthor().getGlobalValue(),
+               new OperationWithInput<NewRMarkdownDialog.Result>()
+               {
+                  @Override
+                  public void execute(final NewRMarkdownDialog.Result result)
                   {
-                     @Override
-                     public void execute(final NewRMarkdownDialog.Result result)
+                     if (result.isNewDocument())
                      {
-                        if (result.isNewDocument())
-                        {
-                           NewRMarkdownDialog.RmdNewDocument doc = 
-                                 result.getNewDocument();
-                           String author = doc.getAuthor();
-                           if (author.length() > 0)
-                           {
-                              uiPrefs_.documentAuthor().setGlobalValue(author);
-                              uiPrefs_.writeUIPrefs();
-                           }
-                           newRMarkdownV2Doc(doc);
-                        }
-                        else
+                        NewRMarkdownDialog.RmdNewDocument doc = 
+                              result.getNewDocument();
+                        String author = doc.getAuthor();
+                        if (author.length() > 0)
                         {
-                           newDocFromRmdTemplate(result);
+                           uiPrefs_.documentAuthor().setGlobalValue(author);
+                           uiPrefs_.writeUIPrefs();
                         }
+                        newRMarkdownV2Doc(doc);
+                     }
+                     else
+                     {
+                        newDocFromRmdTemplate(result);
                      }
                   }
-               ).showModal();
-            }
+               }
+            ).showModal();
          }
-      );
+      });
    }
    
    private void newDocFromRmdTemplate(final NewRMarkdownDialog.Result result)
@@ -0,0 +1,203 @@
+/*
+ * FlameGraph.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.source.editors.profiler;
+
+import java.util.ArrayList;
+
+import org.rstudio.core.client.StringUtil;
+import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.Profile;
+import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.ProfileCall;
+
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.event.dom.client.ClickEvent;
+import com.google.gwt.event.dom.client.ClickHandler;
+import com.google.gwt.event.logical.shared.HasSelectionHandlers;
+import com.google.gwt.event.logical.shared.SelectionEvent;
+import com.google.gwt.event.logical.shared.SelectionHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.safehtml.shared.SafeHtmlBuilder;
+import com.google.gwt.user.client.ui.Composite;
+import com.google.gwt.user.client.ui.HTML;
+import com.google.gwt.user.client.ui.ScrollPanel;
+
+// Draws the call tree with the outermost call along the bottom and callees
+// stacked above their callers; the width of each call is proportional to
+// the number of samples it was on the stack for. The whole graph is 
+// rendered as a single block of HTML and clicks are dispatched by index.
+public class FlameGraph extends Composite 
+                        implements HasSelectionHandlers<ProfileCall>
+{
+   public FlameGraph()
+   {
+      styles_.ensureInjected();
+      
+      graph_ = new HTML();
+      graph_.setStyleName(styles_.flameGraph());
+      graph_.addClickHandler(new ClickHandler()
+      {
+         @Override
+         public void onClick(ClickEvent event)
+         {
+            Element target = Element.as(
+                  event.getNativeEvent().getEventTarget());
+            String index = target.getAttribute(INDEX_ATTRIBUTE);
+            if (!StringUtil.isNullOrEmpty(index))
+            {
+               SelectionEvent.fire(FlameGraph.this, 
+                                   calls_.get(Integer.parseInt(index)));
+            }
+         }
+      });
+      
+      scrollPanel_ = new ScrollPanel(graph_);
+      initWidget(scrollPanel_);
+   }
+   
+   public void setProfile(Profile profile)
+   {
+      profile_ = profile;
+      calls_.clear();
+      
+      ProfileCall root = profile != null ? profile.getTree() : null;
+      if (root == null || root.getTotal() == 0)
+      {
+         graph_.setHTML("");
+         graph_.setHeight("");
+         return;
+      }
+      
+      int depth = getDepth(root, root.getTotal());
+      SafeHtmlBuilder sb = new SafeHtmlBuilder();
+      appendCall(sb, root, 0, 0, depth, root.getTotal());
+      graph_.setHTML(sb.toSafeHtml());
+      graph_.setHeight((depth * ROW_HEIGHT) + "px");
+      
+      // the outermost calls are at the bottom
+      scrollPanel_.scrollToBottom();
+   }
+   
+   @Override
+   public HandlerRegistration addSelectionHandler(
+                                    SelectionHandler<ProfileCall> handler)
+   {
+      return addHandler(handler, SelectionEvent.getType());
+   }
+   
+   // the number of rows needed to draw the calls wide enough to be seen
+   private int getDepth(ProfileCall call, int rootTotal)
+   {
+      int depth = 0;
+      JsArray<ProfileCall> children = call.getChildren();
+      for (int i = 0; i < children.length(); i++)
+      {
+         if (isVisible(children.get(i), rootTotal))
+            depth = Math.max(depth, getDepth(children.get(i), rootTotal));
+      }
+      return depth + 1;
+   }
+   
+   private boolean isVisible(ProfileCall call, int rootTotal)
+   {
+      return call.getTotal() >= rootTotal * MIN_WIDTH_FRACTION;
+   }
+   
+   private void appendCall(SafeHtmlBuilder sb,
+                           ProfileCall call,
+                           int depth,
+                           int offset,
+                           int maxDepth,
+                           int rootTotal)
+   {
+      boolean isRoot = depth == 0;
+      String name = isRoot ? "(all)" : call.getName();
+      
+      StringBuilder classes = new StringBuilder(styles_.frame());
+      classes.append(' ');
+      classes.append(isRoot ? styles_.rootFrame() : colorStyle(name));
+      
+      StringBuilder style = new StringBuilder();
+      style.append("left: ").append(100.0 * offset / rootTotal).append("%; ");
+      style.append("width: ").append(100.0 * call.getTotal() / rootTotal)
+           .append("%; ");
+      style.append("top: ").append((maxDepth - depth - 1) * ROW_HEIGHT)
+           .append("px;");
+      
+      sb.appendHtmlConstant("<div class=\"" + classes + "\"" +
+                            " style=\"" + style + "\"");
+      if (!isRoot)
+      {
+         sb.appendHtmlConstant(" " + INDEX_ATTRIBUTE + "=\"" + 
+                               calls_.size() + "\"");
+         calls_.add(call);
+      }
+      sb.appendHtmlConstant(" title=\"");
+      sb.appendEscaped(getTooltip(name, call, rootTotal));
+      sb.appendHtmlConstant("\">");
+      sb.appendEscaped(name);
+      sb.appendHtmlConstant("</div>");
+      
+      int childOffset = offset;
+      JsArray<ProfileCall> children = call.getChildren();
+      for (int i = 0; i < children.length(); i++)
+      {
+         ProfileCall child = children.get(i);
+         if (isVisible(child, rootTotal))
+            appendCall(sb, child, depth + 1, childOffset, maxDepth, rootTotal);
+         childOffset += child.getTotal();
+      }
+   }
+   
+   private String getTooltip(String name, ProfileCall call, int rootTotal)
+   {
+      String tooltip = name + ": " + 
+         StringUtil.formatGeneralNumber(
+               (long) profile_.getMilliseconds(call.getTotal())) + " ms (" +
+         StringUtil.formatPercent((double) call.getTotal() / rootTotal) + ")";
+      
+      String file = profile_.getFile(call);
+      if (file != null && call.getLine() > 0)
+         tooltip += "\n" + file + ":" + call.getLine();
+      
+      return tooltip;
+   }
+   
+   // the same function is always drawn in the same color
+   private String colorStyle(String name)
+   {
+      switch (Math.abs(name.hashCode() % 4))
+      {
+         case 0: return styles_.frame0();
+         case 1: return styles_.frame1();
+         case 2: return styles_.frame2();
+         default: return styles_.frame3();
+      }
+   }
+   
+   private static final int ROW_HEIGHT = 17;
+   
+   // calls narrower than this fraction of the graph aren't drawn
+   private static final double MIN_WIDTH_FRACTION = 0.001;
+   
+   private static final String INDEX_ATTRIBUTE = "data-call-index";
+   
+   private final HTML graph_;
+   private final ScrollPanel scrollPanel_;
+   private final ArrayList<ProfileCall> calls_ = new ArrayList<ProfileCall>();
+   private Profile profile_;
+   
+   private final ProfilerResources.Styles styles_ = 
+                                    ProfilerResources.INSTANCE.styles();
+}
@@ -14,37 +14,66 @@
  */
 package org.rstudio.studio.client.workbench.views.source.editors.profiler;
 
-import com.google.gwt.user.client.ui.CheckBox;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.dom.client.Style.Unit;
+import com.google.gwt.event.logical.shared.SelectionEvent;
+import com.google.gwt.event.logical.shared.SelectionHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.user.cellview.client.CellTable;
+import com.google.gwt.user.cellview.client.ColumnSortEvent;
+import com.google.gwt.user.cellview.client.ColumnSortList.ColumnSortInfo;
+import com.google.gwt.user.cellview.client.TextColumn;
 import com.google.gwt.user.client.ui.Composite;
-import com.google.gwt.user.client.ui.HasValue;
-import com.google.gwt.user.client.ui.IntegerBox;
 import com.google.gwt.user.client.ui.Label;
-
-import com.google.gwt.user.client.ui.VerticalPanel;
+import com.google.gwt.user.client.ui.ScrollPanel;
+import com.google.gwt.user.client.ui.SplitLayoutPanel;
 import com.google.gwt.user.client.ui.Widget;
+import com.google.gwt.view.client.ListDataProvider;
 
+import org.rstudio.core.client.StringUtil;
+import org.rstudio.core.client.cellview.LinkColumn;
+import org.rstudio.core.client.files.FileSystemItem;
+import org.rstudio.core.client.theme.RStudioCellTableResources;
+import org.rstudio.core.client.widget.OperationWithInput;
 import org.rstudio.core.client.widget.Toolbar;
 import org.rstudio.studio.client.workbench.commands.Commands;
 import org.rstudio.studio.client.workbench.views.source.PanelWithToolbars;
 import org.rstudio.studio.client.workbench.views.source.editors.EditingTargetToolbar;
+import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.Profile;
+import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.ProfileCall;
 
 public class ProfilerEditingTargetWidget extends Composite
                                          implements ProfilerPresenter.Display
-              
+
 {
    public ProfilerEditingTargetWidget(Commands commands)
    {
-      VerticalPanel panel = new VerticalPanel();
-      panel.add(new Label("PropA"));
-      txtPropA_ = new IntegerBox();
-      panel.add(txtPropA_);
-      panel.add(new Label("PropB"));
-      chkPropB_ = new CheckBox();
-      panel.add(chkPropB_); 
-      panel.setSize("100%", "100%");
+      status_ = new Label();
+      status_.setStyleName(ProfilerResources.INSTANCE.styles().status());
+
+      flameGraph_ = new FlameGraph();
+      flameGraph_.addSelectionHandler(new SelectionHandler<ProfileCall>()
+      {
+         @Override
+         public void onSelection(SelectionEvent<ProfileCall> event)
+         {
+            fireCallSelected(event.getSelectedItem());
+         }
+      });
+
+      createCallsTable();
+
+      SplitLayoutPanel panel = new SplitLayoutPanel();
+      panel.addNorth(flameGraph_, 250);
+      panel.add(new ScrollPanel(callsTable_));
 
       PanelWithToolbars mainPanel = new PanelWithToolbars(
-                                          createToolbar(commands), 
+                                          createToolbar(commands),
                                           panel);
 
       initWidget(mainPanel);
@@ -57,26 +86,175 @@ public class ProfilerEditingTargetWidget extends Composite
       toolbar.addLeftSeparator();
       toolbar.addLeftWidget(commands.startProfiler().createToolbarButton());
       toolbar.addLeftWidget(commands.stopProfiler().createToolbarButton());
+      toolbar.addRightWidget(status_);
       return toolbar;
    }
-   
+
+   private void createCallsTable()
+   {
+      dataProvider_ = new ListDataProvider<ProfileCall>();
+      sortHandler_ = new ColumnSortEvent.ListHandler<ProfileCall>(
+                                                   dataProvider_.getList());
+      callsTable_ = new CellTable<ProfileCall>(
+            15,
+            GWT.<RStudioCellTableResources>create(
+                                          RStudioCellTableResources.class));
+      callsTable_.setWidth("100%", false);
+      callsTable_.addColumnSortHandler(sortHandler_);
+      dataProvider_.addDataDisplay(callsTable_);
+
+      TextColumn<ProfileCall> nameColumn = new TextColumn<ProfileCall>() {
+         @Override
+         public String getValue(ProfileCall call)
+         {
+            return call.getName();
+         }
+      };
+      nameColumn.setSortable(true);
+      callsTable_.addColumn(nameColumn, "Function");
+      sortHandler_.setComparator(nameColumn, new Comparator<ProfileCall>() {
+         @Override
+         public int compare(ProfileCall a, ProfileCall b)
+         {
+            return a.getName().compareTo(b.getName());
+         }
+      });
+
+      TextColumn<ProfileCall> selfColumn = new TextColumn<ProfileCall>() {
+         @Override
+         public String getValue(ProfileCall call)
+         {
+            return formatTime(call.getSelf());
+         }
+      };
+      selfColumn.setSortable(true);
+      callsTable_.addColumn(selfColumn, "Self time");
+      callsTable_.setColumnWidth(selfColumn, 140, Unit.PX);
+      sortHandler_.setComparator(selfColumn, new Comparator<ProfileCall>() {
+         @Override
+         public int compare(ProfileCall a, ProfileCall b)
+         {
+            return a.getSelf() - b.getSelf();
+         }
+      });
+
+      totalColumn_ = new TextColumn<ProfileCall>() {
+         @Override
+         public String getValue(ProfileCall call)
+         {
+            return formatTime(call.getTotal());
+         }
+      };
+      totalColumn_.setSortable(true);
+      callsTable_.addColumn(totalColumn_, "Total time");
+      callsTable_.setColumnWidth(totalColumn_, 140, Unit.PX);
+      totalComparator_ = new Comparator<ProfileCall>() {
+         @Override
+         public int compare(ProfileCall a, ProfileCall b)
+         {
+            return a.getTotal() - b.getTotal();
+         }
+      };
+      sortHandler_.setComparator(totalColumn_, totalComparator_);
+
+      LinkColumn<ProfileCall> sourceColumn = new LinkColumn<ProfileCall>(
+         dataProvider_,
+         new OperationWithInput<ProfileCall>()
+         {
+            public void execute(ProfileCall call)
+            {
+               fireCallSelected(call);
+            }
+         })
+         {
+            @Override
+            public String getValue(ProfileCall call)
+            {
+               String file = profile_ != null ? profile_.getFile(call) : null;
+               if (file == null || call.getLine() == 0)
+                  return null;
+               return FileSystemItem.createFile(file).getName() + ":" +
+                      call.getLine();
+            }
+         };
+      callsTable_.addColumn(sourceColumn, "Called from");
+
+      // sort by total time until the user picks another column
+      callsTable_.getColumnSortList().push(
+                                 new ColumnSortInfo(totalColumn_, false));
+   }
+
    public Widget asWidget()
    {
       return this;
    }
-   
+
    @Override
-   public HasValue<Integer> getPropA()
+   public void showProfile(Profile profile)
    {
-      return txtPropA_;
+      profile_ = profile;
+      flameGraph_.setProfile(profile);
+
+      List<ProfileCall> calls = dataProvider_.getList();
+      calls.clear();
+      if (profile == null)
+      {
+         status_.setText("");
+         return;
+      }
+
+      JsArray<ProfileCall> profileCalls = profile.getCalls();
+      for (int i = 0; i < profileCalls.length(); i++)
+         calls.add(profileCalls.get(i));
+      Collections.sort(calls, Collections.reverseOrder(totalComparator_));
+      callsTable_.setPageSize(Math.max(15, calls.size()));
+
+      status_.setText(StringUtil.formatGeneralNumber(profile.getSamples()) +
+                      " samples (" +
+                      StringUtil.formatGeneralNumber(
+                         (long) profile.getMilliseconds(profile.getSamples())) +
+                      " ms)");
+   }
+
+   @Override
+   public void showStatus(String status)
+   {
+      status_.setText(status);
    }
 
    @Override
-   public HasValue<Boolean> getPropB()
+   public HandlerRegistration addSelectionHandler(
+                                    SelectionHandler<ProfileCall> handler)
    {
-      return chkPropB_;
+      return addHandler(handler, SelectionEvent.getType());
    }
-   
-   private IntegerBox txtPropA_;
-   private CheckBox chkPropB_;   
+
+   private void fireCallSelected(ProfileCall call)
+   {
+      SelectionEvent.fire(this, call);
+   }
+
+   private String formatTime(int samples)
+   {
+      if (profile_ == null)
+         return "";
+
+      String time = StringUtil.formatGeneralNumber(
+                        (long) profile_.getMilliseconds(samples)) + " ms";
+      if (profile_.getSamples() > 0)
+      {
+         time += " (" + StringUtil.formatPercent(
+                  (double) samples / profile_.getSamples()) + ")";
+      }
+      return time;
+   }
+
+   private final Label status_;
+   private final FlameGraph flameGraph_;
+   private CellTable<ProfileCall> callsTable_;
+   private ListDataProvider<ProfileCall> dataProvider_;
+   private ColumnSortEvent.ListHandler<ProfileCall> sortHandler_;
+   private TextColumn<ProfileCall> totalColumn_;
+   private Comparator<ProfileCall> totalComparator_;
+   private Profile profile_;
 }
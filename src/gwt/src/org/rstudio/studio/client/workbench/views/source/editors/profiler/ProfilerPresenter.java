@@ -16,118 +16,162 @@ package org.rstudio.studio.client.workbench.views.source.editors.profiler;
 
 import java.util.HashMap;
 
+import org.rstudio.core.client.FilePosition;
 import org.rstudio.core.client.HandlerRegistrations;
-import org.rstudio.core.client.TimeBufferedCommand;
 import org.rstudio.core.client.command.CommandBinder;
 import org.rstudio.core.client.command.Handler;
+import org.rstudio.core.client.files.FileSystemItem;
+import org.rstudio.studio.client.common.GlobalDisplay;
+import org.rstudio.studio.client.common.filetypes.FileTypeRegistry;
+import org.rstudio.studio.client.server.ServerError;
+import org.rstudio.studio.client.server.ServerRequestCallback;
 import org.rstudio.studio.client.server.VoidServerRequestCallback;
 import org.rstudio.studio.client.workbench.commands.Commands;
+import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.Profile;
+import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.ProfileCall;
 import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.ProfilerContents;
 import org.rstudio.studio.client.workbench.views.source.editors.profiler.model.ProfilerServerOperations;
 import org.rstudio.studio.client.workbench.views.source.model.SourceDocument;
- 
-import com.google.gwt.event.logical.shared.ValueChangeEvent;
-import com.google.gwt.event.logical.shared.ValueChangeHandler;
-import com.google.gwt.user.client.ui.HasValue;
+
+import com.google.gwt.event.logical.shared.HasSelectionHandlers;
+import com.google.gwt.event.logical.shared.SelectionEvent;
+import com.google.gwt.event.logical.shared.SelectionHandler;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 @Singleton
 public class ProfilerPresenter
-{ 
-   public interface Display
+{
+   public interface Display extends HasSelectionHandlers<ProfileCall>
    {
-      HasValue<Integer> getPropA();
-      HasValue<Boolean> getPropB();
+      void showProfile(Profile profile);
+      void showStatus(String status);
    }
 
    @Inject
    public ProfilerPresenter(ProfilerServerOperations server,
                             Binder binder,
-                            Commands commands)
+                            Commands commands,
+                            FileTypeRegistry fileTypeRegistry,
+                            GlobalDisplay globalDisplay)
    {
       server_ = server;
       commands_ = commands;
+      fileTypeRegistry_ = fileTypeRegistry;
+      globalDisplay_ = globalDisplay;
       binder.bind(commands, this);
-      
+
       // default profiler commands to disabled until we are attached
       // to a document and view
       disableAllCommands();
    }
-   
+
    public void attatch(SourceDocument doc, Display view)
    {
       // save references to doc and view
       doc_ = doc;
       view_ = view;
-      
-      // initialize view
-      ProfilerContents contents = getContents();
-      view_.getPropA().setValue(contents.getPropA());
-      view_.getPropB().setValue(contents.getPropB());
-      
-      // subscribe to value changes on the view to save contents 
-      // to the server whenenver it's modfied
-      handlerRegistrations_.add(view_.getPropA()
-                  .addValueChangeHandler(new ValueChangeHandler<Integer>() {
-         @Override
-         public void onValueChange(ValueChangeEvent<Integer> event)
-         {
-            contentsUpdater_.nudge();           
-         }
-         
-      }));
-      
-      handlerRegistrations_.add(view_.getPropB()
-                 .addValueChangeHandler(new ValueChangeHandler<Boolean>() {
+
+      // navigate to the source of calls selected in the view
+      handlerRegistrations_.add(view_.addSelectionHandler(
+                                       new SelectionHandler<ProfileCall>() {
          @Override
-         public void onValueChange(ValueChangeEvent<Boolean> event)
+         public void onSelection(SelectionEvent<ProfileCall> event)
          {
-            contentsUpdater_.nudge();
+            navigateToCall(event.getSelectedItem());
          }
       }));
-      
+
+      // show the profile previously collected for this document (if any)
+      String profilePath = getContents().getProfilePath();
+      if (profilePath != null)
+      {
+         view_.showStatus("Loading profile...");
+         server_.getProfile(profilePath, new ProfileCallback());
+      }
+
       // enable commands for stopped state
       enableStoppedCommands();
    }
-   
+
    public void detach()
    {
       // unsubscribe from view
       handlerRegistrations_.removeHandler();
-      
+
       // null out references to doc and view
       doc_ = null;
       view_ = null;
-      
+      profile_ = null;
+
       // disable all commands
       disableAllCommands();
    }
-   
+
    @Handler
    public void onStartProfiler()
    {
-     
-      // manage commands
-      enableStartedCommands();
+      server_.startProfiling(new ServerRequestCallback<String>()
+      {
+         @Override
+         public void onResponseReceived(String profilePath)
+         {
+            // tab might have been closed in the meantime
+            if (doc_ == null || view_ == null)
+               return;
+
+            // remember where the profile is written so it can be shown
+            // when the document is reopened
+            ProfilerContents contents = ProfilerContents.create(profilePath);
+            HashMap<String, String> props = new HashMap<String, String>();
+            contents.fillProperties(props);
+            for (String key : props.keySet())
+               doc_.getProperties().setString(key, props.get(key));
+            server_.modifyDocumentProperties(doc_.getId(),
+                                             props,
+                                             new VoidServerRequestCallback());
+
+            view_.showStatus("Profiling...");
+
+            // manage commands
+            enableStartedCommands();
+         }
+
+         @Override
+         public void onError(ServerError error)
+         {
+            globalDisplay_.showErrorMessage("Error Starting Profiler",
+                                            error.getUserMessage());
+         }
+      });
    }
-   
+
    @Handler
    public void onStopProfiler()
    {
-     
-      
+      server_.stopProfiling(new ProfileCallback());
+
       // manage commands
       enableStoppedCommands();
    }
-   
+
+   private void navigateToCall(ProfileCall call)
+   {
+      String file = profile_ != null ? profile_.getFile(call) : null;
+      if (file == null || call.getLine() == 0)
+         return;
+
+      fileTypeRegistry_.editFile(FileSystemItem.createFile(file),
+                                 FilePosition.create(call.getLine(), 0));
+   }
+
    private void disableAllCommands()
    {
       commands_.startProfiler().setEnabled(false);
       commands_.stopProfiler().setEnabled(false);
    }
-   
-   
+
+
    private void enableStartedCommands()
    {
       commands_.startProfiler().setEnabled(false);
@@ -136,49 +180,50 @@ public class ProfilerPresenter
    private void enableStoppedCommands()
    {
       commands_.startProfiler().setEnabled(true);
-      commands_.stopProfiler().setEnabled(false);   
+      commands_.stopProfiler().setEnabled(false);
    }
-   
-   // create a time buffered command for updating profiler contents (ensures
-   // that we save no more frequently than every 100ms even in the face of
-   // many changes over a short time)
-   private TimeBufferedCommand contentsUpdater_ = new TimeBufferedCommand(100) {
 
+   private class ProfileCallback extends ServerRequestCallback<Profile>
+   {
       @Override
-      protected void performAction(boolean shouldSchedulePassive)
-      {         
-         // tab might have been closed in the meantime, check for this first
-         if (doc_ == null || view_ == null)
+      public void onResponseReceived(Profile profile)
+      {
+         // tab might have been closed in the meantime
+         if (view_ == null)
             return;
-         
-         // update document properties if they've changed
-         ProfilerContents contents = ProfilerContents.create(
-                                           view_.getPropA().getValue(),
-                                           view_.getPropB().getValue());
-         if (!contents.equalTo(getContents()))
-         {
-            HashMap<String, String> props = new HashMap<String, String>();
-            contents.fillProperties(props);
-            server_.modifyDocumentProperties(doc_.getId(),
-                                             props,
-                                             new VoidServerRequestCallback());
-         }  
+
+         profile_ = profile;
+         view_.showProfile(profile);
+         if (profile == null)
+            view_.showStatus("Profile no longer available");
+      }
+
+      @Override
+      public void onError(ServerError error)
+      {
+         if (view_ != null)
+            view_.showStatus("");
+         globalDisplay_.showErrorMessage("Error Reading Profile",
+                                         error.getUserMessage());
       }
-   };
-   
+   }
+
    // typed access to underlying document properties
    private ProfilerContents getContents()
    {
       return (ProfilerContents)doc_.getProperties().cast();
    }
-   
-   
+
+
    private SourceDocument doc_ = null;
    private Display view_ = null;
+   private Profile profile_ = null;
    private final ProfilerServerOperations server_;
    private final Commands commands_;
-   private final HandlerRegistrations handlerRegistrations_ = 
+   private final FileTypeRegistry fileTypeRegistry_;
+   private final GlobalDisplay globalDisplay_;
+   private final HandlerRegistrations handlerRegistrations_ =
                                              new HandlerRegistrations();
-   
+
    public interface Binder extends CommandBinder<Commands, ProfilerPresenter> {}
 }
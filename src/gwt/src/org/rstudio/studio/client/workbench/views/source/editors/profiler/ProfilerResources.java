@@ -0,0 +1,40 @@
+/*
+ * ProfilerResources.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.source.editors.profiler;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.resources.client.ClientBundle;
+import com.google.gwt.resources.client.CssResource;
+
+public interface ProfilerResources extends ClientBundle
+{
+   public static final ProfilerResources INSTANCE = 
+                              GWT.create(ProfilerResources.class);
+   
+   interface Styles extends CssResource
+   {
+      String flameGraph();
+      String frame();
+      String rootFrame();
+      String frame0();
+      String frame1();
+      String frame2();
+      String frame3();
+      String status();
+   }
+   
+   @Source("ProfilerStyles.css")
+   Styles styles();
+}
@@ -0,0 +1,56 @@
+/*
+ * Profile.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.source.editors.profiler.model;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+
+// Rprof output as aggregated by the server: a call tree (outermost call at
+// the root) along with sample counts for each distinct call site
+public class Profile extends JavaScriptObject
+{
+   protected Profile()
+   {
+   }
+   
+   // milliseconds per sample
+   public final native double getInterval() /*-{
+      return this.interval;
+   }-*/;
+   
+   public final native int getSamples() /*-{
+      return this.samples;
+   }-*/;
+   
+   public final native ProfileCall getTree() /*-{
+      return this.tree;
+   }-*/;
+   
+   public final native JsArray<ProfileCall> getCalls() /*-{
+      return this.calls;
+   }-*/;
+   
+   // the (aliased) path of the file the call was made from, or null if 
+   // the call wasn't made from a file
+   public final native String getFile(ProfileCall call) /*-{
+      var file = this.files[call.file];
+      return file ? file : null;
+   }-*/;
+   
+   public final double getMilliseconds(int samples)
+   {
+      return samples * getInterval();
+   }
+}
@@ -0,0 +1,49 @@
+/*
+ * ProfileCall.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.source.editors.profiler.model;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+
+// A function called from a particular line, along with the number of 
+// samples in which it was on the stack (total) or executing (self)
+public class ProfileCall extends JavaScriptObject
+{
+   protected ProfileCall()
+   {
+   }
+   
+   public final native String getName() /*-{
+      return this.name;
+   }-*/;
+   
+   // 1-based line the call was made from (0 if unknown)
+   public final native int getLine() /*-{
+      return this.line;
+   }-*/;
+   
+   public final native int getTotal() /*-{
+      return this.total;
+   }-*/;
+   
+   public final native int getSelf() /*-{
+      return this.self;
+   }-*/;
+   
+   // callees (tree nodes only)
+   public final native JsArray<ProfileCall> getChildren() /*-{
+      return this.children || [];
+   }-*/;
+}
@@ -26,47 +26,22 @@ public class ProfilerContents extends JavaScriptObject
 
    public static final ProfilerContents createDefault()
    {
-      return create(10, true);
+      return create(null);
    }
    
-   public static final native ProfilerContents create(int propA,
-                                                      boolean propB) /*-{
+   public static final native ProfilerContents create(String profilePath) /*-{
       var contents = new Object();
-      contents.prop_a = propA.toString();
-      contents.prop_b = propB.toString();
+      contents.profile_path = profilePath;
       return contents ;
    }-*/;
    
-   
-   public final int getPropA()
-   {
-      return Integer.parseInt(getPropAString());
-   };
-   
-   public final boolean getPropB()
-   {
-      return Boolean.parseBoolean(getPropBString());
-   };
-   
-   public final boolean equalTo(ProfilerContents other)
-   {
-      return getPropA() == other.getPropA() &&
-             getPropB() == other.getPropB();
-   }
+   // the Rprof output for this document (null if nothing has been profiled)
+   public native final String getProfilePath() /*-{
+      return this.profile_path || null;
+   }-*/;
    
    public final void fillProperties(HashMap<String, String> properties)
    {
-      properties.put("prop_a", getPropAString());
-      properties.put("prop_b", getPropBString());
+      properties.put("profile_path", getProfilePath());
    }
-   
-   private native final String getPropAString() /*-{
-      return this.prop_a;
-   }-*/;
-
-   private native final String getPropBString() /*-{
-      return this.prop_b;
-   }-*/;
-   
-   
 }
@@ -24,4 +24,13 @@ public interface ProfilerServerOperations
 {
    void modifyDocumentProperties(String id, HashMap<String, String> properties,
          ServerRequestCallback<Void> requestCallback);
+   
+   // returns the path profiling output is written to
+   void startProfiling(ServerRequestCallback<String> requestCallback);
+   
+   void stopProfiling(ServerRequestCallback<Profile> requestCallback);
+   
+   // returns null if the profile no longer exists
+   void getProfile(String profilePath, 
+                   ServerRequestCallback<Profile> requestCallback);
 }
@@ -880,6 +880,24 @@ public class AceEditor implements DocDisplay,
                                  pos.getColumn());
    }
 
+   @Override
+   public int addDynamicMarker(JavaScriptObject marker, boolean inFront)
+   {
+      return getSession().addDynamicMarker(marker, inFront);
+   }
+
+   @Override
+   public void removeMarker(int markerId)
+   {
+      getSession().removeMarker(markerId);
+   }
+
+   @Override
+   public void updateMarkers(boolean inFront)
+   {
+      getSession().updateMarkers(inFront);
+   }
+
    private void fixVerticalOffsetBug()
    {
       widget_.getEditor().getRenderer().fixVerticalOffsetBug();
@@ -1511,6 +1529,11 @@ public class AceEditor implements DocDisplay,
       return getSession().getMode().getCodeModel().getScopeTree();
    }
 
+   public JsArray<Scope> getScopeTreeUpToRow(int row)
+   {
+      return getSession().getMode().getCodeModel().getScopeTreeUpToRow(row);
+   }
+
    @Override
    public InsertChunkInfo getInsertChunkInfo()
    {
@@ -1762,6 +1785,12 @@ public class AceEditor implements DocDisplay,
       return handlers_.addHandler(ValueChangeEvent.getType(), handler);
    }
 
+   public HandlerRegistration addDocumentChangedHandler(
+         DocumentChangedEvent.Handler handler)
+   {
+      return widget_.addDocumentChangedHandler(handler);
+   }
+
    public HandlerRegistration addFoldChangeHandler(
          FoldChangeEvent.Handler handler)
    {
@@ -92,6 +92,7 @@ public class AceEditorWidget extends Composite
             try
             {
                ValueChangeEvent.fire(AceEditorWidget.this, null);            
+               fireEvent(new DocumentChangedEvent(changeEvent));
                updateBreakpoints(changeEvent);
             }
             catch (Exception ex)
@@ -199,6 +200,12 @@ public class AceEditorWidget extends Composite
       return addHandler(handler, CursorChangedEvent.TYPE);
    }
 
+   public HandlerRegistration addDocumentChangedHandler(
+         DocumentChangedEvent.Handler handler)
+   {
+      return addHandler(handler, DocumentChangedEvent.TYPE);
+   }
+
    @Override
    public HandlerRegistration addFoldChangeHandler(Handler handler)
    {
@@ -34,6 +34,7 @@ import org.rstudio.studio.client.workbench.views.source.editors.text.events.Brea
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.BreakpointSetEvent;
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.CommandClickEvent;
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.CursorChangedHandler;
+import org.rstudio.studio.client.workbench.views.source.editors.text.events.DocumentChangedEvent;
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.FindRequestedEvent;
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.HasFoldChangeHandlers;
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.UndoRedoHandler;
@@ -141,6 +142,9 @@ public interface DocDisplay extends HasValueChangeHandlers<Void>,
    
    HandlerRegistration addCursorChangedHandler(CursorChangedHandler handler);
    
+   HandlerRegistration addDocumentChangedHandler(
+                                    DocumentChangedEvent.Handler handler);
+   
    Position getCursorPosition();
    void setCursorPosition(Position position);
    void moveCursorNearTop();
@@ -174,6 +178,7 @@ public interface DocDisplay extends HasValueChangeHandlers<Void>,
    Scope getSectionAtPosition(Position position);
    boolean hasScopeTree();
    JsArray<Scope> getScopeTree();
+   JsArray<Scope> getScopeTreeUpToRow(int row);
    InsertChunkInfo getInsertChunkInfo();
 
    void foldAll();
@@ -218,6 +223,10 @@ public interface DocDisplay extends HasValueChangeHandlers<Void>,
 
    Anchor createAnchor(Position pos);
    
+   int addDynamicMarker(JavaScriptObject marker, boolean inFront);
+   void removeMarker(int markerId);
+   void updateMarkers(boolean inFront);
+   
    void highlightDebugLocation(
          SourcePosition startPos,
          SourcePosition endPos,
@@ -0,0 +1,145 @@
+/*
+ * ScopeIndex.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.source.editors.text;
+
+import org.rstudio.studio.client.workbench.views.source.editors.text.ace.Position;
+import org.rstudio.studio.client.workbench.views.source.editors.text.events.DocumentChangedEvent;
+
+/**
+ * Caches a flattened (preorder, hence sorted by preamble) snapshot of the
+ * scope tree so that looking up the scope at a position is a binary search
+ * rather than a walk of the code model's scope tree.
+ *
+ * The snapshot only extends as far as the rows which have been looked up
+ * (with some headroom), so the code model never parses further into the
+ * document than it would to answer getCurrentScope itself. Document changes
+ * only invalidate the rows at and after the change: the scopes containing a
+ * position are determined by the text before it, so lookups before the
+ * first changed row are still answered from the cache. While the document
+ * is being edited, lookups which can't be answered from the cache are
+ * delegated to the code model and the cache is rebuilt on the first lookup
+ * following a cursor-only move.
+ */
+public class ScopeIndex
+{
+   public ScopeIndex(DocDisplay docDisplay)
+   {
+      docDisplay_ = docDisplay;
+      docDisplay_.addDocumentChangedHandler(new DocumentChangedEvent.Handler()
+      {
+         @Override
+         public void onDocumentChanged(DocumentChangedEvent event)
+         {
+            // the code model also reparses the row preceding a change
+            int row = event.getEvent().getRange().getStart().getRow();
+            validRows_ = Math.min(validRows_, row - 1);
+            editedSinceLookup_ = true;
+         }
+      });
+   }
+
+   public void invalidate()
+   {
+      scopes_ = null;
+      validRows_ = 0;
+   }
+
+   /**
+    * Equivalent to DocDisplay.getCurrentScope().
+    */
+   public Scope getCurrentScope()
+   {
+      Position pos = docDisplay_.getCursorPosition();
+      boolean edited = editedSinceLookup_;
+      editedSinceLookup_ = false;
+
+      if (scopes_ == null || pos.getRow() >= validRows_)
+      {
+         if (edited || !docDisplay_.hasScopeTree())
+            return docDisplay_.getCurrentScope();
+
+         rebuild(pos.getRow());
+      }
+
+      Scope scope = findScope(pos);
+      return scope != null ? scope : root_;
+   }
+
+   private void rebuild(int row)
+   {
+      // index twice as far as requested, so that moving down through the
+      // document rebuilds the index a logarithmic number of times
+      int maxRow = Math.max(2 * row, row + MIN_ROWS);
+      scopes_ = new ScopeList(docDisplay_, maxRow).getScopes();
+      validRows_ = maxRow + 1;
+
+      // the parent of the top level scopes is the root scope (which the code
+      // model reports only if it is labeled)
+      root_ = null;
+      if (scopes_.length > 0)
+      {
+         Scope root = scopes_[0].getParentScope();
+         if (root != null && root.getLabel() != null)
+            root_ = root;
+      }
+   }
+
+   // the innermost indexed scope containing pos (or null). scopes which were
+   // still open at the last indexed row have no end.
+   private Scope findScope(Position pos)
+   {
+      // find the last scope whose preamble is at or before pos
+      int low = 0;
+      int high = scopes_.length - 1;
+      int index = -1;
+      while (low <= high)
+      {
+         int mid = (low + high) >>> 1;
+         if (scopes_[mid].getPreamble().isBeforeOrEqualTo(pos))
+         {
+            index = mid;
+            low = mid + 1;
+         }
+         else
+         {
+            high = mid - 1;
+         }
+      }
+
+      if (index == -1)
+         return null;
+
+      // any scope containing pos must be that scope or one of its ancestors
+      // (a scope appearing earlier in preorder which isn't an ancestor has
+      // ended before the preamble at index)
+      for (Scope scope = scopes_[index];
+           scope != null && scope.getParentScope() != null;
+           scope = scope.getParentScope())
+      {
+         Position end = scope.getEnd();
+         if (end == null || pos.isBefore(end))
+            return scope;
+      }
+      return null;
+   }
+
+   private static final int MIN_ROWS = 200;
+
+   private final DocDisplay docDisplay_;
+   private Scope[] scopes_;
+   private Scope root_;
+   private int validRows_ = 0;
+   private boolean editedSinceLookup_ = false;
+}
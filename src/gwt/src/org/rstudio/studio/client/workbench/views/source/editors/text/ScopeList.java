@@ -94,6 +94,14 @@ public class ScopeList implements Iterable<Scope>
       addScopes(docDisplay.getScopeTree());
    }
 
+   /**
+    * The scopes as far as maxRow (see DocDisplay.getScopeTreeUpToRow).
+    */
+   public ScopeList(DocDisplay docDisplay, int maxRow)
+   {
+      addScopes(docDisplay.getScopeTreeUpToRow(maxRow));
+   }
+
    @Override
    public Iterator<Scope> iterator()
    {
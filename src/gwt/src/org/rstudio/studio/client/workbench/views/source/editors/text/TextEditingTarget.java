@@ -14,6 +14,8 @@
  */
 package org.rstudio.studio.client.workbench.views.source.editors.text;
 
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.JsArray;
 import com.google.gwt.core.client.JsArrayString;
@@ -744,10 +746,19 @@ public class TextEditingTarget implements
       fileContext_ = fileContext;
       fileType_ = (TextFileType) type;
       
+      // documents restored at startup may arrive without their contents,
+      // which are then loaded when the document is first activated (until
+      // then the editor is empty and read-only)
+      contentsPending_ = !document.hasContents();
+
       extendedType_ = document.getExtendedType();
-      extendedType_ = rmarkdownHelper_.detectExtendedType(document.getContents(),
-                                                          extendedType_, 
-                                                          fileType_);
+      if (!contentsPending_)
+      {
+         extendedType_ = rmarkdownHelper_.detectExtendedType(
+                                                      document.getContents(),
+                                                      extendedType_, 
+                                                      fileType_);
+      }
       
       view_ = new TextEditingTargetWidget(commands_,
                                           prefs_,
@@ -779,18 +790,16 @@ public class TextEditingTarget implements
       });
       
       name_.setValue(getNameFromDocument(document, defaultNameProvider), true);
-      docDisplay_.setCode(document.getContents(), false);
-
-      final ArrayList<Fold> folds = Fold.decode(document.getFoldSpec());
-      Scheduler.get().scheduleDeferred(new ScheduledCommand()
+      if (contentsPending_)
       {
-         @Override
-         public void execute()
-         {
-            for (Fold fold : folds)
-               docDisplay_.addFold(fold.getRange());
-         }
-      });
+         docDisplay_.setCode("", false);
+         docDisplay_.setReadOnly(true);
+      }
+      else
+      {
+         docDisplay_.setCode(document.getContents(), false);
+         restoreFolds(document.getFoldSpec());
+      }
 
       registerPrefs(releaseOnDismiss_, prefs_, docDisplay_, document);
       
@@ -979,14 +988,8 @@ public class TextEditingTarget implements
             }
       );
       
-      // find all of the debug breakpoints set in this document and replay them
-      // onto the edit surface
-      ArrayList<Breakpoint> breakpoints = 
-            breakpointManager_.getBreakpointsInFile(getPath());
-      for (Breakpoint breakpoint: breakpoints)
-      {
-         docDisplay_.addOrUpdateBreakpoint(breakpoint);
-      }
+      if (!contentsPending_)
+         restoreBreakpoints();
       
       // for R Markdown docs, populate the popup menu with a list of available
       // formats
@@ -1128,6 +1131,7 @@ public class TextEditingTarget implements
    private void initStatusBar()
    {
       statusBar_ = view_.getStatusBar();
+      scopeIndex_ = new ScopeIndex(docDisplay_);
       docDisplay_.addCursorChangedHandler(new CursorChangedHandler()
       {
          public void onCursorChanged(CursorChangedEvent event)
@@ -1200,7 +1204,7 @@ public class TextEditingTarget implements
             else
             {
                defaultItem = addFunctionsToMenu(
-                  menu, tree, "", docDisplay_.getCurrentScope(), true);
+                  menu, tree, "", scopeIndex_.getCurrentScope(), true);
                
                showStatusBarPopupMenu(new StatusBarPopupRequest(menu, 
                                                                 defaultItem));
@@ -1327,18 +1331,34 @@ public class TextEditingTarget implements
       statusBar_.getLanguage().setValue(fileType_.getLabel());
       boolean canShowScope = fileType_.canShowScopeTree();
       statusBar_.setScopeVisible(canShowScope);
+      scopeIndex_.invalidate();
       if (canShowScope)
          updateCurrentScope();
    }
 
    private void updateStatusBarPosition()
    {
-      Position pos = docDisplay_.getCursorPosition();
-      statusBar_.getPosition().setValue((pos.getRow() + 1) + ":" +
-                                        (pos.getColumn() + 1));
+      // coalesce cursor moves (e.g. a held down arrow key) into a single
+      // status bar update per animation frame
+      if (statusBarUpdatePending_)
+         return;
+      statusBarUpdatePending_ = true;
       
-      if (fileType_.canShowScopeTree())
-         updateCurrentScope();
+      AnimationScheduler.get().requestAnimationFrame(new AnimationCallback()
+      {
+         @Override
+         public void execute(double timestamp)
+         {
+            statusBarUpdatePending_ = false;
+            
+            Position pos = docDisplay_.getCursorPosition();
+            statusBar_.getPosition().setValue((pos.getRow() + 1) + ":" +
+                                              (pos.getColumn() + 1));
+            
+            if (fileType_.canShowScopeTree())
+               updateCurrentScopeNow();
+         }
+      });
    }
   
    private void updateCurrentScope()
@@ -1348,51 +1368,56 @@ public class TextEditingTarget implements
             {
                public void execute()
                {
-                  // special handing for presentations since we extract
-                  // the slide structure in a different manner than 
-                  // the editor scope trees
-                  if (fileType_.isRpres())
-                  {
-                     statusBar_.getScope().setValue(
-                                       presentationHelper_.getCurrentSlide());
-                     statusBar_.setScopeType(StatusBar.SCOPE_SLIDE);
-                     
-                  }
-                  else
-                  {
-                     Scope scope = docDisplay_.getCurrentScope();
-                     String label = scope != null
-                                   ? scope.getLabel()
-                                   : null;
-                     statusBar_.getScope().setValue(label);
-                     
-                     if (scope != null)
-                     {
-                        boolean useChunk = 
-                                 scope.isChunk() || 
-                                 (fileType_.isRnw() && scope.isTopLevel());
-                             if (useChunk)
-                           statusBar_.setScopeType(StatusBar.SCOPE_CHUNK);
-                        else if (scope.isNamespace())
-                          statusBar_.setScopeType(StatusBar.SCOPE_NAMESPACE);
-                        else if (scope.isClass())
-                           statusBar_.setScopeType(StatusBar.SCOPE_CLASS);
-                        else if (scope.isSection())
-                           statusBar_.setScopeType(StatusBar.SCOPE_SECTION);
-                        else if (scope.isTopLevel())
-                           statusBar_.setScopeType(StatusBar.SCOPE_TOP_LEVEL);
-                        else if (scope.isFunction())
-                           statusBar_.setScopeType(StatusBar.SCOPE_FUNCTION);
-                        else if (scope.isLambda())
-                           statusBar_.setScopeType(StatusBar.SCOPE_LAMBDA);
-                        else if (scope.isAnon())
-                           statusBar_.setScopeType(StatusBar.SCOPE_ANON);
-                     }
-                  }
+                  updateCurrentScopeNow();
                }
             });
    }
    
+   private void updateCurrentScopeNow()
+   {
+      // special handing for presentations since we extract
+      // the slide structure in a different manner than 
+      // the editor scope trees
+      if (fileType_.isRpres())
+      {
+         statusBar_.getScope().setValue(
+                           presentationHelper_.getCurrentSlide());
+         statusBar_.setScopeType(StatusBar.SCOPE_SLIDE);
+         
+      }
+      else
+      {
+         Scope scope = scopeIndex_.getCurrentScope();
+         String label = scope != null
+                       ? scope.getLabel()
+                       : null;
+         statusBar_.getScope().setValue(label);
+         
+         if (scope != null)
+         {
+            boolean useChunk = 
+                     scope.isChunk() || 
+                     (fileType_.isRnw() && scope.isTopLevel());
+                 if (useChunk)
+               statusBar_.setScopeType(StatusBar.SCOPE_CHUNK);
+            else if (scope.isNamespace())
+              statusBar_.setScopeType(StatusBar.SCOPE_NAMESPACE);
+            else if (scope.isClass())
+               statusBar_.setScopeType(StatusBar.SCOPE_CLASS);
+            else if (scope.isSection())
+               statusBar_.setScopeType(StatusBar.SCOPE_SECTION);
+            else if (scope.isTopLevel())
+               statusBar_.setScopeType(StatusBar.SCOPE_TOP_LEVEL);
+            else if (scope.isFunction())
+               statusBar_.setScopeType(StatusBar.SCOPE_FUNCTION);
+            else if (scope.isLambda())
+               statusBar_.setScopeType(StatusBar.SCOPE_LAMBDA);
+            else if (scope.isAnon())
+               statusBar_.setScopeType(StatusBar.SCOPE_ANON);
+         }
+      }
+   }
+   
    private String getNameFromDocument(SourceDocument document,
                                       Provider<String> defaultNameProvider)
    {
@@ -1507,6 +1532,8 @@ public class TextEditingTarget implements
       });
 
       view_.onActivate();
+
+      withContents(null);
    }
 
    public void onDeactivate()
@@ -1601,8 +1628,94 @@ public class TextEditingTarget implements
       docUpdateSentinel_.revert(onCompleted);
    }
 
-   private void saveThenExecute(String encodingOverride, final Command command)
+   // find all of the debug breakpoints set in this document and replay them
+   // onto the edit surface
+   private void restoreBreakpoints()
    {
+      ArrayList<Breakpoint> breakpoints = 
+            breakpointManager_.getBreakpointsInFile(getPath());
+      for (Breakpoint breakpoint: breakpoints)
+      {
+         docDisplay_.addOrUpdateBreakpoint(breakpoint);
+      }
+   }
+
+   private void restoreFolds(String foldSpec)
+   {
+      final ArrayList<Fold> folds = Fold.decode(foldSpec);
+      Scheduler.get().scheduleDeferred(new ScheduledCommand()
+      {
+         @Override
+         public void execute()
+         {
+            for (Fold fold : folds)
+               docDisplay_.addFold(fold.getRange());
+         }
+      });
+   }
+
+   // executes the command (if any) once the document's contents have been
+   // loaded into the editor
+   private void withContents(final Command command)
+   {
+      if (!contentsPending_)
+      {
+         if (command != null)
+            command.execute();
+         return;
+      }
+
+      docUpdateSentinel_.withContents(new Command()
+      {
+         public void execute()
+         {
+            if (contentsPending_)
+               onContentsLoaded();
+            if (command != null)
+               command.execute();
+         }
+      });
+   }
+
+   private void onContentsLoaded()
+   {
+      contentsPending_ = false;
+
+      // (setting the code marks the document dirty)
+      boolean dirty = dirtyState_.getValue();
+      docDisplay_.setReadOnly(false);
+      docDisplay_.setCode(docUpdateSentinel_.getContents(), false);
+      if (dirty)
+         dirtyState_.markDirty(false);
+      else
+         dirtyState_.markClean();
+
+      restoreFolds(docUpdateSentinel_.getFoldSpec());
+      restoreBreakpoints();
+
+      String extendedType = rmarkdownHelper_.detectExtendedType(
+                                             docUpdateSentinel_.getContents(),
+                                             extendedType_,
+                                             fileType_);
+      if (!extendedType.equals(extendedType_))
+         adaptToExtendedFileType(extendedType);
+   }
+
+   private void saveThenExecute(final String encodingOverride,
+                                final Command command)
+   {
+      if (contentsPending_)
+      {
+         withContents(new Command()
+         {
+            public void execute()
+            {
+               saveThenExecute(encodingOverride, command);
+            }
+         });
+         return;
+      }
+
       checkCompilePdfDependencies();
    
       final String path = docUpdateSentinel_.getPath();
@@ -4613,6 +4726,8 @@ public class TextEditingTarget implements
    }
    
    private StatusBar statusBar_;
+   private ScopeIndex scopeIndex_;
+   private boolean statusBarUpdatePending_ = false;
    private final DocDisplay docDisplay_;
    private final UIPrefs prefs_;
    private Display view_;
@@ -4630,6 +4745,7 @@ public class TextEditingTarget implements
    private final FontSizeManager fontSizeManager_;
    private final SourceBuildHelper sourceBuildHelper_;
    private DocUpdateSentinel docUpdateSentinel_;
+   private boolean contentsPending_;
    private Value<String> name_ = new Value<String>(null);
    private TextFileType fileType_;
    private String id_;
@@ -22,13 +22,18 @@ import org.rstudio.core.client.CsvReader;
 import org.rstudio.core.client.CsvWriter;
 import org.rstudio.core.client.ResultCallback;
 import org.rstudio.core.client.widget.NullProgressIndicator;
+import org.rstudio.studio.client.RStudioGinjector;
 import org.rstudio.studio.client.common.spelling.SpellChecker;
 import org.rstudio.studio.client.server.Void;
+import org.rstudio.studio.client.workbench.prefs.model.Prefs.PrefValue;
 import org.rstudio.studio.client.workbench.views.source.editors.text.spelling.CheckSpelling;
 import org.rstudio.studio.client.workbench.views.source.editors.text.spelling.InitialProgressDialog;
+import org.rstudio.studio.client.workbench.views.source.editors.text.spelling.RealtimeSpellChecker;
 import org.rstudio.studio.client.workbench.views.source.editors.text.spelling.SpellingDialog;
 import org.rstudio.studio.client.workbench.views.source.model.DocUpdateSentinel;
 
+import com.google.gwt.event.logical.shared.ValueChangeEvent;
+import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.event.shared.HandlerRegistration;
 
 public class TextEditingTargetSpelling implements SpellChecker.Context
@@ -40,6 +45,20 @@ public class TextEditingTargetSpelling implements SpellChecker.Context
       docUpdateSentinel_ = docUpdateSentinel;
       spellChecker_ = new SpellChecker(this);
       
+      // check spelling in the background as the document is edited
+      realtimeSpellChecker_ = new RealtimeSpellChecker(spellChecker_, 
+                                                       docDisplay_);
+      PrefValue<Boolean> realTimePref = 
+                  RStudioGinjector.INSTANCE.getUIPrefs().realTimeSpellChecking();
+      realtimeSpellChecker_.setEnabled(realTimePref.getValue());
+      releaseOnDismiss(realTimePref.addValueChangeHandler(
+                                          new ValueChangeHandler<Boolean>() {
+         @Override
+         public void onValueChange(ValueChangeEvent<Boolean> event)
+         {
+            realtimeSpellChecker_.setEnabled(event.getValue());
+         }
+      }));
    }
    
    public void checkSpelling()
@@ -75,13 +94,13 @@ public class TextEditingTargetSpelling implements SpellChecker.Context
    @Override
    public void invalidateAllWords()
    {
-      
+      realtimeSpellChecker_.invalidateAll();
    }
 
    @Override
    public void invalidateMisspelledWords()
    {
-      
+      realtimeSpellChecker_.invalidateMisspelled();
    }  
    
    @Override
@@ -116,6 +135,7 @@ public class TextEditingTargetSpelling implements SpellChecker.Context
    
    void onDismiss()
    {
+      realtimeSpellChecker_.detach();
       while (releaseOnDismiss_.size() > 0)
          releaseOnDismiss_.remove(0).removeHandler();
    }
@@ -134,6 +154,7 @@ public class TextEditingTargetSpelling implements SpellChecker.Context
    private final DocDisplay docDisplay_;
    private final DocUpdateSentinel docUpdateSentinel_;
    private final SpellChecker spellChecker_;
+   private final RealtimeSpellChecker realtimeSpellChecker_;
  
    private ArrayList<HandlerRegistration> releaseOnDismiss_ = 
                                     new ArrayList<HandlerRegistration>();
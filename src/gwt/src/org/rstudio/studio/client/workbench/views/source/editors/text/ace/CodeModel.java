@@ -65,6 +65,12 @@ public class CodeModel extends JavaScriptObject
       return this.getScopeTree ? this.getScopeTree() : [];
    }-*/;
 
+   public native final JsArray<Scope> getScopeTreeUpToRow(int row) /*-{
+      if (this.getScopeTreeUpToRow)
+         return this.getScopeTreeUpToRow(row);
+      return this.getScopeTree ? this.getScopeTree() : [];
+   }-*/;
+
    public native final Scope findFunctionDefinitionFromUsage(
          Position usagePos, String functionName) /*-{
       if (this.findFunctionDefinitionFromUsage != null)
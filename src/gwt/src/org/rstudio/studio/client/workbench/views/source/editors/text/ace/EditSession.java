@@ -170,6 +170,23 @@ public class EditSession extends JavaScriptObject
    public native final void removeMarker(int markerId) /*-{
       this.removeMarker(markerId);
    }-*/;
+
+   // marker must provide an update(html, markerLayer, session, config)
+   // function which draws the marker for the visible rows
+   public native final int addDynamicMarker(JavaScriptObject marker,
+                                            boolean inFront) /*-{
+      return this.addDynamicMarker(marker, inFront).id;
+   }-*/;
+
+   public native final void updateMarkers(boolean inFront) /*-{
+      this._emit(inFront ? "changeFrontMarker" : "changeBackMarker");
+   }-*/;
+
+   // highlight all matches of the given pattern (pass null to clear)
+   public native final void highlight(String pattern, String flags) /*-{
+      this.highlight(pattern == null ? null : new RegExp(pattern, flags));
+      this._emit("changeBackMarker");
+   }-*/;
    
    public native final void setBreakpoint(int line) /*-{
       this.setBreakpoint(line);
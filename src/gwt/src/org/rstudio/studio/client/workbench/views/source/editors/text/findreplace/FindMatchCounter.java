@@ -0,0 +1,268 @@
+/*
+ * FindMatchCounter.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.source.editors.text.findreplace;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+import com.google.gwt.user.client.Command;
+
+import org.rstudio.studio.client.workbench.views.source.editors.text.AceEditor;
+import org.rstudio.studio.client.workbench.views.source.editors.text.ace.AceDocumentChangeEventNative;
+import org.rstudio.studio.client.workbench.views.source.editors.text.ace.Position;
+
+// Maintains a count of the matches of the current find query on each row of
+// the document. The initial count is computed a slice of rows at a time so
+// that large documents don't block the UI; after that, document changes
+// only cause the affected rows to be recounted. As with Ace's own search,
+// matches are found line by line.
+//
+// Finding the index of a match sums the counts of the rows before it, so
+// making many edits at once (as Replace All does) should be done with
+// counting suspended; the document is then recounted once afterwards.
+class FindMatchCounter
+{
+   public FindMatchCounter(AceEditor editor, Command onCountChanged)
+   {
+      editor_ = editor;
+      onCountChanged_ = onCountChanged;
+   }
+
+   public void setQuery(String pattern, String flags)
+   {
+      if (pattern == null)
+      {
+         counts_ = null;
+         rows_ = null;
+         return;
+      }
+
+      try
+      {
+         counts_ = RowCounts.create(pattern, flags);
+      }
+      catch (Throwable e)
+      {
+         // invalid regex
+         counts_ = null;
+         rows_ = null;
+         onCountChanged_.execute();
+         return;
+      }
+
+      countAllRows();
+   }
+
+   public boolean isReady()
+   {
+      return counts_ != null && rows_ == null && !suspended_;
+   }
+
+   // stop tracking document changes until resume is called
+   public void suspend()
+   {
+      suspended_ = true;
+   }
+
+   // recount the whole document (which may have changed while suspended)
+   public void resume()
+   {
+      if (!suspended_)
+         return;
+
+      suspended_ = false;
+      if (counts_ != null)
+         countAllRows();
+   }
+
+   public int getTotal()
+   {
+      return isReady() ? counts_.getTotal() : 0;
+   }
+
+   // the 1-based index of the match starting at the given position (or 0
+   // if there is no match starting there)
+   public int getMatchIndex(Position position)
+   {
+      if (!isReady())
+         return 0;
+
+      return counts_.matchIndex(editor_.getSession().getLine(position.getRow()),
+                                position.getRow(),
+                                position.getColumn());
+   }
+
+   public void onDocumentChanged(AceDocumentChangeEventNative event)
+   {
+      if (counts_ == null || suspended_)
+         return;
+
+      // changes made during the initial count mean starting over
+      if (rows_ != null)
+      {
+         countAllRows();
+         return;
+      }
+
+      int startRow = event.getRange().getStart().getRow();
+      int endRow = event.getRange().getEnd().getRow();
+      int delta = endRow - startRow;
+      if (event.getAction().startsWith("remove"))
+         delta = -delta;
+
+      counts_.splice(startRow, delta);
+
+      // recount the rows which were inserted or modified
+      int lastRow = delta > 0 ? endRow : startRow;
+      for (int row = startRow; row <= lastRow; row++)
+      {
+         if (row < editor_.getSession().getLength())
+            counts_.countRow(row, editor_.getSession().getLine(row));
+      }
+
+      onCountChanged_.execute();
+   }
+
+   private void countAllRows()
+   {
+      final RowCounts counts = counts_;
+      final String[] rows = editor_.getCode().split("\r?\n", -1);
+      rows_ = rows;
+      counts.reset(rows.length);
+
+      Scheduler.get().scheduleIncremental(new RepeatingCommand()
+      {
+         public boolean execute()
+         {
+            // bail if the query has changed or we've been restarted
+            if (counts != counts_ || rows != rows_)
+               return false;
+
+            int end = Math.min(rows.length, row_ + ROWS_PER_SLICE);
+            for (; row_ < end; row_++)
+               counts.countRow(row_, rows[row_]);
+
+            if (row_ < rows.length)
+               return true;
+
+            rows_ = null;
+            onCountChanged_.execute();
+            return false;
+         }
+
+         private int row_ = 0;
+      });
+   }
+
+   private static class RowCounts extends JavaScriptObject
+   {
+      protected RowCounts()
+      {
+      }
+
+      public static final native RowCounts create(String pattern,
+                                                  String flags) /*-{
+         return {
+            re: new RegExp(pattern, flags.indexOf("g") === -1 ? flags + "g"
+                                                              : flags),
+            rows: [],
+            total: 0
+         };
+      }-*/;
+
+      public final native void reset(int rowCount) /*-{
+         this.rows = new Array(rowCount);
+         for (var i = 0; i < rowCount; i++)
+            this.rows[i] = 0;
+         this.total = 0;
+      }-*/;
+
+      public final native int getTotal() /*-{
+         return this.total;
+      }-*/;
+
+      public final native void countRow(int row, String line) /*-{
+         var count = 0;
+         var re = this.re;
+         re.lastIndex = 0;
+         var m;
+         while ((m = re.exec(line)) != null)
+         {
+            count++;
+            // avoid looping forever on empty matches
+            if (m[0].length === 0)
+            {
+               if (re.lastIndex >= line.length)
+                  break;
+               re.lastIndex++;
+            }
+         }
+         this.total += count - (this.rows[row] || 0);
+         this.rows[row] = count;
+      }-*/;
+
+      // rows were inserted (delta > 0) or removed (delta < 0) after row
+      public final native void splice(int row, int delta) /*-{
+         if (delta > 0)
+         {
+            var args = [row + 1, 0];
+            for (var i = 0; i < delta; i++)
+               args.push(0);
+            this.rows.splice.apply(this.rows, args);
+         }
+         else if (delta < 0)
+         {
+            var removed = this.rows.splice(row + 1, -delta);
+            for (var i = 0; i < removed.length; i++)
+               this.total -= removed[i];
+         }
+      }-*/;
+
+      public final native int matchIndex(String line, int row, int column) /*-{
+         var before = 0;
+         for (var i = 0; i < row && i < this.rows.length; i++)
+            before += this.rows[i];
+
+         var re = this.re;
+         re.lastIndex = 0;
+         var m;
+         while ((m = re.exec(line)) != null)
+         {
+            if (m.index === column)
+               return before + 1;
+            if (m.index > column)
+               return 0;
+            before++;
+            if (m[0].length === 0)
+            {
+               if (re.lastIndex >= line.length)
+                  break;
+               re.lastIndex++;
+            }
+         }
+         return 0;
+      }-*/;
+   }
+
+   private static final int ROWS_PER_SLICE = 2000;
+
+   private final AceEditor editor_;
+   private final Command onCountChanged_;
+   private RowCounts counts_;
+   private boolean suspended_ = false;
+
+   // the rows being counted by an in-progress initial count (if any)
+   private String[] rows_;
+}
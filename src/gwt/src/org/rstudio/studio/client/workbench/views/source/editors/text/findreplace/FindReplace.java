@@ -14,6 +14,8 @@
  */
 package org.rstudio.studio.client.workbench.views.source.editors.text.findreplace;
 
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
 import com.google.gwt.event.dom.client.ClickEvent;
 import com.google.gwt.event.dom.client.ClickHandler;
 import com.google.gwt.event.dom.client.HasClickHandlers;
@@ -22,6 +24,8 @@ import com.google.gwt.event.dom.client.KeyUpEvent;
 import com.google.gwt.event.dom.client.KeyUpHandler;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.ui.HasValue;
 
 import org.rstudio.core.client.StringUtil;
@@ -31,9 +35,15 @@ import org.rstudio.core.client.regex.Pattern.ReplaceOperation;
 import org.rstudio.studio.client.common.GlobalDisplay;
 import org.rstudio.studio.client.workbench.views.source.editors.text.AceEditor;
 import org.rstudio.studio.client.workbench.views.source.editors.text.DocDisplay.AnchoredSelection;
+import org.rstudio.studio.client.workbench.views.source.editors.text.ace.EditSession;
 import org.rstudio.studio.client.workbench.views.source.editors.text.ace.Position;
 import org.rstudio.studio.client.workbench.views.source.editors.text.ace.Range;
 import org.rstudio.studio.client.workbench.views.source.editors.text.ace.Search;
+import org.rstudio.studio.client.workbench.views.source.editors.text.events.CursorChangedEvent;
+import org.rstudio.studio.client.workbench.views.source.editors.text.events.CursorChangedHandler;
+import org.rstudio.studio.client.workbench.views.source.editors.text.events.DocumentChangedEvent;
+
+import java.util.ArrayList;
 
 // TODO: For regex mode, stop using Ace's search code and do our own, in order
 //    to avoid bugs with context directives (lookahead/lookbehind, ^, $)
@@ -52,6 +62,9 @@ public class FindReplace
       HasValue<Boolean> getRegex();
       HasClickHandlers getReplaceAll();
       
+      void setMatchCount(int current, int total);
+      void clearMatchCount();
+      
       void activate(String searchText, 
                     boolean defaultForward, 
                     boolean inSelection);
@@ -69,6 +82,39 @@ public class FindReplace
       globalDisplay_ = globalDisplay;
       errorCaption_ = showingReplace ? "Find/Replace" : "Find";
       
+      matchCounter_ = new FindMatchCounter(editor_, new Command()
+      {
+         public void execute()
+         {
+            updateMatchCount();
+         }
+      });
+      registrations_.add(editor_.addDocumentChangedHandler(
+                                          new DocumentChangedEvent.Handler()
+      {
+         public void onDocumentChanged(DocumentChangedEvent event)
+         {
+            documentVersion_++;
+            matchCounter_.onDocumentChanged(event.getEvent());
+         }
+      }));
+      registrations_.add(editor_.addCursorChangedHandler(
+                                          new CursorChangedHandler()
+      {
+         public void onCursorChanged(CursorChangedEvent event)
+         {
+            updateMatchCount();
+         }
+      }));
+      ValueChangeHandler<Boolean> queryOptionChanged =
+                                       new ValueChangeHandler<Boolean>()
+      {
+         public void onValueChange(ValueChangeEvent<Boolean> event)
+         {
+            updateQuery();
+         }
+      };
+      
       HasValue<Boolean> caseSensitive = display_.getCaseSensitive();
       caseSensitive.setValue(defaultCaseSensitive_);
       caseSensitive.addValueChangeHandler(new ValueChangeHandler<Boolean>() {
@@ -77,6 +123,7 @@ public class FindReplace
             defaultCaseSensitive_ = event.getValue();
          }
       });
+      caseSensitive.addValueChangeHandler(queryOptionChanged);
       
       HasValue<Boolean> wholeWord = display_.getWholeWord();
       wholeWord.setValue(defaultWholeWord_);
@@ -86,6 +133,7 @@ public class FindReplace
             defaultWholeWord_ = event.getValue();
          }
       });
+      wholeWord.addValueChangeHandler(queryOptionChanged);
       
       HasValue<Boolean> regex = display_.getRegex();
       regex.setValue(defaultRegex_);
@@ -95,6 +143,7 @@ public class FindReplace
             defaultRegex_ = event.getValue();
          }
       });
+      regex.addValueChangeHandler(queryOptionChanged);
       
       HasValue<Boolean> wrapSearch = display_.getWrapSearch();
       wrapSearch.setValue(defaultWrapSearch_);
@@ -146,6 +195,7 @@ public class FindReplace
             }
             
             // perform incremental search
+            updateQuery();
             find(defaultForward_ ? FindType.Forward : FindType.Reverse, true);
          }
          
@@ -158,6 +208,7 @@ public class FindReplace
    {
       defaultForward_ = defaultForward;
       display_.activate(searchText, defaultForward, inSelection);
+      updateQuery();
    }
    
    public void findNext()
@@ -182,7 +233,59 @@ public class FindReplace
    
    public void notifyClosing()
    {
+      cancelReplaceAll();
       clearTargetSelection();
+      query_ = null;
+      editor_.getSession().highlight(null, null);
+      matchCounter_.setQuery(null, null);
+      for (HandlerRegistration registration : registrations_)
+         registration.removeHandler();
+      registrations_.clear();
+   }
+
+   // update the match counter and highlighting for the current query
+   private void updateQuery()
+   {
+      String find = display_.getFindValue().getValue();
+      if (find.length() == 0)
+      {
+         query_ = null;
+         editor_.getSession().highlight(null, null);
+         matchCounter_.setQuery(null, null);
+         display_.clearMatchCount();
+         return;
+      }
+
+      String query = createQuery();
+      String flags = createFlags();
+      if (query.equals(query_) && flags.equals(queryFlags_))
+         return;
+
+      query_ = query;
+      queryFlags_ = flags;
+      try
+      {
+         editor_.getSession().highlight(query, flags);
+      }
+      catch (Throwable e)
+      {
+         // invalid regex (reported when the user actually searches)
+         editor_.getSession().highlight(null, null);
+      }
+      matchCounter_.setQuery(query, flags);
+   }
+
+   private void updateMatchCount()
+   {
+      if (query_ == null || !matchCounter_.isReady())
+      {
+         display_.clearMatchCount();
+         return;
+      }
+
+      display_.setMatchCount(
+            matchCounter_.getMatchIndex(editor_.getSelectionStart()),
+            matchCounter_.getTotal());
    }
 
    private void addClickHandler(HasClickHandlers hasClickHandlers,
@@ -336,81 +439,165 @@ public class FindReplace
 
    private Pattern createPattern()
    {
-      boolean caseSensitive = display_.getCaseSensitive().getValue();
+      return Pattern.create(createQuery(), createFlags());
+   }
+
+   private String createQuery()
+   {
       boolean regex = display_.getRegex().getValue();
       String find = display_.getFindValue().getValue();
       boolean wholeWord = display_.getWholeWord().getValue();
 
-      String flags = caseSensitive ? "gm" : "igm";
       String query = regex ? find : Pattern.escape(find);
       if (wholeWord)
          query = "\\b" + query + "\\b";
-      
-      return Pattern.create(query, flags);
+      return query;
    }
 
+   private String createFlags()
+   {
+      boolean caseSensitive = display_.getCaseSensitive().getValue();
+      return caseSensitive ? "gm" : "igm";
+   }
+
+   // Replace All finds the matches a slice at a time (so that large
+   // documents don't block the UI) and then applies each replacement as a
+   // range edit (so that folds, breakpoints, and anchors elsewhere in the
+   // document are preserved). The edits are all applied synchronously, so
+   // Ace records them as a single undo step.
    private void replaceAll()
    {
-      String code = null; 
+      if (replaceAllPending_)
+         return;
+
+      final Position origin;
+      final String code;
       if (targetSelection_ != null)
       {
          Range range = targetSelection_.getRange();
+         origin = range.getStart();
          code = editor_.getCode(range.getStart(), range.getEnd());
       }
       else
       {
+         origin = Position.create(0, 0);
          code = editor_.getCode();
       }
 
-      boolean regex = display_.getRegex().getValue();
+      final boolean regex = display_.getRegex().getValue();
       String find = display_.getFindValue().getValue();
-      String repl = display_.getReplaceValue().getValue();
+      final String repl = display_.getReplaceValue().getValue();
 
-      int occurrences = 0;
-      if (find.length() > 0)
+      if (find.length() == 0)
       {
-         Pattern pattern = createPattern();
-         StringBuilder result = new StringBuilder();
+         showOccurrencesReplaced(0);
+         return;
+      }
+
+      final Pattern pattern = createPattern();
+      final ArrayList<Range> ranges = new ArrayList<Range>();
+      final ArrayList<String> replacements = new ArrayList<String>();
+      final int version = documentVersion_;
+      final int replaceAllId = ++replaceAllId_;
+      replaceAllPending_ = true;
 
-         int pos = 0; // pointer into original string
-         for (Match m = pattern.match(code, 0);
-              m != null;
-              m = m.nextMatch())
+      Scheduler.get().scheduleIncremental(new RepeatingCommand()
+      {
+         public boolean execute()
          {
-            occurrences++;
+            // bail if the find bar was closed or the editor was closed
+            if (replaceAllId != replaceAllId_)
+               return false;
+            if (!editor_.getWidget().isAttached())
+            {
+               cancelReplaceAll();
+               return false;
+            }
 
-            // Add everything between the end of the last match, and this one
-            int index = m.getIndex();
-            result.append(code, pos, index);
+            if (version != documentVersion_)
+            {
+               replaceAllPending_ = false;
+               globalDisplay_.showMessage(
+                     GlobalDisplay.MSG_WARNING,
+                     errorCaption_,
+                     "The document changed before all occurrences could " +
+                     "be replaced. No occurrences were replaced.");
+               return false;
+            }
 
-            // Add the replacement value
-            if (regex)
-               result.append(substitute(m, repl, code));
-            else
-               result.append(repl);
+            for (int i = 0; i < MATCHES_PER_SLICE && match_ != null; i++)
+            {
+               int index = match_.getIndex();
+               Position start = toPosition(index);
+               Position end = toPosition(index + match_.getValue().length());
+               ranges.add(Range.fromPoints(start, end));
+               replacements.add(regex ? substitute(match_, repl, code) : repl);
+               match_ = match_.nextMatch();
+            }
+
+            if (match_ != null)
+               return true;
 
-            // Point to the end of this match
-            pos = index + m.getValue().length();
+            replaceAllPending_ = false;
+            applyReplacements(ranges, replacements);
+            showOccurrencesReplaced(ranges.size());
+            return false;
          }
-         result.append(code, pos, code.length());
 
-         String newCode = result.toString();
-         
-         // either replace all or replace just the target range
-         if (targetSelection_ != null)
+         // convert an offset into code into a document position (offsets
+         // are always increasing so we only scan the code once)
+         private Position toPosition(int offset)
          {
-            // restore and then replace the selection
-            editor_.setSelectionRange(targetSelection_.getRange());
-            editor_.replaceSelection(newCode, false);
-            
-            // reset the target selection
-            resetTargetSelection();
+            while (nextNewline_ != -1 && nextNewline_ < offset)
+            {
+               row_++;
+               lineStart_ = nextNewline_ + 1;
+               nextNewline_ = code.indexOf('\n', lineStart_);
+            }
+            return Position.create(row_, offset - lineStart_);
          }
-         else
-         {
-            editor_.replaceCode(newCode);
-         }      
+
+         private Match match_ = pattern.match(code, 0);
+         private int row_ = origin.getRow();
+         private int lineStart_ = -origin.getColumn();
+         private int nextNewline_ = code.indexOf('\n');
+      });
+   }
+
+   private void cancelReplaceAll()
+   {
+      replaceAllId_++;
+      replaceAllPending_ = false;
+   }
+
+   private void applyReplacements(ArrayList<Range> ranges,
+                                  ArrayList<String> replacements)
+   {
+      // apply from the bottom up so earlier ranges remain valid (counting
+      // matches after each edit would make this quadratic, so the
+      // document is recounted once afterwards instead)
+      EditSession session = editor_.getSession();
+      matchCounter_.suspend();
+      try
+      {
+         for (int i = ranges.size() - 1; i >= 0; i--)
+            session.replace(ranges.get(i), replacements.get(i));
+      }
+      finally
+      {
+         matchCounter_.resume();
       }
+
+      if (targetSelection_ != null)
+      {
+         // the target selection is anchored so it has tracked the edits
+         editor_.setSelectionRange(targetSelection_.getRange());
+         resetTargetSelection();
+      }
+   }
+
+   private void showOccurrencesReplaced(int occurrences)
+   {
       globalDisplay_.showMessage(GlobalDisplay.MSG_INFO,
                                  errorCaption_,
                                  occurrences + " occurrences replaced.");
@@ -488,6 +675,14 @@ public class FindReplace
 
    private final AceEditor editor_;
    private final Display display_;
+   private final FindMatchCounter matchCounter_;
+   private final ArrayList<HandlerRegistration> registrations_ =
+                                       new ArrayList<HandlerRegistration>();
+   private String query_ = null;
+   private String queryFlags_ = null;
+   private int documentVersion_ = 0;
+   private boolean replaceAllPending_ = false;
+   private int replaceAllId_ = 0;
    private final GlobalDisplay globalDisplay_;
    private final String errorCaption_;
    private boolean defaultForward_ = true;
@@ -552,6 +747,8 @@ public class FindReplace
    }
    
    
+   private static final int MATCHES_PER_SLICE = 1000;
+
    private static boolean defaultCaseSensitive_ = false;
    private static boolean defaultWrapSearch_ = true;
    private static boolean defaultRegex_ = false;
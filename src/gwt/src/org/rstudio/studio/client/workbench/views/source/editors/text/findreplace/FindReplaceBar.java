@@ -52,6 +52,7 @@ public class FindReplaceBar extends Composite implements Display, RequiresResize
       String optionsPanel();
       String checkboxLabel();
       String closeButton();
+      String matchCount();
    }
    
    public FindReplaceBar(boolean showReplace, final boolean defaultForward)
@@ -73,6 +74,8 @@ public class FindReplaceBar extends Composite implements Display, RequiresResize
       Commands cmds = RStudioGinjector.INSTANCE.getCommands();
       findReplacePanel.add(btnFindNext_ = new SmallButton(cmds.findNext()));
       findReplacePanel.add(btnFindPrev_ = new SmallButton(cmds.findPrevious()));
+      findReplacePanel.add(lblMatchCount_ = new Label());
+      lblMatchCount_.addStyleName(RES.styles().matchCount());
       
       findReplacePanel.add(txtReplace_ = new FindTextBox("Replace"));
       txtReplace_.addStyleName(RES.styles().replaceTextBox());
@@ -248,6 +251,21 @@ public class FindReplaceBar extends Composite implements Display, RequiresResize
    }
 
 
+   public void setMatchCount(int current, int total)
+   {
+      if (total == 0)
+         lblMatchCount_.setText("No results");
+      else if (current > 0)
+         lblMatchCount_.setText(current + " of " + total);
+      else
+         lblMatchCount_.setText(total + (total == 1 ? " match" : " matches"));
+   }
+
+   public void clearMatchCount()
+   {
+      lblMatchCount_.setText("");
+   }
+
    public HasClickHandlers getCloseButton()
    {
       return btnClose_;
@@ -325,6 +343,7 @@ public class FindReplaceBar extends Composite implements Display, RequiresResize
    private FindTextBox txtReplace_;
    private SmallButton btnFindNext_;
    private SmallButton btnFindPrev_;
+   private Label lblMatchCount_;
    private SmallButton btnReplace_;
    private SmallButton btnReplaceAll_;
    private CheckBox chkWholeWord_;
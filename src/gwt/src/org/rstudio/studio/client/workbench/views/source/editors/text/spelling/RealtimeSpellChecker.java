@@ -0,0 +1,355 @@
+/*
+ * RealtimeSpellChecker.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.source.editors.text.spelling;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.user.client.Timer;
+
+import org.rstudio.core.client.Debug;
+import org.rstudio.studio.client.common.filetypes.TextFileType;
+import org.rstudio.studio.client.common.spelling.SpellChecker;
+import org.rstudio.studio.client.common.spelling.model.SpellCheckerResult;
+import org.rstudio.studio.client.server.ServerError;
+import org.rstudio.studio.client.server.ServerRequestCallback;
+import org.rstudio.studio.client.workbench.views.source.editors.text.DocDisplay;
+import org.rstudio.studio.client.workbench.views.source.editors.text.ace.AceDocumentChangeEventNative;
+import org.rstudio.studio.client.workbench.views.source.editors.text.ace.Position;
+import org.rstudio.studio.client.workbench.views.source.editors.text.ace.Range;
+import org.rstudio.studio.client.workbench.views.source.editors.text.events.DocumentChangedEvent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// Checks spelling in the background as the document is edited. Rows touched
+// by a change are marked dirty; once the user has been idle for a moment the
+// dirty rows are checked in batches (the SpellChecker answers cached words
+// immediately and only sends unknown words to the server). Misspelled words
+// are drawn by a dynamic marker which reads the per-row results directly.
+public class RealtimeSpellChecker
+{
+   public RealtimeSpellChecker(SpellChecker spellChecker,
+                               DocDisplay docDisplay)
+   {
+      spellChecker_ = spellChecker;
+      docDisplay_ = docDisplay;
+      rows_ = SpellingRows.create(docDisplay_.getRowCount());
+      markerId_ = docDisplay_.addDynamicMarker(rows_, true);
+
+      changeRegistration_ = docDisplay_.addDocumentChangedHandler(
+                                          new DocumentChangedEvent.Handler()
+      {
+         @Override
+         public void onDocumentChanged(DocumentChangedEvent event)
+         {
+            onChange(event.getEvent());
+         }
+      });
+
+      idleTimer_.schedule(IDLE_DELAY_MS);
+   }
+
+   public void setEnabled(boolean enabled)
+   {
+      if (enabled == enabled_)
+         return;
+
+      enabled_ = enabled;
+      if (enabled_)
+      {
+         invalidateAll();
+      }
+      else
+      {
+         idleTimer_.cancel();
+         rows_.clearRanges();
+         docDisplay_.updateMarkers(true);
+      }
+   }
+
+   // recheck every row (e.g. the dictionaries changed)
+   public void invalidateAll()
+   {
+      rows_.markDirty(false);
+      scanFrom_ = 0;
+      idleTimer_.schedule(IDLE_DELAY_MS);
+   }
+
+   // recheck rows with misspellings (e.g. words were added to a dictionary)
+   public void invalidateMisspelled()
+   {
+      rows_.markDirty(true);
+      scanFrom_ = 0;
+      idleTimer_.schedule(IDLE_DELAY_MS);
+   }
+
+   public void detach()
+   {
+      enabled_ = false;
+      idleTimer_.cancel();
+      changeRegistration_.removeHandler();
+      docDisplay_.removeMarker(markerId_);
+   }
+
+   private void onChange(AceDocumentChangeEventNative event)
+   {
+      int startRow = event.getRange().getStart().getRow();
+      int endRow = event.getRange().getEnd().getRow();
+      int delta = endRow - startRow;
+      if (event.getAction().startsWith("remove"))
+         delta = -delta;
+
+      // rows after the start row are inserted or removed; the start row (and
+      // any inserted rows) need to be rechecked
+      rows_.splice(startRow, delta);
+      rows_.markRowsDirty(startRow, delta > 0 ? endRow : startRow);
+      scanFrom_ = Math.min(scanFrom_, startRow);
+
+      // (keep backing off if the last request failed)
+      if (enabled_)
+         idleTimer_.schedule(Math.max(IDLE_DELAY_MS, retryDelayMs_));
+   }
+
+   private void checkNextBatch()
+   {
+      if (!enabled_ || requestPending_)
+         return;
+
+      TextFileType fileType = docDisplay_.getFileType();
+      if (fileType == null || !fileType.canCheckSpelling())
+         return;
+
+      // collect the words on the next dirty rows
+      final ArrayList<String> words = new ArrayList<String>();
+      final ArrayList<SpellingRow> wordRows = new ArrayList<SpellingRow>();
+      final ArrayList<Integer> wordStarts = new ArrayList<Integer>();
+      final ArrayList<Integer> wordEnds = new ArrayList<Integer>();
+      final ArrayList<SpellingRow> batch = new ArrayList<SpellingRow>();
+
+      int row = rows_.nextDirtyRow(scanFrom_);
+      while (row != -1 &&
+             batch.size() < ROWS_PER_BATCH &&
+             words.size() < WORDS_PER_BATCH)
+      {
+         SpellingRow entry = rows_.getRow(row);
+         entry.setDirty(false);
+         batch.add(entry);
+
+         for (Range r : docDisplay_.getWords(fileType.getTokenPredicate(),
+                                             fileType.getCharPredicate(),
+                                             Position.create(row, 0),
+                                             Position.create(row + 1, 0)))
+         {
+            // Don't worry about pathologically long words
+            int start = r.getStart().getColumn();
+            int end = r.getEnd().getColumn();
+            if (end - start > 250)
+               continue;
+
+            words.add(docDisplay_.getTextForRange(r));
+            wordRows.add(entry);
+            wordStarts.add(start);
+            wordEnds.add(end);
+         }
+
+         row = rows_.nextDirtyRow(row + 1);
+      }
+      scanFrom_ = row == -1 ? Integer.MAX_VALUE : row;
+
+      if (batch.isEmpty())
+         return;
+
+      requestPending_ = true;
+      spellChecker_.checkSpelling(words,
+                                  new ServerRequestCallback<SpellCheckerResult>()
+      {
+         @Override
+         public void onResponseReceived(SpellCheckerResult result)
+         {
+            requestPending_ = false;
+            retryDelayMs_ = 0;
+
+            // rows changed while the request was in flight have been
+            // replaced by new (dirty) rows, so updating these is harmless
+            HashSet<String> incorrect =
+                                 new HashSet<String>(result.getIncorrect());
+            for (SpellingRow entry : batch)
+               entry.clearRanges();
+            for (int i = 0; i < words.size(); i++)
+            {
+               if (incorrect.contains(words.get(i)))
+                  wordRows.get(i).addRange(wordStarts.get(i), wordEnds.get(i));
+            }
+            docDisplay_.updateMarkers(true);
+
+            // continue with the next batch on a subsequent event loop turn
+            Scheduler.get().scheduleDeferred(new ScheduledCommand()
+            {
+               @Override
+               public void execute()
+               {
+                  checkNextBatch();
+               }
+            });
+         }
+
+         @Override
+         public void onError(ServerError error)
+         {
+            requestPending_ = false;
+            Debug.logError(error);
+
+            // check the batch again later, backing off while the server
+            // keeps failing (rows replaced by edits are already dirty)
+            for (SpellingRow entry : batch)
+               entry.setDirty(true);
+            scanFrom_ = 0;
+
+            retryDelayMs_ = retryDelayMs_ == 0 ?
+                  MIN_RETRY_DELAY_MS :
+                  Math.min(retryDelayMs_ * 2, MAX_RETRY_DELAY_MS);
+            if (enabled_)
+               idleTimer_.schedule(retryDelayMs_);
+         }
+      });
+   }
+
+   private static class SpellingRows extends JavaScriptObject
+   {
+      protected SpellingRows()
+      {
+      }
+
+      public static final native SpellingRows create(int rowCount) /*-{
+         var rows = new Array(rowCount);
+         for (var i = 0; i < rowCount; i++)
+            rows[i] = { dirty: true, ranges: [] };
+
+         return {
+            rows: rows,
+            update: function(html, markerLayer, session, config) {
+               var Range = $wnd.require("ace/range").Range;
+               var rows = this.rows;
+               var last = Math.min(config.lastRow, rows.length - 1);
+               for (var row = config.firstRow; row <= last; row++)
+               {
+                  var ranges = rows[row].ranges;
+                  for (var i = 0; i + 1 < ranges.length; i += 2)
+                  {
+                     var range = new Range(row, ranges[i], row, ranges[i + 1]);
+                     markerLayer.drawSingleLineMarker(
+                           html,
+                           range.toScreenRange(session),
+                           "ace_spelling-error",
+                           config);
+                  }
+               }
+            }
+         };
+      }-*/;
+
+      public final native SpellingRow getRow(int row) /*-{
+         return this.rows[row];
+      }-*/;
+
+      // rows were inserted (delta > 0) or removed (delta < 0) after row
+      public final native void splice(int row, int delta) /*-{
+         if (delta > 0)
+         {
+            var args = [row + 1, 0];
+            for (var i = 0; i < delta; i++)
+               args.push({ dirty: true, ranges: [] });
+            this.rows.splice.apply(this.rows, args);
+         }
+         else if (delta < 0)
+         {
+            this.rows.splice(row + 1, -delta);
+         }
+      }-*/;
+
+      // replace rows [start, end] with new dirty rows (their old results
+      // no longer line up with the text)
+      public final native void markRowsDirty(int start, int end) /*-{
+         for (var row = start; row <= end && row < this.rows.length; row++)
+            this.rows[row] = { dirty: true, ranges: [] };
+      }-*/;
+
+      public final native void markDirty(boolean misspelledOnly) /*-{
+         for (var i = 0; i < this.rows.length; i++)
+         {
+            if (!misspelledOnly || this.rows[i].ranges.length > 0)
+               this.rows[i].dirty = true;
+         }
+      }-*/;
+
+      public final native void clearRanges() /*-{
+         for (var i = 0; i < this.rows.length; i++)
+            this.rows[i].ranges = [];
+      }-*/;
+
+      public final native int nextDirtyRow(int from) /*-{
+         for (var i = from; i < this.rows.length; i++)
+            if (this.rows[i].dirty)
+               return i;
+         return -1;
+      }-*/;
+   }
+
+   private static class SpellingRow extends JavaScriptObject
+   {
+      protected SpellingRow()
+      {
+      }
+
+      public final native void setDirty(boolean dirty) /*-{
+         this.dirty = dirty;
+      }-*/;
+
+      public final native void clearRanges() /*-{
+         this.ranges = [];
+      }-*/;
+
+      public final native void addRange(int start, int end) /*-{
+         this.ranges.push(start, end);
+      }-*/;
+   }
+
+   private final Timer idleTimer_ = new Timer()
+   {
+      @Override
+      public void run()
+      {
+         checkNextBatch();
+      }
+   };
+
+   private static final int IDLE_DELAY_MS = 500;
+   private static final int ROWS_PER_BATCH = 200;
+   private static final int WORDS_PER_BATCH = 500;
+   private static final int MIN_RETRY_DELAY_MS = 2000;
+   private static final int MAX_RETRY_DELAY_MS = 60000;
+
+   private final SpellChecker spellChecker_;
+   private final DocDisplay docDisplay_;
+   private final SpellingRows rows_;
+   private final int markerId_;
+   private final HandlerRegistration changeRegistration_;
+   private boolean enabled_ = true;
+   private boolean requestPending_ = false;
+   private int scanFrom_ = 0;
+   private int retryDelayMs_ = 0;
+}
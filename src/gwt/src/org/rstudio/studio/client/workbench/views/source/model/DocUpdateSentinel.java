@@ -41,6 +41,7 @@ import org.rstudio.studio.client.workbench.views.source.editors.text.Fold;
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.FoldChangeEvent;
 import org.rstudio.studio.client.workbench.views.source.editors.text.events.SourceOnSaveChangedEvent;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -175,6 +176,49 @@ public class DocUpdateSentinel
             });
    }
 
+   /**
+    * Executes the command once the document's contents are available (the
+    * documents restored at startup are sent without them, and they're
+    * fetched the first time they're needed)
+    */
+   public void withContents(Command onLoaded)
+   {
+      if (sourceDoc_.hasContents())
+      {
+         onLoaded.execute();
+         return;
+      }
+
+      onContentsLoaded_.add(onLoaded);
+      if (onContentsLoaded_.size() > 1)
+         return;
+
+      server_.getSourceDocument(
+            sourceDoc_.getId(),
+            new ServerRequestCallback<SourceDocument>()
+            {
+               @Override
+               public void onResponseReceived(SourceDocument response)
+               {
+                  sourceDoc_.setContents(response.getContents());
+                  sourceDoc_.setHash(response.getHash());
+
+                  ArrayList<Command> commands = onContentsLoaded_;
+                  onContentsLoaded_ = new ArrayList<Command>();
+                  for (Command command : commands)
+                     command.execute();
+               }
+
+               @Override
+               public void onError(ServerError error)
+               {
+                  // (the next caller tries again)
+                  Debug.logError(error);
+                  onContentsLoaded_.clear();
+               }
+            });
+   }
+
    public void withSavedDoc(final Command onSaved)
    {
       if (changeTracker_.hasChanged())
@@ -274,6 +318,13 @@ public class DocUpdateSentinel
                           final String encoding,
                           final ProgressIndicator progress)
    {
+      // nothing can have been edited before the contents are loaded
+      if (!sourceDoc_.hasContents())
+      {
+         changesPending_ = false;
+         return false;
+      }
+
       /* We need to fork the change tracker so that we can "mark" the moment
          in history when we took the contents from the source doc, so that
          if the document is edited while the save is in progress we don't
@@ -519,6 +570,11 @@ public class DocUpdateSentinel
       return sourceDoc_.getContents();
    }
 
+   public String getFoldSpec()
+   {
+      return sourceDoc_.getFoldSpec();
+   }
+
    public void stop()
    {
       bufferedCommand_.suspend();
@@ -570,6 +626,7 @@ public class DocUpdateSentinel
    }
 
    private boolean changesPending_ = false;
+   private ArrayList<Command> onContentsLoaded_ = new ArrayList<Command>();
    private final ChangeTracker changeTracker_;
    private final SourceServerOperations server_;
    private final DocDisplay docDisplay_;
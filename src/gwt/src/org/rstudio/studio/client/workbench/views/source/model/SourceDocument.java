@@ -55,7 +55,7 @@ public class SourceDocument extends JavaScriptObject
    }-*/;
 
    public native final String getExtendedType() /*-{
-      return this.extended_type;
+      return this.extended_type || "";
    }-*/;
 
    public native final void setExtendedType(String extendedType) /*-{
@@ -73,6 +73,14 @@ public class SourceDocument extends JavaScriptObject
       this.contents = contents;
    }-*/;
 
+   /**
+    * False for documents restored at startup whose contents haven't been
+    * fetched yet (see SourceServerOperations.getSourceDocument).
+    */
+   public native final boolean hasContents() /*-{
+      return this.contents != null;
+   }-*/;
+
    /**
     * True if changes have been saved to the ID that have not been persisted
     * to the file.
@@ -156,6 +156,13 @@ public interface SourceServerOperations extends FilesServerOperations,
                        String fileType,
                        ServerRequestCallback<SourceDocument> requestCallback);
    
+   /**
+    * Gets a document (including its contents, which aren't sent for the
+    * documents restored at startup)
+    */
+   void getSourceDocument(String id,
+                          ServerRequestCallback<SourceDocument> requestCallback);
+
    void reopenWithEncoding(
                        String id,
                        String encoding,
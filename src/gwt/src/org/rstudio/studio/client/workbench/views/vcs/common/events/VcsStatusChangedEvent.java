@@ -0,0 +1,76 @@
+/*
+ * VcsStatusChangedEvent.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.views.vcs.common.events;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.event.shared.EventHandler;
+import com.google.gwt.event.shared.GwtEvent;
+
+import org.rstudio.studio.client.common.vcs.StatusAndPathInfo;
+
+public class VcsStatusChangedEvent
+                        extends GwtEvent<VcsStatusChangedEvent.Handler>
+{
+   public interface Handler extends EventHandler
+   {
+      void onVcsStatusChanged(VcsStatusChangedEvent event);
+   }
+
+   // entries of the working tree's status which were added, removed, or
+   // changed (removed entries carry the status they had)
+   public static class Data extends JavaScriptObject
+   {
+      protected Data() {}
+
+      public native final JsArray<StatusAndPathInfo> getAdded() /*-{
+         return this.added;
+      }-*/;
+
+      public native final JsArray<StatusAndPathInfo> getRemoved() /*-{
+         return this.removed;
+      }-*/;
+
+      public native final JsArray<StatusAndPathInfo> getChanged() /*-{
+         return this.changed;
+      }-*/;
+   }
+
+   public static final Type<Handler> TYPE = new Type<Handler>();
+
+   public VcsStatusChangedEvent(Data data)
+   {
+      data_ = data;
+   }
+
+   public Data getData()
+   {
+      return data_;
+   }
+
+   @Override
+   public Type<Handler> getAssociatedType()
+   {
+      return TYPE;
+   }
+
+   @Override
+   protected void dispatch(Handler handler)
+   {
+      handler.onVcsStatusChanged(this);
+   }
+
+   private final Data data_;
+}
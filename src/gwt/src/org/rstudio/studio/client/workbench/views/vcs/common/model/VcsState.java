@@ -14,6 +14,7 @@
  */
 package org.rstudio.studio.client.workbench.views.vcs.common.model;
 
+import com.google.gwt.core.client.JsArray;
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.RepeatingCommand;
 import com.google.gwt.core.client.Scheduler.ScheduledCommand;
@@ -35,6 +36,7 @@ import org.rstudio.studio.client.workbench.views.files.model.FileChange;
 import org.rstudio.studio.client.workbench.views.vcs.common.events.VcsRefreshEvent;
 import org.rstudio.studio.client.workbench.views.vcs.common.events.VcsRefreshEvent.Reason;
 import org.rstudio.studio.client.workbench.views.vcs.common.events.VcsRefreshHandler;
+import org.rstudio.studio.client.workbench.views.vcs.common.events.VcsStatusChangedEvent;
 
 import java.util.ArrayList;
 
@@ -102,28 +104,36 @@ public abstract class VcsState
                return;
             }
 
-            if (status_ != null && status != null)
-            {
-               for (int i = 0; i < status_.size(); i++)
-               {
-                  if (status.getRawPath().equals(status_.get(i).getRawPath()))
-                  {
-                     if (StringUtil.notNull(status.getStatus()).trim().length() == 0)
-                        status_.remove(i);
-                     else
-                        status_.set(i, status);
-                     handlers_.fireEvent(new VcsRefreshEvent(Reason.FileChange));
-                     return;
-                  }
-               }
+            if (status_ != null && status != null && updateStatus(status))
+               handlers_.fireEvent(new VcsRefreshEvent(Reason.FileChange));
+         }
+      }));
+      registrations.add(eventBus_.addHandler(VcsStatusChangedEvent.TYPE, new VcsStatusChangedEvent.Handler()
+      {
+         @Override
+         public void onVcsStatusChanged(VcsStatusChangedEvent event)
+         {
+            if (!session.getSessionInfo().isVcsEnabled())
+               registrations.removeHandler();
 
-               if (status.getStatus().trim().length() != 0)
-               {
-                  status_.add(status);
-                  handlers_.fireEvent(new VcsRefreshEvent(Reason.FileChange));
-                  return;
-               }
-            }
+            if (status_ == null)
+               return;
+
+            boolean changed = false;
+            VcsStatusChangedEvent.Data data = event.getData();
+
+            JsArray<StatusAndPathInfo> removed = data.getRemoved();
+            for (int i = 0; i < removed.length(); i++)
+               changed |= removeStatus(removed.get(i).getRawPath());
+
+            ArrayList<StatusAndPath> updated = new ArrayList<StatusAndPath>();
+            updated.addAll(StatusAndPath.fromInfos(data.getAdded()));
+            updated.addAll(StatusAndPath.fromInfos(data.getChanged()));
+            for (StatusAndPath status : updated)
+               changed |= updateStatus(status);
+
+            if (changed)
+               handlers_.fireEvent(new VcsRefreshEvent(Reason.FileChange));
          }
       }));
 
@@ -178,6 +188,43 @@ public abstract class VcsState
          refresh(true);
    }
 
+   // returns true if the status changed
+   private boolean updateStatus(StatusAndPath status)
+   {
+      for (int i = 0; i < status_.size(); i++)
+      {
+         if (status.getRawPath().equals(status_.get(i).getRawPath()))
+         {
+            if (StringUtil.notNull(status.getStatus()).trim().length() == 0)
+               status_.remove(i);
+            else
+               status_.set(i, status);
+            return true;
+         }
+      }
+
+      if (status.getStatus().trim().length() != 0)
+      {
+         status_.add(status);
+         return true;
+      }
+
+      return false;
+   }
+
+   private boolean removeStatus(String rawPath)
+   {
+      for (int i = 0; i < status_.size(); i++)
+      {
+         if (rawPath.equals(status_.get(i).getRawPath()))
+         {
+            status_.remove(i);
+            return true;
+         }
+      }
+      return false;
+   }
+
    protected abstract StatusAndPathInfo getStatusFromFile(FileSystemItem file);
 
    protected abstract boolean needsFullRefresh(FileSystemItem file);
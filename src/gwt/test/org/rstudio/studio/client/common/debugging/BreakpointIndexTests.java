@@ -0,0 +1,182 @@
+/*
+ * BreakpointIndexTests.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.common.debugging;
+
+import java.util.ArrayList;
+
+import junit.framework.Assert;
+
+import com.google.gwt.junit.client.GWTTestCase;
+
+import org.rstudio.studio.client.common.debugging.model.Breakpoint;
+
+public class BreakpointIndexTests extends GWTTestCase
+{
+   @Override
+   public String getModuleName()
+   {
+      return "org.rstudio.studio.RStudio";
+   }
+
+   public void testSourcedFile()
+   {
+      Assert.assertEquals("~/a.R",
+                          BreakpointManager.getSourcedFile("source('~/a.R')"));
+      Assert.assertEquals("b.R", BreakpointManager.getSourcedFile(
+            "source.with.encoding('b.R', encoding = 'UTF-8')"));
+      Assert.assertNull(BreakpointManager.getSourcedFile("print(1)"));
+   }
+
+   public void testLookupsMatchLinearScan()
+   {
+      BreakpointIndex index = new BreakpointIndex();
+      ArrayList<Breakpoint> all = fill(index, 500);
+
+      // removed breakpoints are gone from every lookup
+      for (int i = 0; i < all.size(); i += 7)
+         index.remove(all.get(i));
+      ArrayList<Breakpoint> remaining = new ArrayList<Breakpoint>();
+      for (int i = 0; i < all.size(); i++)
+      {
+         if (i % 7 != 0)
+            remaining.add(all.get(i));
+      }
+      Assert.assertEquals(remaining.size(), index.size());
+
+      for (int file = 0; file < FILES + 1; file++)
+      {
+         // what the console input path looks up for source('<file>')
+         String path = BreakpointManager.getSourcedFile(
+               "source('" + path(file) + "')");
+         Assert.assertEquals(scanFile(remaining, path),
+                             index.getBreakpointsInFile(path));
+
+         for (int fun = 0; fun < FUNCTIONS + 1; fun++)
+         {
+            // by full path (as the editor does) and by file name only (as
+            // call frames do)
+            Assert.assertEquals(
+                  scanFunction(remaining, function(fun), path, true),
+                  index.getBreakpointsInFunction(function(fun), path, true));
+            Assert.assertEquals(
+                  scanFunction(remaining, function(fun), fileName(file),
+                               false),
+                  index.getBreakpointsInFunction(function(fun),
+                                                 fileName(file),
+                                                 false));
+         }
+      }
+
+      index.clear();
+      Assert.assertTrue(index.isEmpty());
+      Assert.assertTrue(index.getBreakpointsInFile(path(0)).isEmpty());
+   }
+
+   // the lookups made for each console input and each call frame return
+   // the same breakpoints as a linear scan however many there are
+   public void testLookupsAtScale()
+   {
+      for (int count = 100; count <= 10000; count *= 10)
+      {
+         BreakpointIndex index = new BreakpointIndex();
+         ArrayList<Breakpoint> all = fill(index, count);
+         Assert.assertEquals(count, index.size());
+
+         for (int i = 0; i < LOOKUPS; i++)
+         {
+            String path = BreakpointManager.getSourcedFile(
+                  "source('" + path(i % FILES) + "')");
+            Assert.assertEquals(scanFile(all, path),
+                                index.getBreakpointsInFile(path));
+            Assert.assertEquals(
+                  scanFunction(all, function(i % FUNCTIONS),
+                               fileName(i % FILES), false),
+                  index.getBreakpointsInFunction(function(i % FUNCTIONS),
+                                                 fileName(i % FILES),
+                                                 false));
+         }
+      }
+   }
+
+   // breakpoints spread over FILES files (in two directories, so that file
+   // names collide across paths) and FUNCTIONS functions
+   private ArrayList<Breakpoint> fill(BreakpointIndex index, int count)
+   {
+      ArrayList<Breakpoint> breakpoints = new ArrayList<Breakpoint>();
+      for (int i = 0; i < count; i++)
+      {
+         Breakpoint breakpoint = Breakpoint.create(
+               i + 1,
+               path(i % FILES),
+               function((i / FILES) % FUNCTIONS),
+               i,
+               Breakpoint.STATE_INACTIVE,
+               i % 5 == 0 ? Breakpoint.TYPE_TOPLEVEL :
+                            Breakpoint.TYPE_FUNCTION);
+         index.add(breakpoint);
+         breakpoints.add(breakpoint);
+      }
+      return breakpoints;
+   }
+
+   private static String path(int file)
+   {
+      return (file % 2 == 0 ? "~/project/" : "~/other/") + fileName(file);
+   }
+
+   private static String fileName(int file)
+   {
+      return "file" + (file / 2) + ".R";
+   }
+
+   private static String function(int fun)
+   {
+      return "fun" + fun;
+   }
+
+   private static ArrayList<Breakpoint> scanFile(
+         ArrayList<Breakpoint> breakpoints, String path)
+   {
+      ArrayList<Breakpoint> result = new ArrayList<Breakpoint>();
+      for (Breakpoint breakpoint: breakpoints)
+      {
+         if (breakpoint.isInFile(path))
+            result.add(breakpoint);
+      }
+      return result;
+   }
+
+   private static ArrayList<Breakpoint> scanFunction(
+         ArrayList<Breakpoint> breakpoints,
+         String functionName,
+         String fileName,
+         boolean fullPath)
+   {
+      ArrayList<Breakpoint> result = new ArrayList<Breakpoint>();
+      for (Breakpoint breakpoint: breakpoints)
+      {
+         if (BreakpointIndex.isInFunction(
+               breakpoint, functionName, fileName, fullPath))
+         {
+            result.add(breakpoint);
+         }
+      }
+      return result;
+   }
+
+   private static final int FILES = 20;
+   private static final int FUNCTIONS = 10;
+   private static final int LOOKUPS = 100;
+}
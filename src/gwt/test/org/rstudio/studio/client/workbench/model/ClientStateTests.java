@@ -0,0 +1,98 @@
+/*
+ * ClientStateTests.java
+ *
+ * Copyright (C) 2009-15 by RStudio, Inc.
+ *
+ * Unless you have received this program directly from RStudio pursuant
+ * to the terms of a commercial license agreement with RStudio, then
+ * this program is licensed to you under the terms of version 3 of the
+ * GNU Affero General Public License. This program is distributed WITHOUT
+ * ANY EXPRESS OR IMPLIED WARRANTY, INCLUDING THOSE OF NON-INFRINGEMENT,
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. Please refer to the
+ * AGPL (http://www.gnu.org/licenses/agpl-3.0.txt) for more details.
+ *
+ */
+package org.rstudio.studio.client.workbench.model;
+
+import junit.framework.Assert;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.junit.client.GWTTestCase;
+
+import org.rstudio.core.client.js.JsObject;
+
+public class ClientStateTests extends GWTTestCase
+{
+   @Override
+   public String getModuleName()
+   {
+      return "org.rstudio.studio.RStudio";
+   }
+
+   public void testIdleStateIsEmpty()
+   {
+      JavaScriptObject acknowledged = JavaScriptObject.createObject();
+
+      ClientState first = fill(ClientState.create(), "a");
+      first.removeAcknowledged(acknowledged);
+      Assert.assertFalse(first.isEmpty());
+      first.acknowledge(acknowledged);
+
+      // the same values (as new objects) are dropped entirely
+      ClientState idle = fill(ClientState.create(), "a");
+      idle.removeAcknowledged(acknowledged);
+      Assert.assertTrue(idle.isEmpty());
+      Assert.assertEquals("{}", stringify(idle.getTemporaryData()));
+      Assert.assertEquals("{}", stringify(idle.getPersistentData()));
+      Assert.assertEquals("{}", stringify(idle.getProjectPersistentData()));
+   }
+
+   public void testOnlyChangedValuesSent()
+   {
+      JavaScriptObject acknowledged = JavaScriptObject.createObject();
+      ClientState first = fill(ClientState.create(), "a");
+      first.acknowledge(acknowledged);
+
+      ClientState changed = fill(ClientState.create(), "b");
+      changed.removeAcknowledged(acknowledged);
+      Assert.assertFalse(changed.isEmpty());
+      Assert.assertEquals("{}", stringify(changed.getTemporaryData()));
+      Assert.assertEquals("{\"pane\":{\"layout\":{\"value\":\"b\"}}}",
+                          stringify(changed.getPersistentData()));
+   }
+
+   public void testUnsentValuesResent()
+   {
+      JavaScriptObject acknowledged = JavaScriptObject.createObject();
+      ClientState failed = fill(ClientState.create(), "a");
+
+      // a newer value for the same key wins over the unsent one
+      ClientState next = ClientState.create();
+      next.putObject("pane", "layout", layout("b"), ClientState.PERSISTENT);
+      next.addUnsent(failed);
+      next.removeAcknowledged(acknowledged);
+      Assert.assertEquals("{\"pane\":{\"layout\":{\"value\":\"b\"}}}",
+                          stringify(next.getPersistentData()));
+      Assert.assertEquals("{\"source\":{\"docs\":3}}",
+                          stringify(next.getTemporaryData()));
+   }
+
+   private ClientState fill(ClientState state, String layoutValue)
+   {
+      state.putInt("source", "docs", 3, ClientState.TEMPORARY);
+      state.putObject("pane", "layout", layout(layoutValue),
+                      ClientState.PERSISTENT);
+      return state;
+   }
+
+   private JsObject layout(String value)
+   {
+      JsObject layout = JsObject.createJsObject();
+      layout.setString("value", value);
+      return layout;
+   }
+
+   private static native String stringify(JavaScriptObject obj) /*-{
+      return JSON.stringify(obj);
+   }-*/;
+}